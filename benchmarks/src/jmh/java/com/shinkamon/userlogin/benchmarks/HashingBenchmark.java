@@ -0,0 +1,97 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.support.HashGenerator;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of password hashing: generating salts, the SHA-512 scheme of earlier versions, and
+ * the PBKDF2 scheme that new passwords are hashed with at its minimum work factor. Like
+ * UserLogin, all threads share one HashGenerator, and so one SecureRandom.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class HashingBenchmark {
+    private static final char[] PASSWORD = "Password1".toCharArray();
+    private final HashGenerator hashGenerator = new HashGenerator(new SecureRandom());
+    private final Pbkdf2PasswordHasher pbkdf2 =
+            new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.MIN_ITERATIONS);
+    private byte[] salt;
+    private byte[] sha512Hash;
+
+    /**
+     * Generates the salt and hash that the benchmarks hash and verify against.
+     */
+    @Setup
+    public void setup() {
+        salt = hashGenerator.getRandomSalt();
+        sha512Hash = hashGenerator.getSHA512Hash(PASSWORD, salt);
+    }
+
+    /**
+     * Generates a new salt.
+     * @return the salt.
+     */
+    @Benchmark
+    public byte[] getRandomSalt() {
+        return hashGenerator.getRandomSalt();
+    }
+
+    /**
+     * Hashes a password with SHA-512.
+     * @return the hash.
+     */
+    @Benchmark
+    public byte[] getSHA512Hash() {
+        return hashGenerator.getSHA512Hash(PASSWORD, salt);
+    }
+
+    /**
+     * Verifies a password against its SHA-512 hash.
+     * @return whether the password matches, which it always does.
+     */
+    @Benchmark
+    public boolean verifySHA512Hash() {
+        return hashGenerator.verifySHA512Hash(PASSWORD, salt, sha512Hash);
+    }
+
+    /**
+     * Hashes a password with PBKDF2.
+     * @return the hash.
+     */
+    @Benchmark
+    public byte[] pbkdf2Hash() {
+        return pbkdf2.hash(PASSWORD, salt);
+    }
+
+    /**
+     * The hashing benchmarks on a single thread.
+     */
+    @Threads(1)
+    public static class SingleThreaded extends HashingBenchmark {
+    }
+
+    /**
+     * The hashing benchmarks on a thread per core.
+     */
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends HashingBenchmark {
+    }
+}
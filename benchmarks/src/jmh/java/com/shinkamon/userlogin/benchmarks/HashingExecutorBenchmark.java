@@ -0,0 +1,75 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.support.HashingExecutor;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of PBKDF2 hashing through a HashingExecutor with a single hashing thread. With one
+ * caller the executor runs at capacity; with a caller per core it is saturated, and callers that
+ * are rejected retry, so the score counts only completed hashes and should stay about the same.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class HashingExecutorBenchmark {
+    private static final char[] PASSWORD = "Password1".toCharArray();
+    private static final byte[] SALT = new byte[16];
+    private final HashingExecutor executor = new HashingExecutor(1, 2);
+    private final Pbkdf2PasswordHasher pbkdf2 =
+            new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.MIN_ITERATIONS);
+
+    /**
+     * Stops the hashing thread.
+     */
+    @TearDown
+    public void tearDown() {
+        executor.close();
+    }
+
+    /**
+     * Hashes a password on the executor, retrying until the executor accepts the task.
+     * @return the hash.
+     * @throws InterruptedException if interrupted while waiting for the hash.
+     */
+    @Benchmark
+    public byte[] hash() throws InterruptedException {
+        while (true) {
+            try {
+                return executor.execute(() -> pbkdf2.hash(PASSWORD, SALT));
+            } catch (RejectedExecutionException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * The executor benchmark with a single caller.
+     */
+    @Threads(1)
+    public static class AtCapacity extends HashingExecutorBenchmark {
+    }
+
+    /**
+     * The executor benchmark with a caller per core.
+     */
+    @Threads(Threads.MAX)
+    public static class Saturated extends HashingExecutorBenchmark {
+    }
+}
@@ -0,0 +1,92 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.support.LoginThrottle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the login throttle, which every login attempt passes before any password is
+ * hashed: attempts of a burst of guesses that are turned away, and attempts that go ahead
+ * because their buckets refill at once. All threads share the usernames and sources, so with a
+ * thread per core they contend for the same entries; an attempt should still cost a small
+ * fraction of a password hash.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class LoginThrottleBenchmark {
+    private static final int KEYS = 1000;
+    private static final String[] USERNAMES = keys("user");
+    private static final String[] SOURCES = keys("10.0.0.");
+    // large enough that no key is evicted, and without refills, so every attempt after the
+    // first of each username is throttled
+    private final LoginThrottle throttling = new LoginThrottle(
+            new LoginThrottle.Config(65_536, 1, 0, 1, 0, 5, 1000, 60_000));
+    // refills faster than any thread can take tokens, so every attempt is allowed
+    private final LoginThrottle allowing = new LoginThrottle(
+            new LoginThrottle.Config(65_536, 1, 1e12, 1, 1e12, 5, 1000, 60_000));
+    private int next;
+
+    /**
+     * Helper method to create the keys the attempts are made with.
+     * @param prefix the prefix of the keys.
+     * @return the keys.
+     */
+    private static String[] keys(final String prefix) {
+        String[] keys = new String[KEYS];
+
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = prefix + i;
+        }
+
+        return keys;
+    }
+
+    /**
+     * Makes an attempt that is throttled.
+     * @return the decision of the throttle.
+     */
+    @Benchmark
+    public LoginThrottle.Decision throttled() {
+        // a racy counter is fine, it only spreads the attempts over the keys
+        int key = (next++ & Integer.MAX_VALUE) % KEYS;
+        return throttling.tryAcquire(USERNAMES[key], SOURCES[key]);
+    }
+
+    /**
+     * Makes an attempt that is allowed.
+     * @return the decision of the throttle.
+     */
+    @Benchmark
+    public LoginThrottle.Decision allowed() {
+        int key = (next++ & Integer.MAX_VALUE) % KEYS;
+        return allowing.tryAcquire(USERNAMES[key], SOURCES[key]);
+    }
+
+    /**
+     * The throttle benchmarks on a single thread.
+     */
+    @Threads(1)
+    public static class SingleThreaded extends LoginThrottleBenchmark {
+    }
+
+    /**
+     * The throttle benchmarks on a thread per core.
+     */
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends LoginThrottleBenchmark {
+    }
+}
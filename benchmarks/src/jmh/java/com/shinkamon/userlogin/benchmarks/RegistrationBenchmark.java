@@ -0,0 +1,113 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.database.ConnectionPool;
+import com.shinkamon.userlogin.database.Credentials;
+import com.shinkamon.userlogin.database.GroupCommitWriter;
+import com.shinkamon.userlogin.database.PooledConnection;
+import com.shinkamon.userlogin.database.SchemaMigrator;
+import com.shinkamon.userlogin.database.SqliteUserStore;
+import com.shinkamon.userlogin.database.UserStoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Benchmarks of registrations written to the user store, each committed in its own transaction
+ * or in groups by a {@link GroupCommitWriter}. Every commit is synced to disk, as it is for a
+ * database in rollback journal mode, so with a caller per core group commit should register
+ * several times as many users per second as one caller, and committing one by one should not.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class RegistrationBenchmark {
+    private static final byte[] PASSWORD_HASH = "hash".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PASSWORD_SALT = "salt".getBytes(StandardCharsets.US_ASCII);
+    @Param({"true", "false"})
+    private boolean groupCommit;
+    private final AtomicLong usernames = new AtomicLong();
+    private Path database;
+    private ConnectionPool pool;
+    private SqliteUserStore store;
+
+    /**
+     * Opens the store on a new, empty database.
+     * @throws IOException if the database file couldn't be created.
+     * @throws SQLException if the schema couldn't be created.
+     */
+    @Setup(Level.Trial)
+    public void open() throws IOException, SQLException {
+        database = Files.createTempFile("registrations", ".db");
+        pool = new ConnectionPool("jdbc:sqlite:" + database,
+                Runtime.getRuntime().availableProcessors(), 5000, 32,
+                List.of("PRAGMA synchronous = FULL"));
+
+        try (PooledConnection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection.getConnection());
+        }
+
+        store = new SqliteUserStore(List.of(pool), groupCommit
+                ? List.of(new GroupCommitWriter(pool, 256, 0, 1024)) : List.of());
+    }
+
+    /**
+     * Stops the store, closes the connections and deletes the database.
+     * @throws IOException if the database file couldn't be deleted.
+     */
+    @TearDown(Level.Trial)
+    public void close() throws IOException {
+        store.close();
+        pool.close();
+        Files.deleteIfExists(database);
+        Files.deleteIfExists(Path.of(database + "-journal"));
+    }
+
+    /**
+     * Registers a new user.
+     * @return true, since every username is new.
+     * @throws InterruptedException if interrupted while waiting for the user to be written.
+     * @throws UserStoreException if the user couldn't be written.
+     */
+    @Benchmark
+    public boolean register() throws InterruptedException, UserStoreException {
+        return store.insert(new Credentials("user" + usernames.incrementAndGet(), PASSWORD_HASH,
+                PASSWORD_SALT, "sha512", ""));
+    }
+
+    /**
+     * The registration benchmarks on a single thread.
+     */
+    @Threads(1)
+    public static class SingleThreaded extends RegistrationBenchmark {
+    }
+
+    /**
+     * The registration benchmarks on a thread per core.
+     */
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends RegistrationBenchmark {
+    }
+}
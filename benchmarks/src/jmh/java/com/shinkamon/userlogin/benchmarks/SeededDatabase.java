@@ -0,0 +1,100 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.database.SchemaMigrator;
+import com.shinkamon.userlogin.support.HashGenerator;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the databases the user store benchmarks run against, filled with a given number of
+ * users named user0, user1 and so on. Seeding ten million users takes minutes, so every
+ * database is kept under build/benchmark-databases and reused by later runs.
+ */
+final class SeededDatabase {
+    static final String USERNAME_PREFIX = "user";
+    private static final Path DIRECTORY = Path.of("build", "benchmark-databases");
+    private static final int BATCH_SIZE = 10_000;
+    private static final String INSERT_USER = """
+            INSERT INTO users (username, password_hash, password_salt,
+                               hash_algorithm, hash_parameters)
+            VALUES (?, ?, ?, ?, ?)
+            """;
+
+    private SeededDatabase() {
+    }
+
+    /**
+     * Returns the database with a number of users, seeding it first if it doesn't exist yet.
+     * @param users the number of users in the database.
+     * @return the path of the database file.
+     * @throws IOException if the database file couldn't be created.
+     * @throws SQLException if the users couldn't be inserted.
+     */
+    static Path get(final int users) throws IOException, SQLException {
+        Path path = DIRECTORY.resolve("users-" + users + ".db");
+        if (Files.exists(path)) {
+            return path;
+        }
+
+        Files.createDirectories(DIRECTORY);
+        // seeded under another name, so that an interrupted seeding is never mistaken for a
+        // complete database
+        Path partial = DIRECTORY.resolve("users-" + users + ".db.partial");
+        Files.deleteIfExists(partial);
+
+        try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + partial)) {
+            SchemaMigrator.migrate(connection);
+            insertUsers(connection, users);
+        }
+
+        Files.move(partial, path, StandardCopyOption.ATOMIC_MOVE);
+        return path;
+    }
+
+    /**
+     * Helper method to insert users in large transactions, without a journal or syncing; the
+     * stored hashes are all the same, since the benchmarks only look them up.
+     * @param connection the connection to the new database.
+     * @param users the number of users to insert.
+     * @throws SQLException if the users couldn't be inserted.
+     */
+    private static void insertUsers(final Connection connection, final int users)
+            throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode = OFF");
+            statement.execute("PRAGMA synchronous = OFF");
+        }
+
+        Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.MIN_ITERATIONS);
+        byte[] salt = new byte[HashGenerator.SALT_LENGTH];
+        byte[] hash = hasher.hash("Password1".toCharArray(), salt);
+        connection.setAutoCommit(false);
+
+        try (PreparedStatement statement = connection.prepareStatement(INSERT_USER)) {
+            for (int i = 0; i < users; i++) {
+                statement.setString(1, USERNAME_PREFIX + i);
+                statement.setBytes(2, hash);
+                statement.setBytes(3, salt);
+                statement.setString(4, hasher.getAlgorithm());
+                statement.setString(5, hasher.getParameters());
+                statement.addBatch();
+
+                if ((i + 1) % BATCH_SIZE == 0 || i == users - 1) {
+                    statement.executeBatch();
+                    connection.commit();
+                }
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
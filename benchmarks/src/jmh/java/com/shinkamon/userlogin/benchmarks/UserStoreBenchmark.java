@@ -0,0 +1,126 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.database.ConnectionPool;
+import com.shinkamon.userlogin.database.Credentials;
+import com.shinkamon.userlogin.database.SqliteUserStore;
+import com.shinkamon.userlogin.database.UserStoreException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the SQLite queries behind a login, which look up the credentials of a user,
+ * against databases of ten thousand, a million and ten million users. The lookups go straight
+ * to the user store, past the credential caches and the username filter, with the pragmas of
+ * resources/database-info.json.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public abstract class UserStoreBenchmark {
+    @Param({"10000", "1000000", "10000000"})
+    private int users;
+    private ConnectionPool pool;
+    private SqliteUserStore store;
+
+    /**
+     * Opens the store on a database with the configured number of users, seeding it first if
+     * needed.
+     * @throws IOException if the database file couldn't be created.
+     * @throws SQLException if the database couldn't be seeded.
+     */
+    @Setup(Level.Trial)
+    public void open() throws IOException, SQLException {
+        Path database = SeededDatabase.get(users);
+        pool = new ConnectionPool("jdbc:sqlite:" + database,
+                Runtime.getRuntime().availableProcessors(), 5000, 32,
+                List.of("PRAGMA synchronous = NORMAL", "PRAGMA cache_size = -16000",
+                        "PRAGMA mmap_size = 268435456"));
+        store = new SqliteUserStore(List.of(pool), List.of());
+    }
+
+    /**
+     * Closes the connections to the database.
+     */
+    @TearDown(Level.Trial)
+    public void close() {
+        pool.close();
+    }
+
+    /**
+     * Looks up a random registered user.
+     * @param random the random numbers of the current thread.
+     * @return the credentials of the user.
+     * @throws UserStoreException if the query failed.
+     */
+    @Benchmark
+    public Optional<Credentials> findRegisteredUser(final ThreadRandom random)
+            throws UserStoreException {
+        return store.findByUsername(SeededDatabase.USERNAME_PREFIX + random.nextInt(users));
+    }
+
+    /**
+     * Looks up a username that isn't registered.
+     * @param random the random numbers of the current thread.
+     * @return nothing, since the user isn't registered.
+     * @throws UserStoreException if the query failed.
+     */
+    @Benchmark
+    public Optional<Credentials> findUnknownUser(final ThreadRandom random)
+            throws UserStoreException {
+        return store.findByUsername("unknown" + random.nextInt(users));
+    }
+
+    /**
+     * A source of random numbers for each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadRandom {
+        private final SplittableRandom random = new SplittableRandom();
+
+        /**
+         * Returns a random number.
+         * @param bound the upper bound, exclusive.
+         * @return a random number between 0 and the bound.
+         */
+        public int nextInt(final int bound) {
+            return random.nextInt(bound);
+        }
+    }
+
+    /**
+     * The user store benchmarks on a single thread.
+     */
+    @Threads(1)
+    public static class SingleThreaded extends UserStoreBenchmark {
+    }
+
+    /**
+     * The user store benchmarks on a thread per core.
+     */
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends UserStoreBenchmark {
+    }
+}
@@ -0,0 +1,83 @@
+package com.shinkamon.userlogin.benchmarks;
+
+import com.shinkamon.userlogin.database.UserLogin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the format checks of usernames and passwords that every registration runs
+ * before hashing, for input that passes and input that fails them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public abstract class ValidationBenchmark {
+    // not final, so that the compiler can't fold the checks into constants
+    private String validUsername = "valid_user_name";
+    private String invalidUsername = "invalid user name";
+    private char[] validPassword = "Password123".toCharArray();
+    private char[] invalidPassword = "password without digits".toCharArray();
+
+    /**
+     * Checks a valid username.
+     * @return whether the username is valid, which it is.
+     */
+    @Benchmark
+    public boolean validUsername() {
+        return UserLogin.isValidUsername(validUsername);
+    }
+
+    /**
+     * Checks an invalid username.
+     * @return whether the username is valid, which it isn't.
+     */
+    @Benchmark
+    public boolean invalidUsername() {
+        return UserLogin.isValidUsername(invalidUsername);
+    }
+
+    /**
+     * Checks a valid password.
+     * @return whether the password is valid, which it is.
+     */
+    @Benchmark
+    public boolean validPassword() {
+        return UserLogin.isValidPassword(validPassword);
+    }
+
+    /**
+     * Checks an invalid password.
+     * @return whether the password is valid, which it isn't.
+     */
+    @Benchmark
+    public boolean invalidPassword() {
+        return UserLogin.isValidPassword(invalidPassword);
+    }
+
+    /**
+     * The validation benchmarks on a single thread.
+     */
+    @Threads(1)
+    public static class SingleThreaded extends ValidationBenchmark {
+    }
+
+    /**
+     * The validation benchmarks on a thread per core.
+     */
+    @Threads(Threads.MAX)
+    public static class MultiThreaded extends ValidationBenchmark {
+    }
+}
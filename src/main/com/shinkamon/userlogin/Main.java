@@ -1,22 +1,297 @@
 package com.shinkamon.userlogin;
 
 import com.shinkamon.userlogin.database.Database;
+import com.shinkamon.userlogin.database.DatabaseAdmin;
+import com.shinkamon.userlogin.database.Resharder;
 import com.shinkamon.userlogin.database.UserLogin;
+import com.shinkamon.userlogin.database.UserStoreException;
+import com.shinkamon.userlogin.importer.UserImporter;
+import com.shinkamon.userlogin.loadtest.LoadGenerator;
+import com.shinkamon.userlogin.server.LoginServer;
+import com.shinkamon.userlogin.support.HashingExecutor;
+import com.shinkamon.userlogin.support.LoginThrottle;
+import com.shinkamon.userlogin.support.Metrics;
+import com.shinkamon.userlogin.support.PasswordBlocklist;
+import com.shinkamon.userlogin.support.PasswordBlocklistBuilder;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import com.shinkamon.userlogin.support.Settings;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Locale;
+import javax.management.JMException;
 
 /**
  * Main class that demonstrates user login system.
  */
 public class Main {
+    private static final int DEFAULT_IMPORT_BATCH_SIZE = 1000;
+    private static final String DEFAULT_BLOCKLIST_PATH = "resources/ppab6.blocklist";
+    private static final int DEFAULT_BLOCKLIST_CHUNK_SIZE = 1 << 24;
+
     /**
-     * Main method for user login.
-     * @param args is not used.
+     * Main method for user login. Runs an interactive login on the console, or with the argument
+     * "serve", serves registrations and logins over HTTP as configured in resources/server-info.json.
+     * With the arguments "import" and a file, imports the users in the file; rejected lines are
+     * written to the file given as the third argument, or to the file name followed by .rejects.
+     * With the argument "reshard", copies the users of the single database file into the shards.
+     * With the argument "load", seeds the database and puts registrations and logins under load
+     * as configured in resources/load-info.json. With the arguments "blocklist" and a file of
+     * SHA-1 hashes of breached passwords, builds the password blocklist from them, at the path
+     * given as the third argument or configured in resources/login-info.json. With the argument
+     * "admin" and a command, prints statistics of the database, exports its users, or vacuums or
+     * analyzes it; see {@link #administer(String...)}.
+     * @param args optionally "serve", "reshard" or "load", "import", a file and optionally a
+     * rejects file, "blocklist", a file and optionally an output file, or "admin" and a command.
      * @throws IOException if an I/O error occurs.
      */
     public static void main(final String... args) throws IOException {
-        UserLogin userLogin = new UserLogin();
+        if (args.length > 0 && args[0].equals("load")) {
+            generateLoad(Settings.load("resources/load-info.json"));
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("blocklist")) {
+            buildBlocklist(Settings.load("resources/login-info.json"), Path.of(args[1]),
+                    args.length > 2 ? Path.of(args[2]) : null);
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("admin")) {
+            Database.INSTANCE.setupDatabase(false);
+            administer(args);
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("import")) {
+            Database.INSTANCE.setupDatabase(false);
+            importUsers(Settings.load("resources/login-info.json"), Path.of(args[1]),
+                    Path.of(args.length > 2 ? args[2] : args[1] + ".rejects"));
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("reshard")) {
+            reshard();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("serve")) {
+            Database.INSTANCE.setupDatabase(false);
+            UserLogin userLogin = new UserLogin();
+            buildUsernameFilter(userLogin);
+            serve(userLogin);
+            return;
+        }
+
         Database.INSTANCE.setupDatabase(true);
-        userLogin.login();
+        try (UserLogin userLogin = new UserLogin()) {
+            buildUsernameFilter(userLogin);
+            userLogin.login();
+        }
+    }
+
+    /**
+     * Helper method to build the filter of registered usernames. Without it, logins still work,
+     * but every unknown username is looked up in the user store.
+     * @param userLogin the UserLogin to build the filter for.
+     */
+    private static void buildUsernameFilter(final UserLogin userLogin) {
+        try {
+            System.out.println("Username filter " + userLogin.buildUsernameFilter() + ".");
+        } catch (UserStoreException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Helper method to import the users in a file, hashing their passwords with the current
+     * scheme on every core, and rejecting passwords on the configured password blocklist.
+     * @param loginInfo the login settings, with the password hashing scheme and blocklist.
+     * @param input the CSV or JSON lines file to import.
+     * @param rejects the file to append rejected lines to.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void importUsers(final Settings loginInfo, final Path input,
+                                    final Path rejects) throws IOException {
+        int batchSize = Database.INSTANCE.getSettings()
+                .getInt("importBatchSize", DEFAULT_IMPORT_BATCH_SIZE);
+
+        try (PasswordBlocklist passwordBlocklist = UserLogin.openPasswordBlocklist(loginInfo)) {
+            UserImporter importer = new UserImporter(UserLogin.createPasswordHasher(loginInfo),
+                    passwordBlocklist, Runtime.getRuntime().availableProcessors(), batchSize);
+            UserImporter.Result result = importer.importUsers(input, rejects);
+            System.out.println("Imported " + input + ": " + result + ".");
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Import interrupted; run it again to resume.");
+        }
+    }
+
+    /**
+     * Helper method to build the password blocklist from a list of SHA-1 hashes of breached
+     * passwords. The blocklist is only read at startup, so a running server keeps using the
+     * previous one until it is restarted.
+     * @param loginInfo the login settings.
+     * @param input the plain-text list of hashes.
+     * @param output the blocklist file to write, or null to write the configured one.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void buildBlocklist(final Settings loginInfo, final Path input,
+                                       final Path output) throws IOException {
+        String configured = loginInfo.getString("passwordBlocklistPath", "");
+        Path path = output != null ? output
+                : Path.of(configured.isEmpty() ? DEFAULT_BLOCKLIST_PATH : configured);
+        PasswordBlocklistBuilder builder = new PasswordBlocklistBuilder(
+                loginInfo.getInt("blocklistChunkSize", DEFAULT_BLOCKLIST_CHUNK_SIZE));
+        long started = System.nanoTime();
+
+        PasswordBlocklistBuilder.Result result = builder.build(input, path);
+        System.out.printf("Built %s from %s: %s in %.1f s.%n", path, input, result,
+                (System.nanoTime() - started) / 1e9);
+    }
+
+    /**
+     * Helper method to run an administration command against the database, which may be in use
+     * by a running server: "stats" prints the size of every shard and the estimated rows of its
+     * tables, "export" and a file writes a snapshot of the users as CSV or JSON lines, picked by
+     * the fourth argument or the file extension, "analyze" updates the row estimates, and
+     * "vacuum" releases free pages to the file system.
+     * @param args "admin", the command and its arguments.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void administer(final String... args) throws IOException {
+        String command = args.length > 1 ? args[1] : "";
+        DatabaseAdmin admin = new DatabaseAdmin();
+
+        try {
+            switch (command) {
+                case "stats" -> admin.getStats().forEach(System.out::println);
+                case "analyze" -> admin.analyze();
+                case "vacuum" -> admin.vacuum();
+                case "export" -> {
+                    if (args.length < 3) {
+                        System.out.println("Usage: admin export <file> [csv|jsonl]");
+                        return;
+                    }
+
+                    Path output = Path.of(args[2]);
+                    DatabaseAdmin.Format format = args.length > 3
+                            ? DatabaseAdmin.Format.valueOf(args[3].toUpperCase(Locale.ROOT))
+                            : DatabaseAdmin.Format.of(output);
+                    System.out.println("Exported " + output + ": "
+                            + admin.export(output, format) + ".");
+                }
+                default -> System.out.println(
+                        "Usage: admin stats | analyze | vacuum | export <file> [csv|jsonl]");
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Vacuum interrupted; run it again to continue.");
+        }
+    }
+
+    /**
+     * Helper method to seed the database and run the configured load on registrations and logins.
+     * The UserLogin under load hashes with the configured number of iterations, and is throttled
+     * with the limits of the load settings rather than those of resources/login-info.json, since
+     * all of the load comes from one machine. Users are seeded into the SQLite database, so the
+     * load isn't run against the memory-mapped user store.
+     * @param loadInfo the load settings.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void generateLoad(final Settings loadInfo) throws IOException {
+        if (!Database.INSTANCE.getSettings().getString("userStore", "sqlite").equals("sqlite")) {
+            System.out.println("The load test seeds the SQLite database; set userStore to "
+                    + "\"sqlite\" in resources/database-info.json to run it.");
+            return;
+        }
+
+        Database.INSTANCE.setupDatabase(false);
+        LoadGenerator.Config config = LoadGenerator.Config.fromSettings(loadInfo);
+        int cores = Runtime.getRuntime().availableProcessors();
+        // deep enough that a closed loop is never turned away as BUSY
+        HashingExecutor hashingExecutor = new HashingExecutor(cores,
+                Math.max(config.threads(), cores));
+
+        try (UserLogin userLogin = new UserLogin(
+                new Pbkdf2PasswordHasher(loadInfo.getInt("hashIterations",
+                        Pbkdf2PasswordHasher.MIN_ITERATIONS)), hashingExecutor,
+                new LoginThrottle(LoginThrottle.Config.fromSettings(loadInfo)), null, null,
+                null);
+             hashingExecutor) {
+            LoadGenerator generator = new LoadGenerator(config, userLogin);
+            generator.seed();
+            buildUsernameFilter(userLogin);
+            generator.run();
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.out.println("Load interrupted.");
+        }
+    }
+
+    /**
+     * Helper method to copy the users of the single database file into the configured shards.
+     */
+    private static void reshard() {
+        try {
+            Resharder.Result result = new Resharder().reshard();
+            System.out.println("Resharded: " + result + ".");
+        } catch (SQLException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Helper method to start the HTTP server, which runs until the JVM is shut down; the audit log
+     * is written out once the server has stopped. Metrics are recorded and exported over JMX as
+     * configured in resources/server-info.json.
+     * @param userLogin the UserLogin that handles the requests.
+     * @throws IOException if the server can't be started.
+     */
+    private static void serve(final UserLogin userLogin) throws IOException {
+        Settings serverInfo = Settings.load("resources/server-info.json");
+        LoginServer.Config config = LoginServer.Config.fromSettings(serverInfo);
+        setupMetrics(serverInfo);
+        LoginServer server = new LoginServer(userLogin, config);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(5);
+            userLogin.close();
+        }, "server-shutdown"));
+        server.start();
+        userLogin.getUsernameFilterStats().ifPresent(stats ->
+                System.out.println("Username filter: " + stats.filter() + "."));
+        System.out.println("Listening on http://" + config.host() + ":" + server.getPort() + ".");
+    }
+
+    /**
+     * Helper method to turn the recording of metrics on or off, and to register them as an MBean.
+     * Without the MBean, metrics are still served at /metrics.
+     * @param serverInfo the server settings.
+     */
+    private static void setupMetrics(final Settings serverInfo) {
+        Metrics.INSTANCE.setEnabled(serverInfo.getBoolean("metricsEnabled", true));
+
+        if (!serverInfo.getBoolean("metricsJmx", true)) {
+            return;
+        }
+
+        try {
+            System.out.println("Metrics registered as " + Metrics.INSTANCE.registerMBean() + ".");
+        } catch (JMException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
     }
 }
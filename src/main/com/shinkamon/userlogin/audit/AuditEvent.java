@@ -0,0 +1,31 @@
+package com.shinkamon.userlogin.audit;
+
+/**
+ * A registration, login or logout attempt, as recorded in the audit log.
+ * @param timestampMillis when the attempt was made, in milliseconds since the epoch.
+ * @param type whether the attempt was a registration, a login or a logout.
+ * @param username the username of the attempt, as given.
+ * @param source where the attempt came from, e.g. the address of the client.
+ * @param outcome the name of the result of the attempt, e.g. AUTHENTICATED.
+ * @param latencyNanos how long the attempt took, in nanoseconds.
+ */
+public record AuditEvent(long timestampMillis, Type type, String username, String source,
+                         String outcome, long latencyNanos) {
+    /**
+     * The kind of attempt an event records.
+     */
+    public enum Type {
+        /**
+         * A registration of a new user.
+         */
+        REGISTRATION,
+        /**
+         * A login of a user.
+         */
+        LOGIN,
+        /**
+         * A logout of a user, which ends their session.
+         */
+        LOGOUT
+    }
+}
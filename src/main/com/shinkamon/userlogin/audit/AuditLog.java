@@ -0,0 +1,282 @@
+package com.shinkamon.userlogin.audit;
+
+import com.shinkamon.userlogin.support.RingBuffer;
+import com.shinkamon.userlogin.support.Settings;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records registration and login attempts without slowing them down. Recording an event only
+ * adds it to a bounded {@link RingBuffer}, which never blocks; a single writer thread takes
+ * everything that is waiting, up to a maximum batch size, and writes it to an {@link AuditSink}
+ * in one go, so a burst of logins costs one write per batch rather than one per login.
+ * <p>
+ * When the buffer is full, because the sink can't keep up, events are dropped rather than
+ * making logins wait: either the new event, or the oldest waiting one to make room for it, as
+ * configured. Dropped events are counted, and so are events lost because the sink failed.
+ */
+public final class AuditLog implements AutoCloseable {
+    // how many times an event may take the place of the oldest one before it is dropped itself
+    private static final int MAX_OVERFLOW_ATTEMPTS = 4;
+    private static final AtomicInteger WRITER_NUMBER = new AtomicInteger();
+    private final RingBuffer<AuditEvent> buffer;
+    private final AuditSink sink;
+    private final OverflowPolicy overflowPolicy;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final Thread writer;
+    private final LongAdder recorded = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new AuditLog and starts its writer thread.
+     * @param config the buffer size, batching and overflow policy of the log.
+     * @param sink where the events are written.
+     */
+    public AuditLog(final Config config, final AuditSink sink) {
+        if (config.maxBatchSize() < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+
+        this.buffer = new RingBuffer<>(config.bufferSize());
+        this.sink = sink;
+        this.overflowPolicy = config.overflowPolicy();
+        this.maxBatchSize = config.maxBatchSize();
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(config.flushIntervalMillis());
+        this.writer = new Thread(this::run, "audit-log-" + WRITER_NUMBER.incrementAndGet());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Opens an audit log that writes to the rotating file configured.
+     * @param config the configuration of the log and its files.
+     * @return the audit log.
+     * @throws IOException if the audit file couldn't be opened.
+     */
+    public static AuditLog open(final Config config) throws IOException {
+        return new AuditLog(config, new RotatingFileSink(Path.of(config.path()),
+                config.maxFileBytes(), config.maxFiles(), config.sync()));
+    }
+
+    /**
+     * Records an attempt; never blocks. If the buffer is full the event, or the oldest waiting
+     * event, is dropped according to the overflow policy.
+     * @param type whether the attempt was a registration, a login or a logout.
+     * @param username the username of the attempt, as given.
+     * @param source where the attempt came from, e.g. the address of the client.
+     * @param outcome the name of the result of the attempt.
+     * @param latencyNanos how long the attempt took, in nanoseconds.
+     */
+    public void record(final AuditEvent.Type type, final String username, final String source,
+                       final String outcome, final long latencyNanos) {
+        recorded.increment();
+
+        if (closed) {
+            dropped.increment();
+            return;
+        }
+
+        AuditEvent event = new AuditEvent(System.currentTimeMillis(), type, username, source,
+                outcome, latencyNanos);
+
+        if (buffer.offer(event)) {
+            dropIfStopped();
+            return;
+        }
+
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            for (int attempt = 0; attempt < MAX_OVERFLOW_ATTEMPTS; attempt++) {
+                // the writer thread may have emptied the slot in the meantime
+                if (buffer.poll() != null) {
+                    dropped.increment();
+                }
+
+                if (buffer.offer(event)) {
+                    dropIfStopped();
+                    return;
+                }
+            }
+        }
+
+        dropped.increment();
+    }
+
+    /**
+     * Helper method to drop the events left in the buffer if the log was closed and its writer
+     * thread has already exited, since they would otherwise never be written nor counted; the
+     * log may be closed between an event's check of it and the event being added.
+     */
+    private void dropIfStopped() {
+        if (closed && !writer.isAlive()) {
+            while (buffer.poll() != null) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Helper method that runs on the writer thread, writing batches until the log is closed and
+     * every event recorded before that has been written.
+     */
+    private void run() {
+        List<AuditEvent> batch = new ArrayList<>(maxBatchSize);
+
+        while (true) {
+            // read before draining, so that events recorded before the log was closed are written
+            boolean stopping = closed;
+            buffer.drainTo(batch, maxBatchSize);
+
+            if (batch.isEmpty()) {
+                if (stopping) {
+                    return;
+                }
+
+                LockSupport.parkNanos(this, flushIntervalNanos);
+                continue;
+            }
+
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * Helper method to write a batch of events to the sink. Events that can't be written are
+     * counted as failed and not retried, so a broken sink doesn't hold up the ones after them.
+     * @param batch the events to write.
+     */
+    private void writeBatch(final List<AuditEvent> batch) {
+        try {
+            sink.write(batch);
+            batches.increment();
+            written.add(batch.size());
+        } catch (IOException | RuntimeException e) {
+            failed.add(batch.size());
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the number of events recorded, written and lost.
+     * @return the current statistics of the log.
+     */
+    public Stats getStats() {
+        return new Stats(buffer.size(), buffer.capacity(), recorded.sum(), dropped.sum(),
+                written.sum(), batches.sum(), failed.sum());
+    }
+
+    /**
+     * Stops accepting events, waits for the writer thread to write the ones already recorded,
+     * and closes the sink. Events added after the writer's last batch are counted as dropped.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        dropIfStopped();
+
+        try {
+            sink.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * What happens to an event that is recorded while the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The new event is dropped, keeping the ones that are waiting.
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest waiting event is dropped to make room for the new one.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Configuration of an {@link AuditLog} and of the files it writes.
+     * @param path the path of the current audit file.
+     * @param bufferSize the maximum number of events waiting to be written.
+     * @param maxBatchSize the maximum number of events written at once.
+     * @param flushIntervalMillis how long the writer sleeps when there is nothing to write, and
+     * so the longest an event waits to be written when the log is quiet.
+     * @param overflowPolicy what happens to events recorded while the buffer is full.
+     * @param maxFileBytes the size past which the audit file is rotated.
+     * @param maxFiles the number of audit files kept, including the current one.
+     * @param sync whether every batch is synced to disk.
+     */
+    public record Config(String path, int bufferSize, int maxBatchSize, long flushIntervalMillis,
+                         OverflowPolicy overflowPolicy, long maxFileBytes, int maxFiles,
+                         boolean sync) {
+        /**
+         * Reads the audit log configuration from settings, e.g. resources/login-info.json.
+         * @param loginInfo the login settings.
+         * @return the audit log configuration.
+         * @throws IllegalArgumentException if the overflow policy isn't DROP_NEWEST or
+         * DROP_OLDEST.
+         */
+        public static Config fromSettings(final Settings loginInfo) {
+            return new Config(loginInfo.getString("auditPath", ""),
+                    loginInfo.getInt("auditBufferSize", 8192),
+                    loginInfo.getInt("auditMaxBatchSize", 512),
+                    loginInfo.getLong("auditFlushMillis", 100),
+                    OverflowPolicy.valueOf(loginInfo.getString("auditOverflowPolicy",
+                            OverflowPolicy.DROP_NEWEST.name())),
+                    loginInfo.getLong("auditMaxFileBytes", 16_777_216),
+                    loginInfo.getInt("auditMaxFiles", 5),
+                    loginInfo.getBoolean("auditSync", true));
+        }
+    }
+
+    /**
+     * Statistics of an {@link AuditLog}.
+     * @param queued the number of events waiting to be written.
+     * @param capacity the maximum number of events waiting to be written.
+     * @param recorded the number of events recorded, including the dropped ones.
+     * @param dropped the number of events dropped because the buffer was full or the log closed.
+     * @param written the number of events written.
+     * @param batches the number of batches written.
+     * @param failed the number of events lost because the sink failed to write them.
+     */
+    public record Stats(int queued, int capacity, long recorded, long dropped, long written,
+                        long batches, long failed) {
+        /**
+         * Returns the average number of events written per batch.
+         * @return the average batch size, or 0 if nothing has been written.
+         */
+        public double averageBatchSize() {
+            return batches == 0 ? 0 : (double) written / batches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d recorded, %d written in %d batches (average %.1f), "
+                    + "%d dropped, %d failed, %d of %d queued", recorded, written, batches,
+                    averageBatchSize(), dropped, failed, queued, capacity);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.shinkamon.userlogin.audit;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Where the audit log writes its events. A sink is only ever called from the writer thread of
+ * its {@link AuditLog}, so it doesn't need to be thread-safe.
+ */
+@FunctionalInterface
+public interface AuditSink extends AutoCloseable {
+    /**
+     * Writes a batch of events, in the order they were recorded.
+     * @param events the events to write.
+     * @throws IOException if the events couldn't be written.
+     */
+    void write(List<AuditEvent> events) throws IOException;
+
+    /**
+     * Releases the resources of the sink, once the audit log has written its last batch; does
+     * nothing by default.
+     * @throws IOException if the sink couldn't be closed cleanly.
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
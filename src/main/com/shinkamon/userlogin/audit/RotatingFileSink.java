@@ -0,0 +1,153 @@
+package com.shinkamon.userlogin.audit;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Appends audit events to a file as JSON lines, one object per event. Every batch is written in
+ * a single write, and optionally synced to disk, so a batch costs one system call however many
+ * events it holds.
+ * <p>
+ * Once the file would grow past its maximum size it is rotated: it is renamed to the same name
+ * followed by .1, what was .1 becomes .2, and so on, and the oldest file is deleted, so at most
+ * the configured number of files are kept.
+ */
+public final class RotatingFileSink implements AuditSink {
+    private final Path path;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final boolean sync;
+    private FileChannel channel;
+    private long size;
+
+    /**
+     * Instantiates a new RotatingFileSink, appending to the file if it already exists.
+     * @param path the path of the current audit file.
+     * @param maxFileBytes the size past which the file is rotated.
+     * @param maxFiles the number of files kept, including the current one.
+     * @param sync whether every batch is synced to disk before the next one is written.
+     * @throws IOException if the file couldn't be opened.
+     */
+    public RotatingFileSink(final Path path, final long maxFileBytes, final int maxFiles,
+                            final boolean sync) throws IOException {
+        if (maxFileBytes < 1 || maxFiles < 1) {
+            throw new IllegalArgumentException("File size and count must be at least 1.");
+        }
+
+        this.path = path;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.sync = sync;
+        open();
+    }
+
+    /**
+     * Writes a batch of events to the end of the file, rotating it first if it would grow past
+     * its maximum size.
+     * @param events the events to write.
+     * @throws IOException if the events couldn't be written.
+     */
+    @Override
+    public void write(final List<AuditEvent> events) throws IOException {
+        StringBuilder lines = new StringBuilder(events.size() * 160);
+
+        for (AuditEvent event : events) {
+            lines.append(toJson(event)).append('\n');
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+
+        if (size > 0 && size + buffer.remaining() > maxFileBytes) {
+            rotate();
+        }
+
+        size += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Closes the current file.
+     * @throws IOException if the file couldn't be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Returns the path of a rotated file.
+     * @param generation how many rotations ago the file was the current one, starting at 1.
+     * @return the path of the file.
+     */
+    public Path getRotatedPath(final int generation) {
+        return path.resolveSibling(path.getFileName() + "." + generation);
+    }
+
+    /**
+     * Helper method to open the current file for appending.
+     * @throws IOException if the file couldn't be opened.
+     */
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    /**
+     * Helper method to move the current file and the rotated ones up by one generation,
+     * deleting the oldest, and to start a new current file.
+     * @throws IOException if the files couldn't be moved.
+     */
+    private void rotate() throws IOException {
+        channel.close();
+
+        if (maxFiles == 1) {
+            Files.delete(path);
+        } else {
+            Files.deleteIfExists(getRotatedPath(maxFiles - 1));
+
+            for (int generation = maxFiles - 2; generation >= 1; generation--) {
+                if (Files.exists(getRotatedPath(generation))) {
+                    Files.move(getRotatedPath(generation), getRotatedPath(generation + 1),
+                            StandardCopyOption.ATOMIC_MOVE);
+                }
+            }
+
+            Files.move(path, getRotatedPath(1), StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        open();
+    }
+
+    /**
+     * Helper method to convert an event to a JSON object.
+     * @param event the event to convert.
+     * @return the event as a JSON object.
+     */
+    private static JsonObject toJson(final AuditEvent event) {
+        JsonObject json = new JsonObject();
+        json.addProperty("time", Instant.ofEpochMilli(event.timestampMillis()).toString());
+        json.addProperty("type", event.type().name());
+        json.addProperty("username", event.username());
+        json.addProperty("source", event.source());
+        json.addProperty("outcome", event.outcome());
+        json.addProperty("latencyMicros", event.latencyNanos() / 1000);
+        return json;
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Package for the audit log of registrations and logins.
+ */
+package com.shinkamon.userlogin.audit;
\ No newline at end of file
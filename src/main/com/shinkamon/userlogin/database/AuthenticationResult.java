@@ -0,0 +1,34 @@
+package com.shinkamon.userlogin.database;
+
+/**
+ * The outcome of an attempt to authenticate a user through {@link UserLogin#authenticate}.
+ */
+public enum AuthenticationResult {
+    /**
+     * The username and password belong to a registered user.
+     */
+    AUTHENTICATED,
+    /**
+     * The username isn't registered, or the password is wrong; the two cases are deliberately
+     * not told apart.
+     */
+    INVALID_CREDENTIALS,
+    /**
+     * The request was turned away because password hashing is at capacity; it can be retried later.
+     */
+    BUSY,
+    /**
+     * The attempt was turned away because the username or its source has made too many attempts
+     * recently; it can be retried later.
+     */
+    THROTTLED,
+    /**
+     * The attempt was turned away because the username is locked out after too many failed
+     * attempts in a row; it can be retried once the lockout ends.
+     */
+    LOCKED,
+    /**
+     * The user couldn't be authenticated because of an error, e.g. the database couldn't be accessed.
+     */
+    ERROR
+}
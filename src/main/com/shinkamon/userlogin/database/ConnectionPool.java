@@ -0,0 +1,237 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.LatencyHistogram;
+import com.shinkamon.userlogin.support.Metrics;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of connections to a single database. Connections are opened lazily, up to the
+ * maximum pool size, and handed out as {@link PooledConnection}s that return themselves to the pool
+ * when closed. Idle connections are reused most-recently-used first so that the connections (and
+ * the prepared statements they cache) that are handed out are the ones most likely to be warm.
+ */
+public final class ConnectionPool implements AutoCloseable {
+    private static final LatencyHistogram ACQUIRE_TIME = Metrics.INSTANCE.histogram(
+            "userlogin_connection_acquire_seconds",
+            "Time to get a pooled database connection, including opening one.");
+    private static final LatencyHistogram OPEN_TIME = Metrics.INSTANCE.histogram(
+            "userlogin_connection_open_seconds", "Time to open a new database connection.");
+    private final String url;
+    private final int maxSize;
+    private final long timeoutMillis;
+    private final int statementCacheSize;
+    private final List<String> initStatements;
+    private final Semaphore permits;
+    private final Deque<PooledConnection> idleConnections = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new ConnectionPool.
+     * @param url the JDBC url of the database.
+     * @param maxSize the maximum number of connections that can be open at the same time.
+     * @param timeoutMillis how long to wait for a free connection before giving up, in milliseconds.
+     * @param statementCacheSize the maximum number of prepared statements cached per connection.
+     * @param initStatements SQL statements run on every new connection, e.g. to set pragmas.
+     */
+    public ConnectionPool(final String url, final int maxSize, final long timeoutMillis,
+                          final int statementCacheSize, final List<String> initStatements) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1: " + maxSize);
+        }
+
+        this.url = url;
+        this.maxSize = maxSize;
+        this.timeoutMillis = timeoutMillis;
+        this.statementCacheSize = statementCacheSize;
+        this.initStatements = List.copyOf(initStatements);
+        // fair, so that waiting threads are served in order and no single thread starves
+        this.permits = new Semaphore(maxSize, true);
+    }
+
+    /**
+     * Returns a connection from the pool, opening a new one if no idle connection is available
+     * and the pool isn't full. Waits for a connection to be returned if the pool is exhausted.
+     * The connection must be closed after use to return it to the pool.
+     * @return a connection to the database.
+     * @throws SQLException if the pool is closed, no connection became available in time,
+     * or a database access error occurs.
+     */
+    public PooledConnection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed.");
+        }
+
+        long start = System.nanoTime();
+        boolean acquired;
+
+        try {
+            acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection.", e);
+        }
+
+        recordWait(System.nanoTime() - start);
+
+        if (!acquired) {
+            timeouts.increment();
+            throw new SQLTimeoutException("Timed out after " + timeoutMillis
+                    + " ms waiting for a database connection.");
+        }
+
+        try {
+            PooledConnection connection = idleConnections.pollFirst();
+            if (connection == null) {
+                connection = openConnection();
+            }
+            connection.markHandedOut();
+            acquisitions.increment();
+            ACQUIRE_TIME.recordSince(start);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Helper method to open a new physical connection to the database.
+     * @return the new connection.
+     * @throws SQLException if a database access error occurs.
+     */
+    private PooledConnection openConnection() throws SQLException {
+        long started = Metrics.INSTANCE.startTimer();
+        Connection connection = DriverManager.getConnection(url);
+
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : initStatements) {
+                statement.execute(sql);
+            }
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+
+        openConnections.incrementAndGet();
+        OPEN_TIME.recordSince(started);
+        return new PooledConnection(this, connection, statementCacheSize);
+    }
+
+    /**
+     * Helper method to record how long a caller had to wait for a connection.
+     * @param waitNanos the time spent waiting, in nanoseconds.
+     */
+    private void recordWait(final long waitNanos) {
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Returns a connection to the pool; called when a {@link PooledConnection} is closed.
+     * @param connection the connection to return.
+     * @param reusable whether the connection is in a state that allows it to be handed out again.
+     */
+    void release(final PooledConnection connection, final boolean reusable) {
+        if (reusable && !closed) {
+            idleConnections.offerFirst(connection);
+        } else {
+            discard(connection);
+        }
+
+        permits.release();
+
+        // the pool may have been closed while the connection was being returned
+        if (closed && idleConnections.remove(connection)) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Helper method to close the physical connection behind a pooled connection.
+     * @param connection the connection to close.
+     */
+    private void discard(final PooledConnection connection) {
+        openConnections.decrementAndGet();
+        connection.closePhysically();
+    }
+
+    /**
+     * Closes all idle connections. Connections that are in use are unaffected, and new connections
+     * will be opened on demand; useful when the underlying database file has been replaced.
+     */
+    public void evictIdleConnections() {
+        PooledConnection connection;
+        while ((connection = idleConnections.pollFirst()) != null) {
+            discard(connection);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the pool's usage and wait-time statistics.
+     * @return the current statistics of the pool.
+     */
+    public Stats getStats() {
+        int idle = idleConnections.size();
+        return new Stats(maxSize, openConnections.get(), idle, maxSize - permits.availablePermits(),
+                acquisitions.sum(), timeouts.sum(), totalWaitNanos.sum(), maxWaitNanos.get());
+    }
+
+    /**
+     * Closes the pool and all idle connections. Connections that are in use are closed when they are
+     * returned to the pool, and no new connections will be handed out.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictIdleConnections();
+    }
+
+    /**
+     * Usage and wait-time statistics of a {@link ConnectionPool}.
+     * @param maxSize the maximum number of connections in the pool.
+     * @param open the number of physical connections currently open.
+     * @param idle the number of open connections that are not in use.
+     * @param inUse the number of connections currently handed out.
+     * @param acquisitions the total number of connections handed out.
+     * @param timeouts the number of callers that gave up waiting for a connection.
+     * @param totalWaitNanos the total time callers have spent waiting for a connection.
+     * @param maxWaitNanos the longest time a single caller has waited for a connection.
+     */
+    public record Stats(int maxSize, int open, int idle, int inUse, long acquisitions,
+                        long timeouts, long totalWaitNanos, long maxWaitNanos) {
+        /**
+         * Returns the average time callers have waited for a connection.
+         * @return the average wait time in nanoseconds, or 0 if no connection has been handed out.
+         */
+        public long averageWaitNanos() {
+            long requests = acquisitions + timeouts;
+            return requests == 0 ? 0 : totalWaitNanos / requests;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d connections in use (%d open, %d idle), %d acquisitions, "
+                            + "%d timeouts, average wait %.3f ms, max wait %.3f ms",
+                    inUse, maxSize, open, idle, acquisitions, timeouts,
+                    averageWaitNanos() / 1e6, maxWaitNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,564 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.BloomFilter;
+import com.shinkamon.userlogin.support.LruCache;
+import com.shinkamon.userlogin.support.Settings;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Provides access to the credentials of registered users, kept in the configured
+ * {@link UserStore}.
+ * <p>
+ * Lookups are read through an in-process cache of credentials, with a separate cache for
+ * usernames that aren't registered, so that lookups of unknown usernames (typos, enumeration
+ * attempts) can't evict the credentials of active users. Both caches are bounded, evict the least
+ * recently used entries, and expire entries after a configurable time. Entries are invalidated
+ * whenever the credentials of a user are added or changed through this repository; changes made
+ * to the store by other means are only seen once the entries expire.
+ * <p>
+ * Once {@link #buildUsernameFilter()} has been called, lookups also consult a Bloom filter of all
+ * registered usernames, so that a username that is definitely not registered is rejected without
+ * going to the store at all. Usernames registered through this repository are added to it.
+ * <p>
+ * If a snapshot file is configured, the filter is written to it periodically, and the next
+ * {@link #buildUsernameFilter()} loads it and only adds the users registered since, rather than
+ * reading every username in the store; see {@link UsernameFilterSnapshot}. Every snapshot first
+ * adds the users written to the store since the previous one, so users written by other
+ * processes, such as a bulk import, are found once the next snapshot has been taken.
+ */
+public final class CredentialRepository {
+    private static final int DEFAULT_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_CACHE_TTL_SECONDS = 300;
+    private static final int DEFAULT_NEGATIVE_CACHE_SIZE = 10_000;
+    private static final int DEFAULT_NEGATIVE_CACHE_TTL_SECONDS = 60;
+    private static final long DEFAULT_FILTER_EXPECTED_USERS = 100_000;
+    private static final double DEFAULT_FILTER_FALSE_POSITIVE_RATE = 0.01;
+    // room for growth when the filter is sized from the number of registered users
+    private static final int FILTER_GROWTH_FACTOR = 2;
+    private static final long DEFAULT_MAPPED_STORE_COMPACTION_SECONDS = 60;
+    private static final long DEFAULT_FILTER_SNAPSHOT_SECONDS = 300;
+    private final UserStore store;
+    private final LruCache<String, Credentials> cache;
+    private final LruCache<String, Boolean> unknownUsernames;
+    // incremented on every write, so lookups can tell whether a write raced them
+    private final AtomicLong writes = new AtomicLong();
+    private final long filterExpectedUsers;
+    private final double filterFalsePositiveRate;
+    // the filter consulted by lookups, which holds every registered username
+    private volatile BloomFilter usernameFilter;
+    // a filter that is being built; registrations are added to it too, so it misses none of them
+    private volatile BloomFilter pendingUsernameFilter;
+    // the positions of the store up to which every user is known to be in the username filter;
+    // users written by other processes, such as an import, are only added up to these
+    private List<UserStore.Position> filterPositions = List.of();
+    private final LongAdder filterRejections = new LongAdder();
+    private final LongAdder filterFalsePositives = new LongAdder();
+    // the file the username filter is snapshotted to, or null if it isn't
+    private final Path filterSnapshotPath;
+    private final long filterSnapshotIntervalMillis;
+    private ScheduledExecutorService filterSnapshotter;
+
+    /**
+     * Instantiates a new CredentialRepository, with the user store, cache sizes and expiry times
+     * configured in resources/database-info.json.
+     * @throws UncheckedIOException if the configured user store can't be opened.
+     */
+    public CredentialRepository() {
+        this(Database.INSTANCE.getSettings());
+    }
+
+    /**
+     * Helper constructor to instantiate a new CredentialRepository from the database settings.
+     * @param databaseInfo the database settings.
+     */
+    private CredentialRepository(final Settings databaseInfo) {
+        this(createUserStore(databaseInfo),
+                databaseInfo.getInt("credentialCacheSize", DEFAULT_CACHE_SIZE),
+                databaseInfo.getLong("credentialCacheTtlSeconds",
+                        DEFAULT_CACHE_TTL_SECONDS) * 1000,
+                databaseInfo.getInt("negativeCacheSize", DEFAULT_NEGATIVE_CACHE_SIZE),
+                databaseInfo.getLong("negativeCacheTtlSeconds",
+                        DEFAULT_NEGATIVE_CACHE_TTL_SECONDS) * 1000,
+                databaseInfo.getLong("usernameFilterExpectedUsers", DEFAULT_FILTER_EXPECTED_USERS),
+                databaseInfo.getDouble("usernameFilterFalsePositiveRate",
+                        DEFAULT_FILTER_FALSE_POSITIVE_RATE),
+                getFilterSnapshotPath(databaseInfo),
+                databaseInfo.getLong("usernameFilterSnapshotSeconds",
+                        DEFAULT_FILTER_SNAPSHOT_SECONDS) * 1000);
+    }
+
+    /**
+     * Helper method to get the configured path of the username filter snapshot.
+     * @param databaseInfo the database settings.
+     * @return the path of the snapshot file, or null if snapshots are turned off by setting
+     * usernameFilterSnapshotPath to an empty String.
+     */
+    private static Path getFilterSnapshotPath(final Settings databaseInfo) {
+        String path = databaseInfo.getString("usernameFilterSnapshotPath",
+                "resources/ppab6.filter");
+        return path.isEmpty() ? null : Path.of(path);
+    }
+
+    /**
+     * Helper method to open the configured user store: the SQLite database by default, or a
+     * memory-mapped log if userStore is set to "mapped".
+     * @param databaseInfo the database settings.
+     * @return the user store.
+     * @throws IllegalArgumentException if the configured user store is unknown.
+     * @throws UncheckedIOException if the memory-mapped log can't be opened.
+     */
+    private static UserStore createUserStore(final Settings databaseInfo) {
+        String type = databaseInfo.getString("userStore", "sqlite");
+
+        if (type.equals("sqlite")) {
+            return new SqliteUserStore(databaseInfo);
+        }
+
+        if (!type.equals("mapped")) {
+            throw new IllegalArgumentException("Invalid value for userStore: " + type);
+        }
+
+        try {
+            MappedUserStore store = new MappedUserStore(
+                    Path.of(databaseInfo.getString("mappedStorePath", "resources/ppab6.users")),
+                    databaseInfo.getBoolean("mappedStoreSync", true),
+                    databaseInfo.getLong("mappedStoreCompactionSeconds",
+                            DEFAULT_MAPPED_STORE_COMPACTION_SECONDS) * 1000);
+            // flush the log when the JVM exits, in case writes aren't synced as they happen
+            Runtime.getRuntime().addShutdownHook(new Thread(store::close, "user-store-shutdown"));
+            return store;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Instantiates a new CredentialRepository.
+     * @param store the store that keeps the credentials.
+     * @param cacheSize the maximum number of cached credentials; 0 disables the cache.
+     * @param cacheTtlMillis how long credentials stay cached, in milliseconds.
+     * @param negativeCacheSize the maximum number of cached unknown usernames; 0 disables it.
+     * @param negativeCacheTtlMillis how long unknown usernames stay cached, in milliseconds.
+     * @param filterExpectedUsers the minimum number of usernames the username filter is sized for.
+     * @param filterFalsePositiveRate the chance that the username filter lets an unknown username
+     * through to the store, once it holds the number of usernames it was sized for.
+     * @param filterSnapshotPath the file the username filter is snapshotted to and loaded from,
+     * or null to always build it from the store.
+     * @param filterSnapshotIntervalMillis how often the username filter is snapshotted, in
+     * milliseconds; 0 to only snapshot it through {@link #snapshotUsernameFilter()}.
+     */
+    public CredentialRepository(final UserStore store, final int cacheSize,
+                                final long cacheTtlMillis, final int negativeCacheSize,
+                                final long negativeCacheTtlMillis,
+                                final long filterExpectedUsers,
+                                final double filterFalsePositiveRate,
+                                final Path filterSnapshotPath,
+                                final long filterSnapshotIntervalMillis) {
+        this.store = store;
+        this.cache = new LruCache<>(cacheSize, cacheTtlMillis);
+        this.unknownUsernames = new LruCache<>(negativeCacheSize, negativeCacheTtlMillis);
+        this.filterExpectedUsers = filterExpectedUsers;
+        this.filterFalsePositiveRate = filterFalsePositiveRate;
+        this.filterSnapshotPath = filterSnapshotPath;
+        this.filterSnapshotIntervalMillis = filterSnapshotIntervalMillis;
+    }
+
+    /**
+     * Builds the username filter, replacing any previous filter. The filter is loaded from its
+     * snapshot if there is a usable one, and the users registered since are added to it; a
+     * snapshot is only used if it was taken with the configured false-positive rate, and still
+     * has room for all users. Otherwise it is built from all registered usernames, sized for
+     * twice the number of registered users, or the configured number of users if that is larger.
+     * Once built, the filter is snapshotted right away and then periodically, if configured.
+     * @return how the filter was built, and how long it took.
+     * @throws UserStoreException if the usernames couldn't be read.
+     */
+    public synchronized FilterBuild buildUsernameFilter() throws UserStoreException {
+        long start = System.nanoTime();
+        Optional<FilterBuild> restored = restoreUsernameFilter(start);
+        if (restored.isPresent()) {
+            startFilterSnapshots(false);
+            return restored.get();
+        }
+
+        try {
+            // read before the usernames, so every user up to them is read
+            List<UserStore.Position> positions = store.getPositions();
+            long users = store.countUsers();
+            BloomFilter filter = new BloomFilter(
+                    Math.max(filterExpectedUsers, users * FILTER_GROWTH_FACTOR),
+                    filterFalsePositiveRate);
+            // published before reading, so registrations committed after the read starts are added
+            pendingUsernameFilter = filter;
+            store.forEachUsername(filter::add);
+
+            usernameFilter = filter;
+            filterPositions = positions;
+            pendingUsernameFilter = null;
+            startFilterSnapshots(true);
+            return new FilterBuild(filter.getStats(), false, users,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (UserStoreException | RuntimeException e) {
+            pendingUsernameFilter = null;
+            throw e;
+        }
+    }
+
+    /**
+     * Helper method to load the username filter from its snapshot, and add the users registered
+     * since the snapshot was taken.
+     * @param start the time the build of the filter started, from {@link System#nanoTime()}.
+     * @return how the filter was built, or an empty Optional if there is no usable snapshot.
+     * @throws UserStoreException if the usernames couldn't be read.
+     */
+    private Optional<FilterBuild> restoreUsernameFilter(final long start)
+            throws UserStoreException {
+        if (filterSnapshotPath == null) {
+            return Optional.empty();
+        }
+
+        UsernameFilterSnapshot.Contents snapshot;
+        try {
+            Optional<UsernameFilterSnapshot.Contents> contents =
+                    UsernameFilterSnapshot.read(filterSnapshotPath);
+            if (contents.isEmpty()) {
+                return Optional.empty();
+            }
+            snapshot = contents.get();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+            return Optional.empty();
+        }
+
+        BloomFilter filter = snapshot.filter();
+        if (filter.getFalsePositiveRate() != filterFalsePositiveRate
+                || filter.getStats().expectedInsertions() < filterExpectedUsers) {
+            return Optional.empty();
+        }
+
+        LongAdder replayed = new LongAdder();
+        try {
+            pendingUsernameFilter = filter;
+            List<UserStore.Position> positions = store.getPositions();
+            boolean applies = store.forEachUsernameSince(snapshot.positions(), username -> {
+                filter.add(username);
+                replayed.increment();
+            });
+
+            // a filter holding more users than it was sized for is rebuilt to grow it
+            if (!applies || filter.getStats().insertions()
+                    > filter.getStats().expectedInsertions()) {
+                return Optional.empty();
+            }
+
+            usernameFilter = filter;
+            filterPositions = positions;
+            return Optional.of(new FilterBuild(filter.getStats(), true, replayed.sum(),
+                    (System.nanoTime() - start) / 1_000_000));
+        } finally {
+            pendingUsernameFilter = null;
+        }
+    }
+
+    /**
+     * Helper method to start snapshotting the username filter periodically, if configured.
+     * @param now whether to take a snapshot right away, e.g. because the filter was just built
+     * from the store.
+     */
+    private synchronized void startFilterSnapshots(final boolean now) {
+        if (filterSnapshotPath == null || filterSnapshotIntervalMillis <= 0
+                || filterSnapshotter != null) {
+            return;
+        }
+
+        filterSnapshotter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "username-filter-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        filterSnapshotter.scheduleWithFixedDelay(this::snapshotUsernameFilterQuietly,
+                now ? 0 : filterSnapshotIntervalMillis, filterSnapshotIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes a snapshot of the username filter to the configured file. The users written to the
+     * store since the previous snapshot are added to the filter first, since users written by
+     * other processes aren't in it otherwise. The positions of the store are read before those
+     * users, so every user up to the positions is in the snapshot.
+     * @return true if a snapshot was written, or false if there is no filter yet, snapshots are
+     * turned off, or the store can't replay its registrations.
+     * @throws UserStoreException if the users written since the previous snapshot couldn't be
+     * read.
+     * @throws IOException if the snapshot couldn't be written.
+     */
+    public synchronized boolean snapshotUsernameFilter() throws UserStoreException, IOException {
+        BloomFilter filter = usernameFilter;
+        if (filter == null || filterSnapshotPath == null || filterPositions.isEmpty()) {
+            return false;
+        }
+
+        List<UserStore.Position> positions = store.getPositions();
+        if (positions.isEmpty() || !store.forEachUsernameSince(filterPositions, filter::add)) {
+            return false;
+        }
+
+        filterPositions = positions;
+        UsernameFilterSnapshot.write(filterSnapshotPath, filter, positions);
+        return true;
+    }
+
+    /**
+     * Helper method to snapshot the username filter in the background, reporting any failure
+     * rather than throwing it, which would stop later snapshots.
+     */
+    private void snapshotUsernameFilterQuietly() {
+        try {
+            snapshotUsernameFilter();
+        } catch (UserStoreException | IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops snapshotting the username filter and closes the store, waiting for the writes that
+     * are still pending.
+     */
+    public synchronized void close() {
+        if (filterSnapshotter != null) {
+            filterSnapshotter.shutdownNow();
+            filterSnapshotter = null;
+        }
+
+        store.close();
+    }
+
+    /**
+     * Returns the credentials of the user with the given username, from the cache if possible.
+     * @param username the username to look up.
+     * @return the credentials of the user, or an empty Optional if no such user is registered.
+     * @throws UserStoreException if the credentials couldn't be read.
+     */
+    public Optional<Credentials> findByUsername(final String username)
+            throws UserStoreException {
+        Credentials cached = cache.get(username);
+        if (cached != null) {
+            return Optional.of(cached);
+        }
+
+        BloomFilter filter = usernameFilter;
+        if (filter != null && !filter.mightContain(username)) {
+            filterRejections.increment();
+            return Optional.empty();
+        }
+
+        if (unknownUsernames.get(username) != null) {
+            countFalsePositive(filter);
+            return Optional.empty();
+        }
+
+        long writesBefore = writes.get();
+        Optional<Credentials> credentials = store.findByUsername(username);
+
+        if (credentials.isPresent()) {
+            cache.put(username, credentials.get());
+        } else {
+            unknownUsernames.put(username, Boolean.TRUE);
+            countFalsePositive(filter);
+        }
+
+        // a write that happened during the lookup may have invalidated the entry before it was
+        // added; it might be stale, so drop it again
+        if (writes.get() != writesBefore) {
+            invalidate(username);
+        }
+
+        return credentials;
+    }
+
+    /**
+     * Helper method to count a lookup of an unknown username that the username filter let through.
+     * @param filter the username filter that was consulted, or null if there was none.
+     */
+    private void countFalsePositive(final BloomFilter filter) {
+        if (filter != null) {
+            filterFalsePositives.increment();
+        }
+    }
+
+    /**
+     * Adds the credentials of a new user; fails if the username is already registered.
+     * @param credentials the credentials to add.
+     * @return true if the user was added, or false if the username is already taken.
+     * @throws RejectedExecutionException if too many registrations are waiting to be written.
+     * @throws InterruptedException if interrupted while waiting for the user to be written.
+     * @throws UserStoreException if the credentials couldn't be written.
+     */
+    public boolean insert(final Credentials credentials)
+            throws InterruptedException, UserStoreException {
+        // added before the user is written, so that a snapshot never misses a written user; a
+        // username that turns out to be taken is in the filter already anyway
+        addToUsernameFilters(credentials.username());
+        boolean inserted = store.insert(credentials);
+
+        if (inserted) {
+            recordWrite(credentials.username());
+        }
+
+        return inserted;
+    }
+
+    /**
+     * Replaces the stored password hash of a registered user, e.g. after rehashing it with a
+     * stronger scheme.
+     * @param credentials the new credentials; the username identifies the user.
+     * @return true if the credentials were updated, or false if the user isn't registered.
+     * @throws UserStoreException if the credentials couldn't be written.
+     */
+    public boolean updatePassword(final Credentials credentials) throws UserStoreException {
+        boolean updated = store.updatePassword(credentials);
+        recordWrite(credentials.username());
+        return updated;
+    }
+
+    /**
+     * Helper method to record that the credentials of a user have been written: the username is
+     * added to the username filter, and the cached entries of the user are dropped. The write is
+     * counted before the entries are dropped, so that a lookup running at the same time either
+     * sees it and drops its own entry, or adds its entry before it is invalidated here.
+     * @param username the username of the user.
+     */
+    private void recordWrite(final String username) {
+        addToUsernameFilters(username);
+        writes.incrementAndGet();
+        invalidate(username);
+    }
+
+    /**
+     * Helper method to add a username to the username filter, and to the filter being built if
+     * there is one.
+     * @param username the username to add.
+     */
+    private void addToUsernameFilters(final String username) {
+        // the pending filter is read first; once it is gone, the filter that replaced it is current
+        BloomFilter pending = pendingUsernameFilter;
+        if (pending != null) {
+            pending.add(username);
+        }
+
+        BloomFilter filter = usernameFilter;
+        if (filter != null) {
+            filter.add(username);
+        }
+    }
+
+    /**
+     * Helper method to drop the cached entries of a user.
+     * @param username the username of the user.
+     */
+    private void invalidate(final String username) {
+        cache.invalidate(username);
+        unknownUsernames.invalidate(username);
+    }
+
+    /**
+     * Returns the batching statistics of group commit.
+     * @return the current statistics of the group commit writers of all shards combined, or an
+     * empty Optional if group commit is turned off or the users aren't kept in SQLite.
+     */
+    public Optional<GroupCommitWriter.Stats> getGroupCommitStats() {
+        if (store instanceof SqliteUserStore sqliteStore) {
+            return sqliteStore.getGroupCommitStats();
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the hit, miss and eviction statistics of the credential caches.
+     * @return the current statistics of the caches.
+     */
+    public CacheStats getCacheStats() {
+        return new CacheStats(cache.getStats(), unknownUsernames.getStats());
+    }
+
+    /**
+     * Returns the size and effectiveness statistics of the username filter.
+     * @return the current statistics of the filter, or an empty Optional if it hasn't been built.
+     */
+    public Optional<FilterStats> getUsernameFilterStats() {
+        BloomFilter filter = usernameFilter;
+        if (filter == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new FilterStats(filter.getStats(), filterRejections.sum(),
+                filterFalsePositives.sum()));
+    }
+
+    /**
+     * Statistics of the username filter of a {@link CredentialRepository}.
+     * @param filter the size and fill statistics of the filter.
+     * @param rejections the number of unknown usernames rejected without going to the store.
+     * @param falsePositives the number of unknown usernames the filter let through.
+     */
+    public record FilterStats(BloomFilter.Stats filter, long rejections, long falsePositives) {
+        /**
+         * Returns the fraction of lookups of unknown usernames that the filter let through.
+         * @return the observed false-positive rate between 0 and 1, or 0 if there have been none.
+         */
+        public double observedFalsePositiveRate() {
+            long unknown = rejections + falsePositives;
+            return unknown == 0 ? 0 : (double) falsePositives / unknown;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s; %d rejections, %d false positives (%.4f%%)", filter,
+                    rejections, falsePositives, observedFalsePositiveRate() * 100);
+        }
+    }
+
+    /**
+     * How the username filter of a {@link CredentialRepository} was built.
+     * @param filter the size and fill statistics of the new filter.
+     * @param fromSnapshot whether the filter was loaded from its snapshot.
+     * @param users the number of users read from the store: all of them, or only those
+     * registered since the snapshot.
+     * @param millis how long building the filter took, in milliseconds.
+     */
+    public record FilterBuild(BloomFilter.Stats filter, boolean fromSnapshot, long users,
+                              long millis) {
+        @Override
+        public String toString() {
+            return String.format(fromSnapshot
+                    ? "loaded from snapshot and %d users added in %d ms"
+                    : "built from %d users in %d ms", users, millis);
+        }
+    }
+
+    /**
+     * Statistics of the caches of a {@link CredentialRepository}.
+     * @param credentials the statistics of the cache of credentials of registered users.
+     * @param unknownUsernames the statistics of the cache of usernames that aren't registered.
+     */
+    public record CacheStats(LruCache.Stats credentials, LruCache.Stats unknownUsernames) {
+        @Override
+        public String toString() {
+            return "credentials: " + credentials + "; unknown usernames: " + unknownUsernames;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.shinkamon.userlogin.database;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * The stored login credentials of a registered user. The hash and salt are raw bytes; as with any
+ * record holding arrays, they must not be modified once the credentials have been created.
+ * @param username the username of the user.
+ * @param passwordHash the hashed password of the user.
+ * @param passwordSalt the salt needed to generate the hashed password.
+ * @param hashAlgorithm the algorithm the hashed password was generated with.
+ * @param hashParameters the parameters of the algorithm, e.g. its work factor.
+ */
+public record Credentials(String username, byte[] passwordHash, byte[] passwordSalt,
+                          String hashAlgorithm, String hashParameters) {
+    /**
+     * Checks whether other credentials are equal to these, comparing the contents of the hash and
+     * salt rather than the arrays themselves.
+     * @param o the object to compare with.
+     * @return whether the credentials are equal as a boolean.
+     */
+    @Override
+    public boolean equals(final Object o) {
+        return o instanceof Credentials other
+                && username.equals(other.username)
+                && Arrays.equals(passwordHash, other.passwordHash)
+                && Arrays.equals(passwordSalt, other.passwordSalt)
+                && hashAlgorithm.equals(other.hashAlgorithm)
+                && hashParameters.equals(other.hashParameters);
+    }
+
+    /**
+     * Returns a hash code based on the contents of the credentials.
+     * @return the hash code.
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(username, Arrays.hashCode(passwordHash), Arrays.hashCode(passwordSalt),
+                hashAlgorithm, hashParameters);
+    }
+
+    /**
+     * Returns a description of the credentials that leaves out the hash and salt.
+     * @return the description.
+     */
+    @Override
+    public String toString() {
+        return "Credentials[username=" + username + ", hashAlgorithm=" + hashAlgorithm
+                + ", hashParameters=" + hashParameters + "]";
+    }
+}
@@ -1,121 +1,381 @@
 package com.shinkamon.userlogin.database;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.shinkamon.userlogin.support.InputReader;
+import com.shinkamon.userlogin.support.Settings;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Type;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.sql.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * Singleton class that provides access to a database for registered users;
  * access is provided through the public field INSTANCE.
+ * <p>
+ * The users can be spread over several database files, called shards, each with its own
+ * connection pool, so that registrations on different shards don't wait for each other's write
+ * lock. The shard of a user is picked by a stable hash of the username; see {@link ShardRouter}.
+ * With a single shard, which is the default, the database is the one file named in
+ * resources/database-info.json.
+ * <p>
+ * Every shard records the number of shards it was created for in its application_id header
+ * field, and the database refuses to start on a shard created for another number, since the
+ * users on it would be looked up on the wrong shards.
  */
 public final class Database {
+    // initialized before INSTANCE, since the constructor uses it;
+    // pragma values are inserted into SQL as-is, so only plain words and numbers are accepted
+    private static final Pattern PRAGMA_VALUE = Pattern.compile("^-?\\w+$");
     /**
      * The single instance of the class, through which methods are accessible.
      */
     public static final Database INSTANCE = new Database();
-    private String name;
-    private String url;
+    private static final int DEFAULT_POOL_SIZE = 4;
+    private static final int DEFAULT_POOL_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 32;
+    private final String name;
+    private final String url;
+    private final String journalMode;
+    private final String autoVacuum;
+    private final Settings databaseInfo;
+    private final List<Shard> shards;
 
     private Database() {
-        Path path = Paths.get("resources/database-info.json");
-        Gson gson = new Gson();
-        try {
-            String json = Files.readString(path);
-            // get the type to convert the json into in order to avoid type-erasure
-            Type stringMap = new TypeToken<HashMap<String, String>>() { }.getType();
-            Map<String, String> databaseInfo = gson.fromJson(json, stringMap);
-            name = databaseInfo.get("name");
-            url = databaseInfo.get("url");
-        } catch (IOException e) {
+        databaseInfo = Settings.load("resources/database-info.json");
+        name = databaseInfo.getString("name", null);
+        url = databaseInfo.getString("url", null);
+        // write-ahead logging lets logins read while a registration is being written
+        journalMode = getPragmaValue(databaseInfo, "journalMode", "WAL");
+        // lets free pages be released in small batches while the database is in use
+        autoVacuum = getPragmaValue(databaseInfo, "autoVacuum", "INCREMENTAL");
+
+        // these pragmas only apply to the connection they are set on; in WAL mode NORMAL is still
+        // safe against corruption, and negative cache sizes are in KiB, so 16 MiB per connection
+        List<String> connectionPragmas = List.of(
+                "PRAGMA synchronous = " + getPragmaValue(databaseInfo, "synchronous", "NORMAL"),
+                "PRAGMA cache_size = " + getPragmaValue(databaseInfo, "cacheSize", "-16000"),
+                "PRAGMA mmap_size = " + getPragmaValue(databaseInfo, "mmapSize", "268435456"));
+        int shardCount = databaseInfo.getInt("shardCount", 1);
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Invalid value for shardCount: " + shardCount);
+        }
+
+        List<Shard> shardList = new ArrayList<>(shardCount);
+
+        if (shardCount == 1) {
+            shardList.add(new Shard(name, createPool(url, connectionPragmas)));
+        } else {
+            // e.g. ppab6-shard%d.db and jdbc:sqlite:resources/ppab6-shard%d.db
+            String namePattern = databaseInfo.getString("shardNamePattern", null);
+            String urlPattern = databaseInfo.getString("shardUrlPattern", null);
+
+            if (namePattern == null || urlPattern == null) {
+                throw new IllegalArgumentException(
+                        "shardNamePattern and shardUrlPattern are required for multiple shards.");
+            }
+
+            for (int i = 0; i < shardCount; i++) {
+                shardList.add(new Shard(String.format(namePattern, i),
+                        createPool(String.format(urlPattern, i), connectionPragmas)));
+            }
+        }
+
+        shards = List.copyOf(shardList);
+        // close the pooled connections cleanly when the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(
+                () -> shards.forEach(shard -> shard.pool().close()), "database-shutdown"));
+    }
+
+    /**
+     * Helper method to create the connection pool of a database file.
+     * @param poolUrl the JDBC url of the database file.
+     * @param connectionPragmas the pragmas to set on every new connection.
+     * @return the connection pool.
+     */
+    private ConnectionPool createPool(final String poolUrl, final List<String> connectionPragmas) {
+        return new ConnectionPool(poolUrl,
+                databaseInfo.getInt("poolSize", DEFAULT_POOL_SIZE),
+                databaseInfo.getInt("poolTimeoutMillis", DEFAULT_POOL_TIMEOUT_MILLIS),
+                databaseInfo.getInt("statementCacheSize", DEFAULT_STATEMENT_CACHE_SIZE),
+                connectionPragmas);
+    }
+
+    /**
+     * Helper method to read an optional pragma value from the database info.
+     * @param databaseInfo the database info read from the json file.
+     * @param key the name of the setting.
+     * @param defaultValue the value to use if the setting is missing.
+     * @return the value of the setting, or the default value if it is missing.
+     * @throws IllegalArgumentException if the value isn't a plain word or number.
+     */
+    private static String getPragmaValue(final Settings databaseInfo, final String key,
+                                         final String defaultValue) {
+        String value = databaseInfo.getString(key, defaultValue);
+
+        if (!PRAGMA_VALUE.matcher(value).matches()) {
+            throw new IllegalArgumentException("Invalid value for " + key + ": " + value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Helper method to print the size of a shard of the database, and the tables and indexes in
+     * it with their estimated number of rows. Nothing is counted, so this is quick however many
+     * users the shard holds; see {@link DatabaseAdmin}.
+     * @param shard the shard.
+     */
+    private void printSummary(final Shard shard) {
+        try (PooledConnection connection = shard.pool().getConnection()) {
+            System.out.println(DatabaseAdmin.readStats(shard.name(),
+                    Path.of("resources", shard.name()), connection.getConnection(), false));
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
             e.printStackTrace();
         }
     }
 
     /**
-     * Helper method to print the names of the tables in the database,
-     * and the number of rows in each table.
+     * Helper method to create a new shard of the database, and add a table for storing user
+     * login details.
+     * @param shard the shard.
      */
-    private void printTablesRowCount() {
-        try (Connection connection = getConnection()) {
-            // get the names of all tables in the database
-            Statement statement = connection.createStatement();
-            String query = """
-                    SELECT name
-                    FROM sqlite_master
-                    WHERE type = 'table'
-                    AND name NOT LIKE 'sqlite_%'
-                    """;
-            ResultSet tables = statement.executeQuery(query);
+    private void createDatabase(final Shard shard) {
+        // a new database is created when connecting if it doesn't already exist
+        if (migrateDatabase(shard.pool()) >= 0) {
+            checkShardCount(shard.pool(), shard.name());
+            System.out.println("Created new database " + shard.name() + ".");
+        }
+    }
 
-            System.out.println(name + " has the following table(s):");
+    /**
+     * Helper method to upgrade an existing shard of the database to the latest schema version,
+     * keeping its data.
+     * @param shard the shard.
+     */
+    private void upgradeDatabase(final Shard shard) {
+        int applied = migrateDatabase(shard.pool());
+        checkShardCount(shard.pool(), shard.name());
 
-            while (tables.next()) {
-                // get the number of rows from the table
-                String tableName = tables.getString(1);
-                String query2 = "SELECT COUNT(*) FROM " + tableName;
-                Statement statement2 = connection.createStatement();
-                int rowCount = statement2.executeQuery(query2).getInt(1);
+        if (applied > 0) {
+            System.out.println("Upgraded database " + shard.name() + " to schema version "
+                    + SchemaMigrator.getLatestVersion() + ".");
+        }
+    }
+
+    /**
+     * Brings the schema of a database file to the latest version, and switches it to the
+     * configured journal mode. A new database file is also given the configured auto-vacuum mode,
+     * which can only be changed afterwards by rewriting the whole file.
+     * @param pool the connection pool of the database file.
+     * @return the number of migrations applied, or -1 if the database couldn't be migrated.
+     */
+    int migrateDatabase(final ConnectionPool pool) {
+        try (PooledConnection connection = pool.getConnection()) {
+            if (SchemaMigrator.getVersion(connection.getConnection()) == 0) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("PRAGMA auto_vacuum = " + autoVacuum);
+                }
+            }
 
-                System.out.println("  " + tableName + " (" + rowCount + " rows)");
+            // the journal mode is stored in the database file, but can't be changed in a transaction
+            try (Statement statement = connection.createStatement()) {
+                statement.executeQuery("PRAGMA journal_mode = " + journalMode).close();
             }
+
+            return SchemaMigrator.migrate(connection.getConnection());
         } catch (SQLException e) {
-            System.err.println(e.getMessage());
+            System.out.println(e.getMessage());
             e.printStackTrace();
         }
+
+        return -1;
     }
 
     /**
-     * Helper method to create a new database, and add a table for storing user login details.
+     * Checks that a shard of the database was created for the configured number of shards, and
+     * records that number in a shard that doesn't have one yet, e.g. because it was created by
+     * an earlier version.
+     * @param pool the connection pool of the shard.
+     * @param shardName the name of the shard, for the error message.
+     * @throws IllegalStateException if the shard was created for another number of shards.
      */
-    private void createDatabase() {
-        // a new database is created when connecting if it doesn't already exist
-        try (Connection connection = getConnection()) {
-            Statement statement = connection.createStatement();
-            // create the table for usernames and passwords
-            String query = """
-                  CREATE TABLE users (
-                  username VARCHAR,
-                  password_hash VARCHAR,
-                  password_salt VARCHAR
-                  )
-                  """;
-            statement.executeUpdate(query);
-            System.out.println("Created new database " + name + ".");
+    void checkShardCount(final ConnectionPool pool, final String shardName) {
+        try (PooledConnection connection = pool.getConnection()) {
+            checkShardCount(connection.getConnection(), shardName, shards.size());
         } catch (SQLException e) {
             System.out.println(e.getMessage());
             e.printStackTrace();
         }
+    }
+
+    /**
+     * Helper method to check the number of shards recorded in a database file, and to record it
+     * if there is none yet.
+     * @param connection a connection to the database file, in auto-commit mode.
+     * @param shardName the name of the database file, for the error message.
+     * @param shardCount the configured number of shards.
+     * @throws IllegalStateException if the file was created for another number of shards.
+     * @throws SQLException if a database access error occurs.
+     */
+    static void checkShardCount(final Connection connection, final String shardName,
+                                final int shardCount) throws SQLException {
+        int recorded;
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA application_id")) {
+            recorded = resultSet.getInt(1);
+        }
 
+        if (recorded == 0) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA application_id = " + shardCount);
+            }
+        } else if (recorded != shardCount) {
+            throw new IllegalStateException("Database " + shardName + " was created for "
+                    + recorded + " shards, but shardCount is " + shardCount + "; its users "
+                    + "would be looked up on the wrong shards.");
+        }
     }
 
     /**
-     * Helper method to delete the database.
+     * Helper method to delete a shard of the database.
+     * @param shard the shard.
      */
-    private void deleteDatabase() {
-        File databaseFile = new File("resources/" + name);
+    private void deleteDatabase(final Shard shard) {
+        // pooled connections would otherwise keep using the deleted file
+        shard.pool().evictIdleConnections();
+        File databaseFile = new File("resources/" + shard.name());
+        // remove any write-ahead log left behind, so it isn't applied to the new database
+        new File("resources/" + shard.name() + "-wal").delete();
+        new File("resources/" + shard.name() + "-shm").delete();
         if (databaseFile.delete()) {
-            System.out.println("Deleted database " + name + ".");
+            System.out.println("Deleted database " + shard.name() + ".");
         } else {
-            System.out.println("Unable to delete database " + name);
+            System.out.println("Unable to delete database " + shard.name());
         }
     }
 
     /**
-     * Returns an established connection to the database.
-     * @return a connection to the database.
+     * Returns the number of shards the users are spread over.
+     * @return the number of shards; 1 if the database isn't sharded.
      */
-    public Connection getConnection() throws SQLException {
-        return DriverManager.getConnection(url);
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Returns the shard that holds, or will hold, the user with the given username.
+     * @param username the username of the user.
+     * @return the index of the shard.
+     */
+    public int getShard(final String username) {
+        return ShardRouter.shardOf(username, shards.size());
+    }
+
+    /**
+     * Returns an established connection to a shard of the database from its connection pool.
+     * The connection must be closed after use to return it to the pool.
+     * @param shard the index of the shard.
+     * @return a connection to the shard.
+     * @throws SQLException if no connection could be obtained or a database access error occurs.
+     */
+    public PooledConnection getConnection(final int shard) throws SQLException {
+        return shards.get(shard).pool().getConnection();
+    }
+
+    /**
+     * Returns the usage and wait-time statistics of the connection pools of all shards combined.
+     * @return the current statistics of the connection pools.
+     */
+    public ConnectionPool.Stats getPoolStats() {
+        int maxSize = 0;
+        int open = 0;
+        int idle = 0;
+        int inUse = 0;
+        long acquisitions = 0;
+        long timeouts = 0;
+        long totalWaitNanos = 0;
+        long maxWaitNanos = 0;
+
+        for (Shard shard : shards) {
+            ConnectionPool.Stats stats = shard.pool().getStats();
+            maxSize += stats.maxSize();
+            open += stats.open();
+            idle += stats.idle();
+            inUse += stats.inUse();
+            acquisitions += stats.acquisitions();
+            timeouts += stats.timeouts();
+            totalWaitNanos += stats.totalWaitNanos();
+            maxWaitNanos = Math.max(maxWaitNanos, stats.maxWaitNanos());
+        }
+
+        return new ConnectionPool.Stats(maxSize, open, idle, inUse, acquisitions, timeouts,
+                totalWaitNanos, maxWaitNanos);
+    }
+
+    /**
+     * Returns the size of the database files of all shards, including their write-ahead logs.
+     * @return the size of the database on disk in bytes.
+     */
+    public long getSizeOnDisk() {
+        long size = 0;
+
+        for (Shard shard : shards) {
+            // File#length is 0 for a file that doesn't exist, e.g. a checkpointed log
+            size += new File("resources/" + shard.name()).length();
+            size += new File("resources/" + shard.name() + "-wal").length();
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns the connection pool of a shard, for classes that manage their own connections.
+     * @param shard the index of the shard.
+     * @return the connection pool of the shard.
+     */
+    ConnectionPool getPool(final int shard) {
+        return shards.get(shard).pool();
+    }
+
+    /**
+     * Returns the name of the file of a shard.
+     * @param shard the index of the shard.
+     * @return the name of the database file in the resources directory.
+     */
+    String getShardName(final int shard) {
+        return shards.get(shard).name();
+    }
+
+    /**
+     * Returns the name of the single database file, which holds all users when the database
+     * isn't sharded, and which sharded databases are created from by the {@link Resharder}.
+     * @return the name of the database file in the resources directory.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the JDBC url of the single database file; see {@link #getName()}.
+     * @return the JDBC url of the database file.
+     */
+    String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns the settings read from resources/database-info.json.
+     * @return the database settings.
+     */
+    public Settings getSettings() {
+        return databaseInfo;
     }
 
 
@@ -127,26 +387,43 @@ public final class Database {
      * @throws IOException if an I/O error occurs.
      */
     public void setupDatabase(boolean recreate) throws IOException {
-        File databaseFile = new File("resources/" + name);
+        List<Shard> existing = new ArrayList<>();
 
-        if (!databaseFile.exists()) {
-            createDatabase();
-            return;
+        for (Shard shard : shards) {
+            if (new File("resources/" + shard.name()).exists()) {
+                upgradeDatabase(shard);
+                existing.add(shard);
+            } else {
+                createDatabase(shard);
+            }
         }
 
-        if (!recreate) {
+        if (!recreate || existing.isEmpty()) {
             return;
         }
 
-        System.out.println("Database " + name + " already exists.");
-        printTablesRowCount();
+        for (Shard shard : existing) {
+            System.out.println("Database " + shard.name() + " already exists.");
+            printSummary(shard);
+        }
+
         System.out.print("Do you want to delete and recreate it from a template? Y/N: ");
 
         if (InputReader.readLine().equalsIgnoreCase("y")) {
-            deleteDatabase();
-            createDatabase();
+            for (Shard shard : existing) {
+                deleteDatabase(shard);
+                createDatabase(shard);
+            }
         } else {
             System.out.println("Continuing with existing database.");
         }
     }
+
+    /**
+     * A database file holding part of the users, and its connection pool.
+     * @param name the name of the database file in the resources directory.
+     * @param pool the connection pool of the database file.
+     */
+    private record Shard(String name, ConnectionPool pool) {
+    }
 }
@@ -0,0 +1,602 @@
+package com.shinkamon.userlogin.database;
+
+import com.google.gson.JsonObject;
+import com.shinkamon.userlogin.support.CsvFields;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Non-interactive administration of the database: statistics, exports and maintenance, which
+ * can be run while a server is serving logins from the same files.
+ * <p>
+ * Statistics are read from the database header and the schema, which SQLite keeps in memory,
+ * and from the row estimates that ANALYZE stores in sqlite_stat1, so no table is scanned to
+ * count its rows. Sizes of tables and indexes are read from the dbstat virtual table when SQLite
+ * was built with it; it reads every page once, so it is only used on request.
+ * <p>
+ * Exports read every shard in a single read transaction, started on all shards before the first
+ * row is written, so the export is a snapshot of the users as they were when it started.
+ * In write-ahead log mode readers don't block writers, so logins and registrations carry on;
+ * the log just isn't checkpointed past the snapshot until the export has finished. Rows are
+ * streamed to a temporary file, which replaces the output in one atomic rename.
+ * <p>
+ * Vacuuming releases free pages a batch at a time in short write transactions, so registrations
+ * only ever wait for one batch. That needs incremental auto-vacuum, which new databases are
+ * created with; an older database is rewritten once with a full VACUUM to switch it over.
+ */
+public final class DatabaseAdmin {
+    private static final int DEFAULT_ANALYSIS_LIMIT = 1000;
+    private static final int PROGRESS_ROWS = 100_000;
+    private static final long PROGRESS_NANOS = 1_000_000_000L;
+    // 256 pages are 1 MiB with the default page size
+    private static final int VACUUM_BATCH_PAGES = 256;
+    // gives registrations waiting for the write lock a chance to take it between batches
+    private static final long VACUUM_PAUSE_MILLIS = 10;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private static final String[] AUTO_VACUUM_MODES = {"none", "full", "incremental"};
+    private static final String SELECT_SCHEMA = """
+            SELECT type, name, tbl_name
+            FROM sqlite_master
+            WHERE type IN ('table', 'index')
+            ORDER BY tbl_name, type DESC, name
+            """;
+    private static final String SELECT_ROW_ESTIMATES = """
+            SELECT tbl, stat
+            FROM sqlite_stat1
+            """;
+    private static final String SELECT_SIZES = """
+            SELECT name, SUM(pgsize)
+            FROM dbstat
+            GROUP BY name
+            """;
+    private static final String SELECT_USERS = """
+            SELECT username, password_hash, password_salt, hash_algorithm, hash_parameters
+            FROM users
+            """;
+    private static final String CSV_HEADER =
+            "username,password_hash,password_salt,hash_algorithm,hash_parameters";
+    private static final String INCREMENTAL_VACUUM = "PRAGMA incremental_vacuum";
+    private final List<Shard> shards;
+    private final int analysisLimit;
+    private final PrintStream out;
+
+    /**
+     * Instantiates a new DatabaseAdmin for the database, printing progress to standard output.
+     */
+    public DatabaseAdmin() {
+        this(getShards(Database.INSTANCE), Database.INSTANCE.getSettings()
+                .getInt("analysisLimit", DEFAULT_ANALYSIS_LIMIT), System.out);
+    }
+
+    /**
+     * Instantiates a new DatabaseAdmin.
+     * @param shards the database files to administer.
+     * @param analysisLimit the approximate number of rows of every index that ANALYZE reads.
+     * @param out the stream to print progress to.
+     */
+    DatabaseAdmin(final List<Shard> shards, final int analysisLimit, final PrintStream out) {
+        if (analysisLimit < 0) {
+            throw new IllegalArgumentException("Analysis limit must not be negative.");
+        }
+
+        this.shards = List.copyOf(shards);
+        this.analysisLimit = analysisLimit;
+        this.out = out;
+    }
+
+    /**
+     * Helper method to list the shards of a database.
+     * @param database the database.
+     * @return the shards, with the paths of their files.
+     */
+    private static List<Shard> getShards(final Database database) {
+        List<Shard> shards = new ArrayList<>();
+
+        for (int i = 0; i < database.getShardCount(); i++) {
+            String name = database.getShardName(i);
+            shards.add(new Shard(name, Path.of("resources", name), database.getPool(i)));
+        }
+
+        return shards;
+    }
+
+    /**
+     * Returns the statistics of every shard, including the sizes of tables and indexes if SQLite
+     * supports reading them.
+     * @return the statistics of the shards.
+     * @throws SQLException if a database access error occurs.
+     */
+    public List<ShardStats> getStats() throws SQLException {
+        List<ShardStats> stats = new ArrayList<>();
+
+        for (Shard shard : shards) {
+            try (PooledConnection connection = shard.pool().getConnection()) {
+                stats.add(readStats(shard.name(), shard.file(), connection.getConnection(),
+                        true));
+            }
+        }
+
+        if (stats.stream().anyMatch(shardStats -> !shardStats.sized())) {
+            out.println("Sizes of tables and indexes are unavailable, since this SQLite was "
+                    + "built without the dbstat table.");
+        }
+
+        return stats;
+    }
+
+    /**
+     * Reads the statistics of a database file without scanning any table.
+     * @param name the name of the database file.
+     * @param file the path of the database file, to find the size of its write-ahead log.
+     * @param connection the connection to the database file.
+     * @param sizes whether to read the sizes of tables and indexes, which reads every page.
+     * @return the statistics of the database file.
+     * @throws SQLException if a database access error occurs.
+     */
+    static ShardStats readStats(final String name, final Path file, final Connection connection,
+                                final boolean sizes) throws SQLException {
+        int pageSize = (int) readPragma(connection, "page_size");
+        long pageCount = readPragma(connection, "page_count");
+        long freePages = readPragma(connection, "freelist_count");
+        int autoVacuum = (int) readPragma(connection, "auto_vacuum");
+        List<String[]> objects = new ArrayList<>();
+        boolean analyzed = false;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_SCHEMA)) {
+            while (resultSet.next()) {
+                String type = resultSet.getString(1);
+                String objectName = resultSet.getString(2);
+
+                // internal tables such as sqlite_stat1 aren't listed, but automatic indexes are
+                if (type.equals("table") && objectName.startsWith("sqlite_")) {
+                    analyzed |= objectName.equals("sqlite_stat1");
+                } else {
+                    objects.add(new String[] {type, objectName, resultSet.getString(3)});
+                }
+            }
+        }
+
+        Map<String, Long> rows = analyzed ? readRowEstimates(connection) : Map.of();
+        Map<String, Long> bytes = sizes ? readSizes(connection) : null;
+        List<ObjectStats> objectStats = new ArrayList<>();
+
+        for (String[] object : objects) {
+            objectStats.add(new ObjectStats(object[1], object[2], object[0].equals("index"),
+                    rows.getOrDefault(object[2], -1L),
+                    bytes == null ? -1 : bytes.getOrDefault(object[1], 0L)));
+        }
+
+        // File#length is 0 for a file that doesn't exist, e.g. a checkpointed log
+        long walBytes = new File(file + "-wal").length();
+        return new ShardStats(name, pageSize, pageCount, freePages, walBytes,
+                AUTO_VACUUM_MODES[autoVacuum], analyzed, bytes != null, objectStats);
+    }
+
+    /**
+     * Helper method to read the row estimates of the tables from the statistics stored by
+     * ANALYZE. Every index has a row whose statistics start with its number of entries, which is
+     * the number of rows of its table; tables without an index have a row of their own.
+     * @param connection the connection to the database file.
+     * @return the estimated number of rows of every analyzed table.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static Map<String, Long> readRowEstimates(final Connection connection)
+            throws SQLException {
+        Map<String, Long> rows = new HashMap<>();
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_ROW_ESTIMATES)) {
+            while (resultSet.next()) {
+                String stat = resultSet.getString(2);
+                int end = stat.indexOf(' ');
+
+                try {
+                    long estimate = Long.parseLong(end < 0 ? stat : stat.substring(0, end));
+                    rows.merge(resultSet.getString(1), estimate, Math::max);
+                } catch (NumberFormatException e) {
+                    // an unreadable row leaves its table without an estimate
+                }
+            }
+        }
+
+        return rows;
+    }
+
+    /**
+     * Helper method to read the sizes of tables and indexes from the dbstat virtual table.
+     * @param connection the connection to the database file.
+     * @return the size in bytes of every table and index, or null if SQLite was built without
+     * dbstat.
+     */
+    private static Map<String, Long> readSizes(final Connection connection) {
+        Map<String, Long> bytes = new HashMap<>();
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_SIZES)) {
+            while (resultSet.next()) {
+                bytes.put(resultSet.getString(1), resultSet.getLong(2));
+            }
+        } catch (SQLException e) {
+            // "no such table: dbstat" unless SQLite was compiled with SQLITE_ENABLE_DBSTAT_VTAB
+            return null;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Helper method to read a pragma that returns a single number.
+     * @param connection the connection to the database file.
+     * @param pragma the name of the pragma.
+     * @return the value of the pragma.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static long readPragma(final Connection connection, final String pragma)
+            throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA " + pragma)) {
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * Exports the users of every shard to a file, as they were when the export started.
+     * @param output the file to write.
+     * @param format the format of the file.
+     * @return the number of users exported and the size of the file.
+     * @throws SQLException if a database access error occurs.
+     * @throws IOException if the file couldn't be written.
+     */
+    public ExportResult export(final Path output, final Format format)
+            throws SQLException, IOException {
+        Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+        List<PooledConnection> connections = new ArrayList<>();
+        long exported = 0;
+        long started = System.nanoTime();
+
+        try {
+            // start the read transactions of all shards before reading any user, so every
+            // shard's snapshot is taken at about the same time
+            for (Shard shard : shards) {
+                PooledConnection connection = shard.pool().getConnection();
+                connections.add(connection);
+                connection.getConnection().setAutoCommit(false);
+
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeQuery("SELECT 1 FROM sqlite_master LIMIT 1").close();
+                }
+            }
+
+            try (BufferedWriter writer = Files.newBufferedWriter(temporary,
+                    StandardCharsets.UTF_8)) {
+                if (format == Format.CSV) {
+                    writer.write(CSV_HEADER);
+                    writer.newLine();
+                }
+
+                for (int i = 0; i < shards.size(); i++) {
+                    exported = exportShard(connections.get(i), writer, format, exported);
+                }
+            }
+
+            Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | SQLException | RuntimeException e) {
+            // don't leave a partial export behind
+            Files.deleteIfExists(temporary);
+            throw e;
+        } finally {
+            for (PooledConnection connection : connections) {
+                endReadTransaction(connection);
+                connection.close();
+            }
+        }
+
+        return new ExportResult(exported, Files.size(output),
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Helper method to stream the users of a shard to the export file.
+     * @param connection the connection to the shard, in its read transaction.
+     * @param writer the writer of the export file.
+     * @param format the format of the export file.
+     * @param exported the number of users exported from the previous shards.
+     * @return the number of users exported so far, including this shard's.
+     * @throws SQLException if a database access error occurs.
+     * @throws IOException if the file couldn't be written.
+     */
+    private long exportShard(final PooledConnection connection, final Writer writer,
+                             final Format format, final long exported)
+            throws SQLException, IOException {
+        Base64.Encoder encoder = Base64.getEncoder();
+        long count = exported;
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_USERS)) {
+            while (resultSet.next()) {
+                String username = resultSet.getString(1);
+                String hash = encoder.encodeToString(resultSet.getBytes(2));
+                String salt = encoder.encodeToString(resultSet.getBytes(3));
+                String algorithm = resultSet.getString(4);
+                String parameters = resultSet.getString(5);
+
+                if (format == Format.CSV) {
+                    writer.write(CsvFields.quote(username) + ',' + hash + ',' + salt + ','
+                            + CsvFields.quote(algorithm) + ',' + CsvFields.quote(parameters));
+                } else {
+                    JsonObject json = new JsonObject();
+                    json.addProperty("username", username);
+                    json.addProperty("passwordHash", hash);
+                    json.addProperty("passwordSalt", salt);
+                    json.addProperty("hashAlgorithm", algorithm);
+                    json.addProperty("hashParameters", parameters);
+                    writer.write(json.toString());
+                }
+
+                writer.write('\n');
+
+                if (++count % PROGRESS_ROWS == 0) {
+                    out.println("Exported " + count + " users.");
+                }
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Helper method to end the read transaction of an export, so the connection can go back to
+     * the pool.
+     * @param connection the connection to the shard.
+     */
+    private static void endReadTransaction(final PooledConnection connection) {
+        try {
+            Connection transaction = connection.getConnection();
+            if (!transaction.getAutoCommit()) {
+                transaction.rollback();
+                transaction.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Updates the row estimates of every shard's tables and indexes, reading at most about the
+     * configured number of rows of every index.
+     * @throws SQLException if a database access error occurs.
+     */
+    public void analyze() throws SQLException {
+        for (Shard shard : shards) {
+            long started = System.nanoTime();
+
+            try (PooledConnection connection = shard.pool().getConnection();
+                 Statement statement = connection.createStatement()) {
+                // 0 reads every row; otherwise the estimates are extrapolated from a sample
+                statement.execute("PRAGMA analysis_limit = " + analysisLimit);
+                statement.execute("ANALYZE");
+            }
+
+            out.printf("Analyzed %s in %.1f s.%n", shard.name(),
+                    (System.nanoTime() - started) / 1e9);
+        }
+    }
+
+    /**
+     * Releases the free pages of every shard to the file system, and truncates the write-ahead
+     * logs. A shard without incremental auto-vacuum is switched to it with a full VACUUM first.
+     * @throws SQLException if a database access error occurs.
+     * @throws InterruptedException if interrupted between two batches.
+     */
+    public void vacuum() throws SQLException, InterruptedException {
+        for (Shard shard : shards) {
+            long started = System.nanoTime();
+            long sizeBefore = shard.file().toFile().length();
+
+            try (PooledConnection connection = shard.pool().getConnection()) {
+                Connection transaction = connection.getConnection();
+
+                if (readPragma(transaction, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                    out.println(shard.name() + " doesn't use incremental auto-vacuum; rewriting "
+                            + "it with a full VACUUM, which blocks registrations until it ends.");
+
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+                        statement.execute("VACUUM");
+                    }
+                } else {
+                    releaseFreePages(shard, connection);
+                }
+
+                try (Statement statement = connection.createStatement();
+                     ResultSet resultSet = statement.executeQuery(
+                             "PRAGMA wal_checkpoint(TRUNCATE)")) {
+                    if (resultSet.getInt(1) != 0) {
+                        out.println("The write-ahead log of " + shard.name() + " is in use, "
+                                + "so it was only partly checkpointed.");
+                    }
+                }
+            }
+
+            out.printf("Vacuumed %s in %.1f s: %.1f MiB before, %.1f MiB after.%n", shard.name(),
+                    (System.nanoTime() - started) / 1e9, sizeBefore / 1048576.0,
+                    shard.file().toFile().length() / 1048576.0);
+        }
+    }
+
+    /**
+     * Helper method to release the free pages of a shard in batches, each in its own short
+     * write transaction.
+     * @param shard the shard.
+     * @param connection the connection to the shard.
+     * @throws SQLException if a database access error occurs.
+     * @throws InterruptedException if interrupted between two batches.
+     */
+    private void releaseFreePages(final Shard shard, final PooledConnection connection)
+            throws SQLException, InterruptedException {
+        Connection transaction = connection.getConnection();
+        long total = readPragma(transaction, "freelist_count");
+        long free = total;
+        long lastReport = System.nanoTime();
+
+        while (free > 0) {
+            transaction.setAutoCommit(false);
+
+            try {
+                // every step of the pragma releases one page, and the driver takes one step
+                // per execution; the statement is closed before the commit, which fails while
+                // a statement is in progress
+                try (PreparedStatement step = transaction.prepareStatement(INCREMENTAL_VACUUM)) {
+                    for (long i = Math.min(free, VACUUM_BATCH_PAGES); i > 0; i--) {
+                        step.execute();
+                    }
+                }
+
+                transaction.commit();
+            } catch (SQLException | RuntimeException e) {
+                transaction.rollback();
+                throw e;
+            } finally {
+                transaction.setAutoCommit(true);
+            }
+
+            long remaining = readPragma(transaction, "freelist_count");
+            if (remaining >= free) {
+                break;
+            }
+
+            free = remaining;
+
+            if (System.nanoTime() - lastReport >= PROGRESS_NANOS) {
+                out.printf("Released %d of %d free pages of %s.%n", total - free, total,
+                        shard.name());
+                lastReport = System.nanoTime();
+            }
+
+            Thread.sleep(VACUUM_PAUSE_MILLIS);
+        }
+    }
+
+    /**
+     * A database file to administer.
+     * @param name the name of the database file.
+     * @param file the path of the database file.
+     * @param pool the connection pool of the database file.
+     */
+    record Shard(String name, Path file, ConnectionPool pool) {
+    }
+
+    /**
+     * The format of an export file.
+     */
+    public enum Format {
+        /**
+         * Comma-separated values with a header line.
+         */
+        CSV,
+        /**
+         * One JSON object per line.
+         */
+        JSONL;
+
+        /**
+         * Returns the format named by a file extension: CSV for files ending in .csv, and JSON
+         * lines for any other file.
+         * @param path the path of the file.
+         * @return the format of the file.
+         */
+        public static Format of(final Path path) {
+            return path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv")
+                    ? CSV : JSONL;
+        }
+    }
+
+    /**
+     * Statistics of a database file.
+     * @param name the name of the database file.
+     * @param pageSize the size of a page in bytes.
+     * @param pageCount the number of pages in the file.
+     * @param freePages the number of unused pages, which a vacuum releases.
+     * @param walBytes the size of the write-ahead log in bytes.
+     * @param autoVacuum the auto-vacuum mode: none, full or incremental.
+     * @param analyzed whether ANALYZE has been run, so rows can be estimated.
+     * @param sized whether the sizes of tables and indexes could be read.
+     * @param objects the statistics of the tables and indexes.
+     */
+    public record ShardStats(String name, int pageSize, long pageCount, long freePages,
+                             long walBytes, String autoVacuum, boolean analyzed, boolean sized,
+                             List<ObjectStats> objects) {
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(String.format(
+                    "%s: %.1f MiB in %d pages of %d bytes, %d free, auto-vacuum %s, "
+                    + "%.1f MiB write-ahead log", name, pageCount * (double) pageSize / 1048576.0,
+                    pageCount, pageSize, freePages, autoVacuum, walBytes / 1048576.0));
+
+            if (!analyzed) {
+                builder.append(System.lineSeparator())
+                        .append("  no row estimates; run \"admin analyze\" to collect them");
+            }
+
+            for (ObjectStats object : objects) {
+                builder.append(System.lineSeparator()).append("  ").append(object);
+            }
+
+            return builder.toString();
+        }
+    }
+
+    /**
+     * Statistics of a table or an index.
+     * @param name the name of the table or index.
+     * @param table the name of the table, or of the table the index is on.
+     * @param index whether this is an index.
+     * @param estimatedRows the number of rows estimated by ANALYZE, or -1 if unknown.
+     * @param bytes the size in bytes, or -1 if it wasn't read.
+     */
+    public record ObjectStats(String name, String table, boolean index, long estimatedRows,
+                              long bytes) {
+        @Override
+        public String toString() {
+            return String.format("%s %s%s: %s rows%s", index ? "index" : "table", name,
+                    index ? " on " + table : "", estimatedRows < 0 ? "?" : "~" + estimatedRows,
+                    bytes < 0 ? "" : String.format(", %.1f MiB", bytes / 1048576.0));
+        }
+    }
+
+    /**
+     * The outcome of an export.
+     * @param users the number of users exported.
+     * @param bytes the size of the export file in bytes.
+     * @param millis the time the export took in milliseconds.
+     */
+    public record ExportResult(long users, long bytes, long millis) {
+        @Override
+        public String toString() {
+            return String.format("%d users, %.1f MiB in %.1f s", users, bytes / 1048576.0,
+                    millis / 1000.0);
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.shinkamon.userlogin.database;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the credentials of new users through a single writer thread that commits them in groups.
+ * SQLite allows only one writer at a time and every commit is synced to disk, so registrations that
+ * each commit their own transaction are capped by commit latency. Here, registrations are queued,
+ * and the writer thread inserts everything that is waiting, up to a maximum batch size, in one
+ * transaction; registrations that arrive while a batch is being committed form the next batch.
+ * Each registration still gets its own result, so a duplicate username fails only that one.
+ * <p>
+ * The writer can wait a short time for more registrations before committing a batch, trading
+ * latency for larger batches. When the queue is full, registrations are turned away immediately.
+ */
+public final class GroupCommitWriter implements AutoCloseable {
+    private static final AtomicInteger WRITER_NUMBER = new AtomicInteger();
+    private final ConnectionPool pool;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Thread writer;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile int largestBatch;
+    private volatile boolean closed;
+
+    /**
+     * Instantiates a new GroupCommitWriter and starts its writer thread.
+     * @param pool the pool to take the writer's connection from.
+     * @param maxBatchSize the maximum number of registrations committed in one transaction.
+     * @param maxWaitMicros how long to wait for more registrations before committing a batch
+     * that isn't full, in microseconds; 0 commits whatever is waiting right away.
+     * @param queueSize the maximum number of registrations waiting to be written.
+     */
+    public GroupCommitWriter(final ConnectionPool pool, final int maxBatchSize,
+                             final long maxWaitMicros, final int queueSize) {
+        if (maxBatchSize < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Batch and queue size must be at least 1.");
+        }
+
+        this.pool = pool;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = TimeUnit.MICROSECONDS.toNanos(maxWaitMicros);
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = new Thread(this::run, "group-commit-" + WRITER_NUMBER.incrementAndGet());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Adds the credentials of a new user, waiting until the batch they are written in has been
+     * committed; fails if the username is already registered.
+     * @param credentials the credentials to add.
+     * @return true if the user was added, or false if the username is already taken.
+     * @throws RejectedExecutionException if too many registrations are waiting to be written.
+     * @throws InterruptedException if interrupted while waiting; the user may still be added.
+     * @throws SQLException if the batch couldn't be committed.
+     */
+    public boolean insert(final Credentials credentials)
+            throws InterruptedException, SQLException {
+        if (closed) {
+            throw new RejectedExecutionException("Group commit writer is closed.");
+        }
+
+        Request request = new Request(credentials, new CompletableFuture<>());
+
+        if (!queue.offer(request)) {
+            rejected.increment();
+            throw new RejectedExecutionException("Group commit queue is full.");
+        }
+
+        // the writer thread may have stopped between the check above and the offer
+        if (closed && !writer.isAlive()) {
+            failWaiting(new ArrayList<>());
+        }
+
+        try {
+            return request.result().get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Helper method that runs on the writer thread, committing batches until the writer is closed.
+     */
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                fillBatch(batch);
+                writeBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            failWaiting(batch);
+        }
+    }
+
+    /**
+     * Helper method to add waiting registrations to a batch, waiting up to the maximum wait time
+     * for more if the batch isn't full.
+     * @param batch the batch to fill.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private void fillBatch(final List<Request> batch) throws InterruptedException {
+        queue.drainTo(batch, maxBatchSize - batch.size());
+
+        long deadline = System.nanoTime() + maxWaitNanos;
+        long remaining = maxWaitNanos;
+
+        while (batch.size() < maxBatchSize && remaining > 0) {
+            Request request = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (request == null) {
+                return;
+            }
+
+            batch.add(request);
+            queue.drainTo(batch, maxBatchSize - batch.size());
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Helper method to insert a batch of registrations in a single transaction, and to complete
+     * each of them with its own result once the transaction has been committed.
+     * @param batch the registrations to write.
+     */
+    private void writeBatch(final List<Request> batch) {
+        List<Credentials> users = new ArrayList<>(batch.size());
+        batch.forEach(request -> users.add(request.credentials()));
+        boolean[] inserted;
+
+        try (PooledConnection connection = pool.getConnection()) {
+            inserted = UserBatches.write(connection, users);
+        } catch (SQLException | RuntimeException e) {
+            batch.forEach(request -> request.result().completeExceptionally(e));
+            return;
+        }
+
+        batches.increment();
+        written.add(batch.size());
+        if (batch.size() > largestBatch) {
+            largestBatch = batch.size();
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).result().complete(inserted[i]);
+        }
+    }
+
+    /**
+     * Helper method to fail every registration that will no longer be written, once the writer
+     * thread has stopped.
+     * @param batch the registrations taken from the queue but not written.
+     */
+    private void failWaiting(final List<Request> batch) {
+        queue.drainTo(batch);
+        SQLException e = new SQLException("Group commit writer stopped.");
+        batch.forEach(request -> request.result().completeExceptionally(e));
+    }
+
+    /**
+     * Returns a snapshot of the batching statistics of the writer.
+     * @return the current statistics of the writer.
+     */
+    public Stats getStats() {
+        return new Stats(queue.size(), batches.sum(), written.sum(), largestBatch, rejected.sum());
+    }
+
+    /**
+     * Stops accepting registrations, and waits for the writer thread to write the ones that are
+     * already queued.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A queued registration and the future that receives its result.
+     * @param credentials the credentials to add.
+     * @param result completed with whether the user was added.
+     */
+    private record Request(Credentials credentials, CompletableFuture<Boolean> result) {
+    }
+
+    /**
+     * Batching statistics of a {@link GroupCommitWriter}.
+     * @param queued the number of registrations waiting to be written.
+     * @param batches the number of transactions committed.
+     * @param written the number of registrations written, including duplicates.
+     * @param largestBatch the largest number of registrations committed in one transaction.
+     * @param rejected the number of registrations turned away because the queue was full.
+     */
+    public record Stats(int queued, long batches, long written, int largestBatch, long rejected) {
+        /**
+         * Returns the average number of registrations committed per transaction.
+         * @return the average batch size, or 0 if nothing has been written.
+         */
+        public double averageBatchSize() {
+            return batches == 0 ? 0 : (double) written / batches;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d queued, %d written in %d batches (average %.1f, largest %d), "
+                    + "%d rejected", queued, written, batches, averageBatchSize(), largestBatch,
+                    rejected);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.shinkamon.userlogin.database;
+
+/**
+ * The outcome of a login through {@link UserLogin#startSession}, along with the session token
+ * issued for it.
+ * @param result the outcome of the authentication.
+ * @param token the session token, or null unless the user was authenticated and sessions are
+ * turned on.
+ */
+public record LoginSession(AuthenticationResult result, String token) {
+}
@@ -0,0 +1,805 @@
+package com.shinkamon.userlogin.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps the credentials of registered users in a memory-mapped, append-only log file, without
+ * SQL, for nodes that mostly serve logins.
+ * <p>
+ * The file starts with a short header, followed by records of a fixed size: a CRC-32 checksum of
+ * the rest of the record, then the username, password hash, salt, algorithm and parameters, each
+ * as a length byte followed by its bytes in a field of fixed size; the hash and salt as they are,
+ * the others in UTF-8. Registrations and
+ * password changes append a record; the last record of a username is the current one. Usernames
+ * are limited to ASCII, which is all that valid usernames contain.
+ * <p>
+ * An open-addressing hash table of usernames to record numbers is rebuilt from the log when the
+ * store is opened. Lookups probe it and compare the username against the mapped record in place,
+ * so finding a user, or finding that there is none, allocates nothing; only the credentials that
+ * are returned are. Lookups run in parallel; writes are appended one at a time, and only hold
+ * back lookups while the new record is added to the table.
+ * <p>
+ * Every record is synced to disk before it is visible, unless syncing is turned off. After a
+ * crash, the log is read up to the first record whose checksum doesn't match, which is a record
+ * that was being written; it is discarded, along with any records after it. Outdated records are
+ * removed by compaction, which runs in the background once at least half of the log is outdated:
+ * the current records are copied to a new file, which replaces the log in one atomic rename.
+ * Writes wait while the log is compacted; lookups don't.
+ */
+public final class MappedUserStore implements UserStore {
+    private static final int MAGIC = 0x50504d55;
+    // version 1 held the hash in hexadecimal form
+    private static final int VERSION = 2;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 256;
+    // every field is a length byte followed by up to size - 1 bytes
+    private static final int USERNAME_OFFSET = 4;
+    private static final int USERNAME_SIZE = 32;
+    private static final int HASH_OFFSET = USERNAME_OFFSET + USERNAME_SIZE;
+    private static final int HASH_SIZE = 96;
+    private static final int SALT_OFFSET = HASH_OFFSET + HASH_SIZE;
+    private static final int SALT_SIZE = 64;
+    private static final int ALGORITHM_OFFSET = SALT_OFFSET + SALT_SIZE;
+    private static final int ALGORITHM_SIZE = 32;
+    private static final int PARAMETERS_OFFSET = ALGORITHM_OFFSET + ALGORITHM_SIZE;
+    private static final int PARAMETERS_SIZE = RECORD_SIZE - PARAMETERS_OFFSET;
+    private static final int INITIAL_CAPACITY = 1024;
+    // a single mapping can't be larger than Integer.MAX_VALUE bytes
+    private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE;
+    private static final int MIN_COMPACTION_GARBAGE = 1024;
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+    private final Path path;
+    private final Path compactionPath;
+    private final boolean sync;
+    // held by writers and compaction, so that one record is appended at a time
+    private final ReentrantLock appendLock = new ReentrantLock();
+    // held for reading by lookups, and for writing while a record is published or the log swapped
+    private final StampedLock lock = new StampedLock();
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private final CRC32 checksum = new CRC32();
+    private final ScheduledExecutorService compactor;
+    private final LongAdder compactions = new LongAdder();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int records;
+    private Index index;
+    private boolean closed;
+
+    /**
+     * Opens the store in a file, creating the file if it doesn't exist, and starts compacting it
+     * in the background.
+     * @param path the path of the log file.
+     * @param sync whether every write is synced to disk before it returns; without it, writes of
+     * the last moments before a crash of the machine can be lost.
+     * @param compactionIntervalMillis how often to check whether the log needs compacting,
+     * in milliseconds; 0 turns background compaction off.
+     * @throws IOException if the file can't be opened, or isn't a credential log.
+     */
+    public MappedUserStore(final Path path, final boolean sync,
+                           final long compactionIntervalMillis) throws IOException {
+        this.path = path;
+        this.compactionPath = path.resolveSibling(path.getFileName() + ".compacting");
+        this.sync = sync;
+
+        // a compaction that didn't finish never replaced the log, so its file can go
+        Files.deleteIfExists(compactionPath);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+
+        try {
+            load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (compactionIntervalMillis > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mapped-store-compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(this::compactIfWorthwhile, compactionIntervalMillis,
+                    compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    /**
+     * Helper method to map the log file and rebuild the index from its records, writing the
+     * header first if the file is new.
+     * @throws IOException if the file can't be read, or isn't a credential log.
+     */
+    private void load() throws IOException {
+        long size = channel.size();
+
+        if (size == 0) {
+            writeHeader(channel);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+
+            if (size < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != RECORD_SIZE) {
+                throw new IOException(path + " isn't a credential log of this version.");
+            }
+        }
+
+        long fileRecords = (size - HEADER_SIZE + RECORD_SIZE - 1) / RECORD_SIZE;
+        capacity = (int) Math.min(Math.max(INITIAL_CAPACITY, fileRecords), MAX_CAPACITY);
+        buffer = map(channel, capacity);
+        index = new Index(INITIAL_CAPACITY);
+        records = 0;
+
+        byte[] bytes = new byte[RECORD_SIZE];
+        while (records < capacity && isValid(records, bytes)) {
+            index.put(buffer, records, hashStored(buffer, offsetOf(records)));
+            records++;
+        }
+
+        // clear what follows: a torn record, and any records that reached the disk before it
+        boolean cleared = false;
+        for (int record = records; record < capacity; record++) {
+            if (buffer.getInt(offsetOf(record)) != 0) {
+                buffer.putInt(offsetOf(record), 0);
+                cleared = true;
+            }
+        }
+
+        if (cleared) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Helper method to write the header of a new log file and sync it to disk.
+     * @param file the channel of the log file.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void writeHeader(final FileChannel file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).flip();
+        file.write(header, 0);
+        file.force(true);
+    }
+
+    /**
+     * Helper method to map a log file with room for the given number of records; the file grows
+     * to the mapped size if it is smaller.
+     * @param file the channel of the log file.
+     * @param recordCapacity the number of records to map.
+     * @return the mapped file.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static MappedByteBuffer map(final FileChannel file, final int recordCapacity)
+            throws IOException {
+        return file.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_SIZE + (long) recordCapacity * RECORD_SIZE);
+    }
+
+    @Override
+    public Optional<Credentials> findByUsername(final String username) throws UserStoreException {
+        int hash = hash(username);
+        if (hash == 0) {
+            return Optional.empty();
+        }
+
+        long stamp = lock.readLock();
+        try {
+            int record = index.find(buffer, username, hash);
+            return record < 0 ? Optional.empty() : Optional.of(decode(buffer, offsetOf(record)));
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds the credentials of a new user; fails if the username is already registered.
+     * @param credentials the credentials to add.
+     * @return true if the user was added, or false if the username is already taken.
+     * @throws IllegalArgumentException if a field of the credentials doesn't fit in a record.
+     * @throws RejectedExecutionException if the store has been closed.
+     * @throws UserStoreException if the record couldn't be written.
+     */
+    @Override
+    public boolean insert(final Credentials credentials) throws UserStoreException {
+        return write(credentials, false);
+    }
+
+    /**
+     * Replaces the stored password hash of a registered user by appending a new record.
+     * @param credentials the new credentials; the username identifies the user.
+     * @return true if the credentials were updated, or false if the user isn't registered.
+     * @throws IllegalArgumentException if a field of the credentials doesn't fit in a record.
+     * @throws RejectedExecutionException if the store has been closed.
+     * @throws UserStoreException if the record couldn't be written.
+     */
+    @Override
+    public boolean updatePassword(final Credentials credentials) throws UserStoreException {
+        return write(credentials, true);
+    }
+
+    /**
+     * Helper method to append a record for a user that must, or must not, be registered already.
+     * @param credentials the credentials to write.
+     * @param registered whether the user must be registered already.
+     * @return true if the record was appended, or false if the user was or wasn't registered.
+     * @throws UserStoreException if the record couldn't be written.
+     */
+    private boolean write(final Credentials credentials, final boolean registered)
+            throws UserStoreException {
+        int hash = hash(credentials.username());
+        if (hash == 0) {
+            throw new IllegalArgumentException("Username must be ASCII and at most "
+                    + (USERNAME_SIZE - 1) + " characters: " + credentials.username());
+        }
+
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new RejectedExecutionException("Credential store is closed.");
+            }
+
+            // the index only changes while the append lock is held, so no read lock is needed
+            if (index.find(buffer, credentials.username(), hash) >= 0 != registered) {
+                return false;
+            }
+
+            append(credentials, hash);
+            return true;
+        } catch (IOException e) {
+            throw new UserStoreException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Helper method to append a record to the log, sync it if configured, and then publish it to
+     * lookups; must be called with the append lock held.
+     * @param credentials the credentials to write.
+     * @param hash the hash of the username.
+     * @throws IOException if the log couldn't be grown or synced.
+     */
+    private void append(final Credentials credentials, final int hash) throws IOException {
+        // encoded in full before anything is written, so a field that is too long changes nothing
+        encode(credentials);
+
+        if (records == capacity) {
+            grow();
+        }
+
+        int offset = offsetOf(records);
+        // records beyond the published count aren't read by lookups, so no lock is needed yet
+        buffer.put(offset, scratch);
+        if (sync) {
+            buffer.force(offset, RECORD_SIZE);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            index.put(buffer, records, hash);
+            records++;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Helper method to encode credentials into the scratch record, checksum included.
+     * @param credentials the credentials to encode.
+     * @throws IllegalArgumentException if a field doesn't fit in its part of the record.
+     */
+    private void encode(final Credentials credentials) {
+        encodeField(USERNAME_OFFSET, USERNAME_SIZE, encodeUTF8(credentials.username()));
+        encodeField(HASH_OFFSET, HASH_SIZE, credentials.passwordHash());
+        encodeField(SALT_OFFSET, SALT_SIZE, credentials.passwordSalt());
+        encodeField(ALGORITHM_OFFSET, ALGORITHM_SIZE, encodeUTF8(credentials.hashAlgorithm()));
+        encodeField(PARAMETERS_OFFSET, PARAMETERS_SIZE, encodeUTF8(credentials.hashParameters()));
+
+        checksum.reset();
+        checksum.update(scratch, USERNAME_OFFSET, RECORD_SIZE - USERNAME_OFFSET);
+        ByteBuffer.wrap(scratch).putInt(0, (int) checksum.getValue());
+    }
+
+    /**
+     * Helper method to encode a field into the scratch record as a length byte followed by its
+     * bytes, padded with zeros.
+     * @param offset the offset of the field in the record.
+     * @param size the size of the field, including the length byte.
+     * @param bytes the value of the field.
+     * @throws IllegalArgumentException if the value doesn't fit in the field.
+     */
+    private void encodeField(final int offset, final int size, final byte[] bytes) {
+        if (bytes.length >= size) {
+            throw new IllegalArgumentException("Value too long for a credential record: "
+                    + bytes.length + " bytes, at most " + (size - 1));
+        }
+
+        scratch[offset] = (byte) bytes.length;
+        System.arraycopy(bytes, 0, scratch, offset + 1, bytes.length);
+        Arrays.fill(scratch, offset + 1 + bytes.length, offset + size, (byte) 0);
+    }
+
+    /**
+     * Helper method to encode a text field as UTF-8.
+     * @param value the value of the field.
+     * @return the UTF-8 bytes of the value.
+     */
+    private static byte[] encodeUTF8(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method to double the mapped size of the log; must be called with the append lock
+     * held.
+     * @throws IOException if the log is at its maximum size, or couldn't be grown.
+     */
+    private void grow() throws IOException {
+        if (capacity == MAX_CAPACITY) {
+            throw new IOException("Credential log " + path + " is full.");
+        }
+
+        int newCapacity = (int) Math.min((long) capacity * 2, MAX_CAPACITY);
+        MappedByteBuffer grown = map(channel, newCapacity);
+
+        long stamp = lock.writeLock();
+        try {
+            buffer = grown;
+            capacity = newCapacity;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public long countUsers() {
+        long stamp = lock.readLock();
+        try {
+            return index.size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void forEachUsername(final Consumer<String> action) {
+        long stamp = lock.readLock();
+        try {
+            for (int slot : index.records) {
+                if (slot != 0) {
+                    action.accept(decodeText(buffer, offsetOf(slot - 1) + USERNAME_OFFSET));
+                }
+            }
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Helper method to compact the log if at least half of it is outdated records, printing any
+     * error; runs on the compaction thread.
+     */
+    private void compactIfWorthwhile() {
+        try {
+            int garbage;
+            long stamp = lock.readLock();
+            try {
+                garbage = records - index.size;
+            } finally {
+                lock.unlockRead(stamp);
+            }
+
+            if (garbage >= MIN_COMPACTION_GARBAGE && garbage * 2 >= records) {
+                compact();
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the current record of every user. The new log is written to a
+     * separate file and synced, and then replaces the old one in an atomic rename, so a crash at
+     * any point leaves one complete log. Writes wait until compaction is done; lookups continue
+     * on the old log until the new one is swapped in.
+     * @throws IOException if the new log couldn't be written.
+     */
+    public void compact() throws IOException {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            int users = index.size;
+            int newCapacity = Math.min(Math.max(INITIAL_CAPACITY, users * 2), MAX_CAPACITY);
+            Index newIndex = new Index(users);
+
+            try (FileChannel compacted = FileChannel.open(compactionPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                writeHeader(compacted);
+                ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+                int written = 0;
+
+                for (int slot = 0; slot < index.records.length; slot++) {
+                    if (index.records[slot] == 0) {
+                        continue;
+                    }
+
+                    record.clear();
+                    buffer.get(offsetOf(index.records[slot] - 1), record.array());
+                    compacted.write(record, offsetOf(written));
+                    // usernames are unique here, so no comparison is needed
+                    newIndex.add(written, index.hashes[slot]);
+                    written++;
+                }
+
+                compacted.force(true);
+            }
+
+            Files.move(compactionPath, path, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            FileChannel newChannel = FileChannel.open(path, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            MappedByteBuffer newBuffer = map(newChannel, newCapacity);
+            FileChannel oldChannel = channel;
+
+            long stamp = lock.writeLock();
+            try {
+                channel = newChannel;
+                buffer = newBuffer;
+                capacity = newCapacity;
+                records = users;
+                index = newIndex;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+
+            oldChannel.close();
+            compactions.increment();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the size statistics of the log.
+     * @return the current statistics of the store.
+     */
+    public Stats getStats() {
+        long stamp = lock.readLock();
+        try {
+            return new Stats(index.size, records, compactions.sum());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Stops background compaction and closes the log; writes that have returned are on disk.
+     */
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            buffer.force();
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Helper method to check whether a record of the log was written completely.
+     * @param record the number of the record.
+     * @param bytes a buffer of the size of a record, to read the record into.
+     * @return whether the record has a username and a matching checksum as a boolean.
+     */
+    private boolean isValid(final int record, final byte[] bytes) {
+        int offset = offsetOf(record);
+        if (buffer.get(offset + USERNAME_OFFSET) == 0) {
+            return false;
+        }
+
+        buffer.get(offset, bytes);
+        checksum.reset();
+        checksum.update(bytes, USERNAME_OFFSET, RECORD_SIZE - USERNAME_OFFSET);
+        return ByteBuffer.wrap(bytes).getInt(0) == (int) checksum.getValue();
+    }
+
+    /**
+     * Helper method to get the offset of a record in the log file.
+     * @param record the number of the record.
+     * @return the offset in bytes.
+     */
+    private static int offsetOf(final int record) {
+        return HEADER_SIZE + record * RECORD_SIZE;
+    }
+
+    /**
+     * Helper method to decode the credentials in a record.
+     * @param log the mapped log.
+     * @param offset the offset of the record.
+     * @return the credentials in the record.
+     */
+    private static Credentials decode(final ByteBuffer log, final int offset) {
+        return new Credentials(decodeText(log, offset + USERNAME_OFFSET),
+                decodeField(log, offset + HASH_OFFSET), decodeField(log, offset + SALT_OFFSET),
+                decodeText(log, offset + ALGORITHM_OFFSET),
+                decodeText(log, offset + PARAMETERS_OFFSET));
+    }
+
+    /**
+     * Helper method to decode a field of a record.
+     * @param log the mapped log.
+     * @param offset the offset of the field.
+     * @return the value of the field.
+     */
+    private static byte[] decodeField(final ByteBuffer log, final int offset) {
+        byte[] bytes = new byte[log.get(offset) & 0xff];
+        log.get(offset + 1, bytes);
+        return bytes;
+    }
+
+    /**
+     * Helper method to decode a text field of a record.
+     * @param log the mapped log.
+     * @param offset the offset of the field.
+     * @return the value of the field.
+     */
+    private static String decodeText(final ByteBuffer log, final int offset) {
+        return new String(decodeField(log, offset), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method to hash a username with 32-bit FNV-1a over its characters, which for the
+     * ASCII usernames that can be stored equals the hash over their bytes in a record.
+     * @param username the username.
+     * @return the hash, never 0, or 0 if the username can't be stored.
+     */
+    private static int hash(final String username) {
+        if (username.isEmpty() || username.length() >= USERNAME_SIZE) {
+            return 0;
+        }
+
+        int hash = FNV_OFFSET_BASIS;
+
+        for (int i = 0; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (c > 0x7f) {
+                return 0;
+            }
+
+            hash ^= c;
+            hash *= FNV_PRIME;
+        }
+
+        // 0 marks a username that can't be stored
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Helper method to hash the username in a record the same way as {@link #hash(String)}.
+     * @param log the mapped log.
+     * @param offset the offset of the record.
+     * @return the hash of the username.
+     */
+    private static int hashStored(final ByteBuffer log, final int offset) {
+        int length = log.get(offset + USERNAME_OFFSET) & 0xff;
+        int hash = FNV_OFFSET_BASIS;
+
+        for (int i = 0; i < length; i++) {
+            hash ^= log.get(offset + USERNAME_OFFSET + 1 + i) & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return hash == 0 ? 1 : hash;
+    }
+
+    /**
+     * Helper method to check whether the username in a record equals a username, without
+     * decoding it.
+     * @param log the mapped log.
+     * @param offset the offset of the record.
+     * @param username the ASCII username to compare with.
+     * @return whether the usernames are equal as a boolean.
+     */
+    private static boolean usernameEquals(final ByteBuffer log, final int offset,
+                                          final String username) {
+        int length = log.get(offset + USERNAME_OFFSET) & 0xff;
+        if (length != username.length()) {
+            return false;
+        }
+
+        for (int i = 0; i < length; i++) {
+            if (log.get(offset + USERNAME_OFFSET + 1 + i) != username.charAt(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * An open-addressing hash table with linear probing from usernames to the number of their
+     * current record. Each slot holds the record number plus one, 0 being an empty slot, and
+     * the hash of the username, so most probes don't need to read the record.
+     */
+    private static final class Index {
+        private int[] records;
+        private int[] hashes;
+        private int size;
+
+        /**
+         * Instantiates a new Index with room for the given number of users.
+         * @param expectedUsers the number of users to make room for.
+         */
+        Index(final int expectedUsers) {
+            // kept at most half full, so probe sequences stay short
+            int slots = Integer.highestOneBit(Math.max(expectedUsers, 8) * 4 - 1);
+            records = new int[slots];
+            hashes = new int[slots];
+        }
+
+        /**
+         * Finds the current record of a username.
+         * @param log the mapped log.
+         * @param username the username.
+         * @param hash the hash of the username.
+         * @return the number of the record, or -1 if the username isn't registered.
+         */
+        int find(final ByteBuffer log, final String username, final int hash) {
+            int mask = records.length - 1;
+
+            for (int slot = hash & mask; records[slot] != 0; slot = slot + 1 & mask) {
+                if (hashes[slot] == hash
+                        && usernameEquals(log, offsetOf(records[slot] - 1), username)) {
+                    return records[slot] - 1;
+                }
+            }
+
+            return -1;
+        }
+
+        /**
+         * Makes a record the current one of its username, replacing any earlier record.
+         * @param log the mapped log, which holds the record.
+         * @param record the number of the record.
+         * @param hash the hash of the username in the record.
+         */
+        void put(final ByteBuffer log, final int record, final int hash) {
+            int mask = records.length - 1;
+            int recordOffset = offsetOf(record);
+
+            for (int slot = hash & mask; records[slot] != 0; slot = slot + 1 & mask) {
+                if (hashes[slot] == hash && sameUsername(log, offsetOf(records[slot] - 1),
+                        recordOffset)) {
+                    records[slot] = record + 1;
+                    return;
+                }
+            }
+
+            add(record, hash);
+        }
+
+        /**
+         * Adds the record of a username that isn't in the table yet.
+         * @param record the number of the record.
+         * @param hash the hash of the username in the record.
+         */
+        void add(final int record, final int hash) {
+            if ((size + 1) * 2 > records.length) {
+                resize();
+            }
+
+            int mask = records.length - 1;
+            int slot = hash & mask;
+            while (records[slot] != 0) {
+                slot = slot + 1 & mask;
+            }
+
+            records[slot] = record + 1;
+            hashes[slot] = hash;
+            size++;
+        }
+
+        /**
+         * Helper method to double the number of slots, moving every entry to its new slot.
+         */
+        private void resize() {
+            int[] oldRecords = records;
+            int[] oldHashes = hashes;
+            records = new int[oldRecords.length * 2];
+            hashes = new int[oldRecords.length * 2];
+            int mask = records.length - 1;
+
+            for (int i = 0; i < oldRecords.length; i++) {
+                if (oldRecords[i] != 0) {
+                    int slot = oldHashes[i] & mask;
+                    while (records[slot] != 0) {
+                        slot = slot + 1 & mask;
+                    }
+
+                    records[slot] = oldRecords[i];
+                    hashes[slot] = oldHashes[i];
+                }
+            }
+        }
+
+        /**
+         * Helper method to check whether two records hold the same username.
+         * @param log the mapped log.
+         * @param offset the offset of one record.
+         * @param otherOffset the offset of the other record.
+         * @return whether the usernames are equal as a boolean.
+         */
+        private static boolean sameUsername(final ByteBuffer log, final int offset,
+                                            final int otherOffset) {
+            int length = log.get(offset + USERNAME_OFFSET) & 0xff;
+            if (length != (log.get(otherOffset + USERNAME_OFFSET) & 0xff)) {
+                return false;
+            }
+
+            for (int i = 1; i <= length; i++) {
+                if (log.get(offset + USERNAME_OFFSET + i)
+                        != log.get(otherOffset + USERNAME_OFFSET + i)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Size statistics of a {@link MappedUserStore}.
+     * @param users the number of registered users.
+     * @param records the number of records in the log, including outdated ones.
+     * @param compactions the number of times the log has been compacted.
+     */
+    public record Stats(long users, long records, long compactions) {
+        @Override
+        public String toString() {
+            return String.format("%d users in %d records, %d compactions", users, records,
+                    compactions);
+        }
+    }
+}
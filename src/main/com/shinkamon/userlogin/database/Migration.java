@@ -0,0 +1,44 @@
+package com.shinkamon.userlogin.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A single versioned change to the database schema, applied by the {@link SchemaMigrator}.
+ * @param version the schema version the database is at once the migration has been applied.
+ * @param description a short description of the change.
+ * @param step the change itself, run inside the transaction that records the new version.
+ */
+public record Migration(int version, String description, Step step) {
+    /**
+     * The change made by a migration.
+     */
+    @FunctionalInterface
+    public interface Step {
+        /**
+         * Applies the change to the database.
+         * @param connection a connection to the database, with a transaction already started.
+         * @throws SQLException if a database access error occurs.
+         */
+        void apply(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Returns a migration that executes the given SQL statements in order.
+     * @param version the schema version the database is at once the migration has been applied.
+     * @param description a short description of the change.
+     * @param statements the SQL statements to execute.
+     * @return the new migration.
+     */
+    public static Migration of(final int version, final String description,
+                               final String... statements) {
+        return new Migration(version, description, connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String sql : statements) {
+                    statement.executeUpdate(sql);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,141 @@
+package com.shinkamon.userlogin.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection handed out by a {@link ConnectionPool}. Closing it returns it to the pool instead of
+ * closing the underlying connection. Prepared statements are cached per connection, so a query
+ * string is only compiled the first time it is used on a connection.
+ * <p>
+ * A PooledConnection is meant to be used by one thread at a time, between being taken from the
+ * pool and being closed. Closing it more than once only returns it to the pool the first time.
+ */
+public final class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements;
+    // set while the connection is handed out, so that only the first close returns it to the pool
+    private final AtomicBoolean handedOut = new AtomicBoolean();
+
+    /**
+     * Instantiates a new PooledConnection.
+     * @param pool the pool the connection belongs to.
+     * @param connection the underlying connection to the database.
+     * @param statementCacheSize the maximum number of prepared statements to keep cached.
+     */
+    PooledConnection(final ConnectionPool pool, final Connection connection,
+                     final int statementCacheSize) {
+        this.pool = pool;
+        this.connection = connection;
+        // access-ordered, so the least recently used statement is evicted when the cache is full
+        this.statements = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) {
+                    return false;
+                }
+
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Returns a prepared statement for the given query, reusing the cached statement if the query
+     * has been prepared on this connection before. The statement is owned by the connection and
+     * must not be closed by the caller, but any result sets obtained from it should be.
+     * @param query the SQL query to prepare.
+     * @return a prepared statement with its parameters cleared.
+     * @throws SQLException if a database access error occurs.
+     */
+    public PreparedStatement prepareStatement(final String query) throws SQLException {
+        PreparedStatement statement = statements.get(query);
+
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(query);
+            statements.put(query, statement);
+        } else {
+            statement.clearParameters();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Returns a new, uncached statement; the caller is responsible for closing it.
+     * @return a new statement.
+     * @throws SQLException if a database access error occurs.
+     */
+    public Statement createStatement() throws SQLException {
+        return connection.createStatement();
+    }
+
+    /**
+     * Returns the underlying connection, e.g. for transaction control. The underlying connection
+     * must not be closed directly.
+     * @return the underlying connection to the database.
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Marks the connection as handed out by the pool; called when it is taken from the pool.
+     */
+    void markHandedOut() {
+        handedOut.set(true);
+    }
+
+    /**
+     * Returns the connection to the pool. Any transaction left open is rolled back first.
+     * Closing a connection that has already been returned does nothing.
+     */
+    @Override
+    public void close() {
+        if (!handedOut.compareAndSet(true, false)) {
+            return;
+        }
+
+        boolean reusable;
+
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            reusable = !connection.isClosed();
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        pool.release(this, reusable);
+    }
+
+    /**
+     * Closes the cached statements and the underlying connection.
+     */
+    void closePhysically() {
+        statements.values().forEach(PooledConnection::closeQuietly);
+        statements.clear();
+        closeQuietly(connection);
+    }
+
+    /**
+     * Helper method to close a resource when there is nothing left to do if closing fails.
+     * @param resource the resource to close.
+     */
+    private static void closeQuietly(final AutoCloseable resource) {
+        try {
+            resource.close();
+        } catch (Exception e) {
+            // the resource is being discarded, so a failure to close it cleanly is of no consequence
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.shinkamon.userlogin.database;
+
+/**
+ * The outcome of an attempt to register a new user through {@link UserLogin#register}.
+ */
+public enum RegistrationResult {
+    /**
+     * The user was registered.
+     */
+    REGISTERED,
+    /**
+     * The username doesn't conform to the username format.
+     */
+    INVALID_USERNAME,
+    /**
+     * The password doesn't conform to the password format.
+     */
+    INVALID_PASSWORD,
+    /**
+     * The password is on the list of passwords known from data breaches.
+     */
+    BREACHED_PASSWORD,
+    /**
+     * A user with the same username is already registered.
+     */
+    USERNAME_TAKEN,
+    /**
+     * The request was turned away because password hashing is at capacity; it can be retried later.
+     */
+    BUSY,
+    /**
+     * The user couldn't be registered because of an error, e.g. the database couldn't be accessed.
+     */
+    ERROR
+}
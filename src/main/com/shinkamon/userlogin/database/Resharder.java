@@ -0,0 +1,209 @@
+package com.shinkamon.userlogin.database;
+
+import java.io.File;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves the users of the single database file into the shards configured in
+ * resources/database-info.json, e.g. to go from one file to several as the number of users grows.
+ * <p>
+ * Resharding is an offline operation: nothing else may write to the database while it runs.
+ * The single file is upgraded to the latest schema first, and is left as it is afterwards, so it
+ * can be kept as a backup or deleted once the shards are in use. Users are copied in batches,
+ * one transaction per shard and batch, and users that are already on their shard are skipped,
+ * so a resharding that is interrupted can simply be run again. Import progress isn't copied, so
+ * an unfinished import starts over on the shards, skipping the users it already imported.
+ * <p>
+ * Only the single file is ever read, so going from one number of shards to another isn't
+ * supported: users registered on the shards since they were filled would be left behind. Every
+ * shard records the number of shards it was created for, and the {@link Database} refuses to
+ * start on shards created for another number.
+ */
+public final class Resharder {
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int SOURCE_TIMEOUT_MILLIS = 5000;
+    private static final int SOURCE_STATEMENT_CACHE_SIZE = 4;
+    private static final String SELECT_USERS = """
+            SELECT username, password_hash, password_salt, hash_algorithm, hash_parameters
+            FROM users
+            """;
+    private static final String COUNT_USERS = """
+            SELECT COUNT(*)
+            FROM users
+            """;
+    private final Database database;
+    private final int batchSize;
+
+    /**
+     * Instantiates a new Resharder for the database.
+     */
+    public Resharder() {
+        this(Database.INSTANCE, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Instantiates a new Resharder.
+     * @param database the database to reshard.
+     * @param batchSize the number of users read before they are written to their shards.
+     */
+    Resharder(final Database database, final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1.");
+        }
+
+        this.database = database;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Copies every user of the single database file to its shard, creating or upgrading the
+     * shards as needed, and checks that every user ended up on a shard.
+     * @return the numbers of users copied and skipped, and the number of users on each shard.
+     * @throws IllegalStateException if the database isn't sharded, the single database file
+     * doesn't exist, or the shards were created for another number of shards.
+     * @throws SQLException if a database access error occurs, or not every user was copied.
+     */
+    public Result reshard() throws SQLException {
+        int shardCount = database.getShardCount();
+
+        if (shardCount == 1) {
+            throw new IllegalStateException("Set shardCount in resources/database-info.json "
+                    + "to more than 1 to reshard.");
+        }
+
+        if (!new File("resources/" + database.getName()).exists()) {
+            throw new IllegalStateException("Database " + database.getName() + " doesn't exist.");
+        }
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            if (database.migrateDatabase(database.getPool(shard)) < 0) {
+                throw new SQLException("Unable to create or upgrade shard " + shard + ".");
+            }
+            database.checkShardCount(database.getPool(shard), "shard " + shard);
+        }
+
+        // a single connection, without the tuning of the pooled ones, is all a one-off copy needs
+        try (ConnectionPool sourcePool = new ConnectionPool(database.getUrl(), 1,
+                SOURCE_TIMEOUT_MILLIS, SOURCE_STATEMENT_CACHE_SIZE, List.of())) {
+            if (database.migrateDatabase(sourcePool) < 0) {
+                throw new SQLException("Unable to upgrade " + database.getName() + ".");
+            }
+
+            try (PooledConnection source = sourcePool.getConnection()) {
+                return copyUsers(source, shardCount);
+            }
+        }
+    }
+
+    /**
+     * Helper method to copy the users of the single database file to their shards in batches,
+     * and to check the number of users on the shards afterwards.
+     * @param source the connection to the single database file.
+     * @param shardCount the number of shards.
+     * @return the numbers of users copied and skipped, and the number of users on each shard.
+     * @throws SQLException if a database access error occurs, or not every user was copied.
+     */
+    private Result copyUsers(final PooledConnection source, final int shardCount)
+            throws SQLException {
+        List<List<Credentials>> batches = new ArrayList<>();
+        for (int shard = 0; shard < shardCount; shard++) {
+            batches.add(new ArrayList<>());
+        }
+
+        long sourceUsers = 0;
+        long copied = 0;
+
+        try (Statement statement = source.createStatement();
+             ResultSet resultSet = statement.executeQuery(SELECT_USERS)) {
+            while (resultSet.next()) {
+                Credentials credentials = new Credentials(resultSet.getString(1),
+                        resultSet.getBytes(2), resultSet.getBytes(3), resultSet.getString(4),
+                        resultSet.getString(5));
+                batches.get(database.getShard(credentials.username())).add(credentials);
+                sourceUsers++;
+
+                if (sourceUsers % batchSize == 0) {
+                    copied += writeBatches(batches);
+                }
+            }
+        }
+
+        copied += writeBatches(batches);
+
+        List<Long> shardUsers = new ArrayList<>();
+        long totalShardUsers = 0;
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            try (PooledConnection connection = database.getConnection(shard)) {
+                shardUsers.add(countUsers(connection));
+                totalShardUsers += shardUsers.get(shard);
+            }
+        }
+
+        // the shards may hold more users than the file, if users registered after an earlier run
+        if (totalShardUsers < sourceUsers) {
+            throw new SQLException("The shards hold " + totalShardUsers + " users, but "
+                    + database.getName() + " holds " + sourceUsers + ".");
+        }
+
+        return new Result(sourceUsers, copied, sourceUsers - copied, shardUsers);
+    }
+
+    /**
+     * Helper method to write the pending users of every shard, one transaction per shard,
+     * and to clear the batches after.
+     * @param batches the users to write to each shard.
+     * @return the number of users written; users already on their shard aren't counted.
+     * @throws SQLException if a database access error occurs.
+     */
+    private long writeBatches(final List<List<Credentials>> batches) throws SQLException {
+        long written = 0;
+
+        for (int shard = 0; shard < batches.size(); shard++) {
+            List<Credentials> batch = batches.get(shard);
+            if (batch.isEmpty()) {
+                continue;
+            }
+
+            try (PooledConnection connection = database.getConnection(shard)) {
+                written += UserBatches.count(UserBatches.write(connection, batch));
+            }
+
+            batch.clear();
+        }
+
+        return written;
+    }
+
+    /**
+     * Helper method to count the users in a database file.
+     * @param connection the connection to the database file.
+     * @return the number of users.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static long countUsers(final PooledConnection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(COUNT_USERS)) {
+            return resultSet.getLong(1);
+        }
+    }
+
+    /**
+     * The outcome of a resharding.
+     * @param users the number of users in the single database file.
+     * @param copied the number of users copied to their shard.
+     * @param skipped the number of users that were already on their shard.
+     * @param shardUsers the number of users on each shard afterwards.
+     */
+    public record Result(long users, long copied, long skipped, List<Long> shardUsers) {
+        @Override
+        public String toString() {
+            return String.format("%d users, %d copied, %d already on their shard; "
+                    + "users per shard: %s", users, copied, skipped, shardUsers);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.Sha512PasswordHasher;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Upgrades a database in place to the latest schema version. The version a database is at is
+ * recorded in its user_version header field, and every migration above it is applied in its own
+ * transaction together with the bump of the version, so an interrupted upgrade never leaves the
+ * schema half-changed and simply resumes on the next start.
+ */
+public final class SchemaMigrator {
+    /**
+     * All migrations in the order they are applied; versions must be consecutive, starting at 1.
+     * Migrations must never be changed once released, only new ones added.
+     */
+    private static final List<Migration> MIGRATIONS = List.of(
+            Migration.of(1, "create users table", """
+                    CREATE TABLE IF NOT EXISTS users (
+                    username VARCHAR,
+                    password_hash VARCHAR,
+                    password_salt VARCHAR
+                    )
+                    """),
+            // older databases could hold duplicate usernames, of which only the first
+            // registered one was ever used to log in; the others are kept in users_duplicates
+            new Migration(2, "add unique username index", SchemaMigrator::moveDuplicateUsernames),
+            // existing hashes were all generated with a single round of SHA-512
+            Migration.of(3, "store hash algorithm and parameters", """
+                    ALTER TABLE users
+                    ADD COLUMN hash_algorithm VARCHAR NOT NULL DEFAULT 'sha512'
+                    """, """
+                    ALTER TABLE users
+                    ADD COLUMN hash_parameters VARCHAR NOT NULL DEFAULT ''
+                    """),
+            // the last line of each bulk import file that has been committed, so an interrupted
+            // import can resume where it stopped
+            Migration.of(4, "create import progress table", """
+                    CREATE TABLE IF NOT EXISTS import_progress (
+                    source VARCHAR PRIMARY KEY,
+                    line INTEGER NOT NULL,
+                    imported INTEGER NOT NULL,
+                    rejected INTEGER NOT NULL
+                    )
+                    """),
+            // hashes were stored as hexadecimal text, and salts as random bytes decoded as UTF-8;
+            // the salt bytes that were hashed are its UTF-8 encoding, so existing hashes verify
+            new Migration(5, "store password hashes and salts as bytes",
+                    SchemaMigrator::storeCredentialsAsBytes)
+    );
+    private static final String DUPLICATE_USERNAMES = """
+            FROM users
+            WHERE rowid NOT IN (SELECT MIN(rowid) FROM users GROUP BY username)
+            """;
+    private static final String CREATE_USERS_WITH_BYTES = """
+            CREATE TABLE users_with_bytes (
+            username VARCHAR,
+            password_hash BLOB NOT NULL,
+            password_salt BLOB NOT NULL,
+            hash_algorithm VARCHAR NOT NULL DEFAULT 'sha512',
+            hash_parameters VARCHAR NOT NULL DEFAULT ''
+            )
+            """;
+    private static final String SELECT_TEXT_CREDENTIALS = """
+            SELECT rowid, username, password_hash, CAST(password_salt AS BLOB),
+                   hash_algorithm, hash_parameters
+            FROM users
+            """;
+    private static final String INSERT_BYTE_CREDENTIALS = """
+            INSERT INTO users_with_bytes (rowid, username, password_hash, password_salt,
+                                          hash_algorithm, hash_parameters)
+            VALUES (?, ?, ?, ?, ?, ?)
+            """;
+    private static final int SHA512_HEX_LENGTH = 128;
+    private static final int MIGRATION_BATCH_SIZE = 1000;
+
+    private SchemaMigrator() {
+    }
+
+    /**
+     * Returns the latest schema version, which a database is at after being migrated.
+     * @return the latest schema version.
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).version();
+    }
+
+    /**
+     * Returns the schema version a database is currently at.
+     * @param connection a connection to the database.
+     * @return the schema version, or 0 for a database that has never been migrated.
+     * @throws SQLException if a database access error occurs.
+     */
+    public static int getVersion(final Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("PRAGMA user_version")) {
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * Applies all migrations that are newer than the schema version of the database.
+     * @param connection a connection to the database, in auto-commit mode.
+     * @return the number of migrations that were applied.
+     * @throws SQLException if the database was created by a newer version of the program,
+     * or a database access error occurs.
+     */
+    public static int migrate(final Connection connection) throws SQLException {
+        int version = getVersion(connection);
+
+        if (version > getLatestVersion()) {
+            throw new SQLException("Database schema version " + version
+                    + " is newer than the latest supported version " + getLatestVersion() + ".");
+        }
+
+        int applied = 0;
+
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= version) {
+                continue;
+            }
+
+            apply(connection, migration);
+            applied++;
+        }
+
+        return applied;
+    }
+
+    /**
+     * Helper method to make usernames unique. Users whose username was registered before are
+     * moved to the users_duplicates table, with their original rowid, rather than deleted, and
+     * the number moved is printed.
+     * @param connection a connection to the database, with a transaction already started.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static void moveDuplicateUsernames(final Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            long duplicates;
+            try (ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) "
+                    + DUPLICATE_USERNAMES)) {
+                duplicates = resultSet.getLong(1);
+            }
+
+            if (duplicates > 0) {
+                statement.executeUpdate("""
+                        CREATE TABLE users_duplicates AS
+                        SELECT rowid AS original_rowid, username, password_hash, password_salt
+                        """ + DUPLICATE_USERNAMES);
+                statement.executeUpdate("DELETE " + DUPLICATE_USERNAMES);
+                System.out.println("Moved " + duplicates + " user(s) with a duplicate username "
+                        + "to the users_duplicates table.");
+            }
+
+            statement.executeUpdate("""
+                    CREATE UNIQUE INDEX IF NOT EXISTS users_username_index
+                    ON users (username)
+                    """);
+        }
+    }
+
+    /**
+     * Helper method to rebuild the users table with the password hash and salt as bytes, since
+     * SQLite can't change the type of a column. Rows keep their rowid.
+     * @param connection a connection to the database, with a transaction already started.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static void storeCredentialsAsBytes(final Connection connection)
+            throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate(CREATE_USERS_WITH_BYTES);
+            copyCredentialsAsBytes(connection, statement);
+            statement.executeUpdate("DROP TABLE users");
+            statement.executeUpdate("ALTER TABLE users_with_bytes RENAME TO users");
+            statement.executeUpdate("""
+                    CREATE UNIQUE INDEX users_username_index
+                    ON users (username)
+                    """);
+        }
+    }
+
+    /**
+     * Helper method to copy every user into the new users table, converting the password hash and
+     * salt to bytes.
+     * @param connection a connection to the database, with a transaction already started.
+     * @param statement a statement on the connection to read the users with.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static void copyCredentialsAsBytes(final Connection connection,
+                                               final Statement statement) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(INSERT_BYTE_CREDENTIALS);
+             ResultSet resultSet = statement.executeQuery(SELECT_TEXT_CREDENTIALS)) {
+            int batched = 0;
+
+            while (resultSet.next()) {
+                String algorithm = resultSet.getString(5);
+                insert.setLong(1, resultSet.getLong(1));
+                insert.setString(2, resultSet.getString(2));
+                insert.setBytes(3, decodeHexHash(resultSet.getString(3), algorithm));
+                insert.setBytes(4, Objects.requireNonNullElse(resultSet.getBytes(4),
+                        new byte[0]));
+                insert.setString(5, algorithm);
+                insert.setString(6, resultSet.getString(6));
+                insert.addBatch();
+
+                if (++batched == MIGRATION_BATCH_SIZE) {
+                    insert.executeBatch();
+                    batched = 0;
+                }
+            }
+
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Helper method to decode a hash stored in hexadecimal form. SHA-512 hashes stored by the
+     * earliest versions dropped their leading zeros, which are restored.
+     * @param hex the stored hash.
+     * @param algorithm the algorithm the hash was generated with.
+     * @return the hash as bytes, or no bytes if the stored hash isn't valid, which like before
+     * never matches any password.
+     */
+    private static byte[] decodeHexHash(final String hex, final String algorithm) {
+        if (hex == null || hex.isEmpty()) {
+            return new byte[0];
+        }
+
+        int digits = Sha512PasswordHasher.ALGORITHM.equals(algorithm)
+                ? SHA512_HEX_LENGTH : hex.length() + hex.length() % 2;
+        if (hex.length() > digits) {
+            return new byte[0];
+        }
+
+        try {
+            return HexFormat.of().parseHex("0".repeat(digits - hex.length()) + hex);
+        } catch (IllegalArgumentException e) {
+            return new byte[0];
+        }
+    }
+
+    /**
+     * Helper method to apply a single migration and record the new schema version atomically.
+     * @param connection a connection to the database, in auto-commit mode.
+     * @param migration the migration to apply.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static void apply(final Connection connection, final Migration migration)
+            throws SQLException {
+        connection.setAutoCommit(false);
+
+        try (Statement statement = connection.createStatement()) {
+            migration.step().apply(connection);
+            // PRAGMA doesn't accept bound parameters, but the version is always an int
+            statement.executeUpdate("PRAGMA user_version = " + migration.version());
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+}
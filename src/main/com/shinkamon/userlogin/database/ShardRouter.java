@@ -0,0 +1,40 @@
+package com.shinkamon.userlogin.database;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Picks the shard a user is stored in, from a hash of the username. The hash is 32-bit FNV-1a
+ * over the UTF-8 bytes of the username, which is fixed by its definition rather than by the JVM,
+ * so users stay on the same shard across versions and machines as long as the number of shards
+ * doesn't change. The {@link Resharder} only moves users from a single database file to the
+ * shards; shards created for one number of shards can't be used with another, which the
+ * {@link Database} checks when it starts.
+ */
+public final class ShardRouter {
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
+    private ShardRouter() {
+    }
+
+    /**
+     * Returns the shard of a username.
+     * @param username the username.
+     * @param shardCount the number of shards.
+     * @return the index of the shard, from 0 up to but not including the number of shards.
+     */
+    public static int shardOf(final String username, final int shardCount) {
+        if (shardCount == 1) {
+            return 0;
+        }
+
+        int hash = FNV_OFFSET_BASIS;
+
+        for (byte b : username.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        return Integer.remainderUnsigned(hash, shardCount);
+    }
+}
@@ -0,0 +1,456 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.LatencyHistogram;
+import com.shinkamon.userlogin.support.Metrics;
+import com.shinkamon.userlogin.support.Settings;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the credentials of registered users in the users table of the SQLite database.
+ * Every operation is a single statement on a pooled connection to the shard of the user, so a
+ * lookup costs one round trip and registrations are atomic; duplicate usernames are detected
+ * through the unique index on the username column rather than with a separate check beforehand.
+ * With group commit, registrations are written by one writer per shard; see
+ * {@link GroupCommitWriter}.
+ */
+public final class SqliteUserStore implements UserStore {
+    private static final int DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE = 256;
+    private static final long DEFAULT_GROUP_COMMIT_MAX_WAIT_MICROS = 500;
+    private static final int DEFAULT_GROUP_COMMIT_QUEUE_SIZE = 1024;
+    /**
+     * The primary SQLite result code for constraint violations; the extended result codes for
+     * unique and primary key violations share it in their low byte.
+     */
+    private static final int SQLITE_CONSTRAINT = 19;
+    private static final String QUERY_TIME = "userlogin_store_query_seconds";
+    private static final String QUERY_TIME_HELP =
+            "Time to read or write the credentials of a user, including getting a connection.";
+    private static final LatencyHistogram FIND_TIME =
+            Metrics.INSTANCE.histogram(QUERY_TIME, QUERY_TIME_HELP, "operation", "find");
+    private static final LatencyHistogram INSERT_TIME =
+            Metrics.INSTANCE.histogram(QUERY_TIME, QUERY_TIME_HELP, "operation", "insert");
+    private static final LatencyHistogram UPDATE_TIME =
+            Metrics.INSTANCE.histogram(QUERY_TIME, QUERY_TIME_HELP, "operation", "update");
+    private static final Metrics.Counter SQL_ERRORS = Metrics.INSTANCE.counter(
+            "userlogin_sql_errors_total", "Database errors raised by the user store.");
+    private static final String SELECT_CREDENTIALS = """
+            SELECT username, password_hash, password_salt, hash_algorithm, hash_parameters
+            FROM users
+            WHERE username = ?
+            """;
+    private static final String COUNT_USERS = "SELECT COUNT(*) FROM users";
+    private static final String SELECT_USERNAMES = "SELECT username FROM users";
+    // users are never deleted, so rowids only grow and the last one marks a position
+    private static final String SELECT_LAST_USER = """
+            SELECT rowid, username
+            FROM users
+            ORDER BY rowid DESC
+            LIMIT 1
+            """;
+    private static final String SELECT_USERNAME_BY_ROWID = """
+            SELECT username
+            FROM users
+            WHERE rowid = ?
+            """;
+    private static final String SELECT_USERNAMES_SINCE = """
+            SELECT username
+            FROM users
+            WHERE rowid > ?
+            """;
+    private static final String INSERT_CREDENTIALS = """
+            INSERT INTO users (username, password_hash, password_salt,
+                               hash_algorithm, hash_parameters)
+            VALUES (?, ?, ?, ?, ?)
+            """;
+    private static final String UPDATE_PASSWORD = """
+            UPDATE users
+            SET password_hash = ?, password_salt = ?, hash_algorithm = ?, hash_parameters = ?
+            WHERE username = ?
+            """;
+    // the connection pool of every shard of the database
+    private final List<ConnectionPool> pools;
+    // one per shard, or none if every registration commits its own transaction
+    private final List<GroupCommitWriter> groupCommitWriters;
+
+    /**
+     * Instantiates a new SqliteUserStore on the shards of the database, with group commit as
+     * configured in resources/database-info.json.
+     * @param databaseInfo the database settings.
+     */
+    public SqliteUserStore(final Settings databaseInfo) {
+        this(getShardPools(), databaseInfo);
+    }
+
+    /**
+     * Helper constructor to instantiate a new SqliteUserStore on the given shards.
+     * @param pools the connection pool of every shard.
+     * @param databaseInfo the database settings.
+     */
+    private SqliteUserStore(final List<ConnectionPool> pools, final Settings databaseInfo) {
+        this(pools, createGroupCommitWriters(pools, databaseInfo));
+    }
+
+    /**
+     * Instantiates a new SqliteUserStore.
+     * @param pools the connection pool of every shard of the database; users are spread over
+     * them by {@link ShardRouter}.
+     * @param groupCommitWriters the writers that commit registrations in groups, one for each
+     * shard in the same order, or an empty list to have every registration commit its own
+     * transaction.
+     */
+    public SqliteUserStore(final List<ConnectionPool> pools,
+                           final List<GroupCommitWriter> groupCommitWriters) {
+        if (pools.isEmpty()
+                || !groupCommitWriters.isEmpty() && groupCommitWriters.size() != pools.size()) {
+            throw new IllegalArgumentException("Need a pool, and a writer per pool if any.");
+        }
+
+        this.pools = List.copyOf(pools);
+        this.groupCommitWriters = List.copyOf(groupCommitWriters);
+    }
+
+    /**
+     * Helper method to get the connection pools of all shards of the database.
+     * @return the connection pool of every shard.
+     */
+    private static List<ConnectionPool> getShardPools() {
+        List<ConnectionPool> pools = new ArrayList<>();
+
+        for (int shard = 0; shard < Database.INSTANCE.getShardCount(); shard++) {
+            pools.add(Database.INSTANCE.getPool(shard));
+        }
+
+        return pools;
+    }
+
+    /**
+     * Helper method to create the configured writers that commit registrations in groups,
+     * one for each shard.
+     * @param pools the connection pool of every shard.
+     * @param databaseInfo the database settings.
+     * @return the group commit writers, or an empty list if group commit is turned off.
+     */
+    private static List<GroupCommitWriter> createGroupCommitWriters(
+            final List<ConnectionPool> pools, final Settings databaseInfo) {
+        if (!databaseInfo.getBoolean("groupCommit", true)) {
+            return List.of();
+        }
+
+        List<GroupCommitWriter> writers = new ArrayList<>();
+
+        for (ConnectionPool pool : pools) {
+            writers.add(new GroupCommitWriter(pool,
+                    databaseInfo.getInt("groupCommitMaxBatchSize",
+                            DEFAULT_GROUP_COMMIT_MAX_BATCH_SIZE),
+                    databaseInfo.getLong("groupCommitMaxWaitMicros",
+                            DEFAULT_GROUP_COMMIT_MAX_WAIT_MICROS),
+                    databaseInfo.getInt("groupCommitQueueSize", DEFAULT_GROUP_COMMIT_QUEUE_SIZE)));
+        }
+
+        return writers;
+    }
+
+    @Override
+    public Optional<Credentials> findByUsername(final String username) throws UserStoreException {
+        long started = Metrics.INSTANCE.startTimer();
+
+        try (PooledConnection connection = getConnection(username)) {
+            PreparedStatement statement = connection.prepareStatement(SELECT_CREDENTIALS);
+            statement.setString(1, username);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                if (!resultSet.next()) {
+                    return Optional.empty();
+                }
+
+                return Optional.of(new Credentials(resultSet.getString(1),
+                        resultSet.getBytes(2), resultSet.getBytes(3),
+                        resultSet.getString(4), resultSet.getString(5)));
+            }
+        } catch (SQLException e) {
+            throw sqlError(e);
+        } finally {
+            FIND_TIME.recordSince(started);
+        }
+    }
+
+    /**
+     * Adds the credentials of a new user; fails if the username is already registered. With group
+     * commit, the user is written together with other registrations in one transaction.
+     * @param credentials the credentials to add.
+     * @return true if the user was added, or false if the username is already taken.
+     * @throws java.util.concurrent.RejectedExecutionException if too many registrations are
+     * waiting to be committed.
+     * @throws InterruptedException if interrupted while waiting for the registration to be
+     * committed.
+     * @throws UserStoreException if a database access error occurs.
+     */
+    @Override
+    public boolean insert(final Credentials credentials)
+            throws InterruptedException, UserStoreException {
+        long started = Metrics.INSTANCE.startTimer();
+
+        try {
+            if (groupCommitWriters.isEmpty()) {
+                return insertDirectly(credentials);
+            }
+
+            return groupCommitWriters.get(getShard(credentials.username())).insert(credentials);
+        } catch (SQLException e) {
+            throw sqlError(e);
+        } finally {
+            INSERT_TIME.recordSince(started);
+        }
+    }
+
+    /**
+     * Helper method to add the credentials of a new user in a transaction of its own.
+     * @param credentials the credentials to add.
+     * @return true if the user was added, or false if the username is already taken.
+     * @throws SQLException if a database access error occurs.
+     */
+    private boolean insertDirectly(final Credentials credentials) throws SQLException {
+        try (PooledConnection connection = getConnection(credentials.username())) {
+            PreparedStatement statement = connection.prepareStatement(INSERT_CREDENTIALS);
+            statement.setString(1, credentials.username());
+            statement.setBytes(2, credentials.passwordHash());
+            statement.setBytes(3, credentials.passwordSalt());
+            statement.setString(4, credentials.hashAlgorithm());
+            statement.setString(5, credentials.hashParameters());
+            statement.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            if (isConstraintViolation(e)) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean updatePassword(final Credentials credentials) throws UserStoreException {
+        long started = Metrics.INSTANCE.startTimer();
+
+        try (PooledConnection connection = getConnection(credentials.username())) {
+            PreparedStatement statement = connection.prepareStatement(UPDATE_PASSWORD);
+            statement.setBytes(1, credentials.passwordHash());
+            statement.setBytes(2, credentials.passwordSalt());
+            statement.setString(3, credentials.hashAlgorithm());
+            statement.setString(4, credentials.hashParameters());
+            statement.setString(5, credentials.username());
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw sqlError(e);
+        } finally {
+            UPDATE_TIME.recordSince(started);
+        }
+    }
+
+    @Override
+    public long countUsers() throws UserStoreException {
+        long users = 0;
+
+        for (ConnectionPool pool : pools) {
+            try (PooledConnection connection = pool.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(COUNT_USERS)) {
+                users += resultSet.getLong(1);
+            } catch (SQLException e) {
+                throw sqlError(e);
+            }
+        }
+
+        return users;
+    }
+
+    @Override
+    public void forEachUsername(final Consumer<String> action) throws UserStoreException {
+        for (ConnectionPool pool : pools) {
+            try (PooledConnection connection = pool.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT_USERNAMES)) {
+                while (resultSet.next()) {
+                    action.accept(resultSet.getString(1));
+                }
+            } catch (SQLException e) {
+                throw sqlError(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the rowid and username of the last user registered in every shard.
+     * @return the position of every shard in order.
+     * @throws UserStoreException if a database access error occurs.
+     */
+    @Override
+    public List<Position> getPositions() throws UserStoreException {
+        List<Position> positions = new ArrayList<>();
+
+        for (ConnectionPool pool : pools) {
+            try (PooledConnection connection = pool.getConnection();
+                 Statement statement = connection.createStatement();
+                 ResultSet resultSet = statement.executeQuery(SELECT_LAST_USER)) {
+                positions.add(resultSet.next()
+                        ? new Position(resultSet.getLong(1), resultSet.getString(2))
+                        : new Position(0, ""));
+            } catch (SQLException e) {
+                throw sqlError(e);
+            }
+        }
+
+        return positions;
+    }
+
+    /**
+     * Passes the username of every user with a higher rowid than the given positions to an
+     * action. The positions only apply if there are as many shards as there were, and every
+     * shard still holds the user at the rowid of its position, which tells a shard that was
+     * replaced by a new database apart from one that has only grown.
+     * @param positions the positions returned by {@link #getPositions} earlier.
+     * @param action the action to run for every username.
+     * @return whether the positions still apply to the shards.
+     * @throws UserStoreException if a database access error occurs.
+     */
+    @Override
+    public boolean forEachUsernameSince(final List<Position> positions,
+                                        final Consumer<String> action)
+            throws UserStoreException {
+        if (positions.size() != pools.size()) {
+            return false;
+        }
+
+        try {
+            for (int shard = 0; shard < pools.size(); shard++) {
+                if (!holdsUserAt(pools.get(shard), positions.get(shard))) {
+                    return false;
+                }
+            }
+
+            for (int shard = 0; shard < pools.size(); shard++) {
+                try (PooledConnection connection = pools.get(shard).getConnection()) {
+                    PreparedStatement statement =
+                            connection.prepareStatement(SELECT_USERNAMES_SINCE);
+                    statement.setLong(1, positions.get(shard).sequence());
+
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        while (resultSet.next()) {
+                            action.accept(resultSet.getString(1));
+                        }
+                    }
+                }
+            }
+
+            return true;
+        } catch (SQLException e) {
+            throw sqlError(e);
+        }
+    }
+
+    /**
+     * Helper method to check whether a shard still holds the user at a position.
+     * @param pool the connection pool of the shard.
+     * @param position the position of the shard.
+     * @return whether the shard holds the same user at the rowid of the position, or the
+     * position is that of an empty shard.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static boolean holdsUserAt(final ConnectionPool pool, final Position position)
+            throws SQLException {
+        if (position.sequence() == 0) {
+            return true;
+        }
+
+        try (PooledConnection connection = pool.getConnection()) {
+            PreparedStatement statement = connection.prepareStatement(SELECT_USERNAME_BY_ROWID);
+            statement.setLong(1, position.sequence());
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                return resultSet.next() && position.username().equals(resultSet.getString(1));
+            }
+        }
+    }
+
+    /**
+     * Helper method to get the shard of a user.
+     * @param username the username of the user.
+     * @return the index of the shard that holds the user.
+     */
+    private int getShard(final String username) {
+        return ShardRouter.shardOf(username, pools.size());
+    }
+
+    /**
+     * Helper method to get a connection to the shard of a user.
+     * @param username the username of the user.
+     * @return a connection to the shard that holds the user.
+     * @throws SQLException if no connection could be obtained or a database access error occurs.
+     */
+    private PooledConnection getConnection(final String username) throws SQLException {
+        return pools.get(getShard(username)).getConnection();
+    }
+
+    /**
+     * Helper method to count a database error and wrap it for the callers of the store.
+     * @param e the database error.
+     * @return the exception to throw.
+     */
+    private static UserStoreException sqlError(final SQLException e) {
+        SQL_ERRORS.increment();
+        return new UserStoreException(e);
+    }
+
+    /**
+     * Checks whether an exception was caused by a violated constraint, e.g. a duplicate username.
+     * @param e the exception to check.
+     * @return whether the exception signals a constraint violation as a boolean.
+     */
+    static boolean isConstraintViolation(final SQLException e) {
+        return (e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT;
+    }
+
+    /**
+     * Returns the batching statistics of group commit.
+     * @return the current statistics of the group commit writers of all shards combined, or an
+     * empty Optional if group commit is turned off.
+     */
+    public Optional<GroupCommitWriter.Stats> getGroupCommitStats() {
+        if (groupCommitWriters.isEmpty()) {
+            return Optional.empty();
+        }
+
+        int queued = 0;
+        long batches = 0;
+        long written = 0;
+        int largestBatch = 0;
+        long rejected = 0;
+
+        for (GroupCommitWriter writer : groupCommitWriters) {
+            GroupCommitWriter.Stats stats = writer.getStats();
+            queued += stats.queued();
+            batches += stats.batches();
+            written += stats.written();
+            largestBatch = Math.max(largestBatch, stats.largestBatch());
+            rejected += stats.rejected();
+        }
+
+        return Optional.of(new GroupCommitWriter.Stats(queued, batches, written, largestBatch,
+                rejected));
+    }
+
+    /**
+     * Stops the group commit writers, waiting for them to write the registrations already queued.
+     */
+    @Override
+    public void close() {
+        groupCommitWriters.forEach(GroupCommitWriter::close);
+    }
+}
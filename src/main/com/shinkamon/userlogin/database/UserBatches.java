@@ -0,0 +1,88 @@
+package com.shinkamon.userlogin.database;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Writes batches of users to a shard with one prepared statement, as group commits, bulk imports,
+ * resharding and the seeding of a load test all do. A username that is already taken, also
+ * within the batch, inserts nothing rather than failing the batch.
+ */
+public final class UserBatches {
+    private static final String INSERT_USER = """
+            INSERT INTO users (username, password_hash, password_salt,
+                               hash_algorithm, hash_parameters)
+            VALUES (?, ?, ?, ?, ?)
+            ON CONFLICT (username) DO NOTHING
+            """;
+
+    /**
+     * Inserts a batch of users in a single transaction, which is rolled back if any of them
+     * can't be written.
+     * @param connection the connection to the shard, which must not be in a transaction.
+     * @param users the credentials of the users to write.
+     * @return whether each user was inserted, or not because the username is taken.
+     * @throws SQLException if a database access error occurs.
+     */
+    public static boolean[] write(final PooledConnection connection,
+                                  final List<Credentials> users) throws SQLException {
+        Connection transaction = connection.getConnection();
+        transaction.setAutoCommit(false);
+
+        try {
+            boolean[] inserted = insert(connection, users);
+            transaction.commit();
+            return inserted;
+        } catch (SQLException | RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            transaction.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Inserts a batch of users in the transaction the connection is in, e.g. to commit them
+     * together with other changes.
+     * @param connection the connection to the shard.
+     * @param users the credentials of the users to write.
+     * @return whether each user was inserted, or not because the username is taken.
+     * @throws SQLException if a database access error occurs.
+     */
+    public static boolean[] insert(final PooledConnection connection,
+                                   final List<Credentials> users) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(INSERT_USER);
+        boolean[] inserted = new boolean[users.size()];
+
+        for (int i = 0; i < inserted.length; i++) {
+            Credentials credentials = users.get(i);
+            statement.setString(1, credentials.username());
+            statement.setBytes(2, credentials.passwordHash());
+            statement.setBytes(3, credentials.passwordSalt());
+            statement.setString(4, credentials.hashAlgorithm());
+            statement.setString(5, credentials.hashParameters());
+            inserted[i] = statement.executeUpdate() > 0;
+        }
+
+        return inserted;
+    }
+
+    /**
+     * Counts the users of a batch that were inserted.
+     * @param inserted whether each user was inserted.
+     * @return the number of users inserted.
+     */
+    public static long count(final boolean[] inserted) {
+        long count = 0;
+
+        for (boolean user : inserted) {
+            if (user) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
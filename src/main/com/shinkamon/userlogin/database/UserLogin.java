@@ -1,82 +1,801 @@
 package com.shinkamon.userlogin.database;
 
+import com.shinkamon.userlogin.audit.AuditEvent;
+import com.shinkamon.userlogin.audit.AuditLog;
 import com.shinkamon.userlogin.support.HashGenerator;
+import com.shinkamon.userlogin.support.HashingExecutor;
 import com.shinkamon.userlogin.support.InputReader;
+import com.shinkamon.userlogin.support.LatencyHistogram;
+import com.shinkamon.userlogin.support.LoginThrottle;
+import com.shinkamon.userlogin.support.Metrics;
+import com.shinkamon.userlogin.support.PasswordBlocklist;
+import com.shinkamon.userlogin.support.PasswordHasher;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import com.shinkamon.userlogin.support.SessionTokens;
+import com.shinkamon.userlogin.support.Settings;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.SecureRandom;
-import java.sql.*;
-import java.util.regex.Matcher;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 /**
  * Handles user login by enabling the registration of new users
  * as well as authentication of existing users.
+ * <p>
+ * {@link #register} and {@link #authenticate} don't interact with the console and are safe to call
+ * from multiple threads at the same time; {@link #login()} is an interactive console front-end
+ * built on top of them. All password hashing runs on a bounded {@link HashingExecutor}, and
+ * requests that arrive while it is saturated are turned away as BUSY rather than queued. Before
+ * that, every login attempt passes a {@link LoginThrottle}, which turns away attempts on a
+ * username or from a source that are too frequent, or follow too many failures, without
+ * hashing anything or looking up the user. Every registration and login attempt is recorded in
+ * an {@link AuditLog}, which writes them in batches in the background, and the time spent in
+ * every phase of it, along with its outcome, is recorded in the {@link Metrics}.
+ * <p>
+ * A login through {@link #startSession} is issued a token by {@link SessionTokens}, which
+ * {@link #verifySession} checks on later requests for the cost of one HMAC, instead of hashing
+ * the password and looking up the user again; {@link #endSession} revokes it. New passwords
+ * that appear on a {@link PasswordBlocklist} of breached passwords are turned away.
  */
-public class UserLogin {
+public class UserLogin implements AutoCloseable {
+    // can only contain alphanumeric characters and underscores,
+    // and must be between 3-30 characters long
+    private static final Pattern USERNAME_PATTERN = Pattern.compile("^\\w{3,30}$");
+    // (?=.*[a-zA-z]) must contain at least one letter
+    // (?=.*\d) must contain at least one digit
+    // (?=\S+$) must contain only non-whitespace characters
+    // .{8,50} must be between 8-50 characters long
+    private static final Pattern PASSWORD_PATTERN =
+            Pattern.compile("^(?=.*[a-zA-z])(?=.*\\d)(?=\\S+$).{8,50}$");
+    // salt for hashing the password of an unknown username, which has no salt of its own
+    private static final byte[] UNKNOWN_USER_SALT =
+            "unknown-user".getBytes(StandardCharsets.US_ASCII);
+    // the source of login attempts made through the console
+    private static final String CONSOLE_SOURCE = "console";
+    private static final long DEFAULT_HASH_TARGET_MILLIS = 50;
+    private static final int DEFAULT_HASHING_TASKS_PER_THREAD = 4;
+    private static final String LOGIN_PHASE = "userlogin_login_phase_seconds";
+    private static final String LOGIN_PHASE_HELP = "Time spent in each phase of a login.";
+    private static final LatencyHistogram LOGIN_THROTTLE_TIME = loginPhase("throttle");
+    private static final LatencyHistogram LOGIN_LOOKUP_TIME = loginPhase("lookup");
+    private static final LatencyHistogram LOGIN_HASH_TIME = loginPhase("hash");
+    private static final LatencyHistogram LOGIN_TIME = loginPhase("total");
+    private static final String REGISTRATION_PHASE = "userlogin_registration_phase_seconds";
+    private static final String REGISTRATION_PHASE_HELP =
+            "Time spent in each phase of a registration.";
+    private static final LatencyHistogram REGISTRATION_VALIDATE_TIME =
+            registrationPhase("validate");
+    private static final LatencyHistogram REGISTRATION_BLOCKLIST_TIME =
+            registrationPhase("blocklist");
+    private static final LatencyHistogram REGISTRATION_HASH_TIME = registrationPhase("hash");
+    private static final LatencyHistogram REGISTRATION_INSERT_TIME = registrationPhase("insert");
+    private static final LatencyHistogram REGISTRATION_TIME = registrationPhase("total");
+    private static final LatencyHistogram SESSION_CHECK_TIME = Metrics.INSTANCE.histogram(
+            "userlogin_session_check_seconds", "Time spent verifying a session token.");
+    private static final Metrics.Counter VALID_SESSIONS = sessionCounter("VALID");
+    private static final Metrics.Counter INVALID_SESSIONS = sessionCounter("INVALID");
+    private static final Map<AuthenticationResult, Metrics.Counter> LOGIN_RESULTS =
+            resultCounters(AuthenticationResult.class, "userlogin_logins_total",
+                    "Login attempts by outcome.");
+    // USERNAME_TAKEN counts the duplicate registrations
+    private static final Map<RegistrationResult, Metrics.Counter> REGISTRATION_RESULTS =
+            resultCounters(RegistrationResult.class, "userlogin_registrations_total",
+                    "Registration attempts by outcome.");
     private final HashGenerator hashGenerator;
+    private final PasswordHasher passwordHasher;
+    private final HashingExecutor hashingExecutor;
+    private final LoginThrottle loginThrottle;
+    private final AuditLog auditLog;
+    private final SessionTokens sessionTokens;
+    private final PasswordBlocklist passwordBlocklist;
+    private final Map<String, PasswordHasher> storedHashers = new ConcurrentHashMap<>();
+    private final CredentialRepository credentialRepository;
+    // whether the hashing executor was created by this UserLogin, and so is closed along with it
+    private final boolean ownsHashingExecutor;
 
     /**
-     * Instantiates a new UserLogin.
+     * Instantiates a new UserLogin, with the password hashing scheme, login throttling, audit
+     * log, session tokens and password blocklist configured in resources/login-info.json. Unless
+     * a fixed work factor is configured, it is calibrated to the configured target time per hash
+     * on the current machine.
+     * @throws UncheckedIOException if the audit log or the password blocklist can't be opened.
      */
     public UserLogin() {
+        this(Settings.load("resources/login-info.json"));
+    }
+
+    /**
+     * Helper constructor to instantiate a new UserLogin from the login settings.
+     * @param loginInfo the login settings.
+     */
+    private UserLogin(final Settings loginInfo) {
+        this(createPasswordHasher(loginInfo), createHashingExecutor(loginInfo),
+                new LoginThrottle(LoginThrottle.Config.fromSettings(loginInfo)),
+                createAuditLog(loginInfo), createSessionTokens(loginInfo),
+                openPasswordBlocklist(loginInfo), true);
+    }
+
+    /**
+     * Instantiates a new UserLogin.
+     * @param passwordHasher the scheme used to hash new passwords; passwords hashed with a weaker
+     * scheme are rehashed with it on the next successful login.
+     * @param hashingExecutor the executor that runs all password hashing.
+     * @param loginThrottle the throttle that every login attempt has to pass first.
+     * @param auditLog the log that every registration and login attempt is recorded in, or null
+     * to record nothing.
+     * @param sessionTokens the tokens issued to logins through {@link #startSession}, or null to
+     * issue none.
+     * @param passwordBlocklist the breached passwords that can't be registered, or null to
+     * check none; it is closed along with the UserLogin.
+     */
+    public UserLogin(final PasswordHasher passwordHasher, final HashingExecutor hashingExecutor,
+                     final LoginThrottle loginThrottle, final AuditLog auditLog,
+                     final SessionTokens sessionTokens,
+                     final PasswordBlocklist passwordBlocklist) {
+        this(passwordHasher, hashingExecutor, loginThrottle, auditLog, sessionTokens,
+                passwordBlocklist, false);
+    }
+
+    /**
+     * Helper constructor to instantiate a new UserLogin.
+     * @param passwordHasher the scheme used to hash new passwords.
+     * @param hashingExecutor the executor that runs all password hashing.
+     * @param loginThrottle the throttle that every login attempt has to pass first.
+     * @param auditLog the audit log, or null to record nothing.
+     * @param sessionTokens the session tokens, or null to issue none.
+     * @param passwordBlocklist the breached passwords that can't be registered, or null.
+     * @param ownsHashingExecutor whether the hashing executor is closed along with the UserLogin.
+     */
+    private UserLogin(final PasswordHasher passwordHasher, final HashingExecutor hashingExecutor,
+                      final LoginThrottle loginThrottle, final AuditLog auditLog,
+                      final SessionTokens sessionTokens,
+                      final PasswordBlocklist passwordBlocklist,
+                      final boolean ownsHashingExecutor) {
         this.hashGenerator = new HashGenerator(new SecureRandom());
+        this.passwordHasher = passwordHasher;
+        this.hashingExecutor = hashingExecutor;
+        this.loginThrottle = loginThrottle;
+        this.auditLog = auditLog;
+        this.sessionTokens = sessionTokens;
+        this.passwordBlocklist = passwordBlocklist;
+        this.credentialRepository = new CredentialRepository();
+        this.ownsHashingExecutor = ownsHashingExecutor;
+    }
+
+    /**
+     * Helper method to get the histogram of a phase of a login.
+     * @param phase the name of the phase.
+     * @return the histogram of the phase.
+     */
+    private static LatencyHistogram loginPhase(final String phase) {
+        return Metrics.INSTANCE.histogram(LOGIN_PHASE, LOGIN_PHASE_HELP, "phase", phase);
+    }
+
+    /**
+     * Helper method to get the histogram of a phase of a registration.
+     * @param phase the name of the phase.
+     * @return the histogram of the phase.
+     */
+    private static LatencyHistogram registrationPhase(final String phase) {
+        return Metrics.INSTANCE.histogram(REGISTRATION_PHASE, REGISTRATION_PHASE_HELP,
+                "phase", phase);
+    }
+
+    /**
+     * Helper method to get the counter of session token checks with an outcome.
+     * @param result the name of the outcome.
+     * @return the counter of the outcome.
+     */
+    private static Metrics.Counter sessionCounter(final String result) {
+        return Metrics.INSTANCE.counter("userlogin_session_checks_total",
+                "Session token checks by outcome.", "result", result);
+    }
+
+    /**
+     * Helper method to create a counter for every outcome of an attempt.
+     * @param results the type of the outcomes.
+     * @param name the name of the counters.
+     * @param help a description of the counters.
+     * @param <E> the type of the outcomes.
+     * @return the counter of every outcome.
+     */
+    private static <E extends Enum<E>> Map<E, Metrics.Counter> resultCounters(
+            final Class<E> results, final String name, final String help) {
+        Map<E, Metrics.Counter> counters = new EnumMap<>(results);
+
+        for (E result : results.getEnumConstants()) {
+            counters.put(result, Metrics.INSTANCE.counter(name, help, "result", result.name()));
+        }
+
+        return counters;
+    }
+
+    /**
+     * Helper method to create the configured executor for password hashing; by default it has
+     * one thread per core.
+     * @param loginInfo the login settings.
+     * @return the executor to run password hashing on.
+     */
+    private static HashingExecutor createHashingExecutor(final Settings loginInfo) {
+        int threads = loginInfo.getInt("hashingThreads",
+                Runtime.getRuntime().availableProcessors());
+        int queueDepth = loginInfo.getInt("hashingQueueDepth",
+                threads * DEFAULT_HASHING_TASKS_PER_THREAD);
+        return new HashingExecutor(threads, queueDepth);
+    }
+
+    /**
+     * Helper method to open the configured audit log.
+     * @param loginInfo the login settings.
+     * @return the audit log, or null if no audit file is configured.
+     * @throws UncheckedIOException if the audit file can't be opened.
+     */
+    private static AuditLog createAuditLog(final Settings loginInfo) {
+        AuditLog.Config config = AuditLog.Config.fromSettings(loginInfo);
+        if (config.path().isEmpty()) {
+            return null;
+        }
+
+        try {
+            return AuditLog.open(config);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Helper method to create the configured session tokens.
+     * @param loginInfo the login settings.
+     * @return the session tokens, or null if sessions are turned off by setting
+     * sessionTtlSeconds to 0.
+     */
+    private static SessionTokens createSessionTokens(final Settings loginInfo) {
+        SessionTokens.Config config = SessionTokens.Config.fromSettings(loginInfo);
+        return config.ttlSeconds() > 0 ? new SessionTokens(config) : null;
+    }
+
+    /**
+     * Opens the configured password blocklist, which is built offline.
+     * @param loginInfo the login settings.
+     * @return the password blocklist, or null if none is configured or the file doesn't exist.
+     * @throws UncheckedIOException if the blocklist file isn't valid.
+     */
+    public static PasswordBlocklist openPasswordBlocklist(final Settings loginInfo) {
+        String path = loginInfo.getString("passwordBlocklistPath", "");
+        if (path.isEmpty()) {
+            return null;
+        }
+
+        if (!Files.exists(Path.of(path))) {
+            System.out.println("No password blocklist at " + path
+                    + "; breached passwords are not rejected.");
+            return null;
+        }
+
+        try {
+            PasswordBlocklist blocklist = PasswordBlocklist.open(Path.of(path));
+            System.out.println("Password blocklist " + blocklist.getStats() + ".");
+            return blocklist;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Creates the configured password hashing scheme, calibrating its iterations unless they are
+     * set, e.g. to hash imported passwords the way a UserLogin would.
+     * @param loginInfo the login settings.
+     * @return the password hasher to use for new passwords.
+     */
+    public static PasswordHasher createPasswordHasher(final Settings loginInfo) {
+        String algorithm = loginInfo.getString("hashAlgorithm", Pbkdf2PasswordHasher.ALGORITHM);
+
+        if (!algorithm.equals(Pbkdf2PasswordHasher.ALGORITHM)) {
+            return PasswordHasher.of(algorithm, "");
+        }
+
+        int iterations = loginInfo.getInt("hashIterations", 0);
+        if (iterations > 0) {
+            return new Pbkdf2PasswordHasher(iterations);
+        }
+
+        return Pbkdf2PasswordHasher.calibrate(
+                loginInfo.getLong("hashTargetMillis", DEFAULT_HASH_TARGET_MILLIS));
+    }
+
+    /**
+     * Returns the scheme used to hash new passwords.
+     * @return the password hasher for new passwords.
+     */
+    public PasswordHasher getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    /**
+     * Returns the queue and wait-time statistics of password hashing.
+     * @return the current statistics of the hashing executor.
+     */
+    public HashingExecutor.Stats getHashingStats() {
+        return hashingExecutor.getStats();
+    }
+
+    /**
+     * Returns the statistics of login throttling.
+     * @return the current statistics of the login throttle.
+     */
+    public LoginThrottle.Stats getThrottleStats() {
+        return loginThrottle.getStats();
+    }
+
+    /**
+     * Returns the statistics of the audit log.
+     * @return the current statistics of the audit log, or an empty Optional if there is none.
+     */
+    public Optional<AuditLog.Stats> getAuditStats() {
+        return Optional.ofNullable(auditLog).map(AuditLog::getStats);
+    }
+
+    /**
+     * Returns the statistics of session tokens.
+     * @return the current statistics of session tokens, or an empty Optional if there are none.
+     */
+    public Optional<SessionTokens.Stats> getSessionStats() {
+        return Optional.ofNullable(sessionTokens).map(SessionTokens::getStats);
+    }
+
+    /**
+     * Returns the statistics of the password blocklist, including how much of it is resident.
+     * @return the current statistics of the blocklist, or an empty Optional if there is none.
+     */
+    public Optional<PasswordBlocklist.Stats> getBlocklistStats() {
+        return Optional.ofNullable(passwordBlocklist).map(PasswordBlocklist::getStats);
+    }
+
+    /**
+     * Returns the hit, miss and eviction statistics of the credential caches.
+     * @return the current statistics of the credential caches.
+     */
+    public CredentialRepository.CacheStats getCacheStats() {
+        return credentialRepository.getCacheStats();
+    }
+
+    /**
+     * Returns the batching statistics of group commit of registrations.
+     * @return the current statistics, or an empty Optional if group commit is turned off.
+     */
+    public Optional<GroupCommitWriter.Stats> getGroupCommitStats() {
+        return credentialRepository.getGroupCommitStats();
+    }
+
+    /**
+     * Builds the filter of registered usernames, which lets logins with unknown usernames skip
+     * the user store; should be called once the database has been set up. The filter is loaded
+     * from its snapshot if there is a usable one.
+     * @return how the filter was built, and how long it took.
+     * @throws UserStoreException if the usernames couldn't be read.
+     */
+    public CredentialRepository.FilterBuild buildUsernameFilter() throws UserStoreException {
+        return credentialRepository.buildUsernameFilter();
+    }
+
+    /**
+     * Returns the size and effectiveness statistics of the filter of registered usernames.
+     * @return the current statistics of the filter, or an empty Optional if it hasn't been built.
+     */
+    public Optional<CredentialRepository.FilterStats> getUsernameFilterStats() {
+        return credentialRepository.getUsernameFilterStats();
+    }
+
+    /**
+     * Checks whether a username conforms to the username format; e.g. it only contains
+     * alphanumeric characters and underscores, and is between 3 and 30 characters long.
+     * @param username the username to check.
+     * @return whether the username is valid or not as a boolean.
+     */
+    public static boolean isValidUsername(final String username) {
+        return username != null && USERNAME_PATTERN.matcher(username).matches();
+    }
+
+    /**
+     * Checks whether a password conforms to the password format; e.g. it contains at least one
+     * letter and one digit, no whitespaces, and is between 8 and 50 characters long.
+     * The password is matched in place, without being copied into a String.
+     * @param password the password to check.
+     * @return whether the password is valid or not as a boolean.
+     */
+    public static boolean isValidPassword(final char[] password) {
+        return password != null && PASSWORD_PATTERN.matcher(CharBuffer.wrap(password)).matches();
+    }
+
+    /**
+     * Registers a new user, recording the attempt with the console as its source; for callers
+     * that have no source of their own. The password is hashed together with a newly generated
+     * salt, and is not modified or retained; clearing it after use is up to the caller.
+     * @param username the username to register.
+     * @param password the password to register.
+     * @return the outcome of the registration.
+     */
+    public RegistrationResult register(final String username, final char[] password) {
+        return register(username, password, CONSOLE_SOURCE);
+    }
+
+    /**
+     * Registers a new user. The password is hashed together with a newly generated salt, and is
+     * not modified or retained; clearing it after use is up to the caller.
+     * @param username the username to register.
+     * @param password the password to register.
+     * @param source where the registration comes from, e.g. the address of the client.
+     * @return the outcome of the registration.
+     */
+    public RegistrationResult register(final String username, final char[] password,
+                                       final String source) {
+        long started = System.nanoTime();
+        RegistrationResult result = registerUser(username, password);
+        long latencyNanos = System.nanoTime() - started;
+
+        REGISTRATION_TIME.record(latencyNanos);
+        REGISTRATION_RESULTS.get(result).increment();
+        audit(AuditEvent.Type.REGISTRATION, username, source, result.name(), latencyNanos);
+        return result;
+    }
+
+    /**
+     * Helper method to register a new user, turning away the registration if password hashing
+     * is at capacity.
+     * @param username the username to register.
+     * @param password the password to register.
+     * @return the outcome of the registration.
+     */
+    private RegistrationResult registerUser(final String username, final char[] password) {
+        try {
+            return addUser(username, password);
+        } catch (RejectedExecutionException e) {
+            return RegistrationResult.BUSY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return RegistrationResult.ERROR;
     }
 
     /**
-     * Helper method to check whether a username and a hashed password are valid.
-     * E.g. the username belongs to a registered user and the hashed password is the
-     * correct password associated with that username.
-     * @param username the username to validate.
-     * @param passwordHash the hashed password to validate.
-     * @return whether the credentials are valid or not as a boolean.
+     * Helper method to validate, hash and store the credentials of a new user.
+     * @param username the username to register.
+     * @param password the password to register.
+     * @return the outcome of the registration.
+     * @throws RejectedExecutionException if password hashing is at capacity.
+     * @throws InterruptedException if interrupted while waiting for the password to be hashed.
      */
-    private boolean isValidCredentials(final String username, final String passwordHash) {
-        try (Connection connection = Database.INSTANCE.getConnection()) {
-            if (hasUser(username, connection)) {
-                String query = "SELECT password_hash FROM users WHERE username = ?";
-                PreparedStatement statement = connection.prepareStatement(query);
-                statement.setString(1, username);
-                ResultSet resultSet = statement.executeQuery();
+    private RegistrationResult addUser(final String username, final char[] password)
+            throws InterruptedException {
+        long validating = Metrics.INSTANCE.startTimer();
+        boolean validUsername = isValidUsername(username);
+        boolean validPassword = validUsername && isValidPassword(password);
+        REGISTRATION_VALIDATE_TIME.recordSince(validating);
+
+        if (!validUsername) {
+            return RegistrationResult.INVALID_USERNAME;
+        }
 
-                return resultSet.getString(1).equals(passwordHash);
+        if (!validPassword) {
+            return RegistrationResult.INVALID_PASSWORD;
+        }
+
+        if (passwordBlocklist != null) {
+            long checking = Metrics.INSTANCE.startTimer();
+            boolean breached = passwordBlocklist.contains(password);
+            REGISTRATION_BLOCKLIST_TIME.recordSince(checking);
+
+            if (breached) {
+                return RegistrationResult.BREACHED_PASSWORD;
+            }
+        }
+
+        Credentials credentials = hash(REGISTRATION_HASH_TIME,
+                () -> hashPassword(username, password));
+        long inserting = Metrics.INSTANCE.startTimer();
+
+        try {
+            if (credentialRepository.insert(credentials)) {
+                return RegistrationResult.REGISTERED;
             }
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
+
+            return RegistrationResult.USERNAME_TAKEN;
+        } catch (UserStoreException e) {
             e.printStackTrace();
+        } finally {
+            REGISTRATION_INSERT_TIME.recordSince(inserting);
         }
 
-        return false;
+        return RegistrationResult.ERROR;
     }
 
     /**
-     * Helper method that checks whether a username is registered; e.g. checks whether the username
-     * is in the database.Takes an already established {@link java.sql.Connection} to the database
-     * as a parameter to avoid opening a new connection.
-     * @param username the username to check.
-     * @param connection a connection to the database.
-     * @return whether the username exists or not as a boolean.
-     * @throws SQLException if a database access error occurs.
+     * Authenticates a user by comparing the password to the one stored for the username,
+     * recording the attempt with the console as its source; for callers that have no source of
+     * their own. The password is not modified or retained; clearing it after use is up to the
+     * caller.
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @return the outcome of the authentication.
+     */
+    public AuthenticationResult authenticate(final String username, final char[] password) {
+        return authenticate(username, password, CONSOLE_SOURCE);
+    }
+
+    /**
+     * Authenticates a user by comparing the password to the one stored for the username, once
+     * the attempt has passed the login throttle. The password is not modified or retained;
+     * clearing it after use is up to the caller.
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @param source where the attempt comes from, e.g. the address of the client.
+     * @return the outcome of the authentication.
+     */
+    public AuthenticationResult authenticate(final String username, final char[] password,
+                                             final String source) {
+        long started = System.nanoTime();
+        AuthenticationResult result = authenticateUser(username, password, source);
+        long latencyNanos = System.nanoTime() - started;
+
+        LOGIN_TIME.record(latencyNanos);
+        LOGIN_RESULTS.get(result).increment();
+        audit(AuditEvent.Type.LOGIN, username, source, result.name(), latencyNanos);
+        return result;
+    }
+
+    /**
+     * Authenticates a user like {@link #authenticate(String, char[], String)}, and issues a
+     * session token if the user was authenticated, so that later requests can be authenticated
+     * with {@link #verifySession} instead.
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @param source where the attempt comes from, e.g. the address of the client.
+     * @return the outcome of the authentication, and the session token if one was issued.
+     */
+    public LoginSession startSession(final String username, final char[] password,
+                                     final String source) {
+        AuthenticationResult result = authenticate(username, password, source);
+
+        if (result != AuthenticationResult.AUTHENTICATED || sessionTokens == null) {
+            return new LoginSession(result, null);
+        }
+
+        return new LoginSession(result, sessionTokens.issue(username));
+    }
+
+    /**
+     * Checks a session token issued by {@link #startSession}, without hashing anything or
+     * looking up the user.
+     * @param token the session token.
+     * @return the username of the session, or an empty Optional if the token is invalid, has
+     * expired or has been revoked, or sessions are turned off.
+     */
+    public Optional<String> verifySession(final String token) {
+        if (sessionTokens == null) {
+            return Optional.empty();
+        }
+
+        long started = Metrics.INSTANCE.startTimer();
+        String username = sessionTokens.verify(token);
+        SESSION_CHECK_TIME.recordSince(started);
+        (username == null ? INVALID_SESSIONS : VALID_SESSIONS).increment();
+        return Optional.ofNullable(username);
+    }
+
+    /**
+     * Ends a session by revoking its token, e.g. when the user logs out.
+     * @param token the session token.
+     * @param source where the logout comes from, e.g. the address of the client.
+     * @return whether the session was ended as a boolean; false if the token was already invalid.
+     */
+    public boolean endSession(final String token, final String source) {
+        long started = System.nanoTime();
+        String username = sessionTokens == null ? null : sessionTokens.revoke(token);
+
+        audit(AuditEvent.Type.LOGOUT, username, source,
+                username == null ? "INVALID_SESSION" : "LOGGED_OUT", System.nanoTime() - started);
+        return username != null;
+    }
+
+    /**
+     * Helper method to authenticate a user once the attempt has passed the login throttle, and
+     * to record its outcome with the throttle. A username that isn't valid can't be registered,
+     * so it is turned away before the throttle, which keeps it out of the throttle's table.
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @param source where the attempt comes from.
+     * @return the outcome of the authentication.
+     */
+    private AuthenticationResult authenticateUser(final String username, final char[] password,
+                                                  final String source) {
+        if (!isValidUsername(username)) {
+            return AuthenticationResult.INVALID_CREDENTIALS;
+        }
+
+        long throttling = Metrics.INSTANCE.startTimer();
+        LoginThrottle.Decision decision = loginThrottle.tryAcquire(username, source);
+        LOGIN_THROTTLE_TIME.recordSince(throttling);
+
+        if (decision == LoginThrottle.Decision.THROTTLED) {
+            return AuthenticationResult.THROTTLED;
+        }
+
+        if (decision == LoginThrottle.Decision.LOCKED) {
+            return AuthenticationResult.LOCKED;
+        }
+
+        try {
+            AuthenticationResult result = verifyCredentials(username, password);
+
+            if (result == AuthenticationResult.AUTHENTICATED) {
+                loginThrottle.recordSuccess(username);
+            } else if (result == AuthenticationResult.INVALID_CREDENTIALS) {
+                loginThrottle.recordFailure(username);
+            }
+
+            return result;
+        } catch (RejectedExecutionException e) {
+            return AuthenticationResult.BUSY;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return AuthenticationResult.ERROR;
+    }
+
+    /**
+     * Helper method to record an attempt in the audit log, if there is one.
+     * @param type whether the attempt was a registration or a login.
+     * @param username the username of the attempt.
+     * @param source where the attempt came from.
+     * @param outcome the name of the result of the attempt.
+     * @param latencyNanos how long the attempt took, in nanoseconds.
+     */
+    private void audit(final AuditEvent.Type type, final String username, final String source,
+                       final String outcome, final long latencyNanos) {
+        if (auditLog != null) {
+            auditLog.record(type, username, source, outcome, latencyNanos);
+        }
+    }
+
+    /**
+     * Helper method to run password hashing on the hashing executor, and record how long it
+     * took, including the time spent waiting for a hashing thread, as a phase of the attempt.
+     * @param phase the histogram of the phase.
+     * @param task the hashing to run.
+     * @param <T> the type of the result of the hashing.
+     * @return the result of the hashing.
+     * @throws RejectedExecutionException if password hashing is at capacity.
+     * @throws InterruptedException if interrupted while waiting for the password to be hashed.
+     */
+    private <T> T hash(final LatencyHistogram phase, final Supplier<T> task)
+            throws InterruptedException {
+        long started = Metrics.INSTANCE.startTimer();
+
+        try {
+            return hashingExecutor.execute(task);
+        } finally {
+            phase.recordSince(started);
+        }
+    }
+
+    /**
+     * Helper method to look up the credentials of a user and verify the password against them.
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @return the outcome of the authentication.
+     * @throws RejectedExecutionException if password hashing is at capacity.
+     * @throws InterruptedException if interrupted while waiting for the password to be hashed.
+     */
+    private AuthenticationResult verifyCredentials(final String username, final char[] password)
+            throws InterruptedException {
+        Optional<Credentials> credentials;
+        long lookingUp = Metrics.INSTANCE.startTimer();
+
+        try {
+            credentials = credentialRepository.findByUsername(username);
+        } catch (UserStoreException e) {
+            e.printStackTrace();
+            return AuthenticationResult.ERROR;
+        } finally {
+            LOGIN_LOOKUP_TIME.recordSince(lookingUp);
+        }
+
+        // an unknown username is still hashed, with the current scheme, so that it takes as long
+        // to be rejected as a wrong password
+        if (credentials.isEmpty()) {
+            hash(LOGIN_HASH_TIME, () -> passwordHasher.verify(password, UNKNOWN_USER_SALT,
+                    new byte[0]));
+            return AuthenticationResult.INVALID_CREDENTIALS;
+        }
+
+        Credentials stored = credentials.get();
+        PasswordHasher storedHasher;
+
+        try {
+            storedHasher = getStoredHasher(stored);
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return AuthenticationResult.ERROR;
+        }
+
+        PasswordHasher hasher = storedHasher;
+        if (!hash(LOGIN_HASH_TIME,
+                () -> hasher.verify(password, stored.passwordSalt(), stored.passwordHash()))) {
+            return AuthenticationResult.INVALID_CREDENTIALS;
+        }
+
+        // salts of earlier versions lost part of their randomness, and are replaced as well
+        if (!passwordHasher.isCurrent(stored.hashAlgorithm(), stored.hashParameters())
+                || stored.passwordSalt().length != HashGenerator.SALT_LENGTH) {
+            rehashPassword(stored.username(), password);
+        }
+
+        return AuthenticationResult.AUTHENTICATED;
+    }
+
+    /**
+     * Helper method to hash a password with a new salt, using the current hashing scheme.
+     * @param username the username the password belongs to.
+     * @param password the password to hash.
+     * @return the credentials to store for the user.
+     */
+    private Credentials hashPassword(final String username, final char[] password) {
+        byte[] passwordSalt = hashGenerator.getRandomSalt();
+        byte[] passwordHash = passwordHasher.hash(password, passwordSalt);
+        return new Credentials(username, passwordHash, passwordSalt,
+                passwordHasher.getAlgorithm(), passwordHasher.getParameters());
+    }
+
+    /**
+     * Helper method to get the scheme that the stored password hash of a user was generated with.
+     * @param credentials the stored credentials of the user.
+     * @return the current password hasher if it generated the hash, otherwise the outdated one.
+     * @throws IllegalArgumentException if the stored algorithm or parameters are invalid.
      */
-    private boolean hasUser(final String username, final Connection connection)
-            throws SQLException {
-        String query = "SELECT COUNT(*) FROM users WHERE username = ?";
-        PreparedStatement statement = connection.prepareStatement(query);
-        statement.setString(1, username);
-        int count = statement.executeQuery().getInt(1);
-        return count > 0;
+    private PasswordHasher getStoredHasher(final Credentials credentials) {
+        String algorithm = credentials.hashAlgorithm();
+        String parameters = credentials.hashParameters();
+
+        if (passwordHasher.generated(algorithm, parameters)) {
+            return passwordHasher;
+        }
+
+        return storedHashers.computeIfAbsent(algorithm + ":" + parameters,
+                key -> PasswordHasher.of(algorithm, parameters));
     }
 
     /**
-     * Helper method that checks whether given input matches given regular expression.
-     * @param input the String to check.
-     * @param regex the regular expression to match against as a String.
-     * @return whether the input matches the regular expression as a boolean.
+     * Helper method to replace a password hash generated with an outdated scheme or salt by one
+     * generated with the current scheme and a new salt. Failing to do so doesn't affect the
+     * login; it is tried again on the next one.
+     * @param username the username the password belongs to.
+     * @param password the password, which has just been verified.
+     * @throws InterruptedException if interrupted while waiting for the password to be hashed.
      */
-    private boolean validateInput(String input, String regex) {
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(input);
-        return matcher.matches();
+    private void rehashPassword(final String username, final char[] password)
+            throws InterruptedException {
+        try {
+            credentialRepository.updatePassword(
+                    hashingExecutor.execute(() -> hashPassword(username, password)));
+        } catch (RejectedExecutionException e) {
+            // hashing is at capacity; the user has already been authenticated, so skip it this time
+        } catch (UserStoreException e) {
+            e.printStackTrace();
+        }
     }
 
     /**
@@ -87,15 +806,12 @@ public class UserLogin {
      */
     private String readNewUsername() throws IOException {
         String username;
-        // can only contain alphanumeric characters and underscores,
-        // and must be between 3-30 characters long
-        String regex = "^\\w{3,30}$";
 
         while (true) {
             System.out.print("  username: ");
             username = InputReader.readLine();
 
-            if (validateInput(username, regex)) {
+            if (isValidUsername(username)) {
                 return username;
             }
 
@@ -112,11 +828,6 @@ public class UserLogin {
      */
     private char[] readNewPassword() throws IOException {
         char[] password;
-        // (?=.*[a-zA-z]) must contain at least one letter
-        // (?=.*\d) must contain at least one digit
-        // (?=\S+$) must contain only non-whitespace characters
-        // .{8,50} must be between 8-50 characters long
-        String regex = "^(?=.*[a-zA-z])(?=.*\\d)(?=\\S+$).{8,50}$";
 
         while (true) {
             System.out.print("  password: ");
@@ -125,7 +836,7 @@ public class UserLogin {
             // while still masking input when run from a console
             password = InputReader.readPassword();
 
-            if (validateInput(new String(password), regex)) {
+            if (isValidPassword(password)) {
                 return password;
             }
 
@@ -136,77 +847,29 @@ public class UserLogin {
     }
 
     /**
-     * Helper method to try to add a new user to the database; will fail if a user with the
-     * supplied username is already registered in the database.
-     * @param username the username to register.
-     * @param passwordHash the hashed password to register.
-     * @param passwordSalt the salt needed to generate the hashed password.
-     * @return whether the user was successfully added or not as a boolean.
-     */
-    private boolean addUserToDatabase(final String username, final String passwordHash,
-                                             final String passwordSalt) {
-        try (Connection connection = Database.INSTANCE.getConnection()) {
-            if (hasUser(username, connection)) {
-                System.out.println("That username is already taken.");
-                return false;
-            }
-
-            String query = "INSERT INTO users VALUES(?, ?, ?)";
-            PreparedStatement statement = connection.prepareStatement(query);
-            statement.setString(1, username);
-            statement.setString(2, passwordHash);
-            statement.setString(3, passwordSalt);
-            statement.executeUpdate();
-
-            System.out.println("New user registered.");
-            return true;
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-
-        System.out.println("Failed to register user.");
-        return false;
-    }
-
-    /**
-     * Helper method to register a new user.
+     * Helper method to register a new user from the console. Will repeatedly ask for a new
+     * username and password until the user has been registered.
      * @throws IOException if an I/O error occurs.
      */
     private void addNewUser() throws IOException {
-        String username;
-        String passwordHash;
-        String passwordSalt = hashGenerator.getRandomSalt();
+        RegistrationResult result;
 
         do {
             System.out.println("Enter a new username and password to register.");
-            username = readNewUsername();
-            passwordHash = hashGenerator.getSHA512Hash(readNewPassword(), passwordSalt);
+            String username = readNewUsername();
+            char[] password = readNewPassword();
 
-        } while (!addUserToDatabase(username,  passwordHash, passwordSalt));
-    }
+            result = register(username, password);
+            Arrays.fill(password, '\0');
 
-    /**
-     * Helper method to get the salt needed to generate the hashed password associated with the
-     * supplied username. If no such username exists an empty String will be returned.
-     * @param username the username associated with the salt.
-     * @return the salt as a String, or an empty String if the supplied username doesn't exist.
-     */
-    private String getSalt(final String username) {
-        try (Connection connection = Database.INSTANCE.getConnection()) {
-            if (hasUser(username, connection)) {
-                String query = "SELECT password_salt FROM users WHERE username = ?";
-                PreparedStatement statement = connection.prepareStatement(query);
-                statement.setString(1, username);
-                ResultSet resultSet = statement.executeQuery();
-                return resultSet.getString(1);
+            switch (result) {
+                case REGISTERED -> System.out.println("New user registered.");
+                case USERNAME_TAKEN -> System.out.println("That username is already taken.");
+                case BREACHED_PASSWORD -> System.out.println(
+                        "That password has appeared in a data breach. Choose another one.");
+                default -> System.out.println("Failed to register user.");
             }
-        } catch (SQLException e) {
-            System.out.println(e.getMessage());
-            e.printStackTrace();
-        }
-
-        return "";
+        } while (result != RegistrationResult.REGISTERED);
     }
 
     /**
@@ -216,7 +879,7 @@ public class UserLogin {
      */
     public void login() throws IOException {
         String username;
-        String passwordHash;
+        char[] password;
 
         System.out.print("Would you like a register a new user? Y/N: ");
         if (InputReader.readLine().equalsIgnoreCase("y")) {
@@ -227,12 +890,43 @@ public class UserLogin {
         System.out.print("  username: ");
         username = InputReader.readLine();
         System.out.print("  password: ");
-        passwordHash = hashGenerator.getSHA512Hash(InputReader.readPassword(), getSalt(username));
+        password = InputReader.readPassword();
+
+        LoginSession session = startSession(username, password, CONSOLE_SOURCE);
+        Arrays.fill(password, '\0');
+
+        switch (session.result()) {
+            case AUTHENTICATED -> System.out.println("Authenticated.");
+            case INVALID_CREDENTIALS -> System.out.println("Invalid username or password.");
+            case THROTTLED -> System.out.println("Too many attempts. Try again later.");
+            case LOCKED -> System.out.println("Too many failed attempts. Try again later.");
+            default -> System.out.println("Failed to log in.");
+        }
+
+        if (session.token() != null) {
+            System.out.println("Session token: " + session.token());
+        }
+    }
+
+    /**
+     * Writes the attempts that are still waiting in the audit log, and closes it along with the
+     * password blocklist and the user store. The hashing executor is only stopped if the
+     * UserLogin created it from the settings.
+     */
+    @Override
+    public void close() {
+        credentialRepository.close();
+
+        if (ownsHashingExecutor) {
+            hashingExecutor.close();
+        }
+
+        if (auditLog != null) {
+            auditLog.close();
+        }
 
-        if (isValidCredentials(username, passwordHash)) {
-            System.out.println("Authenticated.");
-        } else {
-            System.out.println("Invalid username or password.");
+        if (passwordBlocklist != null) {
+            passwordBlocklist.close();
         }
     }
 }
@@ -0,0 +1,100 @@
+package com.shinkamon.userlogin.database;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * A storage engine for the credentials of registered users. Implementations are safe to use from
+ * multiple threads at the same time, and a write that has returned survives a crash.
+ * <p>
+ * {@link SqliteUserStore} keeps the users in the SQLite database, and is the default;
+ * {@link MappedUserStore} keeps them in a memory-mapped log without SQL. The store is picked with
+ * the userStore setting in resources/database-info.json.
+ */
+public interface UserStore extends AutoCloseable {
+    /**
+     * Returns the credentials of the user with the given username.
+     * @param username the username to look up.
+     * @return the credentials of the user, or an empty Optional if no such user is registered.
+     * @throws UserStoreException if the credentials couldn't be read.
+     */
+    Optional<Credentials> findByUsername(String username) throws UserStoreException;
+
+    /**
+     * Adds the credentials of a new user; fails if the username is already registered.
+     * @param credentials the credentials to add.
+     * @return true if the user was added, or false if the username is already taken.
+     * @throws RejectedExecutionException if too many registrations are waiting to be written.
+     * @throws InterruptedException if interrupted while waiting for the user to be written.
+     * @throws UserStoreException if the credentials couldn't be written.
+     */
+    boolean insert(Credentials credentials) throws InterruptedException, UserStoreException;
+
+    /**
+     * Replaces the stored password hash of a registered user, e.g. after rehashing it with a
+     * stronger scheme.
+     * @param credentials the new credentials; the username identifies the user.
+     * @return true if the credentials were updated, or false if the user isn't registered.
+     * @throws UserStoreException if the credentials couldn't be written.
+     */
+    boolean updatePassword(Credentials credentials) throws UserStoreException;
+
+    /**
+     * Returns the number of registered users.
+     * @return the number of users.
+     * @throws UserStoreException if the users couldn't be counted.
+     */
+    long countUsers() throws UserStoreException;
+
+    /**
+     * Passes the username of every registered user to an action, in no particular order.
+     * Users registered while this runs may or may not be included.
+     * @param action the action to run for every username.
+     * @throws UserStoreException if the usernames couldn't be read.
+     */
+    void forEachUsername(Consumer<String> action) throws UserStoreException;
+
+    /**
+     * Returns the position of the last user registered in every shard of the store, so that the
+     * users registered after it can later be passed to {@link #forEachUsernameSince}. Stores that
+     * can't replay their registrations return no positions.
+     * @return the position of every shard in order, or an empty list if not supported.
+     * @throws UserStoreException if the positions couldn't be read.
+     */
+    default List<Position> getPositions() throws UserStoreException {
+        return List.of();
+    }
+
+    /**
+     * Passes the username of every user registered after the given positions to an action, in no
+     * particular order. Users registered while this runs may or may not be included.
+     * @param positions the positions returned by {@link #getPositions} earlier.
+     * @param action the action to run for every username.
+     * @return whether the positions still apply to the store; if not, e.g. because a shard has
+     * been replaced since or the number of shards changed, no usernames were passed.
+     * @throws UserStoreException if the usernames couldn't be read.
+     */
+    default boolean forEachUsernameSince(final List<Position> positions,
+                                         final Consumer<String> action)
+            throws UserStoreException {
+        return false;
+    }
+
+    /**
+     * Stops the store, waiting for pending writes to finish.
+     */
+    @Override
+    void close();
+
+    /**
+     * The position of the last user registered in a shard of a store.
+     * @param sequence the sequence number of the user within the shard, e.g. its rowid, or 0 if
+     * the shard was empty.
+     * @param username the username of the user, which tells whether the shard is still the same
+     * one; empty if the shard was empty.
+     */
+    record Position(long sequence, String username) {
+    }
+}
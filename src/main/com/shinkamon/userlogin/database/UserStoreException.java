@@ -0,0 +1,24 @@
+package com.shinkamon.userlogin.database;
+
+/**
+ * Thrown when a {@link UserStore} can't read or write credentials, e.g. because the database
+ * can't be accessed or the file holding the users is damaged. The cause is the underlying error.
+ */
+public class UserStoreException extends Exception {
+    /**
+     * Instantiates a new UserStoreException.
+     * @param message the detail message.
+     * @param cause the underlying error.
+     */
+    public UserStoreException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+
+    /**
+     * Instantiates a new UserStoreException with the message of the underlying error.
+     * @param cause the underlying error.
+     */
+    public UserStoreException(final Throwable cause) {
+        super(cause.getMessage(), cause);
+    }
+}
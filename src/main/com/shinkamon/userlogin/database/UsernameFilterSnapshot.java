@@ -0,0 +1,157 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.BloomFilter;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes snapshots of the username filter, so that a restart can load the filter from a
+ * file and only add the users registered since, instead of reading every username in the store.
+ * <p>
+ * A snapshot file holds a short header, the position of the last user of every shard when the
+ * snapshot was taken, the filter itself, and a CRC-32 checksum of all of that at the end. It is
+ * written to a temporary file that replaces the snapshot in one atomic rename, so a crash while
+ * writing leaves the previous snapshot in place, and it is memory-mapped when read.
+ */
+public final class UsernameFilterSnapshot {
+    private static final int MAGIC = 0x50504246;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 3 * Integer.BYTES;
+    private static final int CHECKSUM_SIZE = Integer.BYTES;
+
+    private UsernameFilterSnapshot() {
+    }
+
+    /**
+     * Writes a snapshot of a filter, replacing any previous snapshot at the path. The positions
+     * must have been read before the filter is written, so that every user up to them is in it.
+     * @param path the path of the snapshot file.
+     * @param filter the filter to write.
+     * @param positions the position of every shard of the store the filter was built from.
+     * @throws IOException if the snapshot couldn't be written, or would be too large.
+     */
+    public static void write(final Path path, final BloomFilter filter,
+                             final List<UserStore.Position> positions) throws IOException {
+        List<byte[]> usernames = new ArrayList<>();
+        long size = HEADER_SIZE + filter.getSerializedSize() + CHECKSUM_SIZE;
+
+        for (UserStore.Position position : positions) {
+            byte[] username = position.username().getBytes(StandardCharsets.UTF_8);
+            usernames.add(username);
+            size += Long.BYTES + Short.BYTES + username.length;
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Username filter too large for a snapshot: " + size + " bytes");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(positions.size());
+
+        for (int i = 0; i < positions.size(); i++) {
+            buffer.putLong(positions.get(i).sequence()).putShort((short) usernames.get(i).length)
+                    .put(usernames.get(i));
+        }
+
+        filter.writeTo(buffer);
+        CRC32 checksum = new CRC32();
+        checksum.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) checksum.getValue()).flip();
+
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads the snapshot at a path.
+     * @param path the path of the snapshot file.
+     * @return the filter and positions in the snapshot, or an empty Optional if there is none.
+     * @throws IOException if the snapshot couldn't be read, or is corrupt.
+     */
+    public static Optional<Contents> read(final Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return Optional.empty();
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + CHECKSUM_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(path + " isn't a username filter snapshot.");
+            }
+
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            int end = (int) size - CHECKSUM_SIZE;
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.slice(0, end));
+
+            if ((int) checksum.getValue() != buffer.getInt(end)) {
+                throw new IOException("Username filter snapshot " + path + " is corrupt.");
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException(path + " isn't a username filter snapshot of this version.");
+            }
+
+            buffer.limit(end);
+            List<UserStore.Position> positions = readPositions(buffer);
+            return Optional.of(new Contents(BloomFilter.readFrom(buffer), positions));
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Username filter snapshot " + path + " is invalid.", e);
+        }
+    }
+
+    /**
+     * Helper method to read the positions of the shards from a snapshot, after its header.
+     * @param buffer the mapped snapshot, positioned at the number of shards; its position is
+     * moved past the positions.
+     * @return the position of every shard.
+     */
+    private static List<UserStore.Position> readPositions(final ByteBuffer buffer) {
+        int shards = buffer.getInt();
+        if (shards < 0) {
+            throw new IllegalArgumentException("Invalid number of shards: " + shards);
+        }
+
+        List<UserStore.Position> positions = new ArrayList<>();
+
+        for (int i = 0; i < shards; i++) {
+            long sequence = buffer.getLong();
+            byte[] username = new byte[buffer.getShort() & 0xffff];
+            buffer.get(username);
+            positions.add(new UserStore.Position(sequence,
+                    new String(username, StandardCharsets.UTF_8)));
+        }
+
+        return positions;
+    }
+
+    /**
+     * The contents of a username filter snapshot.
+     * @param filter the filter as it was when the snapshot was taken.
+     * @param positions the position of every shard of the store when the snapshot was taken.
+     */
+    public record Contents(BloomFilter filter, List<UserStore.Position> positions) {
+    }
+}
@@ -0,0 +1,627 @@
+package com.shinkamon.userlogin.importer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.shinkamon.userlogin.database.Credentials;
+import com.shinkamon.userlogin.database.Database;
+import com.shinkamon.userlogin.database.PooledConnection;
+import com.shinkamon.userlogin.database.UserBatches;
+import com.shinkamon.userlogin.database.UserLogin;
+import com.shinkamon.userlogin.support.CsvFields;
+import com.shinkamon.userlogin.support.HashGenerator;
+import com.shinkamon.userlogin.support.PasswordBlocklist;
+import com.shinkamon.userlogin.support.PasswordHasher;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports users in bulk from a file, e.g. to onboard a whole tenant at once.
+ * <p>
+ * The file is read line by line, so it is never held in memory as a whole. A CSV file has one
+ * user per line as username,password, where everything after the first comma is the password,
+ * and may start with a header line; a file ending in .jsonl or .json has one JSON object per line
+ * with a username and a password field. Every line is validated with the same rules as an
+ * interactive registration, including the check against the password blocklist. Passwords are
+ * salted and hashed in parallel on all hashing threads, while the previous batch of users is
+ * written to the database in a single transaction.
+ * Lines that can't be imported are appended to a rejects file, with their line number, the reason
+ * and the username, but never the password.
+ * <p>
+ * The last line of every committed batch is recorded in the import_progress table, in the same
+ * transaction as the batch. An import that is interrupted resumes after the last committed batch
+ * when it is run again on the same file, and no line is imported twice. The rejects of a batch
+ * are written before it is committed, so after a crash the rejects of the batch that was being
+ * committed can appear twice.
+ * <p>
+ * On a sharded database, every batch is written as one transaction per shard, each holding the
+ * users of that shard and its own import progress; lines rejected when read are written with
+ * the first shard. When resuming, a line is skipped if the shard it belongs to has committed it.
+ */
+public final class UserImporter {
+    private static final String CSV_HEADER = "username,password";
+    private static final String SELECT_PROGRESS = """
+            SELECT line, imported, rejected
+            FROM import_progress
+            WHERE source = ?
+            """;
+    private static final String UPSERT_PROGRESS = """
+            INSERT INTO import_progress (source, line, imported, rejected)
+            VALUES (?, ?, ?, ?)
+            ON CONFLICT (source) DO UPDATE
+            SET line = excluded.line, imported = excluded.imported, rejected = excluded.rejected
+            """;
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final HashGenerator hashGenerator = new HashGenerator(new SecureRandom());
+    private final PasswordHasher passwordHasher;
+    private final PasswordBlocklist passwordBlocklist;
+    private final int hashingThreads;
+    private final int batchSize;
+
+    /**
+     * Instantiates a new UserImporter.
+     * @param passwordHasher the scheme used to hash the imported passwords.
+     * @param passwordBlocklist the breached passwords that can't be imported, or null to check
+     * none.
+     * @param hashingThreads the number of threads that hash passwords in parallel.
+     * @param batchSize the number of lines written to the database per transaction.
+     */
+    public UserImporter(final PasswordHasher passwordHasher,
+                        final PasswordBlocklist passwordBlocklist, final int hashingThreads,
+                        final int batchSize) {
+        if (hashingThreads < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Threads and batch size must be at least 1.");
+        }
+
+        this.passwordHasher = passwordHasher;
+        this.passwordBlocklist = passwordBlocklist;
+        this.hashingThreads = hashingThreads;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Imports the users in a file, resuming after the last committed line if the file has been
+     * imported before. Progress is printed after every batch.
+     * @param input the CSV or JSON lines file to import.
+     * @param rejects the file to append rejected lines to.
+     * @return the totals of the import, including those of earlier runs on the same file.
+     * @throws IOException if an I/O error occurs.
+     * @throws SQLException if a database access error occurs.
+     * @throws InterruptedException if interrupted while waiting for passwords to be hashed.
+     */
+    public Result importUsers(final Path input, final Path rejects)
+            throws IOException, SQLException, InterruptedException {
+        String source = input.toAbsolutePath().normalize().toString();
+        boolean jsonLines = isJsonLines(input);
+        ExecutorService hashing = Executors.newFixedThreadPool(hashingThreads,
+                newThreadFactory(POOL_NUMBER.incrementAndGet()));
+
+        List<PooledConnection> connections = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+             BufferedWriter rejectsWriter = Files.newBufferedWriter(rejects,
+                     StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                     StandardOpenOption.APPEND)) {
+            List<Progress> progress = new ArrayList<>();
+
+            for (int shard = 0; shard < Database.INSTANCE.getShardCount(); shard++) {
+                connections.add(Database.INSTANCE.getConnection(shard));
+                progress.add(readProgress(connections.get(shard), source));
+            }
+
+            List<Progress> start = List.copyOf(progress);
+            Progress startTotal = total(start);
+            long startNanos = System.nanoTime();
+
+            if (startTotal.line() > 0) {
+                System.out.println("Resuming import of " + source + " after line "
+                        + startTotal.line() + ".");
+            }
+
+            // a batch is hashed on the hashing threads while the one before it is written
+            Batch pending = null;
+            List<Row> users = new ArrayList<>();
+            List<Row> rejected = new ArrayList<>();
+            long lineNumber = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= startTotal.line()) {
+                    continue;
+                }
+
+                Row row = parseLine(line, lineNumber, jsonLines, passwordBlocklist);
+                // skip the lines that the shard they belong to committed before an interruption
+                if (row == null || lineNumber <= start.get(getShard(row)).line()) {
+                    continue;
+                }
+
+                if (row.rejectReason() == null) {
+                    users.add(row);
+                } else {
+                    rejected.add(row);
+                }
+
+                if (users.size() + rejected.size() >= batchSize) {
+                    Batch next = new Batch(hashBatch(hashing, users), rejected, lineNumber);
+
+                    if (pending != null) {
+                        progress = writeBatch(connections, rejectsWriter, source, pending,
+                                progress);
+                        printProgress(total(progress), startTotal, startNanos);
+                    }
+
+                    pending = next;
+                    users = new ArrayList<>();
+                    rejected = new ArrayList<>();
+                }
+            }
+
+            if (pending != null) {
+                progress = writeBatch(connections, rejectsWriter, source, pending, progress);
+                printProgress(total(progress), startTotal, startNanos);
+            }
+
+            // also records any trailing lines that were skipped, e.g. blank ones
+            if (lineNumber > total(progress).line()) {
+                Batch last = new Batch(hashBatch(hashing, users), rejected, lineNumber);
+                progress = writeBatch(connections, rejectsWriter, source, last, progress);
+                printProgress(total(progress), startTotal, startNanos);
+            }
+
+            Progress result = total(progress);
+            return new Result(result.line(), result.imported(), result.rejected(),
+                    getRate(result, startTotal, startNanos));
+        } finally {
+            connections.forEach(PooledConnection::close);
+            hashing.shutdownNow();
+        }
+    }
+
+    /**
+     * Parses a line of an import file. Lines that can't be imported are returned with the reason
+     * they are rejected.
+     * @param line the line to parse.
+     * @param lineNumber the number of the line in the file, starting at 1.
+     * @param jsonLines whether the line is a JSON object rather than CSV.
+     * @param passwordBlocklist the breached passwords that are rejected, or null to check none.
+     * @return the user on the line, or null if the line is blank or the CSV header.
+     */
+    static Row parseLine(final String line, final long lineNumber, final boolean jsonLines,
+                         final PasswordBlocklist passwordBlocklist) {
+        if (line.isBlank() || !jsonLines && lineNumber == 1 && line.equalsIgnoreCase(CSV_HEADER)) {
+            return null;
+        }
+
+        String username;
+        char[] password;
+
+        if (jsonLines) {
+            try {
+                JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+                username = getString(json, "username");
+                String passwordValue = getString(json, "password");
+                password = passwordValue == null ? null : passwordValue.toCharArray();
+            } catch (JsonParseException | IllegalStateException e) {
+                return Row.rejected(lineNumber, null, "malformed line");
+            }
+        } else {
+            int comma = line.indexOf(',');
+            if (comma < 0) {
+                return Row.rejected(lineNumber, null, "malformed line");
+            }
+
+            username = line.substring(0, comma);
+            password = line.substring(comma + 1).toCharArray();
+        }
+
+        if (!UserLogin.isValidUsername(username)) {
+            wipe(password);
+            return Row.rejected(lineNumber, username, "invalid username");
+        }
+
+        if (!UserLogin.isValidPassword(password)) {
+            wipe(password);
+            return Row.rejected(lineNumber, username, "invalid password");
+        }
+
+        if (passwordBlocklist != null && passwordBlocklist.contains(password)) {
+            wipe(password);
+            return Row.rejected(lineNumber, username, "breached password");
+        }
+
+        return new Row(lineNumber, username, password, null);
+    }
+
+    /**
+     * Helper method to read a string field from a JSON object.
+     * @param json the JSON object.
+     * @param name the name of the field.
+     * @return the value of the field, or null if it is missing or not a string.
+     */
+    private static String getString(final JsonObject json, final String name) {
+        JsonElement element = json.get(name);
+
+        if (element == null || !element.isJsonPrimitive()
+                || !element.getAsJsonPrimitive().isString()) {
+            return null;
+        }
+
+        return element.getAsString();
+    }
+
+    /**
+     * Helper method to submit the passwords of a batch of users to be hashed, split into one
+     * chunk per hashing thread.
+     * @param hashing the executor of the hashing threads.
+     * @param users the users to hash the passwords of.
+     * @return the chunks of hashed users, in the order of the users.
+     */
+    private List<Future<List<HashedUser>>> hashBatch(final ExecutorService hashing,
+                                                     final List<Row> users) {
+        List<Future<List<HashedUser>>> chunks = new ArrayList<>();
+        int chunkSize = Math.max((users.size() + hashingThreads - 1) / hashingThreads, 1);
+
+        for (int from = 0; from < users.size(); from += chunkSize) {
+            List<Row> chunk = users.subList(from, Math.min(from + chunkSize, users.size()));
+            chunks.add(hashing.submit(() -> hashUsers(chunk)));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Helper method to hash the passwords of users with new salts, wiping the passwords after.
+     * @param users the users to hash the passwords of.
+     * @return the credentials to store for the users.
+     */
+    private List<HashedUser> hashUsers(final List<Row> users) {
+        List<HashedUser> hashed = new ArrayList<>(users.size());
+
+        for (Row user : users) {
+            byte[] passwordSalt = hashGenerator.getRandomSalt();
+            byte[] passwordHash = passwordHasher.hash(user.password(), passwordSalt);
+            wipe(user.password());
+            hashed.add(new HashedUser(user.line(), new Credentials(user.username(), passwordHash,
+                    passwordSalt, passwordHasher.getAlgorithm(), passwordHasher.getParameters())));
+        }
+
+        return hashed;
+    }
+
+    /**
+     * Helper method to write a batch of users in a single transaction per shard, together with
+     * its rejects and the progress of the import on that shard. Usernames that are already
+     * registered are rejected.
+     * @param connections the connections to write to, one for each shard.
+     * @param rejectsWriter the writer of the rejects file.
+     * @param source the file being imported.
+     * @param batch the batch to write.
+     * @param progress the progress of the import on each shard before the batch.
+     * @return the progress of the import on each shard after the batch.
+     * @throws IOException if the rejects couldn't be written.
+     * @throws SQLException if a database access error occurs.
+     * @throws InterruptedException if interrupted while waiting for passwords to be hashed.
+     */
+    private List<Progress> writeBatch(final List<PooledConnection> connections,
+                                      final Writer rejectsWriter, final String source,
+                                      final Batch batch, final List<Progress> progress)
+            throws IOException, SQLException, InterruptedException {
+        List<List<HashedUser>> users = new ArrayList<>();
+        for (int shard = 0; shard < connections.size(); shard++) {
+            users.add(new ArrayList<>());
+        }
+
+        for (Future<List<HashedUser>> chunk : batch.chunks()) {
+            for (HashedUser user : await(chunk)) {
+                users.get(Database.INSTANCE.getShard(user.credentials().username())).add(user);
+            }
+        }
+
+        List<Progress> next = new ArrayList<>(progress);
+
+        for (int shard = 0; shard < connections.size(); shard++) {
+            List<Row> rejected = shard == 0 ? batch.rejected() : List.of();
+            next.set(shard, writeShardBatch(connections.get(shard), rejectsWriter, source,
+                    users.get(shard), rejected, batch.lastLine(), progress.get(shard)));
+        }
+
+        return next;
+    }
+
+    /**
+     * Helper method to write the users of a batch that belong to one shard in a single
+     * transaction, together with the given rejects and the progress of the import on the shard.
+     * @param connection the connection to the shard.
+     * @param rejectsWriter the writer of the rejects file.
+     * @param source the file being imported.
+     * @param users the users of the batch that belong to the shard.
+     * @param batchRejected the lines of the batch rejected when read, to write with the shard.
+     * @param lastLine the number of the last line of the batch.
+     * @param progress the progress of the import on the shard before the batch.
+     * @return the progress of the import on the shard after the batch.
+     * @throws IOException if the rejects couldn't be written.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static Progress writeShardBatch(final PooledConnection connection,
+                                            final Writer rejectsWriter, final String source,
+                                            final List<HashedUser> users,
+                                            final List<Row> batchRejected, final long lastLine,
+                                            final Progress progress)
+            throws IOException, SQLException {
+        List<Row> rejected = new ArrayList<>(batchRejected);
+        long imported = 0;
+        Connection transaction = connection.getConnection();
+        transaction.setAutoCommit(false);
+
+        try {
+            List<Credentials> credentials = new ArrayList<>(users.size());
+            users.forEach(user -> credentials.add(user.credentials()));
+            boolean[] inserted = UserBatches.insert(connection, credentials);
+
+            for (int i = 0; i < inserted.length; i++) {
+                if (inserted[i]) {
+                    imported++;
+                } else {
+                    rejected.add(Row.rejected(users.get(i).line(),
+                            credentials.get(i).username(), "username taken"));
+                }
+            }
+
+            rejected.sort(Comparator.comparingLong(Row::line));
+            writeRejects(rejectsWriter, rejected);
+
+            Progress next = new Progress(lastLine, progress.imported() + imported,
+                    progress.rejected() + rejected.size());
+            PreparedStatement upsert = connection.prepareStatement(UPSERT_PROGRESS);
+            upsert.setString(1, source);
+            upsert.setLong(2, next.line());
+            upsert.setLong(3, next.imported());
+            upsert.setLong(4, next.rejected());
+            upsert.executeUpdate();
+
+            transaction.commit();
+            return next;
+        } catch (IOException | SQLException | RuntimeException e) {
+            transaction.rollback();
+            throw e;
+        } finally {
+            transaction.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Helper method to wait for a chunk of passwords to be hashed.
+     * @param chunk the chunk being hashed.
+     * @return the hashed users of the chunk.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    private static List<HashedUser> await(final Future<List<HashedUser>> chunk)
+            throws InterruptedException {
+        try {
+            return chunk.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Helper method to append rejected lines to the rejects file, as CSV lines of the line
+     * number, the reason and the username.
+     * @param rejectsWriter the writer of the rejects file.
+     * @param rejected the rejected lines.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void writeRejects(final Writer rejectsWriter, final List<Row> rejected)
+            throws IOException {
+        for (Row row : rejected) {
+            rejectsWriter.write(row.line() + "," + row.rejectReason() + ","
+                    + CsvFields.quote(row.username()) + System.lineSeparator());
+        }
+
+        rejectsWriter.flush();
+    }
+
+    /**
+     * Helper method to read how far a file has been imported before.
+     * @param connection the connection to read from.
+     * @param source the file being imported.
+     * @return the progress of earlier imports of the file, or no progress if there were none.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static Progress readProgress(final PooledConnection connection, final String source)
+            throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(SELECT_PROGRESS);
+        statement.setString(1, source);
+
+        try (ResultSet resultSet = statement.executeQuery()) {
+            if (!resultSet.next()) {
+                return new Progress(0, 0, 0);
+            }
+
+            return new Progress(resultSet.getLong(1), resultSet.getLong(2), resultSet.getLong(3));
+        }
+    }
+
+    /**
+     * Helper method to get the shard a line is written to: that of its user, or the first shard
+     * for a line rejected when read.
+     * @param row the line.
+     * @return the index of the shard.
+     */
+    private static int getShard(final Row row) {
+        return row.rejectReason() == null ? Database.INSTANCE.getShard(row.username()) : 0;
+    }
+
+    /**
+     * Helper method to add up the progress of an import on all shards. The file has been
+     * imported up to the line that every shard has committed.
+     * @param progress the progress of the import on each shard.
+     * @return the progress of the import as a whole.
+     */
+    private static Progress total(final List<Progress> progress) {
+        long line = Long.MAX_VALUE;
+        long imported = 0;
+        long rejected = 0;
+
+        for (Progress shardProgress : progress) {
+            line = Math.min(line, shardProgress.line());
+            imported += shardProgress.imported();
+            rejected += shardProgress.rejected();
+        }
+
+        return new Progress(line, imported, rejected);
+    }
+
+    /**
+     * Helper method to print the progress of an import.
+     * @param progress the current progress.
+     * @param start the progress when this run of the import started.
+     * @param startNanos the value of {@link System#nanoTime()} when this run started.
+     */
+    private static void printProgress(final Progress progress, final Progress start,
+                                      final long startNanos) {
+        System.out.printf("Line %d: %d imported, %d rejected (%.0f lines/s)%n", progress.line(),
+                progress.imported(), progress.rejected(), getRate(progress, start, startNanos));
+    }
+
+    /**
+     * Helper method to compute the throughput of this run of an import.
+     * @param progress the current progress.
+     * @param start the progress when this run of the import started.
+     * @param startNanos the value of {@link System#nanoTime()} when this run started.
+     * @return the number of users imported or rejected per second.
+     */
+    private static double getRate(final Progress progress, final Progress start,
+                                  final long startNanos) {
+        long lines = progress.imported() + progress.rejected()
+                - start.imported() - start.rejected();
+        return lines * 1e9 / Math.max(System.nanoTime() - startNanos, 1);
+    }
+
+    /**
+     * Helper method to check whether a file has one JSON object per line, going by its name.
+     * @param input the file.
+     * @return whether the file is a JSON lines file as a boolean.
+     */
+    private static boolean isJsonLines(final Path input) {
+        String name = input.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".jsonl") || name.endsWith(".json");
+    }
+
+    /**
+     * Helper method to create the threads that hash passwords; they are daemon threads, so they
+     * never keep the JVM alive on their own.
+     * @param poolNumber the number of the pool, used in the thread names.
+     * @return the thread factory.
+     */
+    private static ThreadFactory newThreadFactory(final int poolNumber) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable,
+                    "import-hashing-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Helper method to overwrite a password, if there is one.
+     * @param password the password to wipe, or null.
+     */
+    private static void wipe(final char[] password) {
+        if (password != null) {
+            Arrays.fill(password, '\0');
+        }
+    }
+
+    /**
+     * The totals of an import.
+     * @param lines the number of lines of the file that have been processed.
+     * @param imported the number of users imported.
+     * @param rejected the number of lines rejected.
+     * @param linesPerSecond the number of lines imported or rejected per second in the last run.
+     */
+    public record Result(long lines, long imported, long rejected, double linesPerSecond) {
+        @Override
+        public String toString() {
+            return String.format("%d lines, %d imported, %d rejected (%.0f lines/s)",
+                    lines, imported, rejected, linesPerSecond);
+        }
+    }
+
+    /**
+     * A user read from a line of an import file.
+     * @param line the number of the line.
+     * @param username the username, or null if the line is malformed.
+     * @param password the password, or null if the line is rejected.
+     * @param rejectReason why the line is rejected, or null if it can be imported.
+     */
+    record Row(long line, String username, char[] password, String rejectReason) {
+        /**
+         * Returns a rejected line.
+         * @param line the number of the line.
+         * @param username the username, or null if the line is malformed.
+         * @param reason why the line is rejected.
+         * @return the rejected line.
+         */
+        static Row rejected(final long line, final String username, final String reason) {
+            return new Row(line, username, null, reason);
+        }
+    }
+
+    /**
+     * A user with a hashed password.
+     * @param line the number of the line the user was read from.
+     * @param credentials the credentials to store for the user.
+     */
+    private record HashedUser(long line, Credentials credentials) {
+    }
+
+    /**
+     * A batch of lines, of which the passwords are being hashed.
+     * @param chunks the chunks of users being hashed.
+     * @param rejected the lines of the batch that were rejected when read.
+     * @param lastLine the number of the last line of the batch.
+     */
+    private record Batch(List<Future<List<HashedUser>>> chunks, List<Row> rejected,
+                         long lastLine) {
+    }
+
+    /**
+     * How far a file has been imported, on one shard or as a whole.
+     * @param line the number of the last line committed.
+     * @param imported the number of users imported.
+     * @param rejected the number of lines rejected.
+     */
+    private record Progress(long line, long imported, long rejected) {
+    }
+}
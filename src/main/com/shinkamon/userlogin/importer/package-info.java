@@ -0,0 +1,4 @@
+/**
+ * Package for bulk imports of users into the database.
+ */
+package com.shinkamon.userlogin.importer;
\ No newline at end of file
@@ -0,0 +1,655 @@
+package com.shinkamon.userlogin.loadtest;
+
+import com.shinkamon.userlogin.database.Credentials;
+import com.shinkamon.userlogin.database.Database;
+import com.shinkamon.userlogin.database.PooledConnection;
+import com.shinkamon.userlogin.database.UserBatches;
+import com.shinkamon.userlogin.database.UserLogin;
+import com.shinkamon.userlogin.support.HashGenerator;
+import com.shinkamon.userlogin.support.LatencyHistogram;
+import com.shinkamon.userlogin.support.Metrics;
+import com.shinkamon.userlogin.support.PasswordHasher;
+import com.shinkamon.userlogin.support.RequestExecutors;
+import com.shinkamon.userlogin.support.Settings;
+
+import java.security.SecureRandom;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates load on registrations and logins running at the same time, through a
+ * {@link UserLogin} on the SQLite database that {@link Database} sets up, and reports their
+ * throughput and latency while the users table grows.
+ * <p>
+ * The database is first seeded with users named load_0, load_1 and so on, whose passwords are
+ * hashed with new salts on every core; seeded users that already exist are kept, so later runs
+ * start straight away. Then a mix of operations runs for a fixed time: registrations of new
+ * users, logins with the right password, logins with a wrong password, and logins with usernames
+ * that aren't registered. In a closed loop, every thread starts an operation as soon as its
+ * previous one has finished. At a fixed arrival rate, operations are started on schedule whether
+ * or not the earlier ones have finished, and their latency is measured from when they were due,
+ * so a system that falls behind isn't flattered by the operations it held back.
+ * <p>
+ * Throughput, the 50th, 99th and 99.9th percentile latencies and the size of the database are
+ * printed at every report interval, and per operation at the end.
+ */
+public final class LoadGenerator {
+    static final String USERNAME_PREFIX = "load_";
+    private static final String SELECT_USERS = "SELECT username FROM users WHERE username IN (";
+    // the most parameters older SQLite versions allow in one statement
+    private static final int MAX_PARAMETERS = 999;
+    // the password of new and unknown users; passwords are never modified by UserLogin
+    private static final char[] NEW_USER_PASSWORD = "Password1".toCharArray();
+    // how long the operations still running or waiting at the end of a run may take to finish
+    private static final long DRAIN_SECONDS = 60;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final double BYTES_PER_MIB = 1 << 20;
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+    private final Config config;
+    private final UserLogin userLogin;
+    private final HashGenerator hashGenerator = new HashGenerator(new SecureRandom());
+    // the latencies seen by the load generator, apart from the metrics of the system under load
+    private final Metrics metrics = new Metrics();
+    private final LatencyHistogram latency;
+    private final Map<Operation, LatencyHistogram> operationLatency =
+            new EnumMap<>(Operation.class);
+    private final Map<Operation, Map<String, LongAdder>> outcomes = new EnumMap<>(Operation.class);
+    private final LongAdder unexpected = new LongAdder();
+    private final AtomicLong registrations = new AtomicLong();
+    // tells the usernames registered by this run apart from those registered by earlier runs
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Instantiates a new LoadGenerator.
+     * @param config the seeding, operation mix, concurrency and duration of the load.
+     * @param userLogin the UserLogin to put under load; seeded users are hashed with its scheme.
+     * @throws IllegalArgumentException if the configuration is invalid, e.g. it has logins of
+     * seeded users but no users to seed.
+     */
+    public LoadGenerator(final Config config, final UserLogin userLogin) {
+        Mix mix = config.mix();
+
+        if (config.seedBatchSize() < 1 || config.threads() < 1 || config.durationSeconds() < 1
+                || config.reportIntervalSeconds() < 1) {
+            throw new IllegalArgumentException(
+                    "Batch size, threads, duration and report interval must be at least 1.");
+        }
+
+        if (Math.min(Math.min(mix.register(), mix.validLogin()),
+                Math.min(mix.badPassword(), mix.unknownUser())) < 0 || mix.total() < 1) {
+            throw new IllegalArgumentException("Weights can't be negative, or all be 0.");
+        }
+
+        if (config.seedUsers() < 1 && mix.validLogin() + mix.badPassword() > 0) {
+            throw new IllegalArgumentException("Logins of seeded users need seeded users.");
+        }
+
+        this.config = config;
+        this.userLogin = userLogin;
+        this.latency = metrics.histogram("load_latency_seconds", "Latency of all operations.");
+
+        for (Operation operation : Operation.values()) {
+            operationLatency.put(operation, metrics.histogram("load_operation_latency_seconds",
+                    "Latency by operation.", "operation", operation.name()));
+            outcomes.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Seeds the database with the configured number of users, skipping those that already exist.
+     * Passwords are hashed on every core with the current scheme of the UserLogin under load,
+     * and users are written in a transaction per batch and shard.
+     * @return the number of users added.
+     * @throws SQLException if a database access error occurs.
+     * @throws InterruptedException if interrupted while waiting for passwords to be hashed.
+     */
+    public long seed() throws SQLException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService hashing = Executors.newFixedThreadPool(threads,
+                newThreadFactory("load-seeding-" + POOL_NUMBER.incrementAndGet()));
+        long started = System.nanoTime();
+        long added = 0;
+
+        try {
+            for (int from = 0; from < config.seedUsers(); from += config.seedBatchSize()) {
+                int to = (int) Math.min((long) from + config.seedBatchSize(), config.seedUsers());
+                added += insertUsers(hashUsers(hashing, findMissingUsers(from, to), threads));
+            }
+        } finally {
+            hashing.shutdownNow();
+        }
+
+        System.out.printf("Seeded %d users, of which %d were new, in %.1f s.%n",
+                config.seedUsers(), added, (System.nanoTime() - started) / NANOS_PER_SECOND);
+        return added;
+    }
+
+    /**
+     * Helper method to find the seeded users in a range that aren't in the database yet, looking
+     * up the users of each shard with one query.
+     * @param from the number of the first user of the range.
+     * @param to the number after the last user of the range.
+     * @return the numbers of the users that are missing.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static List<Integer> findMissingUsers(final int from, final int to)
+            throws SQLException {
+        Map<Integer, List<String>> shards = new TreeMap<>();
+        for (int user = from; user < to; user++) {
+            String username = USERNAME_PREFIX + user;
+            shards.computeIfAbsent(Database.INSTANCE.getShard(username),
+                    shard -> new ArrayList<>()).add(username);
+        }
+
+        Set<String> existing = new HashSet<>();
+
+        for (Map.Entry<Integer, List<String>> shard : shards.entrySet()) {
+            try (PooledConnection connection = Database.INSTANCE.getConnection(shard.getKey())) {
+                List<String> usernames = shard.getValue();
+
+                for (int i = 0; i < usernames.size(); i += MAX_PARAMETERS) {
+                    findUsers(connection, usernames.subList(i,
+                            Math.min(i + MAX_PARAMETERS, usernames.size())), existing);
+                }
+            }
+        }
+
+        List<Integer> missing = new ArrayList<>();
+        for (int user = from; user < to; user++) {
+            if (!existing.contains(USERNAME_PREFIX + user)) {
+                missing.add(user);
+            }
+        }
+
+        return missing;
+    }
+
+    /**
+     * Helper method to look up which of a list of usernames are registered on a shard.
+     * @param connection the connection to the shard.
+     * @param usernames the usernames to look up, at most {@link #MAX_PARAMETERS}.
+     * @param existing the set to add the registered usernames to.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static void findUsers(final PooledConnection connection, final List<String> usernames,
+                                  final Set<String> existing) throws SQLException {
+        String query = SELECT_USERS + String.join(", ", Collections.nCopies(usernames.size(), "?"))
+                + ")";
+
+        // not cached, since every batch size makes a different query
+        try (PreparedStatement statement = connection.getConnection().prepareStatement(query)) {
+            for (int i = 0; i < usernames.size(); i++) {
+                statement.setString(i + 1, usernames.get(i));
+            }
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    existing.add(resultSet.getString(1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Helper method to hash the passwords of seeded users with new salts, in parallel.
+     * @param hashing the executor of the hashing threads.
+     * @param users the numbers of the users to hash the passwords of.
+     * @param threads the number of hashing threads.
+     * @return the credentials to store for the users.
+     * @throws InterruptedException if interrupted while waiting for passwords to be hashed.
+     */
+    private List<Credentials> hashUsers(final ExecutorService hashing, final List<Integer> users,
+                                        final int threads) throws InterruptedException {
+        PasswordHasher passwordHasher = userLogin.getPasswordHasher();
+        List<Callable<List<Credentials>>> chunks = new ArrayList<>();
+        int chunkSize = Math.max((users.size() + threads - 1) / threads, 1);
+
+        for (int from = 0; from < users.size(); from += chunkSize) {
+            List<Integer> chunk = users.subList(from, Math.min(from + chunkSize, users.size()));
+            chunks.add(() -> {
+                List<Credentials> hashed = new ArrayList<>(chunk.size());
+
+                for (int user : chunk) {
+                    byte[] passwordSalt = hashGenerator.getRandomSalt();
+                    hashed.add(new Credentials(USERNAME_PREFIX + user,
+                            passwordHasher.hash(getPassword(user), passwordSalt), passwordSalt,
+                            passwordHasher.getAlgorithm(), passwordHasher.getParameters()));
+                }
+
+                return hashed;
+            });
+        }
+
+        List<Credentials> credentials = new ArrayList<>(users.size());
+
+        for (Future<List<Credentials>> chunk : hashing.invokeAll(chunks)) {
+            try {
+                credentials.addAll(chunk.get());
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to hash passwords.", e.getCause());
+            }
+        }
+
+        return credentials;
+    }
+
+    /**
+     * Helper method to write users in a single transaction per shard.
+     * @param users the credentials of the users to write.
+     * @return the number of users written.
+     * @throws SQLException if a database access error occurs.
+     */
+    private static long insertUsers(final List<Credentials> users) throws SQLException {
+        Map<Integer, List<Credentials>> shards = new TreeMap<>();
+        for (Credentials user : users) {
+            shards.computeIfAbsent(Database.INSTANCE.getShard(user.username()),
+                    shard -> new ArrayList<>()).add(user);
+        }
+
+        long inserted = 0;
+
+        for (Map.Entry<Integer, List<Credentials>> shard : shards.entrySet()) {
+            try (PooledConnection connection = Database.INSTANCE.getConnection(shard.getKey())) {
+                inserted += UserBatches.count(UserBatches.write(connection, shard.getValue()));
+            }
+        }
+
+        return inserted;
+    }
+
+    /**
+     * Runs the configured mix of operations for the configured time, printing a report at every
+     * interval and a summary per operation at the end. Operations still running or waiting at the
+     * end are given up to a minute to finish, and are included in the results.
+     * @return the totals of the run.
+     * @throws InterruptedException if interrupted while waiting for the run to end.
+     */
+    public Result run() throws InterruptedException {
+        ExecutorService executor = config.virtualThreads()
+                ? RequestExecutors.newRequestExecutor("load-worker")
+                : Executors.newFixedThreadPool(config.threads(), newThreadFactory("load-worker"));
+        long startNanos = System.nanoTime();
+        long endNanos = startNanos + TimeUnit.SECONDS.toNanos(config.durationSeconds());
+        Thread dispatcher = null;
+
+        if (config.arrivalRate() > 0) {
+            dispatcher = new Thread(() -> dispatch(executor, startNanos, endNanos),
+                    "load-dispatcher");
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        } else {
+            for (int thread = 0; thread < config.threads(); thread++) {
+                String source = "load-" + thread;
+                executor.execute(() -> runClosedLoop(source, endNanos));
+            }
+        }
+
+        report(startNanos, endNanos);
+
+        if (dispatcher != null) {
+            dispatcher.join();
+        }
+        executor.shutdown();
+        long cancelled = 0;
+        if (!executor.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS)) {
+            cancelled = executor.shutdownNow().size();
+        }
+
+        Result result = getResult(System.nanoTime() - startNanos, cancelled);
+        printSummary(result);
+        return result;
+    }
+
+    /**
+     * Helper method that runs on every thread of a closed loop, starting operations one after the
+     * other until the end of the run.
+     * @param source where the operations of the thread come from.
+     * @param endNanos when the run ends, from {@link System#nanoTime()}.
+     */
+    private void runClosedLoop(final String source, final long endNanos) {
+        long started;
+
+        while ((started = System.nanoTime()) - endNanos < 0) {
+            execute(pickOperation(), source, started);
+        }
+    }
+
+    /**
+     * Helper method that runs on the dispatcher thread at a fixed arrival rate, handing operations
+     * to the executor when they are due until the end of the run. If it falls behind, the
+     * operations that are overdue are handed over at once.
+     * @param executor the executor that runs the operations.
+     * @param startNanos when the run started, from {@link System#nanoTime()}.
+     * @param endNanos when the run ends, from {@link System#nanoTime()}.
+     */
+    private void dispatch(final ExecutorService executor, final long startNanos,
+                          final long endNanos) {
+        double intervalNanos = NANOS_PER_SECOND / config.arrivalRate();
+
+        for (long arrival = 0; ; arrival++) {
+            long due = startNanos + (long) (arrival * intervalNanos);
+            if (due - endNanos >= 0) {
+                return;
+            }
+
+            sleepUntil(due);
+            Operation operation = pickOperation();
+            executor.execute(() -> execute(operation, "load", due));
+        }
+    }
+
+    /**
+     * Helper method to pick an operation at random, according to the weights of the mix.
+     * @return the operation to run.
+     */
+    private Operation pickOperation() {
+        return config.mix().pick(ThreadLocalRandom.current().nextInt(config.mix().total()));
+    }
+
+    /**
+     * Helper method to run an operation and record its latency and outcome.
+     * @param operation the operation to run.
+     * @param source where the operation comes from.
+     * @param startedNanos when the operation started or was due, from {@link System#nanoTime()}.
+     */
+    private void execute(final Operation operation, final String source, final long startedNanos) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int user = config.seedUsers() > 0 ? random.nextInt(config.seedUsers()) : 0;
+        String outcome;
+
+        try {
+            outcome = switch (operation) {
+                case REGISTER -> userLogin.register(USERNAME_PREFIX + "new_" + runId + "_"
+                        + registrations.incrementAndGet(), NEW_USER_PASSWORD, source).name();
+                case VALID_LOGIN -> userLogin.authenticate(USERNAME_PREFIX + user,
+                        getPassword(user), source).name();
+                case BAD_PASSWORD -> userLogin.authenticate(USERNAME_PREFIX + user,
+                        ("Wrong" + user + "password").toCharArray(), source).name();
+                case UNKNOWN_USER -> userLogin.authenticate(USERNAME_PREFIX + "unknown_"
+                        + Long.toString(random.nextLong() & Long.MAX_VALUE, 36),
+                        NEW_USER_PASSWORD, source).name();
+            };
+        } catch (RuntimeException e) {
+            outcome = e.getClass().getSimpleName();
+        }
+
+        long latencyNanos = System.nanoTime() - startedNanos;
+        latency.record(latencyNanos);
+        operationLatency.get(operation).record(latencyNanos);
+        outcomes.get(operation).computeIfAbsent(outcome, key -> new LongAdder()).increment();
+
+        if (!outcome.equals(operation.getExpectedOutcome())) {
+            unexpected.increment();
+        }
+    }
+
+    /**
+     * Helper method to print the throughput and latency of every interval until the end of the
+     * run.
+     * @param startNanos when the run started, from {@link System#nanoTime()}.
+     * @param endNanos when the run ends, from {@link System#nanoTime()}.
+     */
+    private void report(final long startNanos, final long endNanos) {
+        long intervalNanos = TimeUnit.SECONDS.toNanos(config.reportIntervalSeconds());
+        LatencyHistogram.Snapshot previous = latency.getSnapshot();
+        long previousUnexpected = 0;
+        long previousNanos = startNanos;
+
+        while (previousNanos - endNanos < 0) {
+            long next = Math.min(previousNanos + intervalNanos, endNanos);
+            sleepUntil(next);
+
+            LatencyHistogram.Snapshot current = latency.getSnapshot();
+            LatencyHistogram.Snapshot interval = current.since(previous);
+            long currentUnexpected = unexpected.sum();
+
+            System.out.printf("%7.1f s: %9.1f ops/s, %s, %d unexpected, database %.1f MiB%n",
+                    (next - startNanos) / NANOS_PER_SECOND,
+                    interval.count() / ((next - previousNanos) / NANOS_PER_SECOND),
+                    formatPercentiles(interval), currentUnexpected - previousUnexpected,
+                    Database.INSTANCE.getSizeOnDisk() / BYTES_PER_MIB);
+
+            previous = current;
+            previousUnexpected = currentUnexpected;
+            previousNanos = next;
+        }
+    }
+
+    /**
+     * Helper method to print the latencies and outcomes of every operation of the run, and its
+     * totals.
+     * @param result the totals of the run.
+     */
+    private void printSummary(final Result result) {
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram.Snapshot snapshot = operationLatency.get(operation).getSnapshot();
+            if (snapshot.count() == 0) {
+                continue;
+            }
+
+            Map<String, Long> counts = new TreeMap<>();
+            outcomes.get(operation).forEach((outcome, count) -> counts.put(outcome, count.sum()));
+            System.out.printf("  %-12s %9d ops, %s, max %.2f ms; %s%n",
+                    operation.name().toLowerCase(Locale.ROOT), snapshot.count(),
+                    formatPercentiles(snapshot), snapshot.max() / NANOS_PER_MILLI, counts);
+        }
+
+        System.out.println("Load: " + result + ".");
+    }
+
+    /**
+     * Helper method to format the 50th, 99th and 99.9th percentiles of a snapshot.
+     * @param snapshot the snapshot of the latencies.
+     * @return the percentiles in milliseconds.
+     */
+    private static String formatPercentiles(final LatencyHistogram.Snapshot snapshot) {
+        return String.format("p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms",
+                snapshot.getValueAtPercentile(50) / NANOS_PER_MILLI,
+                snapshot.getValueAtPercentile(99) / NANOS_PER_MILLI,
+                snapshot.getValueAtPercentile(99.9) / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Helper method to get the totals of the run.
+     * @param elapsedNanos how long the run took, including finishing the last operations.
+     * @param cancelled the number of operations that were still waiting after the run.
+     * @return the totals of the run.
+     */
+    private Result getResult(final long elapsedNanos, final long cancelled) {
+        LatencyHistogram.Snapshot snapshot = latency.getSnapshot();
+        return new Result(snapshot.count(), snapshot.count() / (elapsedNanos / NANOS_PER_SECOND),
+                unexpected.sum(), cancelled, Database.INSTANCE.getSizeOnDisk(), snapshot);
+    }
+
+    /**
+     * Helper method to sleep until a given time.
+     * @param deadlineNanos the time to wake up at, from {@link System#nanoTime()}.
+     */
+    private static void sleepUntil(final long deadlineNanos) {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * Helper method to get the password of a seeded user.
+     * @param user the number of the user.
+     * @return the password of the user.
+     */
+    private static char[] getPassword(final int user) {
+        return ("Password" + user).toCharArray();
+    }
+
+    /**
+     * Helper method to create a thread factory for daemon threads with numbered names.
+     * @param name the prefix of the names of the threads.
+     * @return the thread factory.
+     */
+    private static ThreadFactory newThreadFactory(final String name) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * An operation of the load.
+     */
+    public enum Operation {
+        /**
+         * Registers a new user.
+         */
+        REGISTER("REGISTERED"),
+        /**
+         * Logs in a seeded user with the right password.
+         */
+        VALID_LOGIN("AUTHENTICATED"),
+        /**
+         * Logs in a seeded user with a wrong password.
+         */
+        BAD_PASSWORD("INVALID_CREDENTIALS"),
+        /**
+         * Logs in with a username that isn't registered.
+         */
+        UNKNOWN_USER("INVALID_CREDENTIALS");
+
+        private final String expectedOutcome;
+
+        /**
+         * Instantiates a new Operation.
+         * @param expectedOutcome the name of the result the operation should have.
+         */
+        Operation(final String expectedOutcome) {
+            this.expectedOutcome = expectedOutcome;
+        }
+
+        /**
+         * Returns the result the operation should have; any other result, e.g. BUSY, is counted
+         * as unexpected.
+         * @return the name of the expected result.
+         */
+        public String getExpectedOutcome() {
+            return expectedOutcome;
+        }
+    }
+
+    /**
+     * The relative weights of the operations of the load.
+     * @param register the weight of registrations.
+     * @param validLogin the weight of logins with the right password.
+     * @param badPassword the weight of logins with a wrong password.
+     * @param unknownUser the weight of logins with usernames that aren't registered.
+     */
+    public record Mix(int register, int validLogin, int badPassword, int unknownUser) {
+        /**
+         * Returns the sum of the weights.
+         * @return the total weight.
+         */
+        public int total() {
+            return register + validLogin + badPassword + unknownUser;
+        }
+
+        /**
+         * Picks the operation that a number falls on, when the weights are laid end to end.
+         * @param roll a number from 0 up to the total weight.
+         * @return the operation.
+         */
+        Operation pick(final int roll) {
+            if (roll < register) {
+                return Operation.REGISTER;
+            }
+
+            if (roll < register + validLogin) {
+                return Operation.VALID_LOGIN;
+            }
+
+            if (roll < register + validLogin + badPassword) {
+                return Operation.BAD_PASSWORD;
+            }
+
+            return Operation.UNKNOWN_USER;
+        }
+    }
+
+    /**
+     * Configuration of a {@link LoadGenerator}.
+     * @param seedUsers the number of users to seed the database with.
+     * @param seedBatchSize the number of users seeded per transaction.
+     * @param threads the number of threads of a closed loop, or of the threads that run the
+     * operations at a fixed arrival rate, unless virtual threads are used.
+     * @param virtualThreads whether operations run on virtual threads, where available.
+     * @param arrivalRate the number of operations started per second, or 0 for a closed loop.
+     * @param durationSeconds how long the operations run, in seconds.
+     * @param reportIntervalSeconds how often throughput and latency are reported, in seconds.
+     * @param mix the relative weights of the operations.
+     */
+    public record Config(int seedUsers, int seedBatchSize, int threads, boolean virtualThreads,
+                         double arrivalRate, long durationSeconds, long reportIntervalSeconds,
+                         Mix mix) {
+        /**
+         * Reads the load configuration from settings, e.g. resources/load-info.json.
+         * @param loadInfo the load settings.
+         * @return the load configuration.
+         */
+        public static Config fromSettings(final Settings loadInfo) {
+            return new Config(loadInfo.getInt("seedUsers", 10_000),
+                    loadInfo.getInt("seedBatchSize", 1000),
+                    loadInfo.getInt("threads", 8),
+                    loadInfo.getBoolean("virtualThreads", false),
+                    loadInfo.getDouble("arrivalRate", 0),
+                    loadInfo.getLong("durationSeconds", 60),
+                    loadInfo.getLong("reportIntervalSeconds", 5),
+                    new Mix(loadInfo.getInt("registerWeight", 10),
+                            loadInfo.getInt("validLoginWeight", 70),
+                            loadInfo.getInt("badPasswordWeight", 10),
+                            loadInfo.getInt("unknownUserWeight", 10)));
+        }
+    }
+
+    /**
+     * The totals of a run.
+     * @param operations the number of operations run.
+     * @param operationsPerSecond the number of operations run per second.
+     * @param unexpected the number of operations that didn't have the expected result.
+     * @param cancelled the number of operations still waiting after the run, which didn't run.
+     * @param databaseBytes the size of the database on disk after the run, in bytes.
+     * @param latency the latencies of all operations.
+     */
+    public record Result(long operations, double operationsPerSecond, long unexpected,
+                         long cancelled, long databaseBytes, LatencyHistogram.Snapshot latency) {
+        @Override
+        public String toString() {
+            return String.format("%d operations (%.1f ops/s), %s, %d unexpected, %d cancelled, "
+                            + "database %.1f MiB", operations, operationsPerSecond,
+                    formatPercentiles(latency), unexpected, cancelled,
+                    databaseBytes / BYTES_PER_MIB);
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Package for generating load on registrations and logins, to measure their throughput and
+ * latency end to end.
+ */
+package com.shinkamon.userlogin.loadtest;
@@ -0,0 +1,552 @@
+package com.shinkamon.userlogin.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.shinkamon.userlogin.database.AuthenticationResult;
+import com.shinkamon.userlogin.database.ConnectionPool;
+import com.shinkamon.userlogin.database.CredentialRepository;
+import com.shinkamon.userlogin.database.Database;
+import com.shinkamon.userlogin.database.LoginSession;
+import com.shinkamon.userlogin.database.RegistrationResult;
+import com.shinkamon.userlogin.database.UserLogin;
+import com.shinkamon.userlogin.support.HashingExecutor;
+import com.shinkamon.userlogin.support.LoginThrottle;
+import com.shinkamon.userlogin.support.LruCache;
+import com.shinkamon.userlogin.support.Metrics;
+import com.shinkamon.userlogin.support.RequestExecutors;
+import com.shinkamon.userlogin.support.Settings;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An embedded HTTP server that exposes registration and login over the network, with JSON bodies:
+ * <ul>
+ *     <li>POST /register with {"username": ..., "password": ...}</li>
+ *     <li>POST /login with {"username": ..., "password": ...}, which returns a session token</li>
+ *     <li>GET /session and POST /logout, with the session token as a bearer token</li>
+ *     <li>GET /health</li>
+ *     <li>GET /metrics, in the Prometheus text format</li>
+ * </ul>
+ * Every response carries a Content-Length, so clients can keep their connections alive between
+ * requests. Requests are handled on virtual threads where available, since they spend their time
+ * waiting on the database or on the {@link HashingExecutor}.
+ */
+public final class LoginServer {
+    private static final String JSON = "application/json; charset=utf-8";
+    private static final String PROMETHEUS = "text/plain; version=0.0.4; charset=utf-8";
+    private static final String BEARER = "Bearer ";
+    private final Gson gson = new Gson();
+    private final UserLogin userLogin;
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * Instantiates a new LoginServer; it doesn't accept connections until started.
+     * @param userLogin the UserLogin that handles the requests.
+     * @param config the address and limits of the server.
+     * @throws IOException if the server can't be bound to the address.
+     */
+    public LoginServer(final UserLogin userLogin, final Config config) throws IOException {
+        this.userLogin = userLogin;
+        this.config = config;
+        this.server = HttpServer.create(new InetSocketAddress(config.host(), config.port()),
+                config.backlog());
+        this.executor = RequestExecutors.newRequestExecutor("http");
+        server.setExecutor(executor);
+        server.createContext("/register", this::handleRegister);
+        server.createContext("/login", this::handleLogin);
+        server.createContext("/session", this::handleSession);
+        server.createContext("/logout", this::handleLogout);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/", exchange -> sendError(exchange, 404, "Not found."));
+    }
+
+    /**
+     * Starts accepting connections.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops the server, giving requests in progress up to the given time to finish.
+     * @param delaySeconds the maximum time to wait for requests in progress, in seconds.
+     */
+    public void stop(final int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+
+        try {
+            executor.awaitTermination(delaySeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the port the server is listening on, which is useful if it was started on port 0.
+     * @return the port of the server.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Helper method to handle a registration request.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleRegister(final HttpExchange exchange) throws IOException {
+        LoginRequest request = readRequest(exchange);
+        if (request == null) {
+            return;
+        }
+
+        RegistrationResult result;
+        try {
+            result = userLogin.register(request.username(), request.password(),
+                    getSource(exchange));
+        } finally {
+            Arrays.fill(request.password(), '\0');
+        }
+
+        int status = switch (result) {
+            case REGISTERED -> 201;
+            case INVALID_USERNAME, INVALID_PASSWORD, BREACHED_PASSWORD -> 400;
+            case USERNAME_TAKEN -> 409;
+            case BUSY -> 503;
+            case ERROR -> 500;
+        };
+        sendResult(exchange, status, result.name(), null);
+    }
+
+    /**
+     * Helper method to handle a login request, which is issued a session token if it succeeds.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleLogin(final HttpExchange exchange) throws IOException {
+        LoginRequest request = readRequest(exchange);
+        if (request == null) {
+            return;
+        }
+
+        LoginSession session;
+        try {
+            session = userLogin.startSession(request.username(), request.password(),
+                    getSource(exchange));
+        } finally {
+            Arrays.fill(request.password(), '\0');
+        }
+
+        AuthenticationResult result = session.result();
+        int status = switch (result) {
+            case AUTHENTICATED -> 200;
+            case INVALID_CREDENTIALS -> 401;
+            case THROTTLED, LOCKED -> 429;
+            case BUSY -> 503;
+            case ERROR -> 500;
+        };
+        sendResult(exchange, status, result.name(), session.token());
+    }
+
+    /**
+     * Helper method to handle a request for the user of a session, which is answered from its
+     * token alone.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleSession(final HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+
+        String username = userLogin.verifySession(getBearerToken(exchange)).orElse(null);
+        if (username == null) {
+            sendInvalidSession(exchange);
+            return;
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("username", username);
+        send(exchange, 200, body);
+    }
+
+    /**
+     * Helper method to handle a logout, which revokes the session token.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleLogout(final HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "POST")) {
+            return;
+        }
+
+        if (!userLogin.endSession(getBearerToken(exchange), getSource(exchange))) {
+            sendInvalidSession(exchange);
+            return;
+        }
+
+        sendResult(exchange, 200, "LOGGED_OUT", null);
+    }
+
+    /**
+     * Helper method to get the session token of a request from its Authorization header.
+     * @param exchange the request and response.
+     * @return the bearer token, or null if the request has none.
+     */
+    private static String getBearerToken(final HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+
+        if (authorization == null || !authorization.regionMatches(true, 0, BEARER, 0,
+                BEARER.length())) {
+            return null;
+        }
+
+        return authorization.substring(BEARER.length()).trim();
+    }
+
+    /**
+     * Helper method to send the response to a request without a valid session token.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void sendInvalidSession(final HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+        sendError(exchange, 401, "Missing, invalid or expired session token.");
+    }
+
+    /**
+     * Helper method to handle a health check, which reports the state of the connection pool,
+     * of password hashing, of login throttling, of group commit, of the credential caches, of the
+     * username filter, of the audit log, of session tokens and of the password blocklist.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleHealth(final HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+
+        ConnectionPool.Stats pool = Database.INSTANCE.getPoolStats();
+        HashingExecutor.Stats hashing = userLogin.getHashingStats();
+        LoginThrottle.Stats throttle = userLogin.getThrottleStats();
+        CredentialRepository.CacheStats cache = userLogin.getCacheStats();
+
+        JsonObject poolJson = new JsonObject();
+        poolJson.addProperty("inUse", pool.inUse());
+        poolJson.addProperty("maxSize", pool.maxSize());
+        poolJson.addProperty("timeouts", pool.timeouts());
+        poolJson.addProperty("averageWaitNanos", pool.averageWaitNanos());
+
+        JsonObject hashingJson = new JsonObject();
+        hashingJson.addProperty("active", hashing.active());
+        hashingJson.addProperty("queued", hashing.queued());
+        hashingJson.addProperty("queueDepth", hashing.queueDepth());
+        hashingJson.addProperty("rejected", hashing.rejected());
+        hashingJson.addProperty("averageWaitNanos", hashing.averageWaitNanos());
+
+        JsonObject throttleJson = new JsonObject();
+        throttleJson.addProperty("allowed", throttle.allowed());
+        throttleJson.addProperty("throttled", throttle.throttled());
+        throttleJson.addProperty("locked", throttle.locked());
+        throttleJson.addProperty("evictions", throttle.evictions());
+        throttleJson.addProperty("retries", throttle.retries());
+
+        JsonObject cacheJson = new JsonObject();
+        cacheJson.add("credentials", toJson(cache.credentials()));
+        cacheJson.add("unknownUsernames", toJson(cache.unknownUsernames()));
+
+        JsonObject body = new JsonObject();
+        body.addProperty("status", "UP");
+        body.add("pool", poolJson);
+        body.add("hashing", hashingJson);
+        body.add("throttle", throttleJson);
+        body.add("cache", cacheJson);
+        userLogin.getGroupCommitStats().ifPresent(groupCommit -> {
+            JsonObject groupCommitJson = new JsonObject();
+            groupCommitJson.addProperty("queued", groupCommit.queued());
+            groupCommitJson.addProperty("batches", groupCommit.batches());
+            groupCommitJson.addProperty("averageBatchSize", groupCommit.averageBatchSize());
+            groupCommitJson.addProperty("largestBatch", groupCommit.largestBatch());
+            groupCommitJson.addProperty("rejected", groupCommit.rejected());
+            body.add("groupCommit", groupCommitJson);
+        });
+        userLogin.getUsernameFilterStats().ifPresent(filter -> {
+            JsonObject filterJson = new JsonObject();
+            filterJson.addProperty("insertions", filter.filter().insertions());
+            filterJson.addProperty("memoryBytes", filter.filter().memoryBytes());
+            filterJson.addProperty("expectedFalsePositiveRate",
+                    filter.filter().expectedFalsePositiveRate());
+            filterJson.addProperty("rejections", filter.rejections());
+            filterJson.addProperty("falsePositives", filter.falsePositives());
+            filterJson.addProperty("observedFalsePositiveRate", filter.observedFalsePositiveRate());
+            body.add("usernameFilter", filterJson);
+        });
+        userLogin.getAuditStats().ifPresent(audit -> {
+            JsonObject auditJson = new JsonObject();
+            auditJson.addProperty("queued", audit.queued());
+            auditJson.addProperty("capacity", audit.capacity());
+            auditJson.addProperty("recorded", audit.recorded());
+            auditJson.addProperty("written", audit.written());
+            auditJson.addProperty("averageBatchSize", audit.averageBatchSize());
+            auditJson.addProperty("dropped", audit.dropped());
+            auditJson.addProperty("failed", audit.failed());
+            body.add("audit", auditJson);
+        });
+        userLogin.getSessionStats().ifPresent(sessions -> {
+            JsonObject sessionsJson = new JsonObject();
+            sessionsJson.addProperty("issued", sessions.issued());
+            sessionsJson.addProperty("verified", sessions.verified());
+            sessionsJson.addProperty("rejected", sessions.rejected());
+            sessionsJson.addProperty("revocations", sessions.revocations());
+            sessionsJson.addProperty("keys", sessions.keys());
+            sessionsJson.addProperty("revoked", sessions.revoked());
+            body.add("sessions", sessionsJson);
+        });
+        userLogin.getBlocklistStats().ifPresent(blocklist -> {
+            JsonObject blocklistJson = new JsonObject();
+            blocklistJson.addProperty("size", blocklist.size());
+            blocklistJson.addProperty("fileBytes", blocklist.fileBytes());
+            blocklistJson.addProperty("residentBytes", blocklist.residentBytes());
+            blocklistJson.addProperty("lookups", blocklist.lookups());
+            blocklistJson.addProperty("matches", blocklist.matches());
+            body.add("passwordBlocklist", blocklistJson);
+        });
+        send(exchange, 200, body);
+    }
+
+    /**
+     * Helper method to handle a request for the latency histograms and counters of logins,
+     * registrations and the database, in the Prometheus text format.
+     * @param exchange the request and response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void handleMetrics(final HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "GET")) {
+            return;
+        }
+
+        send(exchange, 200, PROMETHEUS,
+                Metrics.INSTANCE.toPrometheus().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Helper method to get where a request comes from, for throttling and auditing.
+     * @param exchange the request and response.
+     * @return the address of the client.
+     */
+    private static String getSource(final HttpExchange exchange) {
+        return exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    /**
+     * Helper method to convert the statistics of a cache to JSON.
+     * @param stats the statistics of the cache.
+     * @return the statistics as a JSON object.
+     */
+    private static JsonObject toJson(final LruCache.Stats stats) {
+        JsonObject json = new JsonObject();
+        json.addProperty("size", stats.size());
+        json.addProperty("capacity", stats.capacity());
+        json.addProperty("hits", stats.hits());
+        json.addProperty("misses", stats.misses());
+        json.addProperty("evictions", stats.evictions());
+        json.addProperty("expirations", stats.expirations());
+        return json;
+    }
+
+    /**
+     * Helper method to read the username and password from the JSON body of a POST request.
+     * If the request is invalid, an error response is sent.
+     * @param exchange the request and response.
+     * @return the username and password from the request, or null if an error response was sent.
+     * @throws IOException if an I/O error occurs.
+     */
+    private LoginRequest readRequest(final HttpExchange exchange) throws IOException {
+        if (!requireMethod(exchange, "POST")) {
+            return null;
+        }
+
+        byte[] body = readBody(exchange);
+        if (body == null) {
+            // the rest of the body is left unread, so the connection can't be reused
+            exchange.getResponseHeaders().set("Connection", "close");
+            sendError(exchange, 413, "Request body exceeds " + config.maxRequestBytes() + " bytes.");
+            return null;
+        }
+
+        RequestBody json;
+        try {
+            json = gson.fromJson(new String(body, StandardCharsets.UTF_8), RequestBody.class);
+        } catch (JsonParseException e) {
+            json = null;
+        } finally {
+            Arrays.fill(body, (byte) 0);
+        }
+
+        if (json == null || json.username == null || json.password == null) {
+            sendError(exchange, 400, "Expected a JSON object with a username and a password.");
+            return null;
+        }
+
+        return new LoginRequest(json.username, json.password.toCharArray());
+    }
+
+    /**
+     * Helper method to read the request body, up to the maximum request size.
+     * @param exchange the request.
+     * @return the request body, or null if it is larger than the maximum request size.
+     * @throws IOException if an I/O error occurs.
+     */
+    private byte[] readBody(final HttpExchange exchange) throws IOException {
+        int limit = config.maxRequestBytes();
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+
+        // reject oversized bodies up front when the size is declared
+        try {
+            if (contentLength != null && Long.parseLong(contentLength.trim()) > limit) {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] body = input.readNBytes(limit + 1);
+            return body.length > limit ? null : body;
+        }
+    }
+
+    /**
+     * Helper method to check the request method, sending an error response if it doesn't match.
+     * @param exchange the request and response.
+     * @param method the expected request method.
+     * @return whether the request method matches as a boolean.
+     * @throws IOException if an I/O error occurs.
+     */
+    private boolean requireMethod(final HttpExchange exchange, final String method)
+            throws IOException {
+        if (exchange.getRequestMethod().equals(method)) {
+            return true;
+        }
+
+        exchange.getResponseHeaders().set("Allow", method);
+        sendError(exchange, 405, "Method not allowed.");
+        return false;
+    }
+
+    /**
+     * Helper method to send the outcome of a request.
+     * @param exchange the request and response.
+     * @param status the HTTP status code.
+     * @param result the name of the outcome.
+     * @param token the session token issued by the request, or null if none was.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void sendResult(final HttpExchange exchange, final int status, final String result,
+                            final String token) throws IOException {
+        if (status == 503 || status == 429) {
+            exchange.getResponseHeaders().set("Retry-After", "1");
+        }
+
+        JsonObject body = new JsonObject();
+        body.addProperty("result", result);
+        if (token != null) {
+            body.addProperty("token", token);
+        }
+        send(exchange, status, body);
+    }
+
+    /**
+     * Helper method to send an error response.
+     * @param exchange the request and response.
+     * @param status the HTTP status code.
+     * @param message a description of the error.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void sendError(final HttpExchange exchange, final int status, final String message)
+            throws IOException {
+        JsonObject body = new JsonObject();
+        body.addProperty("error", message);
+        send(exchange, status, body);
+    }
+
+    /**
+     * Helper method to send a JSON response with a Content-Length, and complete the exchange.
+     * @param exchange the request and response.
+     * @param status the HTTP status code.
+     * @param body the JSON body of the response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private void send(final HttpExchange exchange, final int status, final JsonObject body)
+            throws IOException {
+        send(exchange, status, JSON, gson.toJson(body).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Helper method to send a response with a Content-Length, and complete the exchange.
+     * @param exchange the request and response.
+     * @param status the HTTP status code.
+     * @param contentType the type of the body.
+     * @param bytes the body of the response.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static void send(final HttpExchange exchange, final int status,
+                             final String contentType, final byte[] bytes) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * The address and limits of a {@link LoginServer}.
+     * @param host the host name or address to listen on.
+     * @param port the port to listen on, or 0 for any free port.
+     * @param backlog the maximum number of connections waiting to be accepted.
+     * @param maxRequestBytes the maximum size of a request body, in bytes.
+     */
+    public record Config(String host, int port, int backlog, int maxRequestBytes) {
+        /**
+         * Reads the server configuration from settings, e.g. resources/server-info.json.
+         * @param serverInfo the server settings.
+         * @return the server configuration.
+         */
+        public static Config fromSettings(final Settings serverInfo) {
+            return new Config(serverInfo.getString("host", "localhost"),
+                    serverInfo.getInt("port", 8080),
+                    serverInfo.getInt("backlog", 128),
+                    serverInfo.getInt("maxRequestBytes", 4096));
+        }
+    }
+
+    /**
+     * The JSON body of a registration or login request.
+     */
+    private static final class RequestBody {
+        private String username;
+        private String password;
+    }
+
+    /**
+     * The username and password of a request, with the password as a char[] so it can be cleared.
+     */
+    private record LoginRequest(String username, char[] password) {
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Package for the HTTP front-end of the user login system.
+ */
+package com.shinkamon.userlogin.server;
\ No newline at end of file
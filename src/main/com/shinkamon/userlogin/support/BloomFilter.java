@@ -0,0 +1,248 @@
+package com.shinkamon.userlogin.support;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe Bloom filter of Strings: a compact set that can answer that a String was
+ * definitely never added, or that it might have been. The chance of a wrong "might have been"
+ * depends on the number of Strings added compared to the number the filter was sized for.
+ * <p>
+ * The bits are kept in a single array of longs, set with atomic operations so that Strings can be
+ * added while other threads are reading. Strings are hashed once, and the bit positions are
+ * derived from that hash and a remix of it by double hashing.
+ * <p>
+ * A filter can be written to a buffer and read back, e.g. to keep it in a file across restarts.
+ */
+public final class BloomFilter {
+    private static final double LN2 = Math.log(2);
+    // golden ratio constant, to derive a second hash from the first one
+    private static final long SECOND_HASH_SEED = 0x9e3779b97f4a7c15L;
+    private final AtomicLongArray bits;
+    private final long bitCount;
+    private final int hashFunctions;
+    private final long expectedInsertions;
+    private final double falsePositiveRate;
+    private final LongAdder insertions = new LongAdder();
+
+    /**
+     * Instantiates a new BloomFilter sized for a number of Strings and a false-positive rate.
+     * @param expectedInsertions the number of Strings expected to be added.
+     * @param falsePositiveRate the chance that a String that was never added is reported as
+     * possibly added, once the expected number of Strings have been added; between 0 and 1.
+     */
+    public BloomFilter(final long expectedInsertions, final double falsePositiveRate) {
+        if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+            throw new IllegalArgumentException("Invalid false-positive rate: " + falsePositiveRate);
+        }
+
+        this.expectedInsertions = Math.max(expectedInsertions, 1);
+        this.falsePositiveRate = falsePositiveRate;
+        // the optimal number of bits is -n ln p / (ln 2)^2, and of hash functions m/n ln 2
+        long optimalBits = (long) Math.ceil(
+                -this.expectedInsertions * Math.log(falsePositiveRate) / (LN2 * LN2));
+        // a whole number of longs
+        long words = Math.max((optimalBits + 63) / 64, 1);
+
+        if (words > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " + optimalBits + " bits");
+        }
+
+        this.bits = new AtomicLongArray((int) words);
+        this.bitCount = words * 64;
+        this.hashFunctions = Math.max(
+                (int) Math.round((double) bitCount / this.expectedInsertions * LN2), 1);
+    }
+
+    /**
+     * Adds a String to the filter. Only Strings that set at least one bit are counted as
+     * insertions, so adding a String again doesn't count.
+     * @param value the String to add.
+     */
+    public void add(final String value) {
+        long hash = hash(value);
+        long h1 = hash;
+        long h2 = mix(hash ^ SECOND_HASH_SEED);
+        boolean changed = false;
+
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long current = bits.get(word);
+
+            // skip the atomic update if the bit is already set, which it mostly is for repeats
+            while ((current & mask) == 0) {
+                if (bits.weakCompareAndSetVolatile(word, current, current | mask)) {
+                    changed = true;
+                    break;
+                }
+                current = bits.get(word);
+            }
+        }
+
+        if (changed) {
+            insertions.increment();
+        }
+    }
+
+    /**
+     * Checks whether a String might have been added to the filter.
+     * @param value the String to check.
+     * @return false if the String was definitely never added, true if it might have been.
+     */
+    public boolean mightContain(final String value) {
+        long hash = hash(value);
+        long h1 = hash;
+        long h2 = mix(hash ^ SECOND_HASH_SEED);
+
+        for (int i = 0; i < hashFunctions; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, bitCount);
+
+            if ((bits.get((int) (bit >>> 6)) & 1L << bit) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads a filter that was written by {@link #writeTo}.
+     * @param buffer the buffer to read from, positioned at the start of the filter; its position
+     * is moved past the filter.
+     * @return the filter, holding the same Strings as the one that was written.
+     * @throws IllegalArgumentException if the buffer doesn't hold a valid filter.
+     * @throws java.nio.BufferUnderflowException if the buffer ends before the filter does.
+     */
+    public static BloomFilter readFrom(final ByteBuffer buffer) {
+        BloomFilter filter = new BloomFilter(buffer.getLong(), buffer.getDouble());
+        long insertions = buffer.getLong();
+        int words = buffer.getInt();
+
+        if (words != filter.bits.length() || insertions < 0) {
+            throw new IllegalArgumentException("Invalid Bloom filter: " + words + " words");
+        }
+
+        for (int i = 0; i < words; i++) {
+            filter.bits.set(i, buffer.getLong());
+        }
+
+        filter.insertions.add(insertions);
+        return filter;
+    }
+
+    /**
+     * Writes the filter to a buffer, in a form that {@link #readFrom} reads back. Strings added
+     * while the filter is being written may or may not be included.
+     * @param buffer the buffer to write to, with at least {@link #getSerializedSize} bytes
+     * remaining; its position is moved past the filter.
+     */
+    public void writeTo(final ByteBuffer buffer) {
+        buffer.putLong(expectedInsertions).putDouble(falsePositiveRate).putLong(insertions.sum())
+                .putInt(bits.length());
+
+        for (int i = 0; i < bits.length(); i++) {
+            buffer.putLong(bits.get(i));
+        }
+    }
+
+    /**
+     * Returns the number of bytes the filter takes up when written with {@link #writeTo}.
+     * @return the size of the written filter in bytes.
+     */
+    public long getSerializedSize() {
+        return 3 * Long.BYTES + Integer.BYTES + (long) bits.length() * Long.BYTES;
+    }
+
+    /**
+     * Returns the false-positive rate the filter was sized for.
+     * @return the chance that a String that was never added is reported as possibly added, once
+     * the expected number of Strings have been added.
+     */
+    public double getFalsePositiveRate() {
+        return falsePositiveRate;
+    }
+
+    /**
+     * Returns the size of the bit array.
+     * @return the number of bytes taken up by the bits of the filter.
+     */
+    public long getMemoryBytes() {
+        return bitCount / 8;
+    }
+
+    /**
+     * Returns the false-positive rate expected from the fraction of bits that are currently set.
+     * @return the expected chance that a String that was never added is reported as possibly added.
+     */
+    public double getExpectedFalsePositiveRate() {
+        long set = 0;
+
+        for (int i = 0; i < bits.length(); i++) {
+            set += Long.bitCount(bits.get(i));
+        }
+
+        return Math.pow((double) set / bitCount, hashFunctions);
+    }
+
+    /**
+     * Returns a snapshot of the size and fill of the filter.
+     * @return the current statistics of the filter.
+     */
+    public Stats getStats() {
+        return new Stats(bitCount, hashFunctions, getMemoryBytes(), expectedInsertions,
+                insertions.sum(), getExpectedFalsePositiveRate());
+    }
+
+    /**
+     * Helper method to compute a 64-bit hash of a String: FNV-1a over its chars, followed by a
+     * finalizer so that every bit of the result depends on every char.
+     * @param value the String to hash.
+     * @return the hash of the String.
+     */
+    private static long hash(final String value) {
+        long hash = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+
+        return mix(hash);
+    }
+
+    /**
+     * Helper method to scramble the bits of a hash, using the finalizer of SplitMix64.
+     * @param hash the hash to scramble.
+     * @return the scrambled hash.
+     */
+    private static long mix(final long hash) {
+        long z = hash;
+        z = (z ^ z >>> 30) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ z >>> 27) * 0x94d049bb133111ebL;
+        return z ^ z >>> 31;
+    }
+
+    /**
+     * Size and fill statistics of a {@link BloomFilter}.
+     * @param bits the number of bits in the filter.
+     * @param hashFunctions the number of bits set per String.
+     * @param memoryBytes the number of bytes taken up by the bits.
+     * @param expectedInsertions the number of Strings the filter was sized for.
+     * @param insertions the number of Strings added that set at least one bit; about the number
+     * of distinct Strings added.
+     * @param expectedFalsePositiveRate the false-positive rate expected from the bits set.
+     */
+    public record Stats(long bits, int hashFunctions, long memoryBytes, long expectedInsertions,
+                        long insertions, double expectedFalsePositiveRate) {
+        @Override
+        public String toString() {
+            return String.format("%d of %d expected insertions, %d bits (%.1f KiB), "
+                            + "%d hash functions, expected false-positive rate %.4f%%",
+                    insertions, expectedInsertions, bits, memoryBytes / 1024.0, hashFunctions,
+                    expectedFalsePositiveRate * 100);
+        }
+    }
+}
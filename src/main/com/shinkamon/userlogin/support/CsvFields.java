@@ -0,0 +1,24 @@
+package com.shinkamon.userlogin.support;
+
+/**
+ * Static support class to write the fields of CSV files, as the export and the rejects file of
+ * an import both do.
+ */
+public class CsvFields {
+    /**
+     * Quotes a value for a CSV file, if it contains characters that need it.
+     * @param value the value, or null.
+     * @return the value as a CSV field.
+     */
+    public static String quote(final String value) {
+        if (value == null) {
+            return "";
+        }
+
+        if (value.chars().noneMatch(c -> c == ',' || c == '"' || c == '\r' || c == '\n')) {
+            return value;
+        }
+
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
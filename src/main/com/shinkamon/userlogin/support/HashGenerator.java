@@ -1,16 +1,26 @@
 package com.shinkamon.userlogin.support;
 
-import java.math.BigInteger;
-import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
- * Support class to generate a hashed String; also provides a method to generate a random salt,
+ * Support class to generate a hash; also provides a method to generate a random salt,
  * which is required when generating a hash to increase security against rainbow tables.
+ * <p>
+ * Hashing reuses a digest and buffers kept per thread, so it allocates next to nothing, and the
+ * buffers holding the encoded password are wiped after every use. Salts and hashes are raw bytes;
+ * hashes are always 64 bytes long, and are compared in constant time.
  */
 public class HashGenerator {
+    /**
+     * The length of the salts generated, in bytes.
+     */
+    public static final int SALT_LENGTH = 16;
+    private static final int SHA512_LENGTH = 64;
+    private static final ThreadLocal<HashState> STATE = ThreadLocal.withInitial(HashState::new);
     private final SecureRandom random;
 
     /**
@@ -20,44 +30,128 @@ public class HashGenerator {
     public HashGenerator(SecureRandom random) {
         this.random = random;
     }
-    /**
-     * Helper method to convert a generated hash from byte[] to a String.
-     * @param input a generated hash.
-     * @return a String of the hash in hexadecimal form.
-     */
-    private String getHexString(final byte[] input) {
-        BigInteger num = new BigInteger(1, input);
-        return num.toString(16);
-    }
 
     /**
      * Returns a randomly generated salt.
-     * @return randomly generated salt as a String.
+     * @return randomly generated salt of 16 bytes.
      */
-    public String getRandomSalt() {
-        byte[] salt = new byte[16];
+    public byte[] getRandomSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
         random.nextBytes(salt);
-        return new String(salt, StandardCharsets.UTF_8);
+        return salt;
     }
 
     /**
      * Returns a hash of the input and salt using the SHA-512 algorithm.
      * @param input user input, typically a password.
      * @param salt a randomized salt to increase security.
-     * @return a hashed String of the input and salt.
+     * @return a hash of the input and salt, 64 bytes long.
+     */
+    public byte[] getSHA512Hash(final char[] input, final byte[] salt) {
+        HashState state = STATE.get();
+        state.hash(input, salt);
+        return state.hash.clone();
+    }
+
+    /**
+     * Checks whether the hash of the input and salt matches an expected hash, without allocating
+     * an array for the computed hash. The comparison takes the same time wherever the hashes
+     * differ.
+     * @param input user input, typically a password.
+     * @param salt the salt the expected hash was generated with.
+     * @param expectedHash the expected hash.
+     * @return whether the hashes match as a boolean.
+     */
+    public boolean verifySHA512Hash(final char[] input, final byte[] salt,
+                                    final byte[] expectedHash) {
+        HashState state = STATE.get();
+        // always hash first, so a malformed expected hash takes as long to reject as a wrong one
+        state.hash(input, salt);
+        return MessageDigest.isEqual(state.hash, expectedHash);
+    }
+
+    /**
+     * The digest and buffers used to hash on a single thread.
      */
-    public String getSHA512Hash(final char[] input, final String salt) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA512");
-            byte[] digest;
-
-            // add the salt and then generate the hashed password
-            md.update(salt.getBytes(StandardCharsets.UTF_8));
-            digest = md.digest(new String(input).getBytes(StandardCharsets.UTF_8));
-
-            return getHexString(digest);
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
+    private static final class HashState {
+        private final MessageDigest digest;
+        private final byte[] hash = new byte[SHA512_LENGTH];
+        private byte[] bytes = new byte[256];
+
+        private HashState() {
+            try {
+                digest = MessageDigest.getInstance("SHA-512");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
         }
+
+        /**
+         * Hashes the salt followed by the input, leaving the result in hash.
+         * @param input user input, typically a password.
+         * @param salt a randomized salt to increase security.
+         */
+        private void hash(final char[] input, final byte[] salt) {
+            // UTF-8 takes at most 3 bytes per char; a surrogate pair takes 4 bytes for 2 chars
+            int capacity = 3 * input.length;
+            if (bytes.length < capacity) {
+                Arrays.fill(bytes, (byte) 0);
+                bytes = new byte[capacity];
+            }
+
+            try {
+                int length = encodeUTF8(input, input.length, bytes, 0);
+
+                digest.update(salt);
+                digest.update(bytes, 0, length);
+                digest.digest(hash, 0, SHA512_LENGTH);
+            } catch (DigestException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                // the buffer held the password
+                Arrays.fill(bytes, (byte) 0);
+                digest.reset();
+            }
+        }
+    }
+
+    /**
+     * Helper method to encode chars as UTF-8 into a buffer, without any intermediate copies.
+     * Unpaired surrogates are encoded as '?', the same as {@link String#getBytes}.
+     * @param chars the chars to encode.
+     * @param count the number of chars to encode, starting at the first.
+     * @param buffer the buffer to encode into; must be large enough.
+     * @param offset the position in the buffer to start at.
+     * @return the position in the buffer after the encoded chars.
+     */
+    private static int encodeUTF8(final char[] chars, final int count, final byte[] buffer,
+                                  final int offset) {
+        int position = offset;
+
+        for (int i = 0; i < count; i++) {
+            char c = chars[i];
+
+            if (c < 0x80) {
+                buffer[position++] = (byte) c;
+            } else if (c < 0x800) {
+                buffer[position++] = (byte) (0xc0 | c >> 6);
+                buffer[position++] = (byte) (0x80 | c & 0x3f);
+            } else if (Character.isHighSurrogate(c) && i + 1 < count
+                    && Character.isLowSurrogate(chars[i + 1])) {
+                int codePoint = Character.toCodePoint(c, chars[++i]);
+                buffer[position++] = (byte) (0xf0 | codePoint >> 18);
+                buffer[position++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                buffer[position++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | codePoint & 0x3f);
+            } else if (Character.isSurrogate(c)) {
+                buffer[position++] = '?';
+            } else {
+                buffer[position++] = (byte) (0xe0 | c >> 12);
+                buffer[position++] = (byte) (0x80 | c >> 6 & 0x3f);
+                buffer[position++] = (byte) (0x80 | c & 0x3f);
+            }
+        }
+
+        return position;
     }
 }
@@ -0,0 +1,176 @@
+package com.shinkamon.userlogin.support;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs CPU-bound hashing work on a fixed number of threads, typically one per core, so that no
+ * matter how many requests arrive at once, hashing never competes with itself or with blocking
+ * database I/O for more CPU than there is. Work that can't be started right away waits in a queue
+ * of bounded depth; once that is full, new work is rejected immediately rather than queued, so
+ * callers learn of the overload at once instead of after a long wait.
+ */
+public final class HashingExecutor implements AutoCloseable {
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+    private final int queueDepth;
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Instantiates a new HashingExecutor.
+     * @param threads the number of threads that hash, typically the number of cores.
+     * @param queueDepth the maximum number of tasks waiting for a free thread.
+     */
+    public HashingExecutor(final int threads, final int queueDepth) {
+        this.threads = threads;
+        this.queueDepth = queueDepth;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueDepth), new HashingThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Instantiates a new HashingExecutor with one thread per core, and a queue depth of
+     * the given number of tasks per thread.
+     * @param tasksPerThread the maximum number of waiting tasks per thread.
+     * @return the new executor.
+     */
+    public static HashingExecutor perCore(final int tasksPerThread) {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new HashingExecutor(cores, cores * tasksPerThread);
+    }
+
+    /**
+     * Runs a task on one of the hashing threads and waits for its result.
+     * @param task the task to run.
+     * @param <T> the type of the result.
+     * @return the result of the task.
+     * @throws RejectedExecutionException if the queue is full, or the executor is closed.
+     * @throws InterruptedException if the calling thread is interrupted while waiting; the task is
+     * cancelled if it hasn't started yet.
+     */
+    public <T> T execute(final Supplier<T> task) throws InterruptedException {
+        long submitted = System.nanoTime();
+        FutureTask<T> future = new FutureTask<>(() -> {
+            recordWait(System.nanoTime() - submitted);
+            try {
+                return task.get();
+            } finally {
+                completed.increment();
+            }
+        });
+
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw e;
+        }
+
+        accepted.increment();
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Helper method to record how long a task waited in the queue.
+     * @param waitNanos the time spent waiting, in nanoseconds.
+     */
+    private void recordWait(final long waitNanos) {
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+
+    /**
+     * Returns a snapshot of the executor's queue and wait-time statistics.
+     * @return the current statistics of the executor.
+     */
+    public Stats getStats() {
+        return new Stats(threads, queueDepth, executor.getActiveCount(), executor.getQueue().size(),
+                accepted.sum(), rejected.sum(), completed.sum(), totalWaitNanos.sum(),
+                maxWaitNanos.get());
+    }
+
+    /**
+     * Stops accepting tasks; tasks that have already been accepted still run.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Queue and wait-time statistics of a {@link HashingExecutor}.
+     * @param threads the number of hashing threads.
+     * @param queueDepth the maximum number of waiting tasks.
+     * @param active the number of tasks currently running.
+     * @param queued the number of tasks currently waiting.
+     * @param accepted the total number of tasks accepted.
+     * @param rejected the total number of tasks rejected because the queue was full.
+     * @param completed the total number of tasks that have finished.
+     * @param totalWaitNanos the total time tasks have spent waiting in the queue.
+     * @param maxWaitNanos the longest time a single task has waited in the queue.
+     */
+    public record Stats(int threads, int queueDepth, int active, int queued, long accepted,
+                        long rejected, long completed, long totalWaitNanos, long maxWaitNanos) {
+        /**
+         * Returns the average time tasks have waited in the queue before running.
+         * @return the average wait time in nanoseconds, or 0 if no task has run.
+         */
+        public long averageWaitNanos() {
+            return completed == 0 ? 0 : totalWaitNanos / completed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d threads active, %d/%d queued, %d accepted, %d rejected, "
+                            + "%d completed, average wait %.3f ms, max wait %.3f ms",
+                    active, threads, queued, queueDepth, accepted, rejected, completed,
+                    averageWaitNanos() / 1e6, maxWaitNanos / 1e6);
+        }
+    }
+
+    /**
+     * Creates the daemon threads of the executor, so they don't keep the JVM running.
+     */
+    private static final class HashingThreadFactory implements ThreadFactory {
+        private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(runnable,
+                    "hashing-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.shinkamon.userlogin.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds that threads record into without locks, for timing the
+ * phases of logins and registrations.
+ * <p>
+ * Like an HDR histogram, its buckets are log-linear: every power of two is split into sixteen
+ * buckets of equal width, so a value is placed in a bucket that is at most a sixteenth of it
+ * wide, whether it is a few microseconds or a few seconds, and percentiles are accurate to
+ * about 6%. Values below sixteen nanoseconds are counted exactly, and values from 2^40
+ * nanoseconds, about eighteen minutes, are counted in the last bucket. Recording a value is a
+ * few additions on atomic counters; histograms are created by {@link Metrics}, and record nothing
+ * while metrics are turned off.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private final Metrics metrics;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Instantiates a new LatencyHistogram.
+     * @param metrics the metrics the histogram belongs to, which decide whether it records.
+     */
+    LatencyHistogram(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Records a latency, if metrics are turned on.
+     * @param nanos the latency in nanoseconds; negative values count as 0.
+     */
+    public void record(final long nanos) {
+        if (!metrics.isEnabled()) {
+            return;
+        }
+
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(getBucket(value));
+        sum.add(value);
+
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    /**
+     * Records the time since a timer was started.
+     * @param started the result of {@link Metrics#startTimer()} or {@link System#nanoTime()};
+     * nothing is recorded if metrics are turned off, or were when the timer was started.
+     */
+    public void recordSince(final long started) {
+        if (started != Metrics.NOT_TIMED && metrics.isEnabled()) {
+            record(System.nanoTime() - started);
+        }
+    }
+
+    /**
+     * Returns a copy of the counts of the histogram. Values recorded while the copy is being
+     * made may or may not be included.
+     * @return the current snapshot of the histogram.
+     */
+    public Snapshot getSnapshot() {
+        long[] copy = new long[BUCKETS];
+        long count = 0;
+
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+
+        return new Snapshot(count, sum.sum(), max.get(), copy);
+    }
+
+    /**
+     * Helper method to find the bucket of a value.
+     * @param value the value, at least 0.
+     * @return the index of the bucket.
+     */
+    private static int getBucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT - 1);
+        if (exponent == MAX_EXPONENT - 1 && value >>> MAX_EXPONENT != 0) {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) (value >>> exponent - SUB_BUCKET_BITS) - SUB_BUCKETS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Helper method to find the highest value that falls in a bucket.
+     * @param bucket the index of the bucket.
+     * @return the highest value of the bucket; the last bucket has no upper bound.
+     */
+    private static long getHighestValue(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        if (bucket == BUCKETS - 1) {
+            return Long.MAX_VALUE;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long width = 1L << exponent - SUB_BUCKET_BITS;
+        return (SUB_BUCKETS + bucket % SUB_BUCKETS) * width + width - 1;
+    }
+
+    /**
+     * The counts of a {@link LatencyHistogram} at one point in time.
+     * @param count the number of values recorded.
+     * @param sum the sum of the values recorded, in nanoseconds.
+     * @param max the largest value recorded, in nanoseconds.
+     * @param counts the number of values in every bucket.
+     */
+    public record Snapshot(long count, long sum, long max, long[] counts) {
+        /**
+         * Returns the value below which a percentage of the recorded values fall, rounded up to
+         * the end of its bucket but never above the largest value recorded.
+         * @param percentile the percentage, between 0 and 100.
+         * @return the value at the percentile in nanoseconds, or 0 if nothing has been recorded.
+         */
+        public long getValueAtPercentile(final double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(getHighestValue(i), max);
+                }
+            }
+
+            return max;
+        }
+
+        /**
+         * Returns the values recorded between an earlier snapshot of the same histogram and this
+         * one, e.g. to report the latencies of every interval of a run. The largest of those
+         * values isn't known, so the largest value of this snapshot stands in for it.
+         * @param earlier the earlier snapshot.
+         * @return the snapshot of the values recorded in between.
+         */
+        public Snapshot since(final Snapshot earlier) {
+            long[] difference = new long[counts.length];
+
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = counts[i] - earlier.counts[i];
+            }
+
+            return new Snapshot(count - earlier.count, sum - earlier.sum, max, difference);
+        }
+
+        /**
+         * Returns the average of the recorded values.
+         * @return the mean in nanoseconds, or 0 if nothing has been recorded.
+         */
+        public double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d values, mean %.0f ns, p50 %d ns, p99 %d ns, max %d ns",
+                    count, getMean(), getValueAtPercentile(50), getValueAtPercentile(99), max);
+        }
+    }
+}
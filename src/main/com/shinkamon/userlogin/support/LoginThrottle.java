@@ -0,0 +1,450 @@
+package com.shinkamon.userlogin.support;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits login attempts before any password is hashed or any credentials are looked up, so that
+ * a burst of guesses is turned away for the cost of a few memory accesses each.
+ * <p>
+ * Every attempt takes a token from the bucket of its username and from the bucket of its source,
+ * e.g. the address of the client; buckets refill at a steady rate up to a burst size. On top of
+ * that, a username is locked out after a number of failed attempts in a row, for a time that
+ * doubles with every further failure up to a maximum; a successful login ends it. Failures are
+ * forgotten once a username has seen no attempts for that maximum time.
+ * <p>
+ * The buckets of usernames and of sources are each kept in a table of a fixed number of slots,
+ * so memory stays bounded however many usernames and sources are seen. A key lives in one of a
+ * few slots next to its hash; every slot holds an immutable entry that is replaced with
+ * compare-and-set, so there are no locks, and threads only contend when they hit the same key.
+ * An idle entry, with a full bucket and nothing to remember, is the same as no entry and is
+ * simply overwritten; if none of the slots of a key is free, the least recently used entry is
+ * evicted.
+ */
+public final class LoginThrottle {
+    // the number of slots a key can live in, starting at the one its hash points to
+    private static final int PROBES = 8;
+    private final Config config;
+    private final Table usernames;
+    private final Table sources;
+    private final long lockoutBaseNanos;
+    private final long lockoutMaxNanos;
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+    private final LongAdder locked = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongSupplier clock;
+
+    /**
+     * Instantiates a new LoginThrottle.
+     * @param config the limits of the throttle.
+     */
+    public LoginThrottle(final Config config) {
+        this(config, System::nanoTime);
+    }
+
+    /**
+     * Instantiates a new LoginThrottle on a given clock, e.g. to test refills and lockouts.
+     * @param config the limits of the throttle.
+     * @param clock the current time in nanoseconds, like {@link System#nanoTime()}.
+     */
+    LoginThrottle(final Config config, final LongSupplier clock) {
+        if (config.usernameBurst() < 1 || config.sourceBurst() < 1
+                || config.usernamePerSecond() < 0 || config.sourcePerSecond() < 0) {
+            throw new IllegalArgumentException("Invalid throttle limits: " + config);
+        }
+
+        this.config = config;
+        this.usernames = new Table(config.capacity(), config.usernameBurst(),
+                config.usernamePerSecond());
+        this.sources = new Table(config.capacity(), config.sourceBurst(),
+                config.sourcePerSecond());
+        this.lockoutBaseNanos = config.lockoutBaseMillis() * 1_000_000;
+        this.lockoutMaxNanos = config.lockoutMaxMillis() * 1_000_000;
+        this.clock = clock;
+    }
+
+    /**
+     * Decides whether a login attempt may go ahead, and if so takes its tokens.
+     * @param username the username of the attempt.
+     * @param source where the attempt comes from, e.g. the address of the client.
+     * @return whether the attempt is allowed, throttled or locked out.
+     */
+    public Decision tryAcquire(final String username, final String source) {
+        long now = clock.getAsLong();
+
+        // checked first, so that attempts on a locked username don't use up its source's tokens
+        if (usernames.isLocked(username, now)) {
+            locked.increment();
+            return Decision.LOCKED;
+        }
+
+        if (!sources.tryTake(source, now)) {
+            throttled.increment();
+            return Decision.THROTTLED;
+        }
+
+        if (!usernames.tryTake(username, now)) {
+            throttled.increment();
+            return Decision.THROTTLED;
+        }
+
+        allowed.increment();
+        return Decision.ALLOWED;
+    }
+
+    /**
+     * Records a failed login attempt of a username, locking it out once it has failed the
+     * configured number of times in a row.
+     * @param username the username of the attempt.
+     */
+    public void recordFailure(final String username) {
+        usernames.recordFailure(username, clock.getAsLong());
+    }
+
+    /**
+     * Records a successful login of a username, which ends any lockout and forgets its failures.
+     * @param username the username of the attempt.
+     */
+    public void recordSuccess(final String username) {
+        usernames.recordSuccess(username, clock.getAsLong());
+    }
+
+    /**
+     * Returns the limits of the throttle.
+     * @return the configuration of the throttle.
+     */
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the number of attempts allowed and turned away, and how the tables are coping.
+     * @return the current statistics of the throttle.
+     */
+    public Stats getStats() {
+        return new Stats(allowed.sum(), throttled.sum(), locked.sum(), evictions.sum(),
+                retries.sum());
+    }
+
+    /**
+     * Helper method to spread the bits of a hash code, so that keys with similar hash codes
+     * don't crowd the same slots.
+     * @param hashCode the hash code of a key.
+     * @return the spread hash.
+     */
+    private static int spread(final int hashCode) {
+        int h = hashCode * 0x9e3779b9;
+        return h ^ h >>> 16;
+    }
+
+    /**
+     * The outcome of {@link #tryAcquire}.
+     */
+    public enum Decision {
+        /**
+         * The attempt may go ahead.
+         */
+        ALLOWED,
+        /**
+         * The username or the source has made too many attempts recently.
+         */
+        THROTTLED,
+        /**
+         * The username is locked out after too many failed attempts.
+         */
+        LOCKED
+    }
+
+    /**
+     * The state of a key: its bucket, and for usernames the failures and lockout. Entries are
+     * never modified; a changed state is a new entry.
+     * @param key the username or source.
+     * @param hash the spread hash of the key.
+     * @param tokens the tokens in the bucket at the time of the entry.
+     * @param updatedNanos the time of the entry, from the clock of the throttle.
+     * @param failures the number of failed attempts in a row.
+     * @param lockedUntilNanos the time the lockout ends, if failures has reached the threshold.
+     */
+    private record Entry(String key, int hash, double tokens, long updatedNanos, int failures,
+                         long lockedUntilNanos) {
+        /**
+         * Checks whether the key of the entry is locked out.
+         * @param now the current time, from the clock of the throttle.
+         * @return whether the lockout of the entry is still running as a boolean.
+         */
+        private boolean isLockedAt(final long now) {
+            return lockedUntilNanos != 0 && lockedUntilNanos - now > 0;
+        }
+    }
+
+    /**
+     * A fixed-size table of entries, keyed by username or by source.
+     */
+    private final class Table {
+        private final AtomicReferenceArray<Entry> slots;
+        private final int mask;
+        private final double burst;
+        private final double tokensPerNano;
+
+        /**
+         * Instantiates a new Table.
+         * @param capacity the number of slots, rounded up to a power of two.
+         * @param burst the size of the bucket of every key.
+         * @param perSecond the rate at which buckets refill, in tokens per second.
+         */
+        private Table(final int capacity, final int burst, final double perSecond) {
+            int size = Integer.highestOneBit(Math.max(capacity, PROBES) - 1) << 1;
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+            this.burst = burst;
+            this.tokensPerNano = perSecond / 1e9;
+        }
+
+        /**
+         * Checks whether a key is locked out, without taking a token.
+         * @param key the key to check.
+         * @param now the current time, from the clock of the throttle.
+         * @return whether the key is locked out as a boolean.
+         */
+        private boolean isLocked(final String key, final long now) {
+            int hash = spread(key.hashCode());
+            Entry entry = slots.get(find(key, hash, now));
+            return entry != null && entry.hash() == hash && entry.key().equals(key)
+                    && entry.isLockedAt(now);
+        }
+
+        /**
+         * Takes a token from the bucket of a key.
+         * @param key the key to take a token for.
+         * @param now the current time, from the clock of the throttle.
+         * @return true if a token was taken, or false if the bucket is empty.
+         */
+        private boolean tryTake(final String key, final long now) {
+            int hash = spread(key.hashCode());
+
+            while (true) {
+                int slot = find(key, hash, now);
+                Entry current = slots.get(slot);
+                Entry entry = refill(owned(current, key, hash, now), now);
+
+                if (entry.tokens() < 1) {
+                    return false;
+                }
+
+                if (replace(slot, current, new Entry(key, hash, entry.tokens() - 1, now,
+                        entry.failures(), entry.lockedUntilNanos()), key, now)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Counts a failed attempt of a key, and locks it out if it has failed too often.
+         * @param key the key that failed.
+         * @param now the current time, from the clock of the throttle.
+         */
+        private void recordFailure(final String key, final long now) {
+            int hash = spread(key.hashCode());
+
+            while (true) {
+                int slot = find(key, hash, now);
+                Entry current = slots.get(slot);
+                Entry entry = refill(owned(current, key, hash, now), now);
+                int failures = entry.failures() + 1;
+                long lockedUntil = entry.lockedUntilNanos();
+
+                if (failures >= config.lockoutThreshold()) {
+                    int doublings = Math.min(failures - config.lockoutThreshold(), Long.SIZE - 2);
+                    // compared before shifting, since a shift past the maximum can overflow
+                    lockedUntil = now + (lockoutBaseNanos > lockoutMaxNanos >> doublings
+                            ? lockoutMaxNanos : lockoutBaseNanos << doublings);
+                }
+
+                if (replace(slot, current, new Entry(key, hash, entry.tokens(), now, failures,
+                        lockedUntil), key, now)) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Forgets the failures of a key, ending any lockout.
+         * @param key the key that succeeded.
+         * @param now the current time, from the clock of the throttle.
+         */
+        private void recordSuccess(final String key, final long now) {
+            int hash = spread(key.hashCode());
+
+            while (true) {
+                int slot = find(key, hash, now);
+                Entry current = slots.get(slot);
+                if (current == null || current.hash() != hash || !current.key().equals(key)
+                        || current.failures() == 0) {
+                    return;
+                }
+
+                Entry entry = refill(current, now);
+                if (slots.compareAndSet(slot, current,
+                        new Entry(key, hash, entry.tokens(), now, 0, 0))) {
+                    return;
+                }
+                retries.increment();
+            }
+        }
+
+        /**
+         * Helper method to find the slot of a key: the slot holding it if there is one, else
+         * the first free or idle slot, else the least recently used one.
+         * @param key the key to find.
+         * @param hash the spread hash of the key.
+         * @param now the current time, from the clock of the throttle.
+         * @return the index of the slot.
+         */
+        private int find(final String key, final int hash, final long now) {
+            int free = -1;
+            int oldest = -1;
+            long oldestNanos = 0;
+
+            for (int probe = 0; probe < PROBES; probe++) {
+                int slot = hash + probe & mask;
+                Entry entry = slots.get(slot);
+
+                if (entry != null && entry.hash() == hash && entry.key().equals(key)) {
+                    return slot;
+                } else if (entry == null || isIdle(entry, now)) {
+                    if (free < 0) {
+                        free = slot;
+                    }
+                } else if (oldest < 0 || entry.updatedNanos() - oldestNanos < 0) {
+                    oldest = slot;
+                    oldestNanos = entry.updatedNanos();
+                }
+            }
+
+            return free >= 0 ? free : oldest;
+        }
+
+        /**
+         * Helper method to replace the entry in a slot, counting the eviction if another key's
+         * entry that wasn't idle was replaced.
+         * @param slot the index of the slot.
+         * @param current the entry that was read from the slot, or null.
+         * @param entry the new entry.
+         * @param key the key of the new entry.
+         * @param now the current time, from the clock of the throttle.
+         * @return true if the slot was replaced, or false if it changed in the meantime.
+         */
+        private boolean replace(final int slot, final Entry current, final Entry entry,
+                                final String key, final long now) {
+            if (!slots.compareAndSet(slot, current, entry)) {
+                retries.increment();
+                return false;
+            }
+
+            if (current != null && !current.key().equals(key) && !isIdle(current, now)) {
+                evictions.increment();
+            }
+
+            return true;
+        }
+
+        /**
+         * Helper method to get the state of a key from the entry in its slot.
+         * @param entry the entry in the slot of the key, or null.
+         * @param key the key.
+         * @param hash the spread hash of the key.
+         * @param now the current time, from the clock of the throttle.
+         * @return the entry if it belongs to the key, or else a new entry with a full bucket.
+         */
+        private Entry owned(final Entry entry, final String key, final int hash,
+                            final long now) {
+            if (entry != null && entry.hash() == hash && entry.key().equals(key)) {
+                return entry;
+            }
+
+            return new Entry(key, hash, burst, now, 0, 0);
+        }
+
+        /**
+         * Helper method to refill the bucket of an entry for the time since it was updated, and
+         * to forget failures that are older than the longest lockout.
+         * @param entry the entry to refill.
+         * @param now the current time, from the clock of the throttle.
+         * @return the refilled entry.
+         */
+        private Entry refill(final Entry entry, final long now) {
+            long elapsed = Math.max(now - entry.updatedNanos(), 0);
+            double tokens = Math.min(burst, entry.tokens() + elapsed * tokensPerNano);
+            boolean forgotten = entry.failures() > 0 && !entry.isLockedAt(now)
+                    && elapsed >= lockoutMaxNanos;
+
+            return new Entry(entry.key(), entry.hash(), tokens, entry.updatedNanos(),
+                    forgotten ? 0 : entry.failures(), forgotten ? 0 : entry.lockedUntilNanos());
+        }
+
+        /**
+         * Helper method to check whether an entry is the same as no entry: its bucket has
+         * refilled, and it has no failures to remember.
+         * @param entry the entry to check.
+         * @param now the current time, from the clock of the throttle.
+         * @return whether the entry is idle as a boolean.
+         */
+        private boolean isIdle(final Entry entry, final long now) {
+            long elapsed = Math.max(now - entry.updatedNanos(), 0);
+            return entry.tokens() + elapsed * tokensPerNano >= burst
+                    && (entry.failures() == 0
+                    || !entry.isLockedAt(now) && elapsed >= lockoutMaxNanos);
+        }
+    }
+
+    /**
+     * The limits of a {@link LoginThrottle}.
+     * @param capacity the number of usernames, and of sources, that are tracked at most.
+     * @param usernameBurst the number of attempts a username can make at once.
+     * @param usernamePerSecond the rate at which a username regains attempts, per second.
+     * @param sourceBurst the number of attempts a source can make at once.
+     * @param sourcePerSecond the rate at which a source regains attempts, per second.
+     * @param lockoutThreshold the number of failures in a row that lock a username out.
+     * @param lockoutBaseMillis how long the first lockout lasts, in milliseconds.
+     * @param lockoutMaxMillis the longest a lockout lasts, in milliseconds.
+     */
+    public record Config(int capacity, int usernameBurst, double usernamePerSecond,
+                         int sourceBurst, double sourcePerSecond, int lockoutThreshold,
+                         long lockoutBaseMillis, long lockoutMaxMillis) {
+        /**
+         * Reads the throttle configuration from settings, e.g. resources/login-info.json.
+         * @param loginInfo the login settings.
+         * @return the throttle configuration.
+         */
+        public static Config fromSettings(final Settings loginInfo) {
+            return new Config(loginInfo.getInt("throttleCapacity", 65_536),
+                    loginInfo.getInt("throttleUsernameBurst", 10),
+                    loginInfo.getDouble("throttleUsernamePerSecond", 0.2),
+                    loginInfo.getInt("throttleSourceBurst", 100),
+                    loginInfo.getDouble("throttleSourcePerSecond", 10),
+                    loginInfo.getInt("lockoutThreshold", 5),
+                    loginInfo.getLong("lockoutBaseMillis", 1000),
+                    loginInfo.getLong("lockoutMaxMillis", 900_000));
+        }
+    }
+
+    /**
+     * Statistics of a {@link LoginThrottle}.
+     * @param allowed the number of attempts allowed.
+     * @param throttled the number of attempts turned away for lack of tokens.
+     * @param locked the number of attempts turned away because the username was locked out.
+     * @param evictions the number of entries dropped from a full table before they were idle.
+     * @param retries the number of compare-and-set operations that lost a race and were
+     * retried; a measure of contention.
+     */
+    public record Stats(long allowed, long throttled, long locked, long evictions, long retries) {
+        @Override
+        public String toString() {
+            return String.format("%d allowed, %d throttled, %d locked, %d evictions, %d retries",
+                    allowed, throttled, locked, evictions, retries);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.shinkamon.userlogin.support;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe, size-bounded cache that evicts the least recently used entries, and expires
+ * entries a fixed time after they were added. The cache is split into segments that are locked
+ * independently, so concurrent lookups of different keys rarely wait on each other; eviction is
+ * least-recently-used within each segment.
+ * @param <K> the type of the keys.
+ * @param <V> the type of the values.
+ */
+public final class LruCache<K, V> {
+    private static final int MAX_SEGMENTS = 16;
+    private final Segment<K, V>[] segments;
+    private final int capacity;
+    private final long ttlNanos;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * Instantiates a new LruCache.
+     * @param capacity the maximum number of entries; 0 disables the cache.
+     * @param ttlMillis how long an entry stays valid after being added, in milliseconds.
+     */
+    @SuppressWarnings("unchecked")
+    public LruCache(final int capacity, final long ttlMillis) {
+        this.capacity = Math.max(capacity, 0);
+        this.ttlNanos = ttlMillis * 1_000_000;
+
+        // a power of two, so a segment can be picked by masking the hash
+        int segmentCount = 1;
+        while (segmentCount < MAX_SEGMENTS && segmentCount * 2 <= this.capacity) {
+            segmentCount *= 2;
+        }
+
+        segments = (Segment<K, V>[]) new Segment<?, ?>[segmentCount];
+        int segmentCapacity = (this.capacity + segmentCount - 1) / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment<>(segmentCapacity, evictions);
+        }
+    }
+
+    /**
+     * Returns the cached value for a key, if it is present and hasn't expired.
+     * @param key the key to look up.
+     * @return the cached value, or null if there is none.
+     */
+    public V get(final K key) {
+        if (capacity == 0) {
+            misses.increment();
+            return null;
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry;
+
+        synchronized (segment) {
+            entry = segment.get(key);
+
+            if (entry != null && System.nanoTime() - entry.addedNanos() > ttlNanos) {
+                segment.remove(key);
+                expirations.increment();
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        hits.increment();
+        return entry.value();
+    }
+
+    /**
+     * Adds a value to the cache, replacing any previous value for the key. If the cache is full,
+     * the least recently used entry is evicted.
+     * @param key the key of the value.
+     * @param value the value to cache.
+     */
+    public void put(final K key, final V value) {
+        if (capacity == 0) {
+            return;
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+        Entry<V> entry = new Entry<>(value, System.nanoTime());
+
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    /**
+     * Removes the value for a key from the cache, if present.
+     * @param key the key of the value to remove.
+     */
+    public void invalidate(final K key) {
+        if (capacity == 0) {
+            return;
+        }
+
+        Segment<K, V> segment = segmentFor(key);
+
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    /**
+     * Removes all values from the cache.
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of entries in the cache, including any that have expired but haven't
+     * been removed yet.
+     * @return the number of entries.
+     */
+    public int size() {
+        int size = 0;
+
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+
+        return size;
+    }
+
+    /**
+     * Returns a snapshot of the cache's hit, miss and eviction counters.
+     * @return the current statistics of the cache.
+     */
+    public Stats getStats() {
+        return new Stats(capacity, size(), hits.sum(), misses.sum(), evictions.sum(),
+                expirations.sum());
+    }
+
+    /**
+     * Helper method to pick the segment a key belongs to.
+     * @param key the key.
+     * @return the segment of the key.
+     */
+    private Segment<K, V> segmentFor(final K key) {
+        int hash = key.hashCode();
+        // spread the high bits, since the low bits alone pick the segment
+        hash ^= hash >>> 16;
+        return segments[hash & (segments.length - 1)];
+    }
+
+    /**
+     * Hit, miss and eviction statistics of an {@link LruCache}.
+     * @param capacity the maximum number of entries.
+     * @param size the current number of entries.
+     * @param hits the number of lookups that found a value.
+     * @param misses the number of lookups that found no value.
+     * @param evictions the number of entries evicted to make room for new ones.
+     * @param expirations the number of entries removed because they had expired.
+     */
+    public record Stats(int capacity, int size, long hits, long misses, long evictions,
+                        long expirations) {
+        /**
+         * Returns the fraction of lookups that found a value.
+         * @return the hit ratio between 0 and 1, or 0 if there have been no lookups.
+         */
+        public double hitRatio() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d/%d entries, %d hits, %d misses (%.1f%% hits), "
+                            + "%d evictions, %d expirations",
+                    size, capacity, hits, misses, hitRatio() * 100, evictions, expirations);
+        }
+    }
+
+    /**
+     * A cached value and the time it was added.
+     * @param value the cached value.
+     * @param addedNanos the value of {@link System#nanoTime()} when the value was added.
+     * @param <V> the type of the value.
+     */
+    private record Entry<V>(V value, long addedNanos) {
+    }
+
+    /**
+     * An independently locked part of the cache, in least recently used order.
+     * @param <K> the type of the keys.
+     * @param <V> the type of the values.
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private final int capacity;
+        private final LongAdder evictions;
+
+        private Segment(final int capacity, final LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<K, Entry<V>> eldest) {
+            if (size() <= capacity) {
+                return false;
+            }
+
+            evictions.increment();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.shinkamon.userlogin.support;
+
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * The latency histograms and counters of the hot paths, e.g. the phases of a login, and their
+ * export as text in the Prometheus format and as attributes of an MBean.
+ * <p>
+ * Metrics are grouped in families that share a name and help text, and are told apart by their
+ * labels, e.g. the phase of a login. They are created once, typically in static fields, and
+ * recording into them takes no locks. While metrics are turned off, {@link #startTimer()} doesn't
+ * read the clock and nothing is recorded, so all that is left on the hot paths is reading a
+ * volatile flag.
+ */
+public final class Metrics {
+    /**
+     * The metrics of the application, which are exported by the server.
+     */
+    public static final Metrics INSTANCE = new Metrics();
+    /**
+     * The value {@link #startTimer()} returns while metrics are turned off.
+     */
+    public static final long NOT_TIMED = Long.MIN_VALUE;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+    private volatile boolean enabled = true;
+
+    /**
+     * Instantiates a new Metrics, with recording turned on; the application uses
+     * {@link #INSTANCE}.
+     */
+    public Metrics() {
+    }
+
+    /**
+     * Turns recording on or off; metrics recorded so far are kept either way.
+     * @param enabled whether metrics are recorded.
+     */
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Returns whether metrics are recorded.
+     * @return whether metrics are turned on as a boolean.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing something, to be recorded with {@link LatencyHistogram#recordSince(long)}.
+     * @return the current time from {@link System#nanoTime()}, or {@link #NOT_TIMED} if metrics
+     * are turned off.
+     */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : NOT_TIMED;
+    }
+
+    /**
+     * Returns the histogram of a family of latencies with the given labels, creating it if needed.
+     * @param name the name of the family, e.g. userlogin_login_phase_seconds.
+     * @param help a description of the family.
+     * @param labels the names and values of the labels, alternately.
+     * @return the histogram.
+     * @throws IllegalArgumentException if the family is a family of counters.
+     */
+    public LatencyHistogram histogram(final String name, final String help,
+                                      final String... labels) {
+        return (LatencyHistogram) getFamily(name, help, Type.SUMMARY)
+                .metrics.computeIfAbsent(formatLabels(labels), key -> new LatencyHistogram(this));
+    }
+
+    /**
+     * Returns the counter of a family of counters with the given labels, creating it if needed.
+     * @param name the name of the family, e.g. userlogin_logins_total.
+     * @param help a description of the family.
+     * @param labels the names and values of the labels, alternately.
+     * @return the counter.
+     * @throws IllegalArgumentException if the family is a family of histograms.
+     */
+    public Counter counter(final String name, final String help, final String... labels) {
+        return (Counter) getFamily(name, help, Type.COUNTER)
+                .metrics.computeIfAbsent(formatLabels(labels), key -> new Counter(this));
+    }
+
+    /**
+     * Helper method to get a family of metrics, creating it if needed.
+     * @param name the name of the family.
+     * @param help a description of the family.
+     * @param type whether the family holds histograms or counters.
+     * @return the family.
+     * @throws IllegalArgumentException if the family holds metrics of the other type.
+     */
+    private Family getFamily(final String name, final String help, final Type type) {
+        Family family = families.computeIfAbsent(name, key -> new Family(help, type));
+
+        if (family.type != type) {
+            throw new IllegalArgumentException("Metric " + name + " is a "
+                    + family.type.name().toLowerCase(Locale.ROOT) + ".");
+        }
+
+        return family;
+    }
+
+    /**
+     * Helper method to format labels the way they are written in the Prometheus format, which is
+     * also how the metrics of a family are told apart.
+     * @param labels the names and values of the labels, alternately.
+     * @return the labels, e.g. phase="hash",result="AUTHENTICATED", or "" if there are none.
+     * @throws IllegalArgumentException if a label has no value.
+     */
+    private static String formatLabels(final String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Every label needs a name and a value.");
+        }
+
+        StringBuilder formatted = new StringBuilder();
+
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                formatted.append(',');
+            }
+
+            formatted.append(labels[i]).append("=\"");
+            for (char c : labels[i + 1].toCharArray()) {
+                switch (c) {
+                    case '\\' -> formatted.append("\\\\");
+                    case '"' -> formatted.append("\\\"");
+                    case '\n' -> formatted.append("\\n");
+                    default -> formatted.append(c);
+                }
+            }
+            formatted.append('"');
+        }
+
+        return formatted.toString();
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format, version 0.0.4, sorted by name and labels.
+     * Counters are written as counters, and histograms as summaries of their 50th, 90th, 99th and
+     * 99.9th percentiles, their sum and their count, in seconds.
+     * @return the metrics as text.
+     */
+    public String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+
+        for (Map.Entry<String, Family> entry : new TreeMap<>(families).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+
+            text.append("# HELP ").append(name).append(' ')
+                    .append(family.help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+            text.append("# TYPE ").append(name).append(' ')
+                    .append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+
+            for (Map.Entry<String, Object> metric : new TreeMap<>(family.metrics).entrySet()) {
+                String labels = metric.getKey();
+
+                if (metric.getValue() instanceof Counter counter) {
+                    appendSample(text, name, labels, counter.get());
+                    continue;
+                }
+
+                LatencyHistogram.Snapshot snapshot =
+                        ((LatencyHistogram) metric.getValue()).getSnapshot();
+                for (double quantile : QUANTILES) {
+                    String quantileLabel = "quantile=\"" + quantile + "\"";
+                    appendSample(text, name, labels.isEmpty() ? quantileLabel
+                                    : labels + "," + quantileLabel,
+                            snapshot.getValueAtPercentile(quantile * 100) / NANOS_PER_SECOND);
+                }
+                appendSample(text, name + "_sum", labels, snapshot.sum() / NANOS_PER_SECOND);
+                appendSample(text, name + "_count", labels, snapshot.count());
+            }
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Helper method to write a line of the Prometheus text format.
+     * @param text the text to append the line to.
+     * @param name the name of the sample.
+     * @param labels the formatted labels of the sample, or "" if there are none.
+     * @param value the value of the sample.
+     */
+    private static void appendSample(final StringBuilder text, final String name,
+                                     final String labels, final Object value) {
+        text.append(name);
+        if (!labels.isEmpty()) {
+            text.append('{').append(labels).append('}');
+        }
+        text.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Registers the metrics as a read-only MBean with the platform MBean server, named
+     * com.shinkamon.userlogin:type=Metrics, so they can be watched with e.g. JConsole. Every
+     * counter is an attribute, and every histogram has attributes for its count, mean, 50th, 99th
+     * and 99.9th percentiles and maximum, in milliseconds.
+     * @return the name the MBean was registered under.
+     * @throws JMException if the MBean couldn't be registered, e.g. because it already is.
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName("com.shinkamon.userlogin:type=Metrics");
+        ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name);
+        return name;
+    }
+
+    /**
+     * Helper method to read the current value of every metric as an MBean attribute.
+     * @return the attribute values by attribute name, sorted by name.
+     */
+    private Map<String, Object> readAttributes() {
+        Map<String, Object> attributes = new TreeMap<>();
+
+        families.forEach((name, family) -> family.metrics.forEach((labels, metric) -> {
+            String attribute = labels.isEmpty() ? name : name + "{" + labels + "}";
+
+            if (metric instanceof Counter counter) {
+                attributes.put(attribute, counter.get());
+                return;
+            }
+
+            LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).getSnapshot();
+            attributes.put(attribute + ".count", snapshot.count());
+            attributes.put(attribute + ".meanMillis", snapshot.getMean() / NANOS_PER_MILLI);
+            attributes.put(attribute + ".p50Millis",
+                    snapshot.getValueAtPercentile(50) / NANOS_PER_MILLI);
+            attributes.put(attribute + ".p99Millis",
+                    snapshot.getValueAtPercentile(99) / NANOS_PER_MILLI);
+            attributes.put(attribute + ".p999Millis",
+                    snapshot.getValueAtPercentile(99.9) / NANOS_PER_MILLI);
+            attributes.put(attribute + ".maxMillis", snapshot.max() / NANOS_PER_MILLI);
+        }));
+
+        return attributes;
+    }
+
+    /**
+     * A count of events, e.g. of logins with a given result, that threads add to without locks.
+     */
+    public static final class Counter {
+        private final Metrics metrics;
+        private final LongAdder count = new LongAdder();
+
+        /**
+         * Instantiates a new Counter.
+         * @param metrics the metrics the counter belongs to, which decide whether it counts.
+         */
+        private Counter(final Metrics metrics) {
+            this.metrics = metrics;
+        }
+
+        /**
+         * Adds one to the counter, if metrics are turned on.
+         */
+        public void increment() {
+            if (metrics.isEnabled()) {
+                count.increment();
+            }
+        }
+
+        /**
+         * Returns the number of events counted.
+         * @return the current count.
+         */
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Whether a family holds histograms, which are exported as summaries, or counters.
+     */
+    private enum Type {
+        SUMMARY,
+        COUNTER
+    }
+
+    /**
+     * The metrics that share a name, by their formatted labels.
+     */
+    private static final class Family {
+        private final String help;
+        private final Type type;
+        private final Map<String, Object> metrics = new ConcurrentHashMap<>();
+
+        /**
+         * Instantiates a new Family.
+         * @param help a description of the family.
+         * @param type whether the family holds histograms or counters.
+         */
+        private Family(final String help, final Type type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    /**
+     * The read-only MBean that exposes the metrics as attributes.
+     */
+    private final class MetricsMBean implements DynamicMBean {
+        @Override
+        public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+            Object value = readAttributes().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Metrics are read-only.");
+        }
+
+        @Override
+        public AttributeList getAttributes(final String[] attributes) {
+            Map<String, Object> values = readAttributes();
+            AttributeList list = new AttributeList();
+
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(final AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(final String actionName, final Object[] params,
+                             final String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName),
+                    "Metrics have no operations.");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes = readAttributes().entrySet().stream()
+                    .map(entry -> new MBeanAttributeInfo(entry.getKey(),
+                            entry.getValue().getClass().getName(), entry.getKey(), true, false,
+                            false))
+                    .toArray(MBeanAttributeInfo[]::new);
+
+            return new MBeanInfo(Metrics.class.getName(), "Latencies and counts of logins and "
+                    + "registrations.", attributes, null, new MBeanOperationInfo[0], null);
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.shinkamon.userlogin.support;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A list of passwords known from public data breaches, which new passwords are checked against.
+ * <p>
+ * The list is a file built offline by {@link PasswordBlocklistBuilder} from a list of SHA-1
+ * hashes of passwords, such as the one published by Have I Been Pwned. It holds the first eight
+ * bytes of every hash, sorted and without duplicates, so hundreds of millions of passwords take a
+ * few gigabytes; at that size the chance that a password which isn't on the list matches one that
+ * is stays below one in ten billion. In front of the hashes is a jump table with the position of
+ * the first hash of every prefix of up to 20 bits, chosen so that about a hundred hashes share a
+ * prefix.
+ * <p>
+ * The file is memory-mapped rather than read onto the heap, so only the pages that lookups touch
+ * are loaded, and they are shared with every other process that maps the file. A lookup hashes
+ * the password, reads two entries of the jump table and binary-searches the hashes between them,
+ * which usually lie on one or two pages.
+ */
+public final class PasswordBlocklist implements AutoCloseable {
+    static final int MAGIC = 0x5050424C;
+    static final int VERSION = 1;
+    // magic number, version, prefix bits, padding and the number of hashes
+    static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+    static final int MAX_PREFIX_BITS = 20;
+    // the number of hashes in a segment, so that a segment can be mapped in one buffer
+    private static final int SEGMENT_BITS = 27;
+    private final Path path;
+    private final FileChannel channel;
+    private final int prefixBits;
+    private final long size;
+    private final LongBuffer jumpTable;
+    private final LongBuffer[] segments;
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+
+    /**
+     * Helper constructor to instantiate a new PasswordBlocklist from a mapped file.
+     * @param path the path of the file.
+     * @param channel the channel the file is mapped through.
+     * @param prefixBits the number of bits of the prefixes in the jump table.
+     * @param size the number of hashes in the file.
+     * @param jumpTable the jump table.
+     * @param segments the hashes, in segments of up to 2^27 hashes.
+     */
+    private PasswordBlocklist(final Path path, final FileChannel channel, final int prefixBits,
+                              final long size, final LongBuffer jumpTable,
+                              final LongBuffer[] segments) {
+        this.path = path;
+        this.channel = channel;
+        this.prefixBits = prefixBits;
+        this.size = size;
+        this.jumpTable = jumpTable;
+        this.segments = segments;
+    }
+
+    /**
+     * Opens a blocklist file built by {@link PasswordBlocklistBuilder}, and maps it into memory.
+     * @param path the path of the file.
+     * @return the blocklist.
+     * @throws IOException if the file can't be read, or isn't a valid blocklist.
+     */
+    public static PasswordBlocklist open(final Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(header, 0);
+            header.flip();
+
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC
+                    || header.getInt() != VERSION) {
+                throw new IOException("Not a password blocklist: " + path);
+            }
+
+            int prefixBits = header.getInt();
+            header.getInt();
+            long size = header.getLong();
+            long tableSize = getJumpTableSize(prefixBits);
+
+            if (prefixBits < 0 || prefixBits > MAX_PREFIX_BITS || size < 0
+                    || channel.size() != HEADER_SIZE + tableSize + size * Long.BYTES) {
+                throw new IOException("Truncated or corrupt password blocklist: " + path);
+            }
+
+            LongBuffer jumpTable = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    tableSize).asLongBuffer();
+            LongBuffer[] segments = new LongBuffer[(int) ((size >> SEGMENT_BITS) + 1)];
+
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i << SEGMENT_BITS;
+                long count = Math.min(size - first, 1L << SEGMENT_BITS);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + tableSize + first * Long.BYTES, count * Long.BYTES)
+                        .asLongBuffer();
+            }
+
+            return new PasswordBlocklist(path, channel, prefixBits, size, jumpTable, segments);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether a password is on the list. The password is not modified or retained.
+     * @param password the password to check.
+     * @return whether the password is on the list as a boolean.
+     */
+    public boolean contains(final char[] password) {
+        byte[] hash = sha1(password);
+        long key = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            key = key << 8 | hash[i] & 0xFF;
+        }
+
+        boolean found = containsHash(key);
+        lookups.increment();
+        if (found) {
+            matches.increment();
+        }
+
+        return found;
+    }
+
+    /**
+     * Checks whether the first eight bytes of a SHA-1 hash are on the list.
+     * @param key the first eight bytes of the hash, big-endian.
+     * @return whether the hash is on the list as a boolean.
+     */
+    boolean containsHash(final long key) {
+        int prefix = prefixBits == 0 ? 0 : (int) (key >>> Long.SIZE - prefixBits);
+        long low = jumpTable.get(prefix);
+        long high = jumpTable.get(prefix + 1) - 1;
+
+        while (low <= high) {
+            long middle = low + high >>> 1;
+            int comparison = Long.compareUnsigned(get(middle), key);
+
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the number of hashes on the list.
+     * @return the size of the list.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the statistics of the list, including how much of it is resident in memory.
+     * @return the current statistics of the list.
+     */
+    public Stats getStats() {
+        long fileBytes;
+
+        try {
+            fileBytes = channel.size();
+        } catch (IOException e) {
+            fileBytes = -1;
+        }
+
+        return new Stats(size, fileBytes, getResidentBytes(), lookups.sum(), matches.sum());
+    }
+
+    /**
+     * Closes the file. The mappings are released once they are no longer reachable.
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the size of the jump table for a number of prefix bits.
+     * @param prefixBits the number of bits of the prefixes.
+     * @return the size of the jump table in bytes.
+     */
+    static long getJumpTableSize(final int prefixBits) {
+        return ((1L << prefixBits) + 1) * Long.BYTES;
+    }
+
+    /**
+     * Helper method to read a hash.
+     * @param index the index of the hash.
+     * @return the hash.
+     */
+    private long get(final long index) {
+        return segments[(int) (index >>> SEGMENT_BITS)]
+                .get((int) (index & (1 << SEGMENT_BITS) - 1));
+    }
+
+    /**
+     * Helper method to hash a password with SHA-1, clearing its encoded bytes afterwards.
+     * @param password the password to hash.
+     * @return the SHA-1 hash of the password in UTF-8.
+     */
+    private static byte[] sha1(final char[] password) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(password));
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            digest.update(encoded.array(), encoded.arrayOffset(), encoded.limit());
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java runtime supports SHA-1
+            throw new IllegalStateException(e);
+        } finally {
+            Arrays.fill(encoded.array(), (byte) 0);
+        }
+    }
+
+    /**
+     * Helper method to find how much of the file is resident in memory, from the mappings of the
+     * process as reported by Linux.
+     * @return the resident size in bytes, or -1 if it can't be found, e.g. on other systems.
+     */
+    private long getResidentBytes() {
+        Path smaps = Path.of("/proc/self/smaps");
+        if (!Files.isReadable(smaps)) {
+            return -1;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(smaps, StandardCharsets.US_ASCII)) {
+            String file = path.toRealPath().toString();
+            boolean inFile = false;
+            long residentKilobytes = 0;
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                int dash = line.indexOf('-');
+                int space = line.indexOf(' ');
+
+                // a mapping starts with its address range, e.g. 7f0000000000-7f0000001000,
+                // followed by fields such as "Rss:    1234 kB"
+                if (dash > 0 && space > dash && line.charAt(space - 1) != ':') {
+                    inFile = line.endsWith(" " + file);
+                } else if (inFile && line.startsWith("Rss:")) {
+                    residentKilobytes += Long.parseLong(line.substring(4, line.length() - 3)
+                            .trim());
+                }
+            }
+
+            return residentKilobytes * 1024;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Statistics of a {@link PasswordBlocklist}.
+     * @param size the number of hashes on the list.
+     * @param fileBytes the size of the file, in bytes.
+     * @param residentBytes how much of the file is resident in memory, in bytes, or -1 if it
+     * can't be found.
+     * @param lookups the number of passwords checked.
+     * @param matches the number of passwords found on the list.
+     */
+    public record Stats(long size, long fileBytes, long residentBytes, long lookups,
+                        long matches) {
+        @Override
+        public String toString() {
+            return String.format("%d hashes, %.1f MiB, %.1f MiB resident", size,
+                    fileBytes / 1048576.0, residentBytes / 1048576.0);
+        }
+    }
+}
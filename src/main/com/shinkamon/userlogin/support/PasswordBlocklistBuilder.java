@@ -0,0 +1,318 @@
+package com.shinkamon.userlogin.support;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Builds a {@link PasswordBlocklist} file offline from a plain-text list of SHA-1 hashes of
+ * passwords, one per line in hexadecimal, optionally followed by a colon and a count as in the
+ * lists published by Have I Been Pwned. Lines that don't start with a hash are skipped.
+ * <p>
+ * Lists of hundreds of millions of hashes don't fit on the heap, so they are sorted externally:
+ * the first eight bytes of the hashes are read in chunks of a fixed number, every chunk is
+ * sorted and written to a temporary run file next to the output, and the runs are then merged
+ * into the output, dropping duplicates and filling in the jump table on the way. The output is
+ * written to a temporary file that replaces the previous list in one atomic rename.
+ */
+public final class PasswordBlocklistBuilder {
+    private static final int SHA1_HEX_LENGTH = 40;
+    private static final int BUFFER_SIZE = 1 << 16;
+    // roughly the number of hashes that share a prefix of the jump table
+    private static final int HASHES_PER_PREFIX_BITS = 7;
+    private final int chunkSize;
+
+    /**
+     * Instantiates a new PasswordBlocklistBuilder.
+     * @param chunkSize the number of hashes sorted in memory at a time; every hash takes eight
+     * bytes of heap.
+     */
+    public PasswordBlocklistBuilder(final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1.");
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Builds a blocklist file from a list of hashes, replacing any previous file at the output.
+     * @param input the plain-text list of SHA-1 hashes.
+     * @param output the path of the blocklist file.
+     * @return the number of hashes read, written and skipped.
+     * @throws IOException if an I/O error occurs.
+     */
+    public Result build(final Path input, final Path output) throws IOException {
+        Path directory = output.toAbsolutePath().getParent();
+        List<Path> runs = new ArrayList<>();
+        long read = 0;
+        long skipped = 0;
+
+        try {
+            long[] chunk = new long[chunkSize];
+            int filled = 0;
+
+            try (BufferedReader reader = Files.newBufferedReader(input,
+                    StandardCharsets.US_ASCII)) {
+                String line;
+
+                while ((line = reader.readLine()) != null) {
+                    if (!isHash(line)) {
+                        skipped++;
+                        continue;
+                    }
+
+                    // flipping the sign bit makes signed order the same as unsigned order
+                    chunk[filled++] = Long.parseUnsignedLong(line, 0, 16, 16) ^ Long.MIN_VALUE;
+                    read++;
+
+                    if (filled == chunk.length) {
+                        runs.add(writeRun(directory, chunk, filled));
+                        filled = 0;
+                    }
+                }
+            }
+
+            if (filled > 0 || runs.isEmpty()) {
+                runs.add(writeRun(directory, chunk, filled));
+            }
+
+            // lets the chunk be collected while the runs are merged
+            chunk = null;
+            long written = merge(runs, output, getPrefixBits(read));
+            return new Result(read, written, skipped);
+        } finally {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+        }
+    }
+
+    /**
+     * Helper method to check whether a line starts with a SHA-1 hash, followed by nothing or by
+     * a colon.
+     * @param line the line to check.
+     * @return whether the line holds a hash as a boolean.
+     */
+    private static boolean isHash(final String line) {
+        if (line.length() < SHA1_HEX_LENGTH
+                || line.length() > SHA1_HEX_LENGTH && line.charAt(SHA1_HEX_LENGTH) != ':') {
+            return false;
+        }
+
+        for (int i = 0; i < SHA1_HEX_LENGTH; i++) {
+            if (Character.digit(line.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Helper method to choose the number of bits of the prefixes in the jump table, so that
+     * about a hundred hashes share a prefix.
+     * @param hashes the number of hashes, before duplicates are dropped.
+     * @return the number of prefix bits.
+     */
+    private static int getPrefixBits(final long hashes) {
+        int bits = Long.SIZE - 1 - Long.numberOfLeadingZeros(Math.max(hashes, 1))
+                - HASHES_PER_PREFIX_BITS;
+        return Math.max(0, Math.min(bits, PasswordBlocklist.MAX_PREFIX_BITS));
+    }
+
+    /**
+     * Helper method to sort a chunk of hashes and write it to a temporary run file.
+     * @param directory the directory to write the run file to.
+     * @param chunk the hashes, with their sign bits flipped.
+     * @param length the number of hashes in the chunk.
+     * @return the path of the run file.
+     * @throws IOException if the run file couldn't be written.
+     */
+    private static Path writeRun(final Path directory, final long[] chunk, final int length)
+            throws IOException {
+        Arrays.sort(chunk, 0, length);
+        Path run = Files.createTempFile(directory, "blocklist-", ".run");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(run), BUFFER_SIZE))) {
+            for (int i = 0; i < length; i++) {
+                output.writeLong(chunk[i]);
+            }
+        }
+
+        return run;
+    }
+
+    /**
+     * Helper method to merge the sorted runs into a blocklist file, dropping duplicates and
+     * building the jump table.
+     * @param runs the run files.
+     * @param output the path of the blocklist file.
+     * @param prefixBits the number of bits of the prefixes in the jump table.
+     * @return the number of hashes written.
+     * @throws IOException if an I/O error occurs.
+     */
+    private static long merge(final List<Path> runs, final Path output, final int prefixBits)
+            throws IOException {
+        long tableSize = PasswordBlocklist.getJumpTableSize(prefixBits);
+        long[] jumpTable = new long[(1 << prefixBits) + 1];
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        Path temporary = output.resolveSibling(output.getFileName() + ".tmp");
+        long written = 0;
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                channel.position(PasswordBlocklist.HEADER_SIZE + tableSize);
+                OutputStream stream = Channels.newOutputStream(channel);
+
+                try (DataOutputStream hashes = new DataOutputStream(new BufferedOutputStream(stream,
+                        BUFFER_SIZE))) {
+                    for (Path path : runs) {
+                        Run run = new Run(path);
+                        if (run.advance()) {
+                            queue.add(run);
+                        } else {
+                            run.close();
+                        }
+                    }
+
+                    int nextPrefix = 0;
+                    long previous = 0;
+
+                    while (!queue.isEmpty()) {
+                        Run run = queue.poll();
+                        long hash = run.current ^ Long.MIN_VALUE;
+
+                        if (written == 0 || hash != previous) {
+                            int prefix = prefixBits == 0 ? 0
+                                    : (int) (hash >>> Long.SIZE - prefixBits);
+                            while (nextPrefix <= prefix) {
+                                jumpTable[nextPrefix++] = written;
+                            }
+
+                            hashes.writeLong(hash);
+                            previous = hash;
+                            written++;
+                        }
+
+                        if (run.advance()) {
+                            queue.add(run);
+                        } else {
+                            run.close();
+                        }
+                    }
+
+                    while (nextPrefix < jumpTable.length) {
+                        jumpTable[nextPrefix++] = written;
+                    }
+
+                    hashes.flush();
+                    ByteBuffer header = ByteBuffer.allocate((int) (PasswordBlocklist.HEADER_SIZE
+                            + tableSize));
+                    header.putInt(PasswordBlocklist.MAGIC).putInt(PasswordBlocklist.VERSION)
+                            .putInt(prefixBits).putInt(0).putLong(written);
+                    header.asLongBuffer().put(jumpTable);
+                    header.rewind();
+
+                    long position = 0;
+                    while (header.hasRemaining()) {
+                        position += channel.write(header, position);
+                    }
+
+                    channel.force(true);
+                } finally {
+                    for (Run run : queue) {
+                        run.close();
+                    }
+                }
+            }
+
+            Files.move(temporary, output, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // don't leave a partial blocklist behind
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        return written;
+    }
+
+    /**
+     * A sorted run file being merged, positioned at its current hash.
+     */
+    private static final class Run implements Comparable<Run> {
+        private final DataInputStream input;
+        private long current;
+
+        /**
+         * Opens a run file.
+         * @param path the path of the run file.
+         * @throws IOException if the run file can't be opened.
+         */
+        private Run(final Path path) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path),
+                    BUFFER_SIZE));
+        }
+
+        /**
+         * Reads the next hash of the run.
+         * @return false if the run has no more hashes, true otherwise.
+         * @throws IOException if the run file couldn't be read.
+         */
+        private boolean advance() throws IOException {
+            try {
+                current = input.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Closes the run file.
+         * @throws IOException if an I/O error occurs.
+         */
+        private void close() throws IOException {
+            input.close();
+        }
+
+        @Override
+        public int compareTo(final Run other) {
+            return Long.compare(current, other.current);
+        }
+    }
+
+    /**
+     * The outcome of building a blocklist.
+     * @param read the number of hashes read.
+     * @param written the number of distinct hashes written.
+     * @param skipped the number of lines that didn't hold a hash.
+     */
+    public record Result(long read, long written, long skipped) {
+        @Override
+        public String toString() {
+            return String.format("%d hashes read, %d written, %d lines skipped", read, written,
+                    skipped);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.shinkamon.userlogin.support;
+
+import java.security.SecureRandom;
+
+/**
+ * A scheme for hashing passwords together with a salt. The algorithm and parameters of the scheme
+ * are stored with every hash, so that a hash can still be verified after the scheme used for new
+ * passwords has changed, and so that outdated hashes can be recognized and replaced.
+ */
+public interface PasswordHasher {
+    /**
+     * Returns the name of the hashing algorithm, e.g. "pbkdf2-sha512".
+     * @return the name of the algorithm.
+     */
+    String getAlgorithm();
+
+    /**
+     * Returns the parameters of the scheme, e.g. its work factor, in the form they are stored in.
+     * @return the parameters of the scheme, or an empty String if it has none.
+     */
+    String getParameters();
+
+    /**
+     * Returns a hash of the password and salt. The password is not modified or retained.
+     * @param password the password to hash.
+     * @param salt a randomized salt to increase security.
+     * @return the hash.
+     */
+    byte[] hash(char[] password, byte[] salt);
+
+    /**
+     * Checks whether the hash of the password and salt matches an expected hash. The comparison
+     * takes the same time wherever the hashes differ.
+     * @param password the password to check.
+     * @param salt the salt the expected hash was generated with.
+     * @param expectedHash the expected hash.
+     * @return whether the hashes match as a boolean.
+     */
+    boolean verify(char[] password, byte[] salt, byte[] expectedHash);
+
+    /**
+     * Checks whether a hash stored with the given algorithm and parameters was generated by
+     * this scheme.
+     * @param algorithm the algorithm stored with the hash.
+     * @param parameters the parameters stored with the hash.
+     * @return whether the hash was generated by this scheme as a boolean.
+     */
+    default boolean generated(final String algorithm, final String parameters) {
+        return getAlgorithm().equals(algorithm) && getParameters().equals(parameters);
+    }
+
+    /**
+     * Checks whether a hash stored with the given algorithm and parameters is at least as strong
+     * as a hash generated by this scheme, so that it doesn't need to be replaced.
+     * @param algorithm the algorithm stored with the hash.
+     * @param parameters the parameters stored with the hash.
+     * @return whether the hash is current as a boolean.
+     */
+    default boolean isCurrent(final String algorithm, final String parameters) {
+        return generated(algorithm, parameters);
+    }
+
+    /**
+     * Returns the scheme for a hash stored with the given algorithm and parameters.
+     * @param algorithm the algorithm stored with the hash.
+     * @param parameters the parameters stored with the hash.
+     * @return a hasher that can verify the hash.
+     * @throws IllegalArgumentException if the algorithm is unknown or the parameters are invalid.
+     */
+    static PasswordHasher of(final String algorithm, final String parameters) {
+        return switch (algorithm) {
+            case Sha512PasswordHasher.ALGORITHM ->
+                    new Sha512PasswordHasher(new HashGenerator(new SecureRandom()));
+            case Pbkdf2PasswordHasher.ALGORITHM -> Pbkdf2PasswordHasher.fromParameters(parameters);
+            default -> throw new IllegalArgumentException("Unknown hash algorithm: " + algorithm);
+        };
+    }
+}
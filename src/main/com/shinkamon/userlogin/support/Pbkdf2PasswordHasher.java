@@ -0,0 +1,157 @@
+package com.shinkamon.userlogin.support;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+/**
+ * Hashes passwords with PBKDF2 using HMAC-SHA512. The number of iterations is the work factor,
+ * and is stored with each hash as "i=&lt;iterations&gt;". Use {@link #calibrate} to pick the number
+ * of iterations that makes a single hash take a given time on the current machine.
+ */
+public final class Pbkdf2PasswordHasher implements PasswordHasher {
+    /**
+     * The name of the algorithm, as stored with the hash.
+     */
+    public static final String ALGORITHM = "pbkdf2-sha512";
+    /**
+     * The lowest number of iterations calibration will pick, however slow the machine is.
+     */
+    public static final int MIN_ITERATIONS = 10_000;
+    /**
+     * The highest number of iterations calibration will pick, however fast the machine is.
+     */
+    public static final int MAX_ITERATIONS = 10_000_000;
+    private static final int HASH_BITS = 512;
+    // SecretKeyFactory isn't guaranteed to be thread-safe
+    private static final ThreadLocal<SecretKeyFactory> KEY_FACTORY = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA512");
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    });
+    private final int iterations;
+
+    /**
+     * Instantiates a new Pbkdf2PasswordHasher.
+     * @param iterations the number of iterations; the work factor.
+     */
+    public Pbkdf2PasswordHasher(final int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("Iterations must be at least 1: " + iterations);
+        }
+
+        this.iterations = iterations;
+    }
+
+    /**
+     * Returns a hasher with the parameters stored with a hash.
+     * @param parameters the parameters in the form "i=&lt;iterations&gt;".
+     * @return a hasher using the given number of iterations.
+     * @throws IllegalArgumentException if the parameters are invalid.
+     */
+    public static Pbkdf2PasswordHasher fromParameters(final String parameters) {
+        if (!parameters.startsWith("i=")) {
+            throw new IllegalArgumentException("Invalid PBKDF2 parameters: " + parameters);
+        }
+
+        return new Pbkdf2PasswordHasher(Integer.parseInt(parameters.substring(2)));
+    }
+
+    /**
+     * Returns a hasher with the number of iterations that makes a single hash take about the
+     * target time on the current machine, within {@link #MIN_ITERATIONS} and
+     * {@link #MAX_ITERATIONS}. The iterations are rounded to a multiple of 1000, so that
+     * recalibrating on a similar machine gives the same parameters and doesn't cause rehashing.
+     * @param targetMillis the time a single hash should take, in milliseconds.
+     * @return a calibrated hasher.
+     */
+    public static Pbkdf2PasswordHasher calibrate(final long targetMillis) {
+        Pbkdf2PasswordHasher probe = new Pbkdf2PasswordHasher(MIN_ITERATIONS);
+        char[] password = "calibration1".toCharArray();
+        byte[] salt = new byte[16];
+        long fastest = Long.MAX_VALUE;
+
+        // the first runs include warm-up, so the fastest run is the best estimate
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            probe.hash(password, salt);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+
+        double iterationsPerMilli = MIN_ITERATIONS * 1e6 / Math.max(fastest, 1);
+        long iterations = Math.round(iterationsPerMilli * targetMillis / 1000) * 1000;
+        iterations = Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+        return new Pbkdf2PasswordHasher((int) iterations);
+    }
+
+    /**
+     * Returns the number of iterations; the work factor.
+     * @return the number of iterations.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String getParameters() {
+        return "i=" + iterations;
+    }
+
+    /**
+     * Checks whether a hash stored with the given algorithm and parameters is a PBKDF2 hash with
+     * at least as many iterations as this scheme. Calibration picks a slightly different number
+     * of iterations on every start and on every machine, and hashes aren't replaced for that.
+     * @param algorithm the algorithm stored with the hash.
+     * @param parameters the parameters stored with the hash.
+     * @return whether the hash is current as a boolean.
+     */
+    @Override
+    public boolean isCurrent(final String algorithm, final String parameters) {
+        if (!ALGORITHM.equals(algorithm)) {
+            return false;
+        }
+
+        try {
+            return fromParameters(parameters).getIterations() >= iterations;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public byte[] hash(final char[] password, final byte[] salt) {
+        return derive(password, salt);
+    }
+
+    @Override
+    public boolean verify(final char[] password, final byte[] salt, final byte[] expectedHash) {
+        return MessageDigest.isEqual(derive(password, salt), expectedHash);
+    }
+
+    /**
+     * Helper method to derive the raw hash of the password and salt.
+     * @param password the password to hash.
+     * @param salt a randomized salt to increase security.
+     * @return the derived hash.
+     */
+    private byte[] derive(final char[] password, final byte[] salt) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, HASH_BITS);
+
+        try {
+            return KEY_FACTORY.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            // PBEKeySpec keeps its own copy of the password
+            spec.clearPassword();
+        }
+    }
+}
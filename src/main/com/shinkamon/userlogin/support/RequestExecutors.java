@@ -0,0 +1,49 @@
+package com.shinkamon.userlogin.support;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Static support class to create executors for handling requests, which mostly block on I/O or
+ * wait for a {@link HashingExecutor}. Virtual threads are used when the runtime supports them
+ * (Java 21 and later), so that waiting costs next to nothing; on older runtimes an unbounded pool
+ * of platform threads is used instead.
+ */
+public final class RequestExecutors {
+    private RequestExecutors() {
+    }
+
+    /**
+     * Returns a new executor that runs every task on its own thread, virtual if possible.
+     * @param name the prefix for the names of the threads if platform threads are used.
+     * @return the new executor.
+     */
+    public static ExecutorService newRequestExecutor(final String name) {
+        try {
+            // looked up reflectively, since the program is compiled for an older Java version
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Checks whether executors created by this class use virtual threads.
+     * @return whether virtual threads are available as a boolean.
+     */
+    public static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.shinkamon.userlogin.support;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue over a fixed array, for any number of producers and consumers.
+ * Neither adding nor removing an element ever blocks; a full buffer turns away new elements and
+ * an empty one returns nothing, and it is up to the caller what to do then.
+ * <p>
+ * Every slot has a sequence number that tells whose turn it is: a producer may fill the slot at
+ * position p once its sequence is p, and then sets it to p + 1; a consumer may empty it once its
+ * sequence is p + 1, and then sets it to p + capacity, the next position that maps to the slot.
+ * Producers and consumers each claim positions with one compare-and-set on a shared counter, and
+ * never wait for each other except when the buffer is full or empty.
+ * @param <E> the type of elements in the buffer.
+ */
+public final class RingBuffer<E> {
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // the next position to add an element at
+    private final AtomicLong tail = new AtomicLong();
+    // the next position to remove an element from
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * Instantiates a new RingBuffer.
+     * @param capacity the maximum number of elements in the buffer, rounded up to a power of two.
+     */
+    public RingBuffer(final int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Invalid ring buffer capacity: " + capacity);
+        }
+
+        int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        this.mask = size - 1;
+
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Adds an element at the end of the buffer, unless the buffer is full.
+     * @param element the element to add.
+     * @return true if the element was added, or false if the buffer is full.
+     */
+    public boolean offer(final E element) {
+        if (element == null) {
+            throw new NullPointerException("Ring buffer elements can't be null.");
+        }
+
+        long position = tail.get();
+
+        while (true) {
+            int slot = (int) position & mask;
+            long turn = sequences.get(slot) - position;
+
+            if (turn == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.set(slot, element);
+                    sequences.set(slot, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (turn < 0) {
+                // the slot still holds the element from one lap earlier
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the front of the buffer.
+     * @return the element, or null if the buffer is empty.
+     */
+    public E poll() {
+        long position = head.get();
+
+        while (true) {
+            int slot = (int) position & mask;
+            long turn = sequences.get(slot) - (position + 1);
+
+            if (turn == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    E element = elements.get(slot);
+                    elements.set(slot, null);
+                    sequences.set(slot, position + mask + 1);
+                    return element;
+                }
+                position = head.get();
+            } else if (turn < 0) {
+                // the slot hasn't been filled yet
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Removes elements from the front of the buffer and adds them to a list, until the buffer is
+     * empty or the maximum has been reached.
+     * @param list the list to add the elements to.
+     * @param maxElements the maximum number of elements to remove.
+     * @return the number of elements removed.
+     */
+    public int drainTo(final List<? super E> list, final int maxElements) {
+        int drained = 0;
+
+        while (drained < maxElements) {
+            E element = poll();
+            if (element == null) {
+                break;
+            }
+
+            list.add(element);
+            drained++;
+        }
+
+        return drained;
+    }
+
+    /**
+     * Returns the number of elements in the buffer; an estimate while elements are being added
+     * or removed.
+     * @return the number of elements in the buffer.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    /**
+     * Checks whether the buffer is empty; an estimate while elements are being added or removed.
+     * @return whether the buffer is empty as a boolean.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Returns the maximum number of elements in the buffer.
+     * @return the capacity of the buffer.
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+}
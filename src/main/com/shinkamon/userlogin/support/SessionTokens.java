@@ -0,0 +1,482 @@
+package com.shinkamon.userlogin.support;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Issues and verifies signed session tokens, so that a user who has logged in once can be
+ * recognised on later requests without hashing their password or looking them up again.
+ * <p>
+ * A token is stateless: it carries the id of the key it was signed with, a random token id, its
+ * expiry time in seconds and the username, followed by the first 16 bytes of an HMAC-SHA256 of
+ * all of that, in URL-safe Base64. Verifying one takes a single HMAC over less than a hundred
+ * bytes and a constant-time comparison; the Macs and buffers it needs are pooled per key, so
+ * verification allocates nothing but the username it returns, and the boxed token id it looks up
+ * while there are revoked tokens.
+ * <p>
+ * Tokens are signed with the newest of a ring of keys, and a new key is generated once the newest
+ * one is older than the rotation interval. Older keys keep verifying the tokens they signed until
+ * those have expired, and are then dropped. Keys live in memory only, so a restart ends every
+ * session. Logging out adds the id of a token to a set of revoked tokens until it expires; the
+ * set is purged of expired tokens whenever it grows past a configured size.
+ */
+public final class SessionTokens {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int KEY_LENGTH = 32;
+    private static final int TAG_LENGTH = 16;
+    // key id, token id and expiry time
+    private static final int HEADER_LENGTH = 1 + Long.BYTES + Long.BYTES;
+    private static final int MAX_USERNAME_LENGTH = 128;
+    private static final int MAX_TOKEN_LENGTH = HEADER_LENGTH + MAX_USERNAME_LENGTH + TAG_LENGTH;
+    private static final int MAX_KEYS = 256;
+    private static final int POOL_SIZE =
+            Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final byte[] DECODING = new byte[128];
+    private final Config config;
+    private final LongSupplier clock;
+    private final SecureRandom random = new SecureRandom();
+    // the newest key first
+    private volatile Key[] keys;
+    // the ids of revoked tokens, and when they expire in seconds since the epoch
+    private final ConcurrentHashMap<Long, Long> revoked = new ConcurrentHashMap<>();
+    private final LongAdder issued = new LongAdder();
+    private final LongAdder verified = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder revocations = new LongAdder();
+
+    static {
+        Arrays.fill(DECODING, (byte) -1);
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+
+        for (int i = 0; i < alphabet.length(); i++) {
+            DECODING[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    /**
+     * Instantiates a new SessionTokens, with a newly generated key.
+     * @param config how long tokens last and how often keys are rotated.
+     */
+    public SessionTokens(final Config config) {
+        this(config, System::currentTimeMillis);
+    }
+
+    /**
+     * Instantiates a new SessionTokens on a given clock, e.g. to test expiry and key rotation.
+     * @param config how long tokens last and how often keys are rotated.
+     * @param clock the current time in milliseconds since the epoch.
+     */
+    SessionTokens(final Config config, final LongSupplier clock) {
+        if (config.ttlSeconds() < 1 || config.keyRotationSeconds() < 1) {
+            throw new IllegalArgumentException("Invalid session settings: " + config);
+        }
+
+        this.config = config;
+        this.clock = clock;
+        this.keys = new Key[] {newKey(0)};
+    }
+
+    /**
+     * Issues a token for a user who has just been authenticated, signed with the newest key,
+     * which is rotated first if it is due.
+     * @param username the username of the user.
+     * @return the token.
+     * @throws IllegalArgumentException if the username is longer than 128 bytes in UTF-8.
+     */
+    public String issue(final String username) {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > MAX_USERNAME_LENGTH) {
+            throw new IllegalArgumentException("Username too long for a session token.");
+        }
+
+        Key key = getSigningKey();
+        long expiresAt = TimeUnit.MILLISECONDS.toSeconds(clock.getAsLong()) + config.ttlSeconds();
+        int length = HEADER_LENGTH + name.length;
+        ByteBuffer token = ByteBuffer.allocate(length + TAG_LENGTH);
+        token.put((byte) key.id).putLong(random.nextLong()).putLong(expiresAt).put(name);
+
+        Verifier verifier = key.acquire();
+        try {
+            verifier.sign(token.array(), length);
+            token.put(verifier.tag, 0, TAG_LENGTH);
+        } finally {
+            key.release(verifier);
+        }
+
+        issued.increment();
+        return ENCODER.encodeToString(token.array());
+    }
+
+    /**
+     * Verifies a token, without hashing anything or looking up the user.
+     * @param token the token to verify.
+     * @return the username the token was issued to, or null if the token is malformed, wasn't
+     * signed with a current key, has expired or has been revoked.
+     */
+    public String verify(final String token) {
+        String username = check(token, false);
+        (username == null ? rejected : verified).increment();
+        return username;
+    }
+
+    /**
+     * Revokes a token, e.g. because its user has logged out, so that it is rejected from now on.
+     * @param token the token to revoke.
+     * @return the username the token was issued to, or null if the token wasn't valid to begin
+     * with.
+     */
+    public String revoke(final String token) {
+        String username = check(token, true);
+        if (username != null) {
+            revocations.increment();
+        }
+
+        return username;
+    }
+
+    /**
+     * Generates a new key to sign tokens with from now on. Tokens signed with the previous keys
+     * stay valid until they expire.
+     */
+    public synchronized void rotateKey() {
+        Key[] ring = keys;
+        long now = clock.getAsLong();
+        long ttlMillis = TimeUnit.SECONDS.toMillis(config.ttlSeconds());
+        int kept = 1;
+
+        // a key was retired when the next one was created, and is needed until its tokens expire
+        while (kept < ring.length && kept < MAX_KEYS - 1
+                && ring[kept - 1].createdMillis + ttlMillis > now) {
+            kept++;
+        }
+
+        Key[] rotated = new Key[kept + 1];
+        rotated[0] = newKey((ring[0].id + 1) % MAX_KEYS);
+        System.arraycopy(ring, 0, rotated, 1, kept);
+        keys = rotated;
+    }
+
+    /**
+     * Returns the configuration of the tokens.
+     * @return how long tokens last and how often keys are rotated.
+     */
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the statistics of the tokens.
+     * @return the current statistics.
+     */
+    public Stats getStats() {
+        return new Stats(issued.sum(), verified.sum(), rejected.sum(), revocations.sum(),
+                keys.length, revoked.size());
+    }
+
+    /**
+     * Helper method to get the key to sign new tokens with, rotating the keys first if the
+     * newest one is older than the rotation interval.
+     * @return the newest key.
+     */
+    private Key getSigningKey() {
+        Key key = keys[0];
+
+        if (clock.getAsLong() - key.createdMillis
+                < TimeUnit.SECONDS.toMillis(config.keyRotationSeconds())) {
+            return key;
+        }
+
+        synchronized (this) {
+            if (keys[0] == key) {
+                rotateKey();
+            }
+
+            return keys[0];
+        }
+    }
+
+    /**
+     * Helper method to generate a new key.
+     * @param id the id of the key, which tokens signed with it carry.
+     * @return the new key.
+     */
+    private Key newKey(final int id) {
+        byte[] secret = new byte[KEY_LENGTH];
+        random.nextBytes(secret);
+        return new Key(id, new SecretKeySpec(secret, ALGORITHM), clock.getAsLong());
+    }
+
+    /**
+     * Helper method to check a token, and revoke it if asked to.
+     * @param token the token to check.
+     * @param revoke whether to revoke the token if it is valid.
+     * @return the username the token was issued to, or null if the token isn't valid.
+     */
+    private String check(final String token, final boolean revoke) {
+        int characters = token == null ? 0 : token.length();
+        if (characters < 2 || characters > (MAX_TOKEN_LENGTH * 4 + 2) / 3 || characters % 4 == 1) {
+            return null;
+        }
+
+        int keyId = decode(token.charAt(0)) << 2 | decode(token.charAt(1)) >> 4;
+        Key key = keyId < 0 ? null : findKey(keyId);
+        if (key == null) {
+            return null;
+        }
+
+        Verifier verifier = key.acquire();
+        try {
+            byte[] bytes = verifier.bytes;
+            int length = decode(token, bytes) - TAG_LENGTH;
+            if (length <= HEADER_LENGTH) {
+                return null;
+            }
+
+            verifier.sign(bytes, length);
+            int difference = 0;
+
+            // compared in constant time, so the time taken reveals nothing about the right tag
+            for (int i = 0; i < TAG_LENGTH; i++) {
+                difference |= verifier.tag[i] ^ bytes[length + i];
+            }
+
+            if (difference != 0) {
+                return null;
+            }
+
+            long id = readLong(bytes, 1);
+            long expiresAt = readLong(bytes, 1 + Long.BYTES);
+            long now = TimeUnit.MILLISECONDS.toSeconds(clock.getAsLong());
+
+            if (expiresAt <= now || !revoked.isEmpty() && revoked.containsKey(id)) {
+                return null;
+            }
+
+            if (revoke && revoked.putIfAbsent(id, expiresAt) != null) {
+                return null;
+            }
+
+            if (revoke && revoked.size() > config.revocationPurgeSize()) {
+                revoked.values().removeIf(expiry -> expiry <= now);
+            }
+
+            return new String(bytes, HEADER_LENGTH, length - HEADER_LENGTH,
+                    StandardCharsets.UTF_8);
+        } finally {
+            key.release(verifier);
+        }
+    }
+
+    /**
+     * Helper method to find a key by its id among the current keys.
+     * @param id the id of the key.
+     * @return the key, or null if there is no current key with the id.
+     */
+    private Key findKey(final int id) {
+        for (Key key : keys) {
+            if (key.id == id) {
+                return key;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Helper method to decode a character of URL-safe Base64.
+     * @param c the character.
+     * @return the six bits it stands for, or a negative number if it isn't valid.
+     */
+    private static int decode(final char c) {
+        return c < DECODING.length ? DECODING[c] : -1;
+    }
+
+    /**
+     * Helper method to decode a token from unpadded URL-safe Base64.
+     * @param token the token, whose length has been checked.
+     * @param bytes the buffer to decode into, which is large enough for any valid token.
+     * @return the number of bytes decoded, or -1 if the token holds invalid characters.
+     */
+    private static int decode(final String token, final byte[] bytes) {
+        int characters = token.length();
+        int bits = 0;
+        int buffered = 0;
+        int length = 0;
+        int invalid = 0;
+
+        for (int i = 0; i < characters; i++) {
+            int sixBits = decode(token.charAt(i));
+            invalid |= sixBits;
+            bits = bits << 6 | sixBits & 0x3F;
+            buffered += 6;
+
+            if (buffered >= 8) {
+                buffered -= 8;
+                bytes[length++] = (byte) (bits >> buffered);
+            }
+        }
+
+        return invalid < 0 ? -1 : length;
+    }
+
+    /**
+     * Helper method to read a big-endian long from a buffer.
+     * @param bytes the buffer.
+     * @param offset where the long starts.
+     * @return the long.
+     */
+    private static long readLong(final byte[] bytes, final int offset) {
+        long value = 0;
+
+        for (int i = 0; i < Long.BYTES; i++) {
+            value = value << 8 | bytes[offset + i] & 0xFF;
+        }
+
+        return value;
+    }
+
+    /**
+     * A key that tokens are signed with, along with a pool of Macs initialised with it.
+     */
+    private static final class Key {
+        private final int id;
+        private final SecretKeySpec secret;
+        private final long createdMillis;
+        private final AtomicReferenceArray<Verifier> pool = new AtomicReferenceArray<>(POOL_SIZE);
+
+        /**
+         * Instantiates a new Key.
+         * @param id the id of the key.
+         * @param secret the secret of the key.
+         * @param createdMillis when the key was generated, in milliseconds since the epoch.
+         */
+        private Key(final int id, final SecretKeySpec secret, final long createdMillis) {
+            this.id = id;
+            this.secret = secret;
+            this.createdMillis = createdMillis;
+        }
+
+        /**
+         * Takes a verifier from the pool, or creates one if the pool is empty.
+         * @return a verifier that only the calling thread uses until it is released.
+         */
+        private Verifier acquire() {
+            int start = ThreadLocalRandom.current().nextInt();
+
+            for (int i = 0; i < POOL_SIZE; i++) {
+                Verifier verifier = pool.getAndSet(start + i & POOL_SIZE - 1, null);
+                if (verifier != null) {
+                    return verifier;
+                }
+            }
+
+            return new Verifier(secret);
+        }
+
+        /**
+         * Returns a verifier to the pool, or drops it if the pool is full.
+         * @param verifier the verifier, which the calling thread no longer uses.
+         */
+        private void release(final Verifier verifier) {
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (pool.get(i) == null && pool.compareAndSet(i, null, verifier)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * A Mac initialised with a key, and the buffers to decode and sign a token with it.
+     */
+    private static final class Verifier {
+        private final Mac mac;
+        private final byte[] bytes = new byte[MAX_TOKEN_LENGTH];
+        private final byte[] tag;
+
+        /**
+         * Instantiates a new Verifier.
+         * @param secret the key to sign with.
+         */
+        private Verifier(final SecretKeySpec secret) {
+            try {
+                this.mac = Mac.getInstance(ALGORITHM);
+                mac.init(secret);
+            } catch (GeneralSecurityException e) {
+                // every Java runtime supports HmacSHA256
+                throw new IllegalStateException(e);
+            }
+
+            this.tag = new byte[mac.getMacLength()];
+        }
+
+        /**
+         * Signs the start of a buffer, leaving the signature in the tag.
+         * @param data the buffer.
+         * @param length the number of bytes to sign.
+         */
+        private void sign(final byte[] data, final int length) {
+            mac.update(data, 0, length);
+
+            try {
+                mac.doFinal(tag, 0);
+            } catch (GeneralSecurityException e) {
+                // the tag always has room for the whole signature
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * The lifetime and key rotation of {@link SessionTokens}.
+     * @param ttlSeconds how long a token is valid after it is issued, in seconds.
+     * @param keyRotationSeconds how long a key signs new tokens before the next one takes over,
+     * in seconds.
+     * @param revocationPurgeSize the number of revoked tokens past which the expired ones are
+     * purged.
+     */
+    public record Config(long ttlSeconds, long keyRotationSeconds, int revocationPurgeSize) {
+        /**
+         * Reads the session configuration from settings, e.g. resources/login-info.json.
+         * @param loginInfo the login settings.
+         * @return the session configuration.
+         */
+        public static Config fromSettings(final Settings loginInfo) {
+            return new Config(loginInfo.getLong("sessionTtlSeconds", 3600),
+                    loginInfo.getLong("sessionKeyRotationSeconds", 86_400),
+                    loginInfo.getInt("sessionRevocationPurgeSize", 10_000));
+        }
+    }
+
+    /**
+     * Statistics of {@link SessionTokens}.
+     * @param issued the number of tokens issued.
+     * @param verified the number of tokens that were verified as valid.
+     * @param rejected the number of tokens that were rejected as invalid, expired or revoked.
+     * @param revocations the number of tokens revoked.
+     * @param keys the number of keys that tokens are verified against.
+     * @param revoked the number of revoked tokens that haven't been purged yet.
+     */
+    public record Stats(long issued, long verified, long rejected, long revocations, int keys,
+                        int revoked) {
+        @Override
+        public String toString() {
+            return String.format("%d issued, %d verified, %d rejected, %d revocations, %d keys",
+                    issued, verified, rejected, revocations, keys);
+        }
+    }
+}
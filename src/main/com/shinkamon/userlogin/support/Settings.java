@@ -0,0 +1,113 @@
+package com.shinkamon.userlogin.support;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Support class to read settings from a json file of string keys and values, e.g.
+ * resources/database-info.json. Settings that are missing fall back to a default value.
+ */
+public final class Settings {
+    private final Map<String, String> values;
+
+    private Settings(final Map<String, String> values) {
+        this.values = values;
+    }
+
+    /**
+     * Reads settings from a json file. If the file can't be read, the error is printed and
+     * all settings will have their default values.
+     * @param path the path of the json file.
+     * @return the settings read from the file.
+     */
+    public static Settings load(final String path) {
+        Gson gson = new Gson();
+        try {
+            String json = Files.readString(Paths.get(path));
+            // get the type to convert the json into in order to avoid type-erasure
+            Type stringMap = new TypeToken<HashMap<String, String>>() { }.getType();
+            Map<String, String> values = gson.fromJson(json, stringMap);
+            return new Settings(values == null ? Map.of() : values);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return new Settings(Map.of());
+    }
+
+    /**
+     * Reads settings from a json file if it exists; a missing file means all settings
+     * have their default values.
+     * @param path the path of the json file.
+     * @return the settings read from the file, or empty settings if the file doesn't exist.
+     */
+    public static Settings loadIfExists(final String path) {
+        return Files.exists(Path.of(path)) ? load(path) : new Settings(Map.of());
+    }
+
+    /**
+     * Returns a setting as a String.
+     * @param key the name of the setting.
+     * @param defaultValue the value to return if the setting is missing.
+     * @return the value of the setting, or the default value if it is missing.
+     */
+    public String getString(final String key, final String defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : value.trim();
+    }
+
+    /**
+     * Returns a setting as an int.
+     * @param key the name of the setting.
+     * @param defaultValue the value to return if the setting is missing.
+     * @return the value of the setting, or the default value if it is missing.
+     * @throws NumberFormatException if the setting isn't an int.
+     */
+    public int getInt(final String key, final int defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Returns a setting as a long.
+     * @param key the name of the setting.
+     * @param defaultValue the value to return if the setting is missing.
+     * @return the value of the setting, or the default value if it is missing.
+     * @throws NumberFormatException if the setting isn't a long.
+     */
+    public long getLong(final String key, final long defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    /**
+     * Returns a setting as a double.
+     * @param key the name of the setting.
+     * @param defaultValue the value to return if the setting is missing.
+     * @return the value of the setting, or the default value if it is missing.
+     * @throws NumberFormatException if the setting isn't a double.
+     */
+    public double getDouble(final String key, final double defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Returns a setting as a boolean; only "true", ignoring case, counts as true.
+     * @param key the name of the setting.
+     * @param defaultValue the value to return if the setting is missing.
+     * @return the value of the setting, or the default value if it is missing.
+     */
+    public boolean getBoolean(final String key, final boolean defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,42 @@
+package com.shinkamon.userlogin.support;
+
+/**
+ * The original password hashing scheme: a single round of SHA-512 over the salt and password.
+ * It is far too cheap to resist brute force on its own, and only remains to verify existing hashes
+ * until they are replaced on the next successful login.
+ */
+public final class Sha512PasswordHasher implements PasswordHasher {
+    /**
+     * The name of the algorithm, as stored with the hash.
+     */
+    public static final String ALGORITHM = "sha512";
+    private final HashGenerator hashGenerator;
+
+    /**
+     * Instantiates a new Sha512PasswordHasher.
+     * @param hashGenerator the HashGenerator that computes the hashes.
+     */
+    public Sha512PasswordHasher(final HashGenerator hashGenerator) {
+        this.hashGenerator = hashGenerator;
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return ALGORITHM;
+    }
+
+    @Override
+    public String getParameters() {
+        return "";
+    }
+
+    @Override
+    public byte[] hash(final char[] password, final byte[] salt) {
+        return hashGenerator.getSHA512Hash(password, salt);
+    }
+
+    @Override
+    public boolean verify(final char[] password, final byte[] salt, final byte[] expectedHash) {
+        return hashGenerator.verifySHA512Hash(password, salt, expectedHash);
+    }
+}
@@ -0,0 +1,216 @@
+package com.shinkamon.userlogin.audit;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AuditLogTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void writesRecordedEventsInBatches() throws InterruptedException {
+        List<List<AuditEvent>> batches = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        // the first batch holds up the writer, so the events recorded meanwhile form one batch
+        AuditLog log = new AuditLog(config(64, AuditLog.OverflowPolicy.DROP_NEWEST), events -> {
+            batches.add(List.copyOf(events));
+            await(release);
+        });
+
+        log.record(AuditEvent.Type.LOGIN, "user0", "source", "AUTHENTICATED", 1000);
+        awaitBatches(batches, 1);
+        for (int i = 1; i < 10; i++) {
+            log.record(AuditEvent.Type.LOGIN, "user" + i, "source", "AUTHENTICATED", 1000);
+        }
+        release.countDown();
+        log.close();
+
+        assertEquals(2, batches.size());
+        assertEquals(9, batches.get(1).size());
+        assertEquals("user9", batches.get(1).get(8).username());
+        assertEquals(new AuditLog.Stats(0, 64, 10, 0, 10, 2, 0), log.getStats());
+    }
+
+    @Test
+    void dropsNewestEventsWhenFull() throws InterruptedException {
+        List<String> written = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AuditLog log = blockedLog(AuditLog.OverflowPolicy.DROP_NEWEST, written, release);
+
+        for (int i = 0; i < 10; i++) {
+            log.record(AuditEvent.Type.LOGIN, "user" + i, "source", "AUTHENTICATED", 1000);
+        }
+        release.countDown();
+        log.close();
+
+        // one event was taken by the blocked writer, and four fit in the buffer
+        assertEquals(List.of("blocker", "user0", "user1", "user2", "user3"), written);
+        assertEquals(6, log.getStats().dropped());
+    }
+
+    @Test
+    void dropsOldestEventsWhenFull() throws InterruptedException {
+        List<String> written = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        AuditLog log = blockedLog(AuditLog.OverflowPolicy.DROP_OLDEST, written, release);
+
+        for (int i = 0; i < 10; i++) {
+            log.record(AuditEvent.Type.LOGIN, "user" + i, "source", "AUTHENTICATED", 1000);
+        }
+        release.countDown();
+        log.close();
+
+        assertEquals(List.of("blocker", "user6", "user7", "user8", "user9"), written);
+        assertEquals(6, log.getStats().dropped());
+    }
+
+    @Test
+    void countsEventsTheSinkFailedToWrite() {
+        AuditLog log = new AuditLog(config(64, AuditLog.OverflowPolicy.DROP_NEWEST), events -> {
+            throw new IOException("Disk full.");
+        });
+
+        log.record(AuditEvent.Type.REGISTRATION, "user", "source", "REGISTERED", 1000);
+        log.close();
+
+        assertEquals(1, log.getStats().failed());
+        assertEquals(0, log.getStats().written());
+    }
+
+    @Test
+    void dropsEventsAfterClose() {
+        AuditLog log = new AuditLog(config(64, AuditLog.OverflowPolicy.DROP_NEWEST), events -> { });
+        log.close();
+
+        log.record(AuditEvent.Type.LOGIN, "user", "source", "AUTHENTICATED", 1000);
+
+        assertEquals(1, log.getStats().dropped());
+    }
+
+    @Test
+    void accountsForEventsRecordedWhileClosing() throws InterruptedException {
+        for (int round = 0; round < 20; round++) {
+            AuditLog log = new AuditLog(config(64, AuditLog.OverflowPolicy.DROP_NEWEST),
+                    events -> { });
+            CountDownLatch started = new CountDownLatch(4);
+            List<Thread> threads = new ArrayList<>();
+
+            for (int i = 0; i < 4; i++) {
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    for (int j = 0; j < 1000; j++) {
+                        log.record(AuditEvent.Type.LOGIN, "user", "source", "AUTHENTICATED", 1000);
+                    }
+                });
+                thread.start();
+                threads.add(thread);
+            }
+
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            log.close();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // every event was either written or counted as dropped, none left in the buffer
+            AuditLog.Stats stats = log.getStats();
+            assertEquals(0, stats.queued(), stats.toString());
+            assertEquals(4000, stats.recorded());
+            assertEquals(stats.recorded(), stats.written() + stats.dropped(), stats.toString());
+        }
+    }
+
+    @Test
+    void writesJsonLinesToFile() throws IOException {
+        Path path = directory.resolve("audit.log");
+        AuditLog log = AuditLog.open(new AuditLog.Config(path.toString(), 64, 16, 10,
+                AuditLog.OverflowPolicy.DROP_NEWEST, 1 << 20, 2, false));
+
+        log.record(AuditEvent.Type.LOGIN, "user \"1\"", "10.0.0.1", "INVALID_CREDENTIALS", 2500);
+        log.close();
+
+        List<String> lines = Files.readAllLines(path);
+        assertEquals(1, lines.size());
+        JsonObject json = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        assertEquals("LOGIN", json.get("type").getAsString());
+        assertEquals("user \"1\"", json.get("username").getAsString());
+        assertEquals("10.0.0.1", json.get("source").getAsString());
+        assertEquals("INVALID_CREDENTIALS", json.get("outcome").getAsString());
+        assertEquals(2, json.get("latencyMicros").getAsLong());
+        assertTrue(json.get("time").getAsString().endsWith("Z"));
+    }
+
+    @Test
+    void rotatesFilesPastMaximumSize() throws IOException {
+        Path path = directory.resolve("audit.log");
+        RotatingFileSink sink = new RotatingFileSink(path, 300, 3, false);
+
+        for (int i = 0; i < 10; i++) {
+            sink.write(List.of(new AuditEvent(0, AuditEvent.Type.LOGIN, "user" + i, "source",
+                    "AUTHENTICATED", 1000)));
+        }
+        sink.close();
+
+        List<String> lines = new ArrayList<>();
+        for (Path file : List.of(sink.getRotatedPath(2), sink.getRotatedPath(1), path)) {
+            assertTrue(Files.size(file) <= 300);
+            lines.addAll(Files.readAllLines(file));
+        }
+        assertFalse(Files.exists(sink.getRotatedPath(3)));
+        // the oldest events were in files that have been deleted
+        assertTrue(lines.size() < 10);
+        assertTrue(lines.get(lines.size() - 1).contains("user9"));
+        assertTrue(Files.readAllLines(path).size() >= 1);
+    }
+
+    /**
+     * Returns a log with a buffer of four events, whose writer is held up by the sink until
+     * released, after it has taken a first event.
+     */
+    private static AuditLog blockedLog(AuditLog.OverflowPolicy overflowPolicy,
+                                       List<String> written, CountDownLatch release)
+            throws InterruptedException {
+        CountDownLatch blocked = new CountDownLatch(1);
+        AuditLog log = new AuditLog(config(4, overflowPolicy), events -> {
+            blocked.countDown();
+            await(release);
+            events.forEach(event -> written.add(event.username()));
+        });
+
+        log.record(AuditEvent.Type.LOGIN, "blocker", "source", "AUTHENTICATED", 1000);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        return log;
+    }
+
+    private static AuditLog.Config config(int bufferSize, AuditLog.OverflowPolicy overflowPolicy) {
+        return new AuditLog.Config("", bufferSize, 16, 10, overflowPolicy, 1, 1, false);
+    }
+
+    private static void awaitBatches(List<?> batches, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (batches.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.shinkamon.userlogin.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+    @TempDir
+    Path directory;
+    ConnectionPool pool;
+
+    @BeforeEach
+    void setup() {
+        pool = new ConnectionPool("jdbc:sqlite:" + directory.resolve("test.db"), 1, 50, 8,
+                List.of());
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void reusesReturnedConnections() throws SQLException {
+        PooledConnection first = pool.getConnection();
+        first.close();
+
+        try (PooledConnection second = pool.getConnection()) {
+            assertSame(first, second);
+        }
+
+        assertEquals(1, pool.getStats().open());
+        assertEquals(2, pool.getStats().acquisitions());
+    }
+
+    @Test
+    void returnsConnectionOnlyOnceWhenClosedTwice() throws SQLException {
+        PooledConnection connection = pool.getConnection();
+        connection.close();
+        connection.close();
+
+        assertEquals(1, pool.getStats().idle());
+        assertEquals(0, pool.getStats().inUse());
+
+        try (PooledConnection held = pool.getConnection()) {
+            assertSame(connection, held);
+            // a second permit would let another caller share the one connection
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+        }
+    }
+
+    @Test
+    void timesOutWhenExhausted() throws SQLException {
+        try (PooledConnection held = pool.getConnection()) {
+            assertEquals(1, pool.getStats().inUse());
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+            assertFalse(held.getConnection().isClosed());
+        }
+
+        assertEquals(1, pool.getStats().timeouts());
+
+        try (PooledConnection connection = pool.getConnection()) {
+            assertNotNull(connection);
+        }
+    }
+
+    @Test
+    void discardsBrokenConnections() throws SQLException {
+        PooledConnection broken = pool.getConnection();
+        broken.getConnection().close();
+        broken.close();
+
+        assertEquals(0, pool.getStats().open());
+        assertEquals(0, pool.getStats().idle());
+
+        try (PooledConnection connection = pool.getConnection()) {
+            assertNotSame(broken, connection);
+            assertFalse(connection.getConnection().isClosed());
+        }
+    }
+
+    @Test
+    void rollsBackOpenTransactionsOnReturn() throws SQLException {
+        try (PooledConnection connection = pool.getConnection()) {
+            connection.getConnection().setAutoCommit(false);
+        }
+
+        try (PooledConnection connection = pool.getConnection()) {
+            assertTrue(connection.getConnection().getAutoCommit());
+        }
+    }
+
+    @Test
+    void refusesConnectionsOnceClosed() {
+        pool.close();
+
+        assertThrows(SQLException.class, pool::getConnection);
+    }
+}
@@ -0,0 +1,179 @@
+package com.shinkamon.userlogin.database;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseAdminTest {
+    @TempDir
+    Path directory;
+    List<ConnectionPool> pools = new ArrayList<>();
+    List<DatabaseAdmin.Shard> shards = new ArrayList<>();
+    DatabaseAdmin admin;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        for (int i = 0; i < 2; i++) {
+            Path file = directory.resolve("shard" + i + ".db");
+            ConnectionPool pool = new ConnectionPool("jdbc:sqlite:" + file, 2, 5000, 8,
+                    List.of());
+            pools.add(pool);
+            shards.add(new DatabaseAdmin.Shard(file.getFileName().toString(), file, pool));
+        }
+
+        admin = new DatabaseAdmin(shards, 100, new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @AfterEach
+    void tearDown() {
+        pools.forEach(ConnectionPool::close);
+    }
+
+    @Test
+    void estimatesRowsOnceAnalyzed() throws SQLException {
+        migrate("INCREMENTAL");
+        insertUsers(0, "user", 500);
+
+        DatabaseAdmin.ShardStats before = admin.getStats().get(0);
+        assertFalse(before.analyzed());
+        assertEquals("incremental", before.autoVacuum());
+        assertTrue(before.pageCount() > 0);
+        assertTrue(before.objects().stream().allMatch(object -> object.estimatedRows() < 0));
+
+        admin.analyze();
+
+        DatabaseAdmin.ShardStats after = admin.getStats().get(0);
+        assertTrue(after.analyzed());
+        DatabaseAdmin.ObjectStats users = after.objects().stream()
+                .filter(object -> object.name().equals("users")).findFirst().orElseThrow();
+        assertFalse(users.index());
+        assertEquals(500, users.estimatedRows());
+        assertTrue(after.objects().stream().anyMatch(object -> object.index()
+                && object.table().equals("users") && object.estimatedRows() == 500));
+    }
+
+    @Test
+    void exportsUsersOfEveryShard() throws Exception {
+        migrate("INCREMENTAL");
+        insertUsers(0, "alice", 2);
+        insertUsers(1, "bob", 1);
+        insertUsers(1, "carol,\"c\"", 1);
+
+        Path csv = directory.resolve("users.csv");
+        assertEquals(4, admin.export(csv, DatabaseAdmin.Format.of(csv)).users());
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        assertEquals(5, lines.size());
+        assertEquals("username,password_hash,password_salt,hash_algorithm,hash_parameters",
+                lines.get(0));
+        assertEquals("\"carol,\"\"c\"\"0\",AQID,BAU=,pbkdf2,\"i=1,l=3\"", lines.get(4));
+
+        Path jsonLines = directory.resolve("users.jsonl");
+        assertEquals(DatabaseAdmin.Format.JSONL, DatabaseAdmin.Format.of(jsonLines));
+        assertEquals(4, admin.export(jsonLines, DatabaseAdmin.Format.JSONL).users());
+        lines = Files.readAllLines(jsonLines, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size());
+        JsonObject first = JsonParser.parseString(lines.get(0)).getAsJsonObject();
+        assertEquals("alice0", first.get("username").getAsString());
+        assertArrayEquals(new byte[] {1, 2, 3},
+                Base64.getDecoder().decode(first.get("passwordHash").getAsString()));
+        assertFalse(Files.exists(directory.resolve("users.jsonl.tmp")));
+    }
+
+    @Test
+    void deletesPartialExportOnFailure() {
+        // the shards have no users table, so reading the first shard fails
+        Path csv = directory.resolve("users.csv");
+        assertThrows(SQLException.class, () -> admin.export(csv, DatabaseAdmin.Format.CSV));
+        assertFalse(Files.exists(csv));
+        assertFalse(Files.exists(directory.resolve("users.csv.tmp")));
+    }
+
+    @Test
+    void releasesFreePagesInBatches() throws Exception {
+        migrate("INCREMENTAL");
+        insertUsers(0, "user", 5000);
+        deleteUsers(0);
+
+        long freePages = admin.getStats().get(0).freePages();
+        assertTrue(freePages > 0);
+
+        admin.vacuum();
+
+        DatabaseAdmin.ShardStats stats = admin.getStats().get(0);
+        assertEquals(0, stats.freePages());
+        assertEquals("incremental", stats.autoVacuum());
+    }
+
+    @Test
+    void switchesOlderDatabasesToIncrementalVacuum() throws Exception {
+        migrate("NONE");
+        insertUsers(0, "user", 5000);
+        deleteUsers(0);
+        assertEquals("none", admin.getStats().get(0).autoVacuum());
+
+        admin.vacuum();
+
+        DatabaseAdmin.ShardStats stats = admin.getStats().get(0);
+        assertEquals(0, stats.freePages());
+        assertEquals("incremental", stats.autoVacuum());
+    }
+
+    /**
+     * Creates the schema on every shard, in write-ahead log mode as the database uses.
+     */
+    void migrate(final String autoVacuum) throws SQLException {
+        for (ConnectionPool pool : pools) {
+            try (PooledConnection connection = pool.getConnection();
+                 Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA auto_vacuum = " + autoVacuum);
+                statement.executeQuery("PRAGMA journal_mode = WAL").close();
+                SchemaMigrator.migrate(connection.getConnection());
+            }
+        }
+    }
+
+    void insertUsers(final int shard, final String prefix, final int count) throws SQLException {
+        try (PooledConnection connection = pools.get(shard).getConnection()) {
+            connection.getConnection().setAutoCommit(false);
+            PreparedStatement insert = connection.prepareStatement("""
+                    INSERT INTO users (username, password_hash, password_salt,
+                                       hash_algorithm, hash_parameters)
+                    VALUES (?, ?, ?, 'pbkdf2', 'i=1,l=3')
+                    """);
+
+            for (int i = 0; i < count; i++) {
+                insert.setString(1, prefix + i);
+                insert.setBytes(2, new byte[] {1, 2, 3});
+                insert.setBytes(3, new byte[] {4, 5});
+                insert.executeUpdate();
+            }
+
+            connection.getConnection().commit();
+            connection.getConnection().setAutoCommit(true);
+        }
+    }
+
+    void deleteUsers(final int shard) throws SQLException {
+        try (PooledConnection connection = pools.get(shard).getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM users");
+        }
+    }
+}
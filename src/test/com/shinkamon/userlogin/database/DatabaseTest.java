@@ -0,0 +1,52 @@
+package com.shinkamon.userlogin.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatabaseTest {
+    @TempDir
+    Path directory;
+    Connection connection;
+
+    @BeforeEach
+    void open() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("shard0.db"));
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void recordsShardCountOfNewShards() throws SQLException {
+        Database.checkShardCount(connection, "shard0.db", 4);
+        Database.checkShardCount(connection, "shard0.db", 4);
+
+        // the header field is kept in the file, so a new connection sees it too
+        try (Connection reopened = DriverManager.getConnection(
+                "jdbc:sqlite:" + directory.resolve("shard0.db"))) {
+            Database.checkShardCount(reopened, "shard0.db", 4);
+            assertThrows(IllegalStateException.class,
+                    () -> Database.checkShardCount(reopened, "shard0.db", 2));
+        }
+    }
+
+    @Test
+    void refusesShardsCreatedForAnotherShardCount() throws SQLException {
+        Database.checkShardCount(connection, "shard0.db", 4);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> Database.checkShardCount(connection, "shard0.db", 8));
+        assertTrue(e.getMessage().contains("created for 4 shards"), e.getMessage());
+    }
+}
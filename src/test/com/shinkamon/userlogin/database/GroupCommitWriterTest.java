@@ -0,0 +1,100 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.RequestExecutors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GroupCommitWriterTest {
+    @TempDir
+    Path directory;
+    ConnectionPool pool;
+    GroupCommitWriter writer;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        // every commit is synced to disk, as it would be for a database in rollback journal mode
+        pool = new ConnectionPool("jdbc:sqlite:" + directory.resolve("test.db"), 2, 5000, 8,
+                List.of("PRAGMA synchronous = FULL"));
+
+        try (PooledConnection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection.getConnection());
+        }
+
+        writer = new GroupCommitWriter(pool, 256, 0, 1024);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writer.close();
+        pool.close();
+    }
+
+    @Test
+    void reportsDuplicateUsernames() throws Exception {
+        assertTrue(writer.insert(credentials("alice")));
+        assertFalse(writer.insert(credentials("alice")));
+    }
+
+    @Test
+    void reportsDuplicateUsernamesWithinBatch() throws Exception {
+        ExecutorService callers = RequestExecutors.newRequestExecutor("caller");
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (int i = 0; i < 20; i++) {
+            results.add(callers.submit(() -> writer.insert(credentials("bob"))));
+        }
+
+        int inserted = 0;
+        for (Future<Boolean> result : results) {
+            inserted += result.get() ? 1 : 0;
+        }
+
+        callers.shutdown();
+        assertEquals(1, inserted);
+    }
+
+    @Test
+    void commitsConcurrentRegistrationsTogether() throws Exception {
+        // waits far longer than the test takes, so every batch is committed only once it is full
+        GroupCommitWriter batching = new GroupCommitWriter(pool, 8,
+                TimeUnit.SECONDS.toMicros(30), 1024);
+        ExecutorService callers = RequestExecutors.newRequestExecutor("caller");
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        try {
+            for (int i = 0; i < 24; i++) {
+                String username = "user" + i;
+                results.add(callers.submit(() -> batching.insert(credentials(username))));
+            }
+
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get(10, TimeUnit.SECONDS));
+            }
+
+            GroupCommitWriter.Stats stats = batching.getStats();
+            assertEquals(3, stats.batches());
+            assertEquals(24, stats.written());
+            assertEquals(8, stats.largestBatch());
+            assertEquals(0, stats.rejected());
+        } finally {
+            callers.shutdown();
+            batching.close();
+        }
+    }
+
+    private static Credentials credentials(String username) {
+        return UserStoreContractTest.credentials(username, "hash");
+    }
+}
@@ -0,0 +1,98 @@
+package com.shinkamon.userlogin.database;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedUserStoreTest extends UserStoreContractTest {
+    @TempDir
+    Path directory;
+
+    @Override
+    UserStore openStore() throws Exception {
+        return new MappedUserStore(directory.resolve("users.log"), true, 0);
+    }
+
+    @Test
+    void discardsTornRecordAfterCrash() throws Exception {
+        store.insert(credentials("alice", "hash1"));
+        store.insert(credentials("bob", "hash1"));
+        store.close();
+
+        // as if the machine crashed while the record of bob was being written
+        try (RandomAccessFile file = new RandomAccessFile(
+                directory.resolve("users.log").toFile(), "rw")) {
+            file.seek(MappedUserStore.HEADER_SIZE + MappedUserStore.RECORD_SIZE + 100);
+            file.write(0x55);
+        }
+
+        store = openStore();
+        assertTrue(store.findByUsername("alice").isPresent());
+        assertEquals(Optional.empty(), store.findByUsername("bob"));
+
+        assertTrue(store.insert(credentials("carol", "hash1")));
+        store.close();
+        store = openStore();
+        assertEquals(2, store.countUsers());
+        assertTrue(store.findByUsername("carol").isPresent());
+    }
+
+    @Test
+    void compactionKeepsOnlyCurrentRecords() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            store.insert(credentials("user" + i, "hash0"));
+        }
+        for (int round = 1; round <= 10; round++) {
+            for (int i = 0; i < 100; i++) {
+                store.updatePassword(credentials("user" + i, "hash" + round));
+            }
+        }
+
+        MappedUserStore mapped = (MappedUserStore) store;
+        assertEquals(1100, mapped.getStats().records());
+        mapped.compact();
+        assertEquals(new MappedUserStore.Stats(100, 100, 1), mapped.getStats());
+        assertFalse(Files.exists(directory.resolve("users.log.compacting")));
+
+        assertTrue(store.insert(credentials("alice", "hash0")));
+        store.close();
+        store = openStore();
+        assertEquals(101, store.countUsers());
+        assertArrayEquals(bytes("hash10"),
+                store.findByUsername("user42").orElseThrow().passwordHash());
+    }
+
+    @Test
+    void growsBeyondInitialSize() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(store.insert(credentials("user" + i, "hash")));
+        }
+
+        assertEquals(5000, store.countUsers());
+        assertTrue(store.findByUsername("user4999").isPresent());
+    }
+
+    @Test
+    void rejectsCredentialsThatDoNotFit() {
+        assertThrows(IllegalArgumentException.class,
+                () -> store.insert(credentials("a".repeat(32), "hash")));
+        assertThrows(IllegalArgumentException.class,
+                () -> store.insert(new Credentials("alice", new byte[96], bytes("salt"), "sha512",
+                        "")));
+    }
+
+    @Test
+    void refusesFilesThatAreNotCredentialLogs() throws Exception {
+        Path other = directory.resolve("other.log");
+        Files.writeString(other, "not a credential log");
+
+        assertThrows(IOException.class, () -> new MappedUserStore(other, true, 0));
+    }
+}
@@ -0,0 +1,212 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.HashGenerator;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import com.shinkamon.userlogin.support.Sha512PasswordHasher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SchemaMigratorTest {
+    static final char[] PASSWORD = "Password1".toCharArray();
+    @TempDir
+    Path directory;
+    Connection connection;
+
+    @BeforeEach
+    void open() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:sqlite:" + directory.resolve("test.db"));
+    }
+
+    @AfterEach
+    void close() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    void migratesNewDatabaseToLatestVersion() throws SQLException {
+        assertEquals(SchemaMigrator.getLatestVersion(), SchemaMigrator.migrate(connection));
+        assertEquals(SchemaMigrator.getLatestVersion(), SchemaMigrator.getVersion(connection));
+        assertEquals(0, SchemaMigrator.migrate(connection));
+    }
+
+    @Test
+    void convertsTextHashesAndSaltsToBytes() throws Exception {
+        createVersion4Database();
+        // random bytes decoded as UTF-8, as salts used to be generated
+        String salt = new String(new byte[] {(byte) 0xff, 'a', (byte) 0xc3, (byte) 0xa9},
+                StandardCharsets.UTF_8);
+        String zeroSalt = findSaltWithLeadingZero();
+        Pbkdf2PasswordHasher pbkdf2 = new Pbkdf2PasswordHasher(1000);
+        String pbkdf2Hash = HexFormat.of().formatHex(
+                pbkdf2.hash(PASSWORD, salt.getBytes(StandardCharsets.UTF_8)));
+
+        insertTextRow(7, "alice", getLegacyHash(salt), salt, "sha512", "");
+        insertTextRow(8, "bob", getLegacyHash(zeroSalt), zeroSalt, "sha512", "");
+        insertTextRow(9, "carol", pbkdf2Hash.toUpperCase(), salt, pbkdf2.getAlgorithm(),
+                pbkdf2.getParameters());
+        insertTextRow(10, "dave", "not a hash", salt, "sha512", "");
+
+        assertEquals(1, SchemaMigrator.migrate(connection));
+
+        Sha512PasswordHasher sha512 = new Sha512PasswordHasher(new HashGenerator(null));
+        Credentials alice = select("alice");
+        Credentials bob = select("bob");
+        assertEquals(64, bob.passwordHash().length);
+        assertTrue(sha512.verify(PASSWORD, alice.passwordSalt(), alice.passwordHash()));
+        assertTrue(sha512.verify(PASSWORD, bob.passwordSalt(), bob.passwordHash()));
+        assertTrue(pbkdf2.verify(PASSWORD, select("carol").passwordSalt(),
+                select("carol").passwordHash()));
+        assertFalse(sha512.verify(PASSWORD, select("dave").passwordSalt(),
+                select("dave").passwordHash()));
+        assertEquals(List.of(7L, 8L, 9L, 10L), selectRowids());
+    }
+
+    @Test
+    void keepsUsernamesUnique() throws Exception {
+        createVersion4Database();
+        insertTextRow(1, "alice", "00", "salt", "sha512", "");
+        SchemaMigrator.migrate(connection);
+
+        assertThrows(SQLException.class,
+                () -> insertTextRow(2, "alice", "00", "salt", "sha512", ""));
+    }
+
+    @Test
+    void keepsDuplicateUsersAsideInsteadOfDeletingThem() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                    CREATE TABLE users (
+                    username VARCHAR,
+                    password_hash VARCHAR,
+                    password_salt VARCHAR
+                    )
+                    """);
+            statement.executeUpdate("PRAGMA user_version = 1");
+            statement.executeUpdate("""
+                    INSERT INTO users (rowid, username, password_hash, password_salt)
+                    VALUES (1, 'alice', 'aa', 'first'), (2, 'bob', 'bb', 'salt'),
+                           (3, 'alice', 'cc', 'second')
+                    """);
+        }
+
+        assertEquals(4, SchemaMigrator.migrate(connection));
+
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("""
+                     SELECT original_rowid, username, password_salt
+                     FROM users_duplicates
+                     """)) {
+            assertTrue(resultSet.next());
+            assertEquals(3, resultSet.getLong(1));
+            assertEquals("alice", resultSet.getString(2));
+            assertEquals("second", resultSet.getString(3));
+            assertFalse(resultSet.next());
+        }
+
+        assertArrayEquals("first".getBytes(StandardCharsets.UTF_8),
+                select("alice").passwordSalt());
+        assertEquals("sha512", select("bob").hashAlgorithm());
+    }
+
+    /**
+     * Creates a database at the schema version before hashes and salts were stored as bytes.
+     */
+    private void createVersion4Database() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("""
+                    CREATE TABLE users (
+                    username VARCHAR,
+                    password_hash VARCHAR,
+                    password_salt VARCHAR,
+                    hash_algorithm VARCHAR NOT NULL DEFAULT 'sha512',
+                    hash_parameters VARCHAR NOT NULL DEFAULT ''
+                    )
+                    """);
+            statement.executeUpdate(
+                    "CREATE UNIQUE INDEX users_username_index ON users (username)");
+            statement.executeUpdate("PRAGMA user_version = 4");
+        }
+    }
+
+    private void insertTextRow(long rowid, String username, String hash, String salt,
+                               String algorithm, String parameters) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO users (rowid, username, password_hash, password_salt, "
+                        + "hash_algorithm, hash_parameters) VALUES (?, ?, ?, ?, ?, ?)")) {
+            statement.setLong(1, rowid);
+            statement.setString(2, username);
+            statement.setString(3, hash);
+            statement.setString(4, salt);
+            statement.setString(5, algorithm);
+            statement.setString(6, parameters);
+            statement.executeUpdate();
+        }
+    }
+
+    private Credentials select(String username) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(
+                "SELECT password_hash, password_salt, hash_algorithm, hash_parameters, "
+                        + "typeof(password_hash) FROM users WHERE username = ?")) {
+            statement.setString(1, username);
+
+            try (ResultSet resultSet = statement.executeQuery()) {
+                assertEquals("blob", resultSet.getString(5));
+                return new Credentials(username, resultSet.getBytes(1), resultSet.getBytes(2),
+                        resultSet.getString(3), resultSet.getString(4));
+            }
+        }
+    }
+
+    private List<Long> selectRowids() throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(
+                     "SELECT rowid FROM users ORDER BY rowid")) {
+            List<Long> rowids = new ArrayList<>();
+            while (resultSet.next()) {
+                rowids.add(resultSet.getLong(1));
+            }
+            return rowids;
+        }
+    }
+
+    /**
+     * Returns a salt for which the legacy hash of the password is missing its leading zeros.
+     */
+    private static String findSaltWithLeadingZero() throws Exception {
+        for (int i = 0; ; i++) {
+            String salt = "salt" + i;
+            if (getLegacyHash(salt).length() < 128) {
+                return salt;
+            }
+        }
+    }
+
+    /**
+     * The hashing implementation of earlier versions, over the UTF-8 bytes of a text salt, which
+     * dropped leading zeros.
+     */
+    private static String getLegacyHash(String salt) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA512");
+        md.update(salt.getBytes(StandardCharsets.UTF_8));
+        byte[] digest = md.digest(new String(PASSWORD).getBytes(StandardCharsets.UTF_8));
+        return new BigInteger(1, digest).toString(16);
+    }
+}
@@ -0,0 +1,34 @@
+package com.shinkamon.userlogin.database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardRouterTest {
+
+    @Test
+    void routesEveryUserToTheOnlyShard() {
+        assertEquals(0, ShardRouter.shardOf("alice", 1));
+        assertEquals(0, ShardRouter.shardOf("", 1));
+    }
+
+    @Test
+    void routesUsersToStableShards() {
+        // fixed by the FNV-1a definition, so existing shards stay valid across releases
+        assertEquals(Integer.remainderUnsigned(0xe40c292c, 4), ShardRouter.shardOf("a", 4));
+        assertEquals(Integer.remainderUnsigned(0xbf9cf968, 7), ShardRouter.shardOf("foobar", 7));
+        assertEquals(ShardRouter.shardOf("alice", 8), ShardRouter.shardOf("alice", 8));
+    }
+
+    @Test
+    void spreadsUsersEvenly() {
+        int[] users = new int[8];
+        for (int i = 0; i < 80_000; i++) {
+            users[ShardRouter.shardOf("user" + i, users.length)]++;
+        }
+
+        for (int shardUsers : users) {
+            assertEquals(10_000, shardUsers, 500);
+        }
+    }
+}
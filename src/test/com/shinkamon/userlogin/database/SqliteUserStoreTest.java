@@ -0,0 +1,41 @@
+package com.shinkamon.userlogin.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+class SqliteUserStoreTest extends UserStoreContractTest {
+    @TempDir
+    Path directory;
+    List<ConnectionPool> pools = new ArrayList<>();
+
+    @Override
+    UserStore openStore() throws Exception {
+        closePools();
+        List<GroupCommitWriter> writers = new ArrayList<>();
+
+        // two shards, so that routing is covered too
+        for (int shard = 0; shard < 2; shard++) {
+            ConnectionPool pool = new ConnectionPool(
+                    "jdbc:sqlite:" + directory.resolve("shard" + shard + ".db"), 2, 5000, 8,
+                    List.of());
+            try (PooledConnection connection = pool.getConnection()) {
+                SchemaMigrator.migrate(connection.getConnection());
+            }
+
+            pools.add(pool);
+            writers.add(new GroupCommitWriter(pool, 64, 0, 256));
+        }
+
+        return new SqliteUserStore(pools, writers);
+    }
+
+    @AfterEach
+    void closePools() {
+        pools.forEach(ConnectionPool::close);
+        pools.clear();
+    }
+}
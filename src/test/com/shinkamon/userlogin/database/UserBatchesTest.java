@@ -0,0 +1,73 @@
+package com.shinkamon.userlogin.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserBatchesTest {
+    @TempDir
+    Path directory;
+    ConnectionPool pool;
+
+    @BeforeEach
+    void setup() throws SQLException {
+        pool = new ConnectionPool("jdbc:sqlite:" + directory.resolve("test.db"), 2, 5000, 8,
+                List.of());
+
+        try (PooledConnection connection = pool.getConnection()) {
+            SchemaMigrator.migrate(connection.getConnection());
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void skipsTakenUsernames() throws SQLException {
+        try (PooledConnection connection = pool.getConnection()) {
+            assertArrayEquals(new boolean[] {true},
+                    UserBatches.write(connection, List.of(credentials("alice"))));
+
+            boolean[] inserted = UserBatches.write(connection, List.of(credentials("alice"),
+                    credentials("bob"), credentials("bob")));
+            assertArrayEquals(new boolean[] {false, true, false}, inserted);
+            assertEquals(1, UserBatches.count(inserted));
+            assertTrue(connection.getConnection().getAutoCommit());
+            assertEquals(2, countUsers(connection));
+        }
+    }
+
+    @Test
+    void rollsBackBatchOnFailure() throws SQLException {
+        try (PooledConnection connection = pool.getConnection()) {
+            // a missing hash violates the NOT NULL constraint of the column
+            Credentials broken = new Credentials("carol", null, new byte[] {1}, "sha512", "");
+            assertThrows(SQLException.class, () -> UserBatches.write(connection,
+                    List.of(credentials("alice"), broken)));
+            assertTrue(connection.getConnection().getAutoCommit());
+            assertEquals(0, countUsers(connection));
+        }
+    }
+
+    private static long countUsers(PooledConnection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT COUNT(*) FROM users")) {
+            return resultSet.getLong(1);
+        }
+    }
+
+    private static Credentials credentials(String username) {
+        return UserStoreContractTest.credentials(username, "hash");
+    }
+}
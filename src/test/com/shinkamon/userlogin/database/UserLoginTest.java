@@ -0,0 +1,119 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.audit.AuditEvent;
+import com.shinkamon.userlogin.audit.AuditLog;
+import com.shinkamon.userlogin.support.HashingExecutor;
+import com.shinkamon.userlogin.support.LoginThrottle;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import com.shinkamon.userlogin.support.SessionTokens;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserLoginTest {
+
+    @Test
+    void acceptsValidUsernames() {
+        assertTrue(UserLogin.isValidUsername("abc"));
+        assertTrue(UserLogin.isValidUsername("user_name_1"));
+        assertTrue(UserLogin.isValidUsername("a".repeat(30)));
+    }
+
+    @Test
+    void rejectsInvalidUsernames() {
+        assertFalse(UserLogin.isValidUsername(null));
+        assertFalse(UserLogin.isValidUsername("ab"));
+        assertFalse(UserLogin.isValidUsername("a".repeat(31)));
+        assertFalse(UserLogin.isValidUsername("user name"));
+        assertFalse(UserLogin.isValidUsername("user-name"));
+    }
+
+    @Test
+    void acceptsValidPasswords() {
+        assertTrue(UserLogin.isValidPassword("Password1".toCharArray()));
+        assertTrue(UserLogin.isValidPassword("12345678a".toCharArray()));
+    }
+
+    @Test
+    void rejectsInvalidPasswords() {
+        assertFalse(UserLogin.isValidPassword(null));
+        assertFalse(UserLogin.isValidPassword("Pass1".toCharArray()));
+        assertFalse(UserLogin.isValidPassword("Password".toCharArray()));
+        assertFalse(UserLogin.isValidPassword("12345678".toCharArray()));
+        assertFalse(UserLogin.isValidPassword("Pass word1".toCharArray()));
+        assertFalse(UserLogin.isValidPassword(("a1" + "b".repeat(49)).toCharArray()));
+    }
+
+    @Test
+    void rejectsInvalidInputBeforeRegistering() {
+        UserLogin userLogin = createUserLogin(null, null);
+
+        assertEquals(RegistrationResult.INVALID_USERNAME,
+                userLogin.register("a", "Password1".toCharArray()));
+        assertEquals(RegistrationResult.INVALID_PASSWORD,
+                userLogin.register("valid_name", "short".toCharArray()));
+    }
+
+    @Test
+    void rejectsInvalidUsernamesBeforeAuthenticating() {
+        try (UserLogin userLogin = createUserLogin(null, null)) {
+            assertEquals(AuthenticationResult.INVALID_CREDENTIALS,
+                    userLogin.authenticate(null, "Password1".toCharArray()));
+            assertEquals(AuthenticationResult.INVALID_CREDENTIALS,
+                    userLogin.authenticate("a", "Password1".toCharArray()));
+            assertEquals(new LoginSession(AuthenticationResult.INVALID_CREDENTIALS, null),
+                    userLogin.startSession(null, "Password1".toCharArray(), "10.0.0.1"));
+        }
+    }
+
+    @Test
+    void recordsAttemptsInAuditLog() {
+        List<AuditEvent> events = new CopyOnWriteArrayList<>();
+        AuditLog auditLog = new AuditLog(new AuditLog.Config("", 16, 16, 10,
+                AuditLog.OverflowPolicy.DROP_NEWEST, 1, 1, false), events::addAll);
+
+        try (UserLogin userLogin = createUserLogin(auditLog, null)) {
+            userLogin.register("a", "Password1".toCharArray(), "10.0.0.1");
+        }
+
+        assertEquals(1, events.size());
+        AuditEvent event = events.get(0);
+        assertEquals(AuditEvent.Type.REGISTRATION, event.type());
+        assertEquals("a", event.username());
+        assertEquals("10.0.0.1", event.source());
+        assertEquals("INVALID_USERNAME", event.outcome());
+        assertTrue(event.latencyNanos() > 0);
+    }
+
+    @Test
+    void endsSessions() {
+        List<AuditEvent> events = new CopyOnWriteArrayList<>();
+        AuditLog auditLog = new AuditLog(new AuditLog.Config("", 16, 16, 10,
+                AuditLog.OverflowPolicy.DROP_NEWEST, 1, 1, false), events::addAll);
+        SessionTokens sessionTokens = new SessionTokens(new SessionTokens.Config(60, 3600, 16));
+        String token = sessionTokens.issue("user_1");
+
+        try (UserLogin userLogin = createUserLogin(auditLog, sessionTokens)) {
+            assertEquals("user_1", userLogin.verifySession(token).orElseThrow());
+            assertTrue(userLogin.endSession(token, "10.0.0.1"));
+            assertTrue(userLogin.verifySession(token).isEmpty());
+            assertFalse(userLogin.endSession(token, "10.0.0.1"));
+        }
+
+        assertEquals(2, events.size());
+        assertEquals(AuditEvent.Type.LOGOUT, events.get(0).type());
+        assertEquals("user_1", events.get(0).username());
+        assertEquals("LOGGED_OUT", events.get(0).outcome());
+        assertEquals("INVALID_SESSION", events.get(1).outcome());
+    }
+
+    private static UserLogin createUserLogin(AuditLog auditLog, SessionTokens sessionTokens) {
+        LoginThrottle throttle = new LoginThrottle(
+                new LoginThrottle.Config(1024, 10, 1, 100, 10, 5, 1000, 60_000));
+        return new UserLogin(new Pbkdf2PasswordHasher(1000), new HashingExecutor(1, 4), throttle,
+                auditLog, sessionTokens, null);
+    }
+}
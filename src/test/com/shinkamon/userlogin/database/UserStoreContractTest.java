@@ -0,0 +1,151 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.RequestExecutors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The behaviour every {@link UserStore} must have; each store has a subclass that opens it.
+ */
+abstract class UserStoreContractTest {
+    UserStore store;
+
+    /**
+     * Opens the store under test, on the same files every time it is called within a test.
+     */
+    abstract UserStore openStore() throws Exception;
+
+    @BeforeEach
+    void open() throws Exception {
+        store = openStore();
+    }
+
+    @AfterEach
+    void close() {
+        store.close();
+    }
+
+    @Test
+    void findsInsertedUsers() throws Exception {
+        Credentials alice = credentials("alice", "hash1");
+
+        assertTrue(store.insert(alice));
+        assertEquals(Optional.of(alice), store.findByUsername("alice"));
+    }
+
+    @Test
+    void doesNotFindUnknownUsers() throws Exception {
+        store.insert(credentials("alice", "hash1"));
+
+        assertEquals(Optional.empty(), store.findByUsername("bob"));
+        assertEquals(Optional.empty(), store.findByUsername("alic"));
+        assertEquals(Optional.empty(), store.findByUsername("alice2"));
+    }
+
+    @Test
+    void rejectsDuplicateUsernames() throws Exception {
+        assertTrue(store.insert(credentials("alice", "hash1")));
+        assertFalse(store.insert(credentials("alice", "hash2")));
+
+        assertArrayEquals(bytes("hash1"),
+                store.findByUsername("alice").orElseThrow().passwordHash());
+        assertEquals(1, store.countUsers());
+    }
+
+    @Test
+    void updatesPasswordsOfRegisteredUsersOnly() throws Exception {
+        store.insert(credentials("alice", "hash1"));
+        Credentials updated = new Credentials("alice", bytes("hash2"), bytes("salt2"), "pbkdf2",
+                "i=10");
+
+        assertTrue(store.updatePassword(updated));
+        assertFalse(store.updatePassword(credentials("bob", "hash1")));
+        assertEquals(Optional.of(updated), store.findByUsername("alice"));
+        assertEquals(Optional.empty(), store.findByUsername("bob"));
+    }
+
+    @Test
+    void countsAndListsUsernames() throws Exception {
+        Set<String> usernames = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            usernames.add("user" + i);
+            store.insert(credentials("user" + i, "hash" + i));
+        }
+        store.updatePassword(credentials("user7", "hash"));
+
+        Set<String> listed = new HashSet<>();
+        store.forEachUsername(listed::add);
+
+        assertEquals(100, store.countUsers());
+        assertEquals(usernames, listed);
+    }
+
+    @Test
+    void keepsUsersWhenReopened() throws Exception {
+        store.insert(credentials("alice", "hash1"));
+        store.insert(credentials("bob", "hash1"));
+        store.updatePassword(credentials("bob", "hash2"));
+
+        store.close();
+        store = openStore();
+
+        assertArrayEquals(bytes("hash1"),
+                store.findByUsername("alice").orElseThrow().passwordHash());
+        assertArrayEquals(bytes("hash2"), store.findByUsername("bob").orElseThrow().passwordHash());
+        assertEquals(2, store.countUsers());
+    }
+
+    @Test
+    void keepsHashesAndSaltsOfAnyBytes() throws Exception {
+        // salts are random bytes, so they are rarely valid UTF-8
+        byte[] salt = new byte[63];
+        for (int i = 0; i < salt.length; i++) {
+            salt[i] = (byte) (255 - i);
+        }
+        Credentials alice = new Credentials("alice", new byte[] {0, (byte) 0xc3, 0x28, 0},
+                salt, "sha512", "");
+        store.insert(alice);
+
+        assertEquals(Optional.of(alice), store.findByUsername("alice"));
+    }
+
+    @Test
+    void registersEachUsernameOnceUnderConcurrency() throws Exception {
+        ExecutorService callers = RequestExecutors.newRequestExecutor("caller");
+        List<Future<Boolean>> results = new ArrayList<>();
+
+        for (int i = 0; i < 200; i++) {
+            String username = "user" + i % 50;
+            results.add(callers.submit(() -> store.insert(credentials(username, "hash"))));
+        }
+
+        int inserted = 0;
+        for (Future<Boolean> result : results) {
+            inserted += result.get() ? 1 : 0;
+        }
+
+        callers.shutdown();
+        assertEquals(50, inserted);
+        assertEquals(50, store.countUsers());
+    }
+
+    static Credentials credentials(String username, String passwordHash) {
+        return new Credentials(username, bytes(passwordHash), bytes("salt"), "sha512", "");
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
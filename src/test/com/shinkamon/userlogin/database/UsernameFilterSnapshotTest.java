@@ -0,0 +1,182 @@
+package com.shinkamon.userlogin.database;
+
+import com.shinkamon.userlogin.support.BloomFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UsernameFilterSnapshotTest {
+    @TempDir
+    Path directory;
+    List<ConnectionPool> pools = new ArrayList<>();
+
+    @AfterEach
+    void closePools() {
+        pools.forEach(ConnectionPool::close);
+        pools.clear();
+    }
+
+    @Test
+    void readsWrittenSnapshot() throws IOException {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 500; i++) {
+            filter.add("user" + i);
+        }
+        List<UserStore.Position> positions = List.of(new UserStore.Position(250, "user249"),
+                new UserStore.Position(0, ""));
+        Path path = directory.resolve("users.filter");
+
+        UsernameFilterSnapshot.write(path, filter, positions);
+        UsernameFilterSnapshot.Contents contents = UsernameFilterSnapshot.read(path).orElseThrow();
+
+        assertEquals(positions, contents.positions());
+        assertEquals(filter.getStats(), contents.filter().getStats());
+        for (int i = 0; i < 500; i++) {
+            assertTrue(contents.filter().mightContain("user" + i));
+        }
+        assertFalse(Files.exists(directory.resolve("users.filter.tmp")));
+    }
+
+    @Test
+    void findsNoSnapshotWithoutFile() throws IOException {
+        assertEquals(Optional.empty(), UsernameFilterSnapshot.read(directory.resolve("none")));
+    }
+
+    @Test
+    void refusesCorruptSnapshot() throws IOException {
+        Path path = directory.resolve("users.filter");
+        UsernameFilterSnapshot.write(path, new BloomFilter(1000, 0.01),
+                List.of(new UserStore.Position(0, "")));
+
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(100);
+            file.write(0x55);
+        }
+
+        assertThrows(IOException.class, () -> UsernameFilterSnapshot.read(path));
+    }
+
+    @Test
+    void restoresFilterAndAddsUsersRegisteredSince() throws Exception {
+        Path path = directory.resolve("users.filter");
+        SqliteUserStore store = openStore("a");
+        CredentialRepository repository = openRepository(store, path);
+
+        for (int i = 0; i < 100; i++) {
+            repository.insert(UserStoreContractTest.credentials("user" + i, "hash"));
+        }
+        assertFalse(repository.buildUsernameFilter().fromSnapshot());
+        assertTrue(repository.snapshotUsernameFilter());
+        // registered while no repository with a filter was running
+        for (int i = 100; i < 110; i++) {
+            store.insert(UserStoreContractTest.credentials("user" + i, "hash"));
+        }
+
+        CredentialRepository restarted = openRepository(store, path);
+        CredentialRepository.FilterBuild build = restarted.buildUsernameFilter();
+
+        assertTrue(build.fromSnapshot());
+        assertEquals(10, build.users());
+        for (int i = 0; i < 110; i++) {
+            assertTrue(restarted.findByUsername("user" + i).isPresent());
+        }
+        assertEquals(110, build.filter().insertions());
+    }
+
+    @Test
+    void addsUsersWrittenByOtherProcessesBeforeSnapshotting() throws Exception {
+        Path path = directory.resolve("users.filter");
+        SqliteUserStore store = openStore("a");
+        CredentialRepository repository = openRepository(store, path);
+        repository.insert(UserStoreContractTest.credentials("alice", "hash"));
+        repository.buildUsernameFilter();
+
+        // e.g. a bulk import running next to the server, on the same database files
+        SqliteUserStore importer = openStore("a");
+        importer.insert(UserStoreContractTest.credentials("bob", "hash"));
+        assertFalse(repository.findByUsername("bob").isPresent());
+
+        assertTrue(repository.snapshotUsernameFilter());
+        assertTrue(repository.findByUsername("bob").isPresent());
+
+        CredentialRepository restarted = openRepository(store, path);
+        CredentialRepository.FilterBuild build = restarted.buildUsernameFilter();
+
+        assertTrue(build.fromSnapshot());
+        assertEquals(0, build.users());
+        assertTrue(restarted.findByUsername("alice").isPresent());
+        assertTrue(restarted.findByUsername("bob").isPresent());
+    }
+
+    @Test
+    void rebuildsFilterWhenShardsWereReplaced() throws Exception {
+        Path path = directory.resolve("users.filter");
+        SqliteUserStore store = openStore("a");
+        CredentialRepository repository = openRepository(store, path);
+        repository.insert(UserStoreContractTest.credentials("alice", "hash"));
+        repository.insert(UserStoreContractTest.credentials("bob", "hash"));
+        repository.buildUsernameFilter();
+        repository.snapshotUsernameFilter();
+
+        // new databases, in which other users have taken the same rowids
+        SqliteUserStore replaced = openStore("b");
+        for (String username : List.of("carol", "dave", "erin", "frank")) {
+            replaced.insert(UserStoreContractTest.credentials(username, "hash"));
+        }
+
+        CredentialRepository.FilterBuild build =
+                openRepository(replaced, path).buildUsernameFilter();
+
+        assertFalse(build.fromSnapshot());
+        assertEquals(4, build.users());
+    }
+
+    @Test
+    void closesStoreAlongWithRepository() throws Exception {
+        MappedUserStore store = new MappedUserStore(directory.resolve("users.log"), false, 0);
+        CredentialRepository repository = new CredentialRepository(store, 0, 0, 0, 0, 1000, 0.01,
+                directory.resolve("users.filter"), 60_000);
+        repository.insert(UserStoreContractTest.credentials("alice", "hash"));
+        repository.buildUsernameFilter();
+
+        repository.close();
+
+        assertThrows(RejectedExecutionException.class,
+                () -> repository.insert(UserStoreContractTest.credentials("bob", "hash")));
+    }
+
+    /**
+     * Opens a store on two new shards, without group commit.
+     */
+    private SqliteUserStore openStore(String name) throws Exception {
+        List<ConnectionPool> shards = new ArrayList<>();
+
+        for (int shard = 0; shard < 2; shard++) {
+            ConnectionPool pool = new ConnectionPool(
+                    "jdbc:sqlite:" + directory.resolve(name + shard + ".db"), 2, 5000, 8,
+                    List.of());
+            try (PooledConnection connection = pool.getConnection()) {
+                SchemaMigrator.migrate(connection.getConnection());
+            }
+            shards.add(pool);
+        }
+
+        pools.addAll(shards);
+        return new SqliteUserStore(shards, List.of());
+    }
+
+    private static CredentialRepository openRepository(UserStore store, Path snapshotPath) {
+        return new CredentialRepository(store, 0, 0, 0, 0, 1000, 0.01, snapshotPath, 0);
+    }
+}
@@ -0,0 +1,82 @@
+package com.shinkamon.userlogin.importer;
+
+import com.shinkamon.userlogin.support.PasswordBlocklist;
+import com.shinkamon.userlogin.support.PasswordBlocklistBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserImporterTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void parsesCsvLines() {
+        UserImporter.Row row = UserImporter.parseLine("alice,Pass,word1", 2, false, null);
+
+        assertNull(row.rejectReason());
+        assertEquals("alice", row.username());
+        assertArrayEquals("Pass,word1".toCharArray(), row.password());
+    }
+
+    @Test
+    void skipsHeaderAndBlankLines() {
+        assertNull(UserImporter.parseLine("username,password", 1, false, null));
+        assertNull(UserImporter.parseLine("  ", 5, false, null));
+        assertNotNull(UserImporter.parseLine("username,password", 2, false, null));
+    }
+
+    @Test
+    void parsesJsonLines() {
+        UserImporter.Row row = UserImporter.parseLine(
+                "{\"username\": \"alice\", \"password\": \"Password1\"}", 1, true, null);
+
+        assertNull(row.rejectReason());
+        assertEquals("alice", row.username());
+        assertArrayEquals("Password1".toCharArray(), row.password());
+    }
+
+    @Test
+    void rejectsInvalidLines() {
+        assertEquals("malformed line",
+                UserImporter.parseLine("alice", 1, false, null).rejectReason());
+        assertEquals("malformed line",
+                UserImporter.parseLine("[1, 2]", 1, true, null).rejectReason());
+        assertEquals("malformed line",
+                UserImporter.parseLine("{", 1, true, null).rejectReason());
+        assertEquals("invalid username",
+                UserImporter.parseLine("a b,Password1", 1, false, null).rejectReason());
+        assertEquals("invalid password",
+                UserImporter.parseLine("{\"username\": \"alice\"}", 1, true, null).rejectReason());
+    }
+
+    @Test
+    void rejectsBreachedPasswords() throws IOException {
+        Path hashes = directory.resolve("hashes.txt");
+        Path output = directory.resolve("passwords.blocklist");
+        // SHA-1 of Password1
+        Files.writeString(hashes, "70CCD9007338D6D81DD3B6271621B9CF9A97EA00:1\n");
+        new PasswordBlocklistBuilder(16).build(hashes, output);
+
+        try (PasswordBlocklist blocklist = PasswordBlocklist.open(output)) {
+            UserImporter.Row row = UserImporter.parseLine("alice,Password1", 1, false, blocklist);
+            assertEquals("breached password", row.rejectReason());
+            assertNull(row.password());
+            assertNull(UserImporter.parseLine("bob,Password2", 1, false, blocklist)
+                    .rejectReason());
+        }
+    }
+
+    @Test
+    void doesNotKeepPasswordsOfRejectedLines() {
+        UserImporter.Row row = UserImporter.parseLine("alice,short", 1, false, null);
+
+        assertEquals("invalid password", row.rejectReason());
+        assertNull(row.password());
+    }
+}
@@ -0,0 +1,41 @@
+package com.shinkamon.userlogin.loadtest;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGeneratorTest {
+
+    @Test
+    void picksOperationsByWeight() {
+        LoadGenerator.Mix mix = new LoadGenerator.Mix(1, 2, 0, 3);
+
+        assertEquals(6, mix.total());
+        assertEquals(LoadGenerator.Operation.REGISTER, mix.pick(0));
+        assertEquals(LoadGenerator.Operation.VALID_LOGIN, mix.pick(1));
+        assertEquals(LoadGenerator.Operation.VALID_LOGIN, mix.pick(2));
+        assertEquals(LoadGenerator.Operation.UNKNOWN_USER, mix.pick(3));
+        assertEquals(LoadGenerator.Operation.UNKNOWN_USER, mix.pick(5));
+    }
+
+    @Test
+    void rejectsInvalidConfigurations() {
+        LoadGenerator.Mix mix = new LoadGenerator.Mix(10, 70, 10, 10);
+
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator(config(100, 0, mix), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator(config(100, 4, new LoadGenerator.Mix(0, 0, 0, 0)), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator(config(100, 4, new LoadGenerator.Mix(-1, 1, 0, 0)), null));
+        // logins of seeded users need seeded users, registrations and unknown users don't
+        assertThrows(IllegalArgumentException.class,
+                () -> new LoadGenerator(config(0, 4, mix), null));
+        assertDoesNotThrow(
+                () -> new LoadGenerator(config(0, 4, new LoadGenerator.Mix(1, 0, 0, 1)), null));
+    }
+
+    private static LoadGenerator.Config config(int seedUsers, int threads, LoadGenerator.Mix mix) {
+        return new LoadGenerator.Config(seedUsers, 1000, threads, false, 0, 10, 1, mix);
+    }
+}
@@ -0,0 +1,143 @@
+package com.shinkamon.userlogin.server;
+
+import com.shinkamon.userlogin.database.UserLogin;
+import com.shinkamon.userlogin.support.HashingExecutor;
+import com.shinkamon.userlogin.support.LoginThrottle;
+import com.shinkamon.userlogin.support.Pbkdf2PasswordHasher;
+import com.shinkamon.userlogin.support.SessionTokens;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoginServerTest {
+    LoginServer server;
+    LoginThrottle throttle;
+    SessionTokens sessionTokens;
+    HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setup() throws IOException {
+        throttle = new LoginThrottle(new LoginThrottle.Config(1024, 1, 0, 100, 0, 5, 1000, 60_000));
+        sessionTokens = new SessionTokens(new SessionTokens.Config(60, 3600, 16));
+        UserLogin userLogin =
+                new UserLogin(new Pbkdf2PasswordHasher(1000), new HashingExecutor(1, 4), throttle,
+                        null, sessionTokens, null);
+        server = new LoginServer(userLogin, new LoginServer.Config("localhost", 0, 16, 256));
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void reportsHealth() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/health")).GET());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"status\":\"UP\""));
+    }
+
+    @Test
+    void rejectsWrongMethod() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/login")).GET());
+
+        assertEquals(405, response.statusCode());
+        assertEquals("POST", response.headers().firstValue("Allow").orElse(""));
+    }
+
+    @Test
+    void rejectsUnknownPath() throws Exception {
+        assertEquals(404, send(HttpRequest.newBuilder(uri("/unknown")).GET()).statusCode());
+    }
+
+    @Test
+    void rejectsMalformedBody() throws Exception {
+        assertEquals(400, post("/login", "not json").statusCode());
+        assertEquals(400, post("/login", "{\"username\":\"user_1\"}").statusCode());
+    }
+
+    @Test
+    void rejectsOversizedBody() throws Exception {
+        String body = "{\"username\":\"user_1\",\"password\":\"" + "a".repeat(300) + "\"}";
+
+        assertEquals(413, post("/register", body).statusCode());
+    }
+
+    @Test
+    void rejectsInvalidRegistration() throws Exception {
+        HttpResponse<String> response =
+                post("/register", "{\"username\":\"a\",\"password\":\"Password1\"}");
+
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().contains("INVALID_USERNAME"));
+    }
+
+    @Test
+    void throttlesRepeatedLogins() throws Exception {
+        // uses up the only attempt of the username, from another source
+        assertEquals(LoginThrottle.Decision.ALLOWED, throttle.tryAcquire("user_1", "elsewhere"));
+
+        HttpResponse<String> response =
+                post("/login", "{\"username\":\"user_1\",\"password\":\"Password1\"}");
+
+        assertEquals(429, response.statusCode());
+        assertTrue(response.body().contains("THROTTLED"));
+        assertEquals("1", response.headers().firstValue("Retry-After").orElse(""));
+    }
+
+    @Test
+    void exportsMetrics() throws Exception {
+        post("/register", "{\"username\":\"a\",\"password\":\"Password1\"}");
+
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("/metrics")).GET());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("")
+                .startsWith("text/plain; version=0.0.4"));
+        assertTrue(response.body().contains(
+                "# TYPE userlogin_registration_phase_seconds summary\n"));
+        assertTrue(response.body().contains(
+                "userlogin_registrations_total{result=\"INVALID_USERNAME\"} "));
+    }
+
+    @Test
+    void authenticatesSessions() throws Exception {
+        String token = sessionTokens.issue("user_1");
+        HttpRequest.Builder session = HttpRequest.newBuilder(uri("/session")).GET();
+
+        assertEquals(401, send(session).statusCode());
+
+        HttpResponse<String> response = send(session.header("Authorization", "Bearer " + token));
+        assertEquals(200, response.statusCode());
+        assertTrue(response.body().contains("\"username\":\"user_1\""));
+
+        HttpRequest.Builder logout = HttpRequest.newBuilder(uri("/logout"))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .header("Authorization", "Bearer " + token);
+        assertEquals(200, send(logout).statusCode());
+        assertEquals(401, send(logout).statusCode());
+        assertEquals(401, send(session).statusCode());
+    }
+
+    private HttpResponse<String> post(String path, String body) throws Exception {
+        return send(HttpRequest.newBuilder(uri(path)).POST(HttpRequest.BodyPublishers.ofString(body)));
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + server.getPort() + path);
+    }
+}
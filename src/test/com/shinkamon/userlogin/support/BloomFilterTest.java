@@ -0,0 +1,85 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void containsEveryAddedValue() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("user" + i);
+        }
+
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(filter.mightContain("user" + i));
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsNearConfiguredRate() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("user" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("unknown" + i)) {
+                falsePositives++;
+            }
+        }
+
+        double rate = falsePositives / 100_000.0;
+        assertTrue(rate < 0.02, "false-positive rate " + rate);
+        assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+    }
+
+    @Test
+    void isSizedForConfiguredRate() {
+        BloomFilter.Stats stats = new BloomFilter(1_000_000, 0.01).getStats();
+
+        // about 9.6 bits and 7 hash functions per value for 1%
+        assertEquals(1_000_000 * 9.585 / 8, stats.memoryBytes(), 1_000);
+        assertEquals(7, stats.hashFunctions());
+    }
+
+    @Test
+    void doesNotCountRepeatedValues() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 300; i++) {
+            filter.add("user" + i % 100);
+        }
+
+        assertEquals(100, filter.getStats().insertions());
+    }
+
+    @Test
+    void readsWrittenFilter() {
+        BloomFilter filter = new BloomFilter(1000, 0.01);
+        for (int i = 0; i < 100; i++) {
+            filter.add("user" + i);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) filter.getSerializedSize());
+        filter.writeTo(buffer);
+        assertFalse(buffer.hasRemaining());
+        BloomFilter read = BloomFilter.readFrom(buffer.flip());
+
+        assertEquals(filter.getStats(), read.getStats());
+        assertEquals(0.01, read.getFalsePositiveRate());
+        for (int i = 0; i < 100; i++) {
+            assertTrue(read.mightContain("user" + i));
+        }
+    }
+
+    @Test
+    void rejectsInvalidRate() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+    }
+}
@@ -0,0 +1,16 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvFieldsTest {
+    @Test
+    void quotesOnlyFieldsThatNeedIt() {
+        assertEquals("", CsvFields.quote(null));
+        assertEquals("alice", CsvFields.quote("alice"));
+        assertEquals("\"a,b\"", CsvFields.quote("a,b"));
+        assertEquals("\"a\"\"b\"", CsvFields.quote("a\"b"));
+        assertEquals("\"a\nb\"", CsvFields.quote("a\nb"));
+    }
+}
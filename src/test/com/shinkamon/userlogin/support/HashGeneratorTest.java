@@ -3,7 +3,15 @@ package com.shinkamon.userlogin.support;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -17,28 +25,112 @@ class HashGeneratorTest {
 
     @Test
     void randomSaltIsRandom() {
-        String salt1 = hashGenerator.getRandomSalt();
-        String salt2 = hashGenerator.getRandomSalt();
+        byte[] salt1 = hashGenerator.getRandomSalt();
+        byte[] salt2 = hashGenerator.getRandomSalt();
 
-        assertNotEquals(salt1, salt2);
+        assertFalse(Arrays.equals(salt1, salt2));
     }
 
     @Test
-    void randomSaltIsNotEmpty() {
-        String salt = hashGenerator.getRandomSalt();
+    void randomSaltHasFixedLength() {
+        byte[] salt = hashGenerator.getRandomSalt();
 
-        assertNotEquals(0, salt.length());
+        assertEquals(16, salt.length);
     }
 
     @Test
     void generatesCorrectSHA512Hash() {
         char[] input = new char[] {'t', 'e', 's', 't', 'I', 'n', 'p', 'u', 't'};
-        String salt = "testSalt";
-        String generatedHash = hashGenerator.getSHA512Hash(input, salt);
+        byte[] salt = "testSalt".getBytes(StandardCharsets.US_ASCII);
+        byte[] generatedHash = hashGenerator.getSHA512Hash(input, salt);
         // SHA512 hash from 'testSalttestInput'
         String hash = "124c78671010b5825b63adbfe3f4d7a134b76a11cdbbfb054bbd6b91caa601ef" +
                 "e7f2316e11389ff90d5186ace73deeebd34c65d440ae200cf2b3ea861448b3d0";
 
-        assertEquals(hash, generatedHash);
+        assertArrayEquals(HexFormat.of().parseHex(hash), generatedHash);
     }
-}
\ No newline at end of file
+
+    @Test
+    void generatesHashesOfFixedWidth() {
+        for (int i = 0; i < 100; i++) {
+            byte[] salt = ("salt" + i).getBytes(StandardCharsets.US_ASCII);
+            assertEquals(64, hashGenerator.getSHA512Hash("password".toCharArray(), salt).length);
+        }
+    }
+
+    @Test
+    void generatesSameHashAsStringEncoding() {
+        // non-ASCII, a surrogate pair and an unpaired surrogate
+        char[] input = "p\u00e4ssw\u00f6rd\u20ac\ud83d\ude00\ud800x".toCharArray();
+        byte[] salt = hashGenerator.getRandomSalt();
+        String legacyHash = getLegacyHash(input, salt);
+
+        assertEquals("0".repeat(128 - legacyHash.length()) + legacyHash,
+                HexFormat.of().formatHex(hashGenerator.getSHA512Hash(input, salt)));
+    }
+
+    @Test
+    void verifiesMatchingHash() {
+        char[] input = "Password1".toCharArray();
+        byte[] salt = "salt".getBytes(StandardCharsets.US_ASCII);
+        byte[] hash = hashGenerator.getSHA512Hash(input, salt);
+
+        assertTrue(hashGenerator.verifySHA512Hash(input, salt, hash));
+        assertFalse(hashGenerator.verifySHA512Hash("Password2".toCharArray(), salt, hash));
+        byte[] otherSalt = "salt2".getBytes(StandardCharsets.US_ASCII);
+        assertFalse(hashGenerator.verifySHA512Hash(input, otherSalt, hash));
+        assertFalse(hashGenerator.verifySHA512Hash(input, salt, Arrays.copyOf(hash, 63)));
+        assertFalse(hashGenerator.verifySHA512Hash(input, salt, new byte[0]));
+    }
+
+    @Test
+    void allocatesLessPerHashThanLegacyImplementation() {
+        char[] input = "Password1".toCharArray();
+        byte[] salt = hashGenerator.getRandomSalt();
+        byte[] hash = hashGenerator.getSHA512Hash(input, salt);
+
+        long legacyBytes = getAllocatedBytesPerCall(() -> getLegacyHash(input, salt));
+        long hashBytes = getAllocatedBytesPerCall(() -> hashGenerator.getSHA512Hash(input, salt));
+        long verifyBytes = getAllocatedBytesPerCall(
+                () -> hashGenerator.verifySHA512Hash(input, salt, hash));
+
+        // allocation counts don't depend on the speed of the machine, unlike timings
+        assertTrue(hashBytes * 2 < legacyBytes, hashBytes + " vs " + legacyBytes + " bytes");
+        assertTrue(verifyBytes * 10 < legacyBytes, verifyBytes + " vs " + legacyBytes + " bytes");
+    }
+
+    /**
+     * Returns the average number of bytes allocated by the current thread per call, after warm-up.
+     */
+    private static long getAllocatedBytesPerCall(Supplier<?> call) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int calls = 20_000;
+
+        for (int i = 0; i < calls; i++) {
+            call.get();
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < calls; i++) {
+            call.get();
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / calls;
+    }
+
+    /**
+     * The hashing implementation of earlier versions, which encoded hashes as hexadecimal
+     * digits without their leading zeros.
+     */
+    private static String getLegacyHash(char[] input, byte[] salt) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA512");
+            md.update(salt);
+            byte[] digest = md.digest(new String(input).getBytes(StandardCharsets.UTF_8));
+            return new BigInteger(1, digest).toString(16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashingExecutorTest {
+    HashingExecutor executor = HashingExecutor.perCore(2);
+
+    @AfterEach
+    void tearDown() {
+        executor.close();
+    }
+
+    @Test
+    void returnsResultOfTask() throws InterruptedException {
+        assertEquals(42, executor.execute(() -> 42));
+        assertEquals(1, executor.getStats().completed());
+    }
+
+    @Test
+    void propagatesExceptionOfTask() {
+        assertThrows(IllegalStateException.class, () -> executor.execute(() -> {
+            throw new IllegalStateException();
+        }));
+    }
+
+    @Test
+    void rejectsWhenQueueIsFull() throws InterruptedException {
+        HashingExecutor single = new HashingExecutor(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = RequestExecutors.newRequestExecutor("caller");
+
+        try {
+            // one task occupies the thread and one fills the queue
+            submit(callers, single, release);
+            awaitStats(single, 1, 0);
+            submit(callers, single, release);
+            awaitStats(single, 1, 1);
+
+            assertThrows(RejectedExecutionException.class, () -> single.execute(() -> 0));
+            assertEquals(1, single.getStats().rejected());
+        } finally {
+            release.countDown();
+            callers.shutdown();
+            single.close();
+        }
+    }
+
+    @Test
+    void acceptsOnlyWhatFitsWhenSaturated() throws InterruptedException {
+        HashingExecutor single = new HashingExecutor(1, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService callers = RequestExecutors.newRequestExecutor("caller");
+
+        try {
+            // one task occupies the thread and two fill the queue; every other caller is turned
+            // away at once rather than queueing up behind them
+            submit(callers, single, release);
+            awaitStats(single, 1, 0);
+            submit(callers, single, release);
+            submit(callers, single, release);
+            awaitStats(single, 1, 2);
+
+            for (int i = 0; i < 20; i++) {
+                assertThrows(RejectedExecutionException.class, () -> single.execute(() -> 0));
+            }
+
+            assertEquals(3, single.getStats().accepted());
+            assertEquals(20, single.getStats().rejected());
+            release.countDown();
+            awaitStats(single, 0, 0);
+            assertEquals(1, single.execute(() -> 1));
+        } finally {
+            release.countDown();
+            callers.shutdown();
+            single.close();
+        }
+    }
+
+    private static void submit(ExecutorService callers, HashingExecutor executor,
+                               CountDownLatch release) {
+        callers.execute(() -> {
+            try {
+                executor.execute(() -> await(release));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+
+    private static void awaitStats(HashingExecutor executor, int active, int queued)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (executor.getStats().active() != active || executor.getStats().queued() != queued) {
+            assertTrue(System.nanoTime() < deadline, "timed out waiting for " + executor.getStats());
+            Thread.sleep(1);
+        }
+    }
+
+    private static int await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,116 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LatencyHistogramTest {
+    Metrics metrics = new Metrics();
+
+    @Test
+    void countsSmallValuesExactly() {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.");
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(10, snapshot.count());
+        assertEquals(55, snapshot.sum());
+        assertEquals(10, snapshot.max());
+        assertEquals(5, snapshot.getValueAtPercentile(50));
+        assertEquals(10, snapshot.getValueAtPercentile(100));
+        assertEquals(5.5, snapshot.getMean());
+    }
+
+    @Test
+    void keepsPercentilesWithinBucketWidth() {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.");
+        // one value every microsecond from 1 us to 10 ms
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        for (double percentile : new double[] {50, 90, 99, 99.9}) {
+            double expected = percentile / 100 * 10_000_000;
+            long actual = snapshot.getValueAtPercentile(percentile);
+            assertTrue(actual >= expected && actual <= expected * 1.07,
+                    percentile + "th percentile " + actual + " for " + expected);
+        }
+        assertEquals(10_000_000, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    void countsHugeAndNegativeValues() {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.");
+        histogram.record(Long.MAX_VALUE);
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+
+        assertEquals(2, snapshot.count());
+        assertEquals(0, snapshot.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE, snapshot.getValueAtPercentile(100));
+    }
+
+    @Test
+    void subtractsEarlierSnapshot() {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.");
+        histogram.record(1_000_000);
+        LatencyHistogram.Snapshot earlier = histogram.getSnapshot();
+        histogram.record(100);
+        histogram.record(200);
+
+        LatencyHistogram.Snapshot interval = histogram.getSnapshot().since(earlier);
+
+        assertEquals(2, interval.count());
+        assertEquals(300, interval.sum());
+        assertTrue(interval.getValueAtPercentile(100) < 220);
+    }
+
+    @Test
+    void recordsNothingWhileTurnedOff() {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.");
+        metrics.setEnabled(false);
+        long started = metrics.startTimer();
+
+        histogram.record(1000);
+        histogram.recordSince(started);
+        metrics.setEnabled(true);
+        histogram.recordSince(started);
+
+        assertEquals(Metrics.NOT_TIMED, started);
+        assertEquals(0, histogram.getSnapshot().count());
+    }
+
+    @Test
+    void countsEveryValueRecordedConcurrently() throws InterruptedException {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.");
+        int threads = 4;
+        int perThread = 100_000;
+        List<Thread> recorders = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            recorders.add(new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    histogram.record(i);
+                }
+            }));
+        }
+        recorders.forEach(Thread::start);
+        for (Thread recorder : recorders) {
+            recorder.join();
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals((long) threads * perThread, snapshot.count());
+        assertEquals((long) threads * perThread * (perThread - 1) / 2, snapshot.sum());
+        assertEquals(perThread - 1, snapshot.max());
+    }
+}
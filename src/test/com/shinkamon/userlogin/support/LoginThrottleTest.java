@@ -0,0 +1,180 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.shinkamon.userlogin.support.LoginThrottle.Decision.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoginThrottleTest {
+
+    @Test
+    void limitsAttemptsPerUsername() {
+        LoginThrottle throttle = throttle(64, 3, 100, 5, 1000, 60_000);
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals(ALLOWED, throttle.tryAcquire("alice", "source" + i));
+        }
+
+        assertEquals(THROTTLED, throttle.tryAcquire("alice", "source9"));
+        assertEquals(ALLOWED, throttle.tryAcquire("bob", "source9"));
+        assertEquals(new LoginThrottle.Stats(4, 1, 0, 0, 0), throttle.getStats());
+    }
+
+    @Test
+    void limitsAttemptsPerSource() {
+        LoginThrottle throttle = throttle(64, 100, 2, 5, 1000, 60_000);
+
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "10.0.0.1"));
+        assertEquals(ALLOWED, throttle.tryAcquire("bob", "10.0.0.1"));
+        assertEquals(THROTTLED, throttle.tryAcquire("carol", "10.0.0.1"));
+        assertEquals(ALLOWED, throttle.tryAcquire("carol", "10.0.0.2"));
+    }
+
+    @Test
+    void refillsBuckets() {
+        AtomicLong clock = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(
+                new LoginThrottle.Config(64, 1, 50, 100, 0, 5, 1000, 60_000), clock::get);
+
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "source"));
+        assertEquals(THROTTLED, throttle.tryAcquire("alice", "source"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(THROTTLED, throttle.tryAcquire("alice", "source"));
+        // 50 tokens a second, so one more every 20 ms
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(10));
+
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "source"));
+    }
+
+    @Test
+    void locksOutForLongerAfterEveryFailure() {
+        AtomicLong clock = new AtomicLong();
+        LoginThrottle throttle = new LoginThrottle(
+                new LoginThrottle.Config(64, 100, 0, 100, 0, 3, 200, 60_000), clock::get);
+
+        for (int i = 0; i < 2; i++) {
+            throttle.recordFailure("alice");
+        }
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "source"));
+
+        throttle.recordFailure("alice");
+        assertEquals(LOCKED, throttle.tryAcquire("alice", "source"));
+        assertEquals(ALLOWED, throttle.tryAcquire("bob", "source"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(199));
+        assertEquals(LOCKED, throttle.tryAcquire("alice", "source"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "source"));
+
+        // the next failure locks the username out for twice as long
+        throttle.recordFailure("alice");
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(399));
+        assertEquals(LOCKED, throttle.tryAcquire("alice", "source"));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "source"));
+        assertEquals(3, throttle.getStats().locked());
+    }
+
+    @Test
+    void staysLockedOutWithLargeBaseLockout() {
+        LoginThrottle throttle = throttle(64, 100, 100, 1, 10_000, 3_600_000);
+
+        // doubling 10 seconds 30 or more times would overflow a long of nanoseconds
+        for (int i = 0; i < 70; i++) {
+            throttle.recordFailure("alice");
+            assertEquals(LOCKED, throttle.tryAcquire("alice", "source"));
+        }
+    }
+
+    @Test
+    void endsLockoutOnSuccess() {
+        LoginThrottle throttle = throttle(64, 100, 100, 1, 60_000, 60_000);
+
+        throttle.recordFailure("alice");
+        assertEquals(LOCKED, throttle.tryAcquire("alice", "source"));
+
+        throttle.recordSuccess("alice");
+        assertEquals(ALLOWED, throttle.tryAcquire("alice", "source"));
+        throttle.recordFailure("alice");
+        assertEquals(LOCKED, throttle.tryAcquire("alice", "source"));
+    }
+
+    @Test
+    void reusesSlotsOfIdleEntries() {
+        // buckets refill at once, so every entry is idle as soon as it has been written
+        LoginThrottle throttle = new LoginThrottle(
+                new LoginThrottle.Config(64, 1, 1e12, 1, 1e12, 5, 1000, 60_000));
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(ALLOWED, throttle.tryAcquire("user" + i, "source" + i));
+        }
+
+        assertEquals(0, throttle.getStats().evictions());
+    }
+
+    @Test
+    void evictsOldestEntriesWhenFull() {
+        LoginThrottle throttle = throttle(64, 1, 1_000_000, 5, 1000, 60_000);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(ALLOWED, throttle.tryAcquire("user" + i, "source"));
+        }
+
+        // evicted usernames start over with a full bucket
+        assertTrue(throttle.getStats().evictions() > 9000);
+        assertEquals(ALLOWED, throttle.tryAcquire("user0", "source"));
+        assertEquals(THROTTLED, throttle.tryAcquire("user9999", "source"));
+    }
+
+    @Test
+    void keepsContentionLowUnderConcurrentAttempts() throws InterruptedException {
+        int threads = 4;
+        int attemptsPerThread = 250_000;
+        // large enough that no username is evicted and given a new bucket
+        LoginThrottle throttle = throttle(65_536, 1, 1_000_000, 5, 1000, 60_000);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                // the threads share both usernames and sources
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    int n = i * threads + thread;
+                    throttle.tryAcquire("user" + n % 1000, "10.0." + n % 256);
+                }
+            }));
+        }
+
+        workers.forEach(Thread::start);
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        LoginThrottle.Stats stats = throttle.getStats();
+        long attempts = (long) threads * attemptsPerThread;
+        assertEquals(attempts, stats.allowed() + stats.throttled());
+        assertEquals(0, stats.evictions());
+        assertEquals(1000, stats.allowed(), stats.toString());
+        assertTrue(stats.retries() < attempts / 100, stats.toString());
+    }
+
+    private static LoginThrottle throttle(int capacity, int usernameBurst, int sourceBurst,
+                                          int lockoutThreshold, long lockoutBaseMillis,
+                                          long lockoutMaxMillis) {
+        return new LoginThrottle(new LoginThrottle.Config(capacity, usernameBurst, 0,
+                sourceBurst, 0, lockoutThreshold, lockoutBaseMillis, lockoutMaxMillis));
+    }
+}
@@ -0,0 +1,81 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LruCacheTest {
+
+    @Test
+    void returnsCachedValues() {
+        LruCache<String, String> cache = new LruCache<>(10, 60_000);
+        cache.put("alice", "a");
+
+        assertEquals("a", cache.get("alice"));
+        assertNull(cache.get("bob"));
+        assertEquals(1, cache.getStats().hits());
+        assertEquals(1, cache.getStats().misses());
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        // a single segment, so eviction order is exact
+        LruCache<Integer, Integer> cache = new LruCache<>(1, 60_000);
+        cache.put(1, 1);
+        cache.put(2, 2);
+
+        assertNull(cache.get(1));
+        assertEquals(2, cache.get(2));
+        assertEquals(1, cache.getStats().evictions());
+    }
+
+    @Test
+    void keepsRecentlyReadEntries() {
+        LruCache<Integer, Integer> cache = new LruCache<>(32, 60_000);
+        for (int i = 0; i < 32; i++) {
+            cache.put(i, i);
+        }
+
+        // read the first half, then add as many new entries as there are in the second half
+        for (int i = 0; i < 16; i++) {
+            cache.get(i);
+        }
+        for (int i = 32; i < 48; i++) {
+            cache.put(i, i);
+        }
+
+        assertTrue(cache.size() <= 32);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(i, cache.get(i));
+        }
+    }
+
+    @Test
+    void expiresEntries() throws InterruptedException {
+        LruCache<String, String> cache = new LruCache<>(10, 20);
+        cache.put("alice", "a");
+        Thread.sleep(50);
+
+        assertNull(cache.get("alice"));
+        assertEquals(1, cache.getStats().expirations());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void invalidatesEntries() {
+        LruCache<String, String> cache = new LruCache<>(10, 60_000);
+        cache.put("alice", "a");
+        cache.invalidate("alice");
+
+        assertNull(cache.get("alice"));
+    }
+
+    @Test
+    void disabledWhenEmpty() {
+        LruCache<String, String> cache = new LruCache<>(0, 60_000);
+        cache.put("alice", "a");
+
+        assertNull(cache.get("alice"));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,56 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+    Metrics metrics = new Metrics();
+
+    @Test
+    void returnsSameMetricForSameLabels() {
+        LatencyHistogram histogram = metrics.histogram("test_seconds", "Test.", "phase", "a");
+
+        assertSame(histogram, metrics.histogram("test_seconds", "Test.", "phase", "a"));
+        assertNotSame(histogram, metrics.histogram("test_seconds", "Test.", "phase", "b"));
+        assertThrows(IllegalArgumentException.class,
+                () -> metrics.counter("test_seconds", "Test."));
+        assertThrows(IllegalArgumentException.class,
+                () -> metrics.counter("test_total", "Test.", "a"));
+    }
+
+    @Test
+    void writesPrometheusText() {
+        metrics.counter("test_total", "Test \"counts\".", "result", "A").increment();
+        metrics.counter("test_total", "Test \"counts\".", "result", "B\"").increment();
+        metrics.histogram("test_seconds", "Test latency.", "phase", "a").record(2_000_000);
+
+        String expected = """
+                # HELP test_seconds Test latency.
+                # TYPE test_seconds summary
+                test_seconds{phase="a",quantile="0.5"} 0.002
+                test_seconds{phase="a",quantile="0.9"} 0.002
+                test_seconds{phase="a",quantile="0.99"} 0.002
+                test_seconds{phase="a",quantile="0.999"} 0.002
+                test_seconds_sum{phase="a"} 0.002
+                test_seconds_count{phase="a"} 1
+                # HELP test_total Test "counts".
+                # TYPE test_total counter
+                test_total{result="A"} 1
+                test_total{result="B\\""} 1
+                """;
+        assertEquals(expected, metrics.toPrometheus());
+    }
+
+    @Test
+    void countsNothingWhileTurnedOff() {
+        Metrics.Counter counter = metrics.counter("test_total", "Test.");
+        metrics.setEnabled(false);
+        counter.increment();
+        metrics.setEnabled(true);
+        counter.increment();
+
+        assertEquals(1, counter.get());
+        assertTrue(metrics.toPrometheus().contains("\ntest_total 1\n"));
+    }
+}
@@ -0,0 +1,126 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordBlocklistTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void findsBreachedPasswords() throws Exception {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            lines.add(sha1("Password" + i) + ":" + i);
+        }
+        // duplicates, lowercase hashes and lines without a hash
+        lines.add(sha1("Password1").toLowerCase());
+        lines.add(sha1("Password2"));
+        lines.add("not a hash");
+        lines.add(sha1("Password3") + "trailing");
+        Path blocklist = build(lines, 64);
+
+        try (PasswordBlocklist passwords = PasswordBlocklist.open(blocklist)) {
+            assertEquals(1000, passwords.size());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(passwords.contains(("Password" + i).toCharArray()));
+            }
+            assertFalse(passwords.contains("Password1000".toCharArray()));
+            assertFalse(passwords.contains("correct horse battery staple".toCharArray()));
+
+            PasswordBlocklist.Stats stats = passwords.getStats();
+            assertEquals(1002, stats.lookups());
+            assertEquals(1000, stats.matches());
+            assertEquals(Files.size(blocklist), stats.fileBytes());
+        }
+    }
+
+    @Test
+    void findsEveryHashOfLargeList() throws IOException {
+        Random random = new Random(42);
+        long[] hashes = new long[20_000];
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = random.nextLong();
+            lines.add(String.format("%016X%024X", hashes[i], 0));
+        }
+        Path blocklist = build(lines, 1000);
+
+        try (PasswordBlocklist passwords = PasswordBlocklist.open(blocklist)) {
+            assertEquals(hashes.length, passwords.size());
+            for (long hash : hashes) {
+                assertTrue(passwords.containsHash(hash));
+                assertFalse(passwords.containsHash(hash + 1));
+            }
+            assertFalse(passwords.containsHash(0));
+            assertFalse(passwords.containsHash(-1));
+        }
+    }
+
+    @Test
+    void buildsEmptyList() throws IOException {
+        try (PasswordBlocklist passwords = PasswordBlocklist.open(build(List.of(), 16))) {
+            assertEquals(0, passwords.size());
+            assertFalse(passwords.contains("Password1".toCharArray()));
+        }
+    }
+
+    @Test
+    void rejectsCorruptFile() throws Exception {
+        Path blocklist = build(List.of(sha1("Password1"), sha1("Password2")), 16);
+        try (RandomAccessFile file = new RandomAccessFile(blocklist.toFile(), "rw")) {
+            file.setLength(file.length() - 1);
+        }
+
+        assertThrows(IOException.class, () -> PasswordBlocklist.open(blocklist));
+        Files.writeString(blocklist, "not a blocklist");
+        assertThrows(IOException.class, () -> PasswordBlocklist.open(blocklist));
+    }
+
+    @Test
+    void deletesPartialListOnFailure() throws Exception {
+        Path input = directory.resolve("hashes.txt");
+        Files.write(input, List.of(sha1("Password1")));
+        // a directory that isn't empty can't be replaced by the finished list
+        Path output = Files.createDirectory(directory.resolve("passwords.blocklist"));
+        Files.writeString(output.resolve("keep"), "");
+
+        assertThrows(IOException.class,
+                () -> new PasswordBlocklistBuilder(16).build(input, output));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    private Path build(List<String> lines, int chunkSize) throws IOException {
+        Path input = directory.resolve("hashes.txt");
+        Path output = directory.resolve("passwords.blocklist");
+        Files.write(input, lines);
+
+        new PasswordBlocklistBuilder(chunkSize).build(input, output);
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(2, files.count());
+        }
+        return output;
+    }
+
+    private static String sha1(String password) throws NoSuchAlgorithmException {
+        return HexFormat.of().withUpperCase().formatHex(MessageDigest.getInstance("SHA-1")
+                .digest(password.getBytes(StandardCharsets.UTF_8)));
+    }
+}
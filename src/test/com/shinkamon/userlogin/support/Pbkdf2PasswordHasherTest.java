@@ -0,0 +1,71 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Pbkdf2PasswordHasherTest {
+    static final byte[] SALT = "salt".getBytes(StandardCharsets.US_ASCII);
+    Pbkdf2PasswordHasher hasher = new Pbkdf2PasswordHasher(Pbkdf2PasswordHasher.MIN_ITERATIONS);
+
+    @Test
+    void verifiesOwnHash() {
+        char[] password = "Password1".toCharArray();
+        byte[] hash = hasher.hash(password, SALT);
+
+        assertEquals(64, hash.length);
+        assertTrue(hasher.verify(password, SALT, hash));
+        assertFalse(hasher.verify("Password2".toCharArray(), SALT, hash));
+        assertFalse(hasher.verify(password, "salt2".getBytes(StandardCharsets.US_ASCII), hash));
+        assertFalse(hasher.verify(password, SALT, new byte[0]));
+    }
+
+    @Test
+    void generatesKnownHash() {
+        // PBKDF2-HMAC-SHA512 of 'password' with salt 'salt' and 1 iteration (RFC 6070 style vector)
+        byte[] hash = new Pbkdf2PasswordHasher(1).hash("password".toCharArray(), SALT);
+
+        assertEquals("867f70cf1ade02cff3752599a3a53dc4af34c7a669815ae5d513554e1c8cf252" +
+                "c02d470a285a0501bad999bfe943c08f050235d7d68b1da55e63f73b60a57fce",
+                HexFormat.of().formatHex(hash));
+    }
+
+    @Test
+    void restoresHasherFromStoredParameters() {
+        PasswordHasher restored = PasswordHasher.of(hasher.getAlgorithm(), hasher.getParameters());
+
+        assertTrue(restored.generated(hasher.getAlgorithm(), hasher.getParameters()));
+        assertArrayEquals(hasher.hash("Password1".toCharArray(), SALT),
+                restored.hash("Password1".toCharArray(), SALT));
+    }
+
+    @Test
+    void treatsHashesWithAtLeastAsManyIterationsAsCurrent() {
+        Pbkdf2PasswordHasher calibrated = new Pbkdf2PasswordHasher(20_000);
+
+        assertTrue(calibrated.isCurrent(Pbkdf2PasswordHasher.ALGORITHM, "i=20000"));
+        assertTrue(calibrated.isCurrent(Pbkdf2PasswordHasher.ALGORITHM, "i=21000"));
+        assertFalse(calibrated.isCurrent(Pbkdf2PasswordHasher.ALGORITHM, "i=19000"));
+        assertFalse(calibrated.isCurrent(Pbkdf2PasswordHasher.ALGORITHM, "i=x"));
+        assertFalse(calibrated.isCurrent(Sha512PasswordHasher.ALGORITHM, ""));
+    }
+
+    @Test
+    void rejectsInvalidParameters() {
+        assertThrows(IllegalArgumentException.class,
+                () -> PasswordHasher.of(Pbkdf2PasswordHasher.ALGORITHM, "x=1"));
+        assertThrows(IllegalArgumentException.class, () -> PasswordHasher.of("md5", ""));
+    }
+
+    @Test
+    void calibratesWithinBounds() {
+        Pbkdf2PasswordHasher calibrated = Pbkdf2PasswordHasher.calibrate(20);
+
+        assertTrue(calibrated.getIterations() >= Pbkdf2PasswordHasher.MIN_ITERATIONS);
+        assertTrue(calibrated.getIterations() <= Pbkdf2PasswordHasher.MAX_ITERATIONS);
+        assertEquals(0, calibrated.getIterations() % 1000);
+    }
+}
@@ -0,0 +1,104 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RingBufferTest {
+
+    @Test
+    void returnsElementsInOrder() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(4);
+        buffer.offer(1);
+        buffer.offer(2);
+
+        assertEquals(2, buffer.size());
+        assertEquals(1, buffer.poll());
+        assertEquals(2, buffer.poll());
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    void rejectsElementsWhenFull() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        assertEquals(4, buffer.capacity());
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+
+        assertFalse(buffer.offer(4));
+        assertEquals(0, buffer.poll());
+        assertTrue(buffer.offer(4));
+    }
+
+    @Test
+    void drainsUpToMaximum() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(8);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer(i);
+        }
+        List<Integer> drained = new ArrayList<>();
+
+        assertEquals(3, buffer.drainTo(drained, 3));
+        assertEquals(2, buffer.drainTo(drained, 10));
+        assertEquals(List.of(0, 1, 2, 3, 4), drained);
+    }
+
+    @Test
+    @Timeout(30)
+    void passesEveryElementOnceBetweenThreads() throws InterruptedException {
+        int producers = 3;
+        int perProducer = 10_000;
+        RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        AtomicLongArray seen = new AtomicLongArray(producers * perProducer);
+        AtomicBoolean producing = new AtomicBoolean(true);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < producers; p++) {
+            int first = p * perProducer;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < first + perProducer; i++) {
+                    // yields rather than spins, so the threads also take turns on a single core
+                    while (!buffer.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+        List<Thread> consumers = new ArrayList<>();
+        for (int c = 0; c < 2; c++) {
+            consumers.add(new Thread(() -> {
+                while (producing.get() || !buffer.isEmpty()) {
+                    Integer element = buffer.poll();
+                    if (element != null) {
+                        seen.incrementAndGet(element);
+                    } else {
+                        Thread.yield();
+                    }
+                }
+            }));
+        }
+
+        threads.forEach(Thread::start);
+        consumers.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        producing.set(false);
+        for (Thread consumer : consumers) {
+            consumer.join();
+        }
+
+        for (int i = 0; i < seen.length(); i++) {
+            assertEquals(1, seen.get(i), "element " + i);
+        }
+    }
+}
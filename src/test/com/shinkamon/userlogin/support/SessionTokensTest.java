@@ -0,0 +1,109 @@
+package com.shinkamon.userlogin.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionTokensTest {
+    AtomicLong now = new AtomicLong(1_700_000_000_000L);
+    SessionTokens tokens = new SessionTokens(new SessionTokens.Config(60, 3600, 2), now::get);
+
+    @Test
+    void verifiesIssuedTokens() {
+        String token = tokens.issue("user_1");
+
+        assertEquals("user_1", tokens.verify(token));
+        assertEquals("\u00e9l\u00e8ve", tokens.verify(tokens.issue("\u00e9l\u00e8ve")));
+        assertNotEquals(token, tokens.issue("user_1"));
+        assertTrue(token.length() < 64);
+    }
+
+    @Test
+    void rejectsTamperedTokens() {
+        String token = tokens.issue("user_1");
+
+        for (int i = 0; i < token.length(); i++) {
+            char replacement = token.charAt(i) == 'A' ? 'B' : 'A';
+            String tampered = token.substring(0, i) + replacement + token.substring(i + 1);
+            // the last character may only carry bits that are ignored
+            if (i < token.length() - 1) {
+                assertNull(tokens.verify(tampered), tampered);
+            }
+        }
+
+        assertNull(tokens.verify(token.substring(0, token.length() - 4)));
+        assertNull(tokens.verify(token + "AAAA"));
+        assertNull(tokens.verify(token.replace(token.charAt(5), '.')));
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertNull(tokens.verify(null));
+        assertNull(tokens.verify(""));
+        assertNull(tokens.verify("not a token"));
+        assertNull(tokens.verify("\u00ff".repeat(40)));
+        assertNull(tokens.verify("A".repeat(1000)));
+        assertEquals(5, tokens.getStats().rejected());
+    }
+
+    @Test
+    void rejectsTokensSignedWithAnotherKey() {
+        SessionTokens other = new SessionTokens(new SessionTokens.Config(60, 3600, 2), now::get);
+
+        assertNull(tokens.verify(other.issue("user_1")));
+    }
+
+    @Test
+    void expiresTokens() {
+        String token = tokens.issue("user_1");
+        now.addAndGet(59_000);
+        assertEquals("user_1", tokens.verify(token));
+
+        now.addAndGet(1_000);
+        assertNull(tokens.verify(token));
+    }
+
+    @Test
+    void rotatesKeys() {
+        now.addAndGet(3_590_000);
+        String first = tokens.issue("user_1");
+        now.addAndGet(10_000);
+        String second = tokens.issue("user_2");
+
+        // the first key is kept until the tokens it signed have expired
+        assertEquals(2, tokens.getStats().keys());
+        assertEquals("user_1", tokens.verify(first));
+        assertEquals("user_2", tokens.verify(second));
+
+        now.addAndGet(50_000);
+        tokens.rotateKey();
+        assertEquals(3, tokens.getStats().keys());
+        now.addAndGet(10_000);
+        tokens.rotateKey();
+        assertEquals(3, tokens.getStats().keys());
+        assertNull(tokens.verify(first));
+    }
+
+    @Test
+    void revokesTokens() {
+        String first = tokens.issue("user_1");
+        String second = tokens.issue("user_2");
+        String third = tokens.issue("user_3");
+
+        assertEquals("user_1", tokens.revoke(first));
+        assertNull(tokens.verify(first));
+        assertNull(tokens.revoke(first));
+        assertEquals("user_2", tokens.verify(second));
+
+        // revoked tokens are purged once they have expired
+        tokens.revoke(second);
+        now.addAndGet(60_000);
+        String fourth = tokens.issue("user_4");
+        assertNull(tokens.revoke(third));
+        assertEquals("user_4", tokens.revoke(fourth));
+        assertEquals(3, tokens.getStats().revocations());
+        assertEquals(1, tokens.getStats().revoked());
+    }
+}